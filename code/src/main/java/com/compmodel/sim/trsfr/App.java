@@ -11,6 +11,11 @@ import java.util.Properties;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.compmodel.sim.trsfr.core.OutputPipeline;
+import com.compmodel.sim.trsfr.core.PatchReseed;
+import com.compmodel.sim.trsfr.core.ReseedStrategy;
+import com.compmodel.sim.trsfr.core.TypeQuotaReseed;
+import com.compmodel.sim.trsfr.core.UniformReseed;
 import com.compmodel.sim.trsfr.core.World;
 
 /**
@@ -154,12 +159,14 @@ public class App
 			Properties prop = loadProps(args[0]);
 			if(prop.getProperty("snapshotFile")!=null) {
 				world = loadWorldSnapshot(prop.getProperty("snapshotFile"));
+				changeSettings(world,prop);
 			}else {
 				log.info("Starting world from random state");
 		        world = new World();
+		        // run seed and numbers of entities apply to the initial layout
+				changeSettings(world,prop);
 		        world.seedTransformers();
 			}
-			changeSettings(world,prop);
 		}
 		if(world != null) {
 			log.info(world.buildWorldParamsTitle());
@@ -167,7 +174,7 @@ public class App
 		}
     }
 	
-	private static Properties loadProps(String fileName) {
+	static Properties loadProps(String fileName) {
 		Properties prop = new Properties();
 		InputStream input = null;
 		try {
@@ -187,7 +194,20 @@ public class App
 		return prop;
 	}
 
-	private static void changeSettings(World world2, Properties prop) {
+	/**
+	 * Apply settings from properties to the world
+	 */
+	static void changeSettings(World world, Properties prop) {
+		if(prop.getProperty("spaceSize") != null || prop.getProperty("spaceDim") != null
+				|| prop.getProperty("sparseSpace") != null) {
+			int spaceSize = prop.getProperty("spaceSize") != null ? Integer.parseInt(prop.getProperty("spaceSize")) : world.getSpaceSize();
+			int spaceDim = prop.getProperty("spaceDim") != null ? Integer.parseInt(prop.getProperty("spaceDim")) : world.getSpaceDim();
+			boolean sparseSpace = prop.getProperty("sparseSpace") != null ? Boolean.parseBoolean(prop.getProperty("sparseSpace")) : world.isSparseSpace();
+			world.setSpace(spaceSize, spaceDim, sparseSpace);
+		}
+		if(prop.getProperty("maxNeighborNumber") != null) {
+			world.setMaxNeighborNumber(Integer.parseInt(prop.getProperty("maxNeighborNumber")));
+		}
 		if(prop.getProperty("energyScale") != null) {
 			world.setEnergyScale(Double.parseDouble(prop.getProperty("energyScale")));
 		}
@@ -203,6 +223,10 @@ public class App
 		if(prop.getProperty("reseedPct") != null) {
 			world.setReseedPct(Integer.parseInt(prop.getProperty("reseedPct")));
 		}
+		if(prop.getProperty("reseedStrategy") != null) {
+			world.setReseedStrategy(createReseedStrategy(prop.getProperty("reseedStrategy"),
+					prop.getProperty("reseedPatchRadius")));
+		}
 		if(prop.getProperty("atomsNumber") != null) {
 			world.setAtomsNumber(Integer.parseInt(prop.getProperty("atomsNumber")));
 		}
@@ -221,6 +245,9 @@ public class App
 		if(prop.getProperty("idleWait") != null) {
 			world.setIdleWait(Integer.parseInt(prop.getProperty("idleWait")));
 		}
+		if(prop.getProperty("maxSeedCnt") != null) {
+			world.setMaxSeedCnt(Long.parseLong(prop.getProperty("maxSeedCnt")));
+		}
 		if(prop.getProperty("maxFilesCnt") != null) {
 			world.setMaxFilesCnt(Integer.parseInt(prop.getProperty("maxFilesCnt")));
 		}
@@ -236,12 +263,79 @@ public class App
 		if(prop.getProperty("worldAnaliticsPeriod") != null) {
 			world.setWorldAnaliticsPeriod(Integer.parseInt(prop.getProperty("worldAnaliticsPeriod")));
 		}
+		if(prop.getProperty("gridTileSize") != null) {
+			world.setGridTileSize(Integer.parseInt(prop.getProperty("gridTileSize")));
+		}
+		if(prop.getProperty("turnThreads") != null) {
+			world.setTurnThreads(Integer.parseInt(prop.getProperty("turnThreads")));
+		}
+		if(prop.getProperty("turnTileSize") != null) {
+			world.setTurnTileSize(Integer.parseInt(prop.getProperty("turnTileSize")));
+		}
+		if(prop.getProperty("runSeed") != null) {
+			world.setRunSeed(Long.parseLong(prop.getProperty("runSeed")));
+		}
+		if(prop.getProperty("outputThreads") != null) {
+			world.setOutputThreads(Integer.parseInt(prop.getProperty("outputThreads")));
+		}
+		if(prop.getProperty("outputQueueSize") != null) {
+			world.setOutputQueueSize(Integer.parseInt(prop.getProperty("outputQueueSize")));
+		}
+		if(prop.getProperty("outputDropPolicy") != null) {
+			world.setOutputDropPolicy(parseDropPolicy(prop.getProperty("outputDropPolicy")));
+		}
+		if(prop.getProperty("asyncSnapshots") != null) {
+			world.setAsyncSnapshots(Boolean.parseBoolean(prop.getProperty("asyncSnapshots")));
+		}
+		if(prop.getProperty("snapshotsInFlight") != null) {
+			world.setSnapshotsInFlight(Integer.parseInt(prop.getProperty("snapshotsInFlight")));
+		}
+		if(prop.getProperty("snapshotsKeep") != null) {
+			world.setSnapshotsKeep(Integer.parseInt(prop.getProperty("snapshotsKeep")));
+		}
+		if(prop.getProperty("inlineAnalytics") != null) {
+			world.setInlineAnalytics(Boolean.parseBoolean(prop.getProperty("inlineAnalytics")));
+		}
+		if(prop.getProperty("gaussianAcceptance") != null) {
+			world.setGaussianAcceptance(Boolean.parseBoolean(prop.getProperty("gaussianAcceptance")));
+		}
 		if(prop.getProperty("fileDir") != null) {
 			world.setFileDir(prop.getProperty("fileDir"));
 		}
 		world.setFileCntTransformers(0);
 	}
 
+	/**
+	 * Create reseed strategy by name: uniform, typeQuota or patches
+	 * 
+	 * @param name
+	 * @param patchRadius radius for patches strategy, may be null
+	 */
+	private static ReseedStrategy createReseedStrategy(String name, String patchRadius) {
+		if("uniform".equals(name)) {
+			return new UniformReseed();
+		}else if("typeQuota".equals(name)) {
+			return new TypeQuotaReseed();
+		}else if("patches".equals(name)) {
+			return patchRadius != null ? new PatchReseed(Integer.parseInt(patchRadius)) : new PatchReseed();
+		}
+		throw new IllegalArgumentException("Unknown reseedStrategy: "+name);
+	}
+
+	/**
+	 * Drop policy of the output by name: block, dropNewest or dropOldest
+	 */
+	private static OutputPipeline.DropPolicy parseDropPolicy(String name) {
+		if("block".equals(name)) {
+			return OutputPipeline.DropPolicy.BLOCK;
+		}else if("dropNewest".equals(name)) {
+			return OutputPipeline.DropPolicy.DROP_NEWEST;
+		}else if("dropOldest".equals(name)) {
+			return OutputPipeline.DropPolicy.DROP_OLDEST;
+		}
+		throw new IllegalArgumentException("Unknown outputDropPolicy: "+name);
+	}
+
 	/**
 	 * Load snapshot from file
 	 * 
@@ -0,0 +1,296 @@
+package com.compmodel.sim.trsfr;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.compmodel.sim.trsfr.core.World;
+import com.compmodel.sim.trsfr.core.WorldStatsSummary;
+
+/**
+ * Parameter sweep with replicas, all worlds run in one JVM.
+ * Properties file has the base settings in the same format as for App, plus sweep settings:
+ *	sweep.param=v1,v2,...	values of a setting to try, the grid is the cartesian product of all sweep.* settings
+ *	replicas=N				runs of each configuration, replica r uses runSeed + r
+ *	sweepThreads=N			worlds running at the same time, 0 to size the pool by cores and memory
+ *	sweepFile=name			merged table, fileDir/sweep_summary.csv by default
+ * maxSeedCnt is required, each run stops after this number of seeds.
+ * Each run writes its files into its own subfolder of fileDir.
+ *
+ * Merged table has a row per configuration and analytics seedCnt, with mean and 95% confidence interval
+ * of each WorldStatsSummary value over the replicas.
+ *
+ * @author Sergey Sherstyuk
+ *
+ */
+public class SweepRunner {
+	private static final Logger log = LoggerFactory.getLogger(SweepRunner.class);
+	private static final String SWEEP_PREFIX = "sweep.";
+	private static final long WORLD_BYTES = 4L << 20;		// world without space and entities
+	private static final long DENSE_CELL_BYTES = 26;		// two dense grids with free cell sets and type planes
+	private static final long ENTITY_BYTES = 512;			// entity state, history and chains
+	private static final double MEMORY_SHARE = 0.75;		// part of heap given to the worlds
+	// Student t quantiles 0.975 for 1..30 degrees of freedom
+	private static final double[] T_975 = {12.706, 4.303, 3.182, 2.776, 2.571, 2.447, 2.365, 2.306, 2.262, 2.228,
+			2.201, 2.179, 2.160, 2.145, 2.131, 2.120, 2.110, 2.101, 2.093, 2.086,
+			2.080, 2.074, 2.069, 2.064, 2.060, 2.056, 2.052, 2.048, 2.045, 2.042};
+	private static final double Z_975 = 1.960;
+	private final Properties base;
+	private final List<String> params = new ArrayList<String>();
+	private final List<String[]> paramValues = new ArrayList<String[]>();
+	private final List<String[]> configs = new ArrayList<String[]>();
+	private final int replicas;
+	private final long runSeed;
+	private final String fileDir;
+	private final Properties worldDefaults = new Properties();	// defaults of the settings used for pool sizing
+
+	public static void main(String[] args) {
+		if(args.length == 0) {
+			log.error("Usage: SweepRunner <sweep properties file>");
+			return;
+		}
+		log.info("Loading sweep properties from "+args[0]);
+		new SweepRunner(App.loadProps(args[0])).run();
+	}
+
+	public SweepRunner(Properties prop) {
+		base = new Properties();
+		TreeMap<String, String> grid = new TreeMap<String, String>();
+		for(String key : prop.stringPropertyNames()) {
+			if(key.startsWith(SWEEP_PREFIX)) {
+				grid.put(key.substring(SWEEP_PREFIX.length()), prop.getProperty(key));
+			}else {
+				base.setProperty(key, prop.getProperty(key));
+			}
+		}
+		for(String param : grid.keySet()) {
+			params.add(param);
+			paramValues.add(grid.get(param).split("\\s*,\\s*"));
+		}
+		if(Long.parseLong(base.getProperty("maxSeedCnt", "0")) <= 0) {
+			throw new IllegalArgumentException("maxSeedCnt must be set for sweep runs");
+		}
+		replicas = Integer.parseInt(base.getProperty("replicas", "1"));
+		if(replicas < 1) {
+			throw new IllegalArgumentException("replicas must be positive: "+replicas);
+		}
+		World defaults = new World();
+		worldDefaults.setProperty("trsfrNumber", Integer.toString(defaults.getTrsfrNumber()));
+		worldDefaults.setProperty("atomsNumber", Integer.toString(defaults.getAtomsNumber()));
+		worldDefaults.setProperty("sparseSpace", Boolean.toString(defaults.isSparseSpace()));
+		worldDefaults.setProperty("spaceSize", Integer.toString(defaults.getSpaceSize()));
+		worldDefaults.setProperty("spaceDim", Integer.toString(defaults.getSpaceDim()));
+		worldDefaults.setProperty("turnThreads", Integer.toString(defaults.getTurnThreads()));
+		runSeed = base.getProperty("runSeed") != null ? Long.parseLong(base.getProperty("runSeed")) : defaults.getRunSeed();
+		fileDir = base.getProperty("fileDir", defaults.getFileDir());
+		buildConfigs(0, new String[params.size()]);
+	}
+
+	private void buildConfigs(int param, String[] values) {
+		if(param == params.size()) {
+			configs.add(values.clone());
+			return;
+		}
+		for(String value : paramValues.get(param)) {
+			values[param] = value;
+			buildConfigs(param + 1, values);
+		}
+	}
+
+	/**
+	 * Run all replicas of all configurations and write the merged table
+	 */
+	public void run() {
+		int threads = choosePoolSize();
+		log.info("sweep, configurations:{}, replicas:{}, threads:{}", configs.size(), replicas, threads);
+		ExecutorService pool = Executors.newFixedThreadPool(threads);
+		List<List<Future<List<WorldStatsSummary>>>> results = new ArrayList<List<Future<List<WorldStatsSummary>>>>();
+		try {
+			for(int c=0;c<configs.size();c++) {
+				List<Future<List<WorldStatsSummary>>> replicaResults = new ArrayList<Future<List<WorldStatsSummary>>>();
+				for(int r=0;r<replicas;r++) {
+					Properties prop = buildRunProps(c, r);
+					replicaResults.add(pool.submit(() -> runWorld(prop)));
+				}
+				results.add(replicaResults);
+			}
+			List<List<List<WorldStatsSummary>>> stats = new ArrayList<List<List<WorldStatsSummary>>>();
+			for(int c=0;c<configs.size();c++) {
+				List<List<WorldStatsSummary>> replicaStats = new ArrayList<List<WorldStatsSummary>>();
+				for(int r=0;r<replicas;r++) {
+					try {
+						replicaStats.add(results.get(c).get(r).get());
+					} catch (ExecutionException e) {
+						log.error("!!! run failed, configuration:"+configLabel(c)+", replica:"+r, e.getCause());
+					}
+				}
+				stats.add(replicaStats);
+			}
+			saveSummary(stats);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			log.error("!!! sweep interrupted");
+		} finally {
+			pool.shutdownNow();
+		}
+	}
+
+	private Properties buildRunProps(int config, int replica) {
+		Properties prop = new Properties();
+		prop.putAll(base);
+		for(int p=0;p<params.size();p++) {
+			prop.setProperty(params.get(p), configs.get(config)[p]);
+		}
+		prop.setProperty("runSeed", Long.toString(runSeed + replica));
+		String runDir = fileDir+File.separator+String.format("cfg%03d_r%02d", config, replica);
+		new File(runDir).mkdirs();
+		prop.setProperty("fileDir", runDir);
+		return prop;
+	}
+
+	private static List<WorldStatsSummary> runWorld(Properties prop) {
+		World world = new World();
+		App.changeSettings(world, prop);
+		world.seedTransformers();
+		log.info("sweep run {}, {}", world.getFileDir(), world.buildWorldParamsTitle());
+		world.run();
+		return world.getWorldStats();
+	}
+
+	/**
+	 * Number of worlds running at the same time: limited by cores left after turn threads of each world,
+	 * and by the heap needed for each world.
+	 * Output, analytics and checkpoint threads of the worlds are not counted:
+	 * they work only at the seeds with frames, analytics or snapshots and wait the rest of the time,
+	 * set sweepThreads when they take a noticeable share of the cores.
+	 */
+	private int choosePoolSize() {
+		int threads = Integer.parseInt(base.getProperty("sweepThreads", "0"));
+		if(threads > 0) {
+			return threads;
+		}
+		int turnThreads = 1;
+		long worldBytes = 0;
+		for(int c=0;c<configs.size();c++) {
+			Properties prop = buildConfigProps(c);
+			turnThreads = Math.max(turnThreads, Integer.parseInt(prop.getProperty("turnThreads")));
+			worldBytes = Math.max(worldBytes, estimateWorldBytes(prop));
+		}
+		int byCores = Math.max(1, Runtime.getRuntime().availableProcessors() / turnThreads);
+		long byMemory = Math.max(1, (long)(Runtime.getRuntime().maxMemory() * MEMORY_SHARE) / worldBytes);
+		int runs = configs.size() * replicas;
+		return (int)Math.min(runs, Math.min(byCores, byMemory));
+	}
+
+	private Properties buildConfigProps(int config) {
+		Properties prop = new Properties(worldDefaults);
+		prop.putAll(base);
+		for(int p=0;p<params.size();p++) {
+			prop.setProperty(params.get(p), configs.get(config)[p]);
+		}
+		return prop;
+	}
+
+	private static long estimateWorldBytes(Properties prop) {
+		long entities = Long.parseLong(prop.getProperty("trsfrNumber")) + Long.parseLong(prop.getProperty("atomsNumber"));
+		long bytes = WORLD_BYTES + entities * ENTITY_BYTES;
+		if(!Boolean.parseBoolean(prop.getProperty("sparseSpace"))) {
+			int size = Integer.parseInt(prop.getProperty("spaceSize"));
+			int dim = Integer.parseInt(prop.getProperty("spaceDim"));
+			bytes += (long)Math.pow(size, dim) * DENSE_CELL_BYTES;
+		}
+		return bytes;
+	}
+
+	private String configLabel(int config) {
+		StringBuilder sb = new StringBuilder();
+		for(int p=0;p<params.size();p++) {
+			sb.append(p > 0 ? ";" : "").append(params.get(p)).append("=").append(configs.get(config)[p]);
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * Write mean and confidence interval over replicas for each configuration and analytics seedCnt.
+	 * Replicas of one configuration collect analytics at the same seeds.
+	 */
+	private void saveSummary(List<List<List<WorldStatsSummary>>> stats) {
+		String fileName = base.getProperty("sweepFile", fileDir+File.separator+"sweep_summary.csv");
+		String[] names = WorldStatsSummary.getCsvHeader().split(",");
+		try (PrintWriter out = new PrintWriter(new BufferedWriter(new FileWriter(fileName, false)))) {
+			StringBuilder header = new StringBuilder();
+			for(String param : params) {
+				header.append(param).append(",");
+			}
+			header.append("createdSeedCnt,replicas");
+			for(int v=1;v<names.length;v++) {
+				header.append(",").append(names[v]).append("Mean,").append(names[v]).append("Ci95");
+			}
+			out.write(header+"\n");
+			for(int c=0;c<configs.size();c++) {
+				List<List<WorldStatsSummary>> replicaStats = stats.get(c);
+				if(replicaStats.isEmpty()) {
+					continue;
+				}
+				int records = Integer.MAX_VALUE;
+				for(List<WorldStatsSummary> runStats : replicaStats) {
+					records = Math.min(records, runStats.size());
+				}
+				for(int i=0;i<records;i++) {
+					double[][] samples = new double[replicaStats.size()][];
+					for(int r=0;r<samples.length;r++) {
+						samples[r] = replicaStats.get(r).get(i).getValues();
+					}
+					StringBuilder sb = new StringBuilder();
+					for(String value : configs.get(c)) {
+						sb.append(value).append(",");
+					}
+					sb.append(replicaStats.get(0).get(i).getCreatedSeedCnt()).append(",").append(samples.length);
+					for(int v=0;v<samples[0].length;v++) {
+						double[] mci = meanAndCi(samples, v);
+						sb.append(",").append(String.format("%.4f", mci[0])).append(",").append(String.format("%.4f", mci[1]));
+					}
+					out.write(sb+"\n");
+				}
+			}
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+		log.info(" === Saved sweep summary {}", fileName);
+	}
+
+	/**
+	 * @return mean of the value over the samples and half width of its 95% confidence interval, 0 for single sample
+	 */
+	static double[] meanAndCi(double[][] samples, int value) {
+		int n = samples.length;
+		double sum = 0;
+		for(double[] sample : samples) {
+			sum += sample[value];
+		}
+		double mean = sum / n;
+		if(n < 2) {
+			return new double[] {mean, 0};
+		}
+		double sq = 0;
+		for(double[] sample : samples) {
+			double d = sample[value] - mean;
+			sq += d * d;
+		}
+		double t = n - 1 <= T_975.length ? T_975[n - 2] : Z_975;
+		return new double[] {mean, t * Math.sqrt(sq / (n - 1) / n)};
+	}
+}
@@ -0,0 +1,107 @@
+package com.compmodel.sim.trsfr.core;
+
+import java.util.Random;
+
+/**
+ * Probabilities of random decisions of transformers, so a decision takes one uniform draw
+ * instead of a Gaussian one.
+ * The world accepts a decision when |N(0,1)| > threshold, which happens with probability
+ * P(|N(0,1)| > threshold) = erfc(threshold/sqrt(2)), so a uniform value below this probability
+ * gives the same decision with the same chance:
+ *  - action on the ring at distance d: threshold = d * actionDistancePenalty, one probability per ring
+ *  - move with energy increase delta: threshold = initPenalty + delta/energyScale - temperature/MAX_TEMPERATURE,
+ *    the probability is taken from the tail table
+ * Tables depend on the world parameters and are rebuilt when they change.
+ *
+ * @author Sergey Sherstyuk
+ *
+ */
+final class AcceptanceTables {
+	private static final double MAX_THRESHOLD = 9.0;	// P(|N| > 9) < 1e-18, below the resolution of nextDouble
+	private static final int STEPS_PER_UNIT = 1024;
+	private static final double[] TAIL = buildTail();	// P(|N| > i/STEPS_PER_UNIT)
+
+	private final double[] ringProbability;	// of action on the ring at distance d
+	private final double moveOffset;		// initPenalty - temperature/MAX_TEMPERATURE
+	private final double energyScale;
+
+	/**
+	 * @param moveOffset constant part of the move threshold
+	 */
+	AcceptanceTables(int searchDistance, double actionDistancePenalty, double moveOffset, double energyScale) {
+		ringProbability = new double[searchDistance + 1];
+		for(int d=0;d<=searchDistance;d++) {
+			ringProbability[d] = tailProbability(d * actionDistancePenalty);
+		}
+		this.moveOffset = moveOffset;
+		this.energyScale = energyScale;
+	}
+
+	/**
+	 * Same decision as Math.abs(rand.nextGaussian()) > curDist * actionDistancePenalty
+	 */
+	boolean acceptAction(Random rand, int curDist) {
+		return accept(rand, ringProbability[curDist]);
+	}
+
+	/**
+	 * Same decision as Math.abs(rand.nextGaussian()) > moveOffset + delta/energyScale
+	 * for a move increasing energy by delta
+	 */
+	boolean acceptMove(Random rand, double delta) {
+		return accept(rand, tailProbability(moveOffset + delta/energyScale));
+	}
+
+	double getActionProbability(int curDist) {
+		return ringProbability[curDist];
+	}
+
+	/**
+	 * Certain decisions do not take a random value
+	 */
+	private static boolean accept(Random rand, double probability) {
+		if(probability >= 1.0) {
+			return true;
+		}
+		if(probability <= 0.0) {
+			return false;
+		}
+		return rand.nextDouble() < probability;
+	}
+
+	/**
+	 * P(|N(0,1)| > threshold), linear interpolation of the table, error is below 1e-7
+	 */
+	static double tailProbability(double threshold) {
+		if(threshold <= 0.0) {
+			return 1.0;
+		}
+		if(threshold >= MAX_THRESHOLD) {
+			return 0.0;
+		}
+		double pos = threshold * STEPS_PER_UNIT;
+		int i = (int)pos;
+		double frac = pos - i;
+		return TAIL[i] + (TAIL[i + 1] - TAIL[i]) * frac;
+	}
+
+	/**
+	 * Integrate density of |N(0,1)| by Simpson's rule from MAX_THRESHOLD down to 0,
+	 * the tail beyond MAX_THRESHOLD is negligible
+	 */
+	private static double[] buildTail() {
+		int n = (int)(MAX_THRESHOLD * STEPS_PER_UNIT);
+		double h = 1.0 / STEPS_PER_UNIT;
+		double[] tail = new double[n + 1];
+		for(int i=n-1;i>=0;i--) {
+			double x = i * h;
+			tail[i] = tail[i + 1] + h / 6 * (density(x) + 4 * density(x + h/2) + density(x + h));
+		}
+		tail[0] = 1.0;
+		return tail;
+	}
+
+	private static double density(double x) {
+		return Math.sqrt(2 / Math.PI) * Math.exp(-x * x / 2);
+	}
+}
@@ -3,49 +3,69 @@ package com.compmodel.sim.trsfr.core;
 import java.awt.Color;
 import java.io.Serializable;
 
+/**
+ * Thin view over the atom attributes kept in WorldState.
+ * When atom is removed, the view is detached (id = NONE).
+ * When atom is moved to another id by swap-remove, the view follows it.
+ *
+ */
 public class Atom implements Serializable{
 	private static final long serialVersionUID = -6664530532126869588L;
-	private AtomTypeEnum type;
-	private Coordinates coords;
-	private Transformer actor;
-	
-	Atom(Coordinates coords, AtomTypeEnum type){
-		this.coords = coords;
-		this.type = type;
-		setActor(null);
+	private final WorldState state;
+	private int id;
+
+	Atom(WorldState state, int id){
+		this.state = state;
+		this.id = id;
+	}
+
+	public int getId() {
+		return id;
+	}
+
+	void setId(int id) {
+		this.id = id;
 	}
 
 	public void transform(AtomTypeEnum newType, Transformer actor) {
-		this.type = newType;
-		this.setActor(actor);		
+		setType(newType);
+		this.setActor(actor);
 	}
 
 	public AtomTypeEnum getType() {
-		return type;
+		return state.getAtomType(id);
 	}
 
 	public void setType(AtomTypeEnum type) {
-		this.type = type;
+		state.setAtomType(id, type);
+	}
+
+	public int getCell() {
+		return state.getAtomCell(id);
 	}
 
 	public Coordinates getCoords() {
-		return coords;
+		return state.getLattice().toCoordinates(state.getAtomCell(id));
 	}
 
+	/**
+	 * Changes atom position only, atom space has to be adjusted by the caller.
+	 */
 	public void setCoords(Coordinates coords) {
-		this.coords = coords;
+		state.setAtomCell(id, state.getLattice().toCell(coords));
 	}
 
 	public Color getColor() {
-		return type.getColor();
+		return getType().getColor();
 	}
 
 	public Transformer getActor() {
-		return actor;
+		int actor = state.getAtomActor(id);
+		return actor == WorldState.NONE ? null : state.getTransformer(actor);
 	}
 
 	public void setActor(Transformer actor) {
-		this.actor = actor;
+		state.setAtomActor(id, actor == null ? WorldState.NONE : actor.getId());
 	}
 
 }
@@ -0,0 +1,165 @@
+package com.compmodel.sim.trsfr.core;
+
+import java.io.Serializable;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+
+/**
+ * Occupancy bitsets, one per atom type: bit (type, cell) is set when an atom of the type occupies the cell.
+ * Cells along the last axis are adjacent bits, so a row of the Manhattan disk
+ * is tested with a few word-wide operations.
+ * In sparse mode words are kept in small pages allocated on demand and freed when they become empty,
+ * so memory is proportional to the number of atoms rather than to the space volume.
+ * Dense words are updated atomically, so atoms in disjoint regions may be updated concurrently
+ * even when their cells share a word. Sparse mode is not thread safe.
+ *
+ * @author Sergey Sherstyuk
+ *
+ */
+public class AtomTypePlanes implements Serializable {
+	private static final long serialVersionUID = 6185903725544718261L;
+	private static final int PAGE_SHIFT = 3;	// 8 words per page in sparse mode
+	private static final int PAGE_MASK = (1 << PAGE_SHIFT) - 1;
+	private static final VarHandle WORDS = MethodHandles.arrayElementVarHandle(long[].class);
+	private final Lattice lattice;
+	private final long[][] planes;	// dense mode
+	private final ChunkMap<long[]>[] pages;	// sparse mode
+
+	public AtomTypePlanes(Lattice lattice, int typeCount, boolean sparse) {
+		this.lattice = lattice;
+		if(sparse) {
+			planes = null;
+			pages = newPages(typeCount);
+			for(int type=0;type<typeCount;type++) {
+				pages[type] = new ChunkMap<long[]>();
+			}
+		}else {
+			planes = new long[typeCount][(lattice.getCellCount() + 63) >>> 6];
+			pages = null;
+		}
+	}
+
+	private AtomTypePlanes(AtomTypePlanes other) {
+		lattice = other.lattice;
+		if(other.planes != null) {
+			planes = new long[other.planes.length][];
+			for(int type=0;type<planes.length;type++) {
+				planes[type] = other.planes[type].clone();
+			}
+			pages = null;
+		}else {
+			planes = null;
+			pages = newPages(other.pages.length);
+			for(int type=0;type<pages.length;type++) {
+				pages[type] = other.pages[type].copy(long[]::clone);
+			}
+		}
+	}
+
+	@SuppressWarnings({"unchecked", "rawtypes"})
+	private static ChunkMap<long[]>[] newPages(int typeCount) {
+		return new ChunkMap[typeCount];
+	}
+
+	/**
+	 * @return independent copy of the planes
+	 */
+	public AtomTypePlanes copy() {
+		return new AtomTypePlanes(this);
+	}
+
+	private long word(int type, int word) {
+		if(planes != null) {
+			return planes[type][word];
+		}
+		long[] page = pages[type].get(word >>> PAGE_SHIFT);
+		return page == null ? 0 : page[word & PAGE_MASK];
+	}
+
+	public void set(int type, int cell) {
+		if(planes != null) {
+			WORDS.getAndBitwiseOr(planes[type], cell >>> 6, 1L << cell);
+			return;
+		}
+		int word = cell >>> 6;
+		long[] page = pages[type].get(word >>> PAGE_SHIFT);
+		if(page == null) {
+			page = new long[PAGE_MASK + 1];
+			pages[type].put(word >>> PAGE_SHIFT, page);
+		}
+		page[word & PAGE_MASK] |= 1L << cell;
+	}
+
+	public void clear(int type, int cell) {
+		if(planes != null) {
+			WORDS.getAndBitwiseAnd(planes[type], cell >>> 6, ~(1L << cell));
+			return;
+		}
+		int word = cell >>> 6;
+		long[] page = pages[type].get(word >>> PAGE_SHIFT);
+		if(page == null) {
+			return;
+		}
+		page[word & PAGE_MASK] &= ~(1L << cell);
+		for(long w : page) {
+			if(w != 0) {
+				return;
+			}
+		}
+		pages[type].remove(word >>> PAGE_SHIFT);
+	}
+
+	public boolean get(int type, int cell) {
+		return (word(type, cell >>> 6) & (1L << cell)) != 0;
+	}
+
+	/**
+	 * @return true if any bit of the type is set in the cell range [fromCell, toCell]
+	 */
+	public boolean anyInRange(int type, int fromCell, int toCell) {
+		int fromWord = fromCell >>> 6;
+		int toWord = toCell >>> 6;
+		long fromMask = -1L << fromCell;
+		long toMask = -1L >>> (63 - (toCell & 63));
+		if(fromWord == toWord) {
+			return (word(type, fromWord) & fromMask & toMask) != 0;
+		}
+		if((word(type, fromWord) & fromMask) != 0 || (word(type, toWord) & toMask) != 0) {
+			return true;
+		}
+		for(int w=fromWord+1;w<toWord;w++) {
+			if(word(type, w) != 0) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Check if there is any atom of the type within Manhattan distance from the center.
+	 * The disk is split into rows along the last axis, each row is a contiguous range of cells.
+	 */
+	public boolean anyWithin(int type, int center, int distance) {
+		return anyWithin(type, center, 0, distance);
+	}
+
+	private boolean anyWithin(int type, int base, int axis, int rest) {
+		int size = lattice.getSize();
+		int c = lattice.coord(base, axis);
+		int lastAxis = lattice.getDim() - 1;
+		if(axis == lastAxis) {
+			int from = Math.max(0, c - rest);
+			int to = Math.min(size - 1, c + rest);
+			return anyInRange(type, base - c + from, base - c + to);
+		}
+		int stride = lattice.getStride(axis);
+		int from = Math.max(0, c - rest);
+		int to = Math.min(size - 1, c + rest);
+		for(int i=from;i<=to;i++) {
+			if(anyWithin(type, base + (i - c) * stride, axis + 1, rest - Math.abs(i - c))) {
+				return true;
+			}
+		}
+		return false;
+	}
+}
@@ -4,6 +4,8 @@ import java.io.Serializable;
 
 /**
  * Represents the unidirectional bond from transformer to its neighbor.
+ * Bonds are stored in WorldState slots, this class is a detached copy of a slot
+ * returned by Transformer.getBonds(), changing it does not affect the world.
  * 
  * @author Sergey Sherstyuk
  *
@@ -24,6 +26,10 @@ public class Bond implements Serializable{
 	}
 	
 	public double getStrength(long curSeedCnt) {
+		return calcStrength(actionCnt, createdSeedCnt, curSeedCnt);
+	}
+
+	public static double calcStrength(long actionCnt, long createdSeedCnt, long curSeedCnt) {
 		long diff = curSeedCnt - createdSeedCnt;
 		if (diff <= 0) {
 			diff =1;
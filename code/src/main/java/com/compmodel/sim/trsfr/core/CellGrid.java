@@ -0,0 +1,127 @@
+package com.compmodel.sim.trsfr.core;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Flat int grid over the lattice cells, holding entity id per cell or NONE.
+ * Storage is either linear (storage index == cell)
+ * or blocked: hypercube tiles with tileSize points on each axis are stored contiguously,
+ * so that points close to each other in space are close in memory.
+ * Free cells are tracked in FreeCellSet for constant time random placement.
+ *
+ * @author Sergey Sherstyuk
+ *
+ */
+public class CellGrid implements CellIndex {
+	private static final long serialVersionUID = -1825226390787047131L;
+	private final Lattice lattice;
+	private final int tileShift;	// 0 for linear layout
+	private final int tileMask;
+	private final int tilesPerAxis;
+	private final int[] data;
+	private final FreeCellSet freeCells;
+
+	/**
+	 * @param lattice
+	 * @param tileSize 0 or 1 for linear layout, otherwise power of 2
+	 */
+	public CellGrid(Lattice lattice, int tileSize) {
+		this.lattice = lattice;
+		if(tileSize > 1) {
+			if(Integer.bitCount(tileSize) != 1) {
+				throw new IllegalArgumentException("tileSize must be a power of 2: "+tileSize);
+			}
+			tileShift = Integer.numberOfTrailingZeros(tileSize);
+			tileMask = tileSize - 1;
+			tilesPerAxis = (lattice.getSize() + tileSize - 1) / tileSize;
+			long tileCount = 1;
+			for(int axis=0;axis<lattice.getDim();axis++) {
+				tileCount *= tilesPerAxis;
+			}
+			long length = tileCount << (lattice.getDim() * tileShift);
+			if(length > Integer.MAX_VALUE) {
+				throw new IllegalArgumentException("tileSize "+tileSize+" is too big for the space");
+			}
+			data = new int[(int)length];
+		}else {
+			tileShift = 0;
+			tileMask = 0;
+			tilesPerAxis = 0;
+			data = new int[lattice.getCellCount()];
+		}
+		Arrays.fill(data, NONE);
+		freeCells = new FreeCellSet(lattice.getCellCount());
+	}
+
+	private CellGrid(CellGrid other) {
+		lattice = other.lattice;
+		tileShift = other.tileShift;
+		tileMask = other.tileMask;
+		tilesPerAxis = other.tilesPerAxis;
+		data = other.data.clone();
+		freeCells = other.freeCells.copy();
+	}
+
+	@Override
+	public CellGrid copy() {
+		return new CellGrid(this);
+	}
+
+	private int index(int cell) {
+		if(tileShift == 0) {
+			return cell;
+		}
+		int tile = 0;
+		int inTile = 0;
+		for(int axis=0;axis<lattice.getDim();axis++) {
+			int c = lattice.coord(cell, axis);
+			tile = tile * tilesPerAxis + (c >> tileShift);
+			inTile = (inTile << tileShift) | (c & tileMask);
+		}
+		return (tile << (lattice.getDim() * tileShift)) | inTile;
+	}
+
+	public int get(int cell) {
+		return data[index(cell)];
+	}
+
+	public void set(int cell, int value) {
+		int idx = index(cell);
+		int old = data[idx];
+		data[idx] = value;
+		if(old == NONE && value != NONE) {
+			freeCells.occupy(cell);
+		}else if(old != NONE && value == NONE) {
+			freeCells.release(cell);
+		}
+	}
+
+	public void move(int from, int to) {
+		int fromIdx = index(from);
+		data[index(to)] = data[fromIdx];
+		data[fromIdx] = NONE;
+		freeCells.move(from, to);
+	}
+
+	public void clear() {
+		Arrays.fill(data, NONE);
+		freeCells.clear();
+	}
+
+	public int randomFree(Random rand) {
+		return freeCells.random(rand);
+	}
+
+	public int getFreeCount() {
+		return freeCells.size();
+	}
+
+	public Lattice getLattice() {
+		return lattice;
+	}
+
+	FreeCellSet getFreeCells() {
+		return freeCells;
+	}
+}
@@ -0,0 +1,43 @@
+package com.compmodel.sim.trsfr.core;
+
+import java.io.Serializable;
+import java.util.Random;
+
+/**
+ * Spatial store holding entity id per lattice cell, NONE for empty cells.
+ * Implementations:
+ *  - CellGrid - dense flat array, memory is proportional to the space volume
+ *  - ChunkedGrid - chunks allocated on demand, memory is proportional to the number of entities
+ *
+ * @author Sergey Sherstyuk
+ *
+ */
+public interface CellIndex extends Serializable {
+	int NONE = -1;
+
+	int get(int cell);
+
+	void set(int cell, int value);
+
+	void clear();
+
+	/**
+	 * Move value from cell from to empty cell to.
+	 * In CellGrid only the two cells are touched, so moves in disjoint regions may run concurrently.
+	 */
+	void move(int from, int to);
+
+	/**
+	 * @return random empty cell or NONE if the space is full
+	 */
+	int randomFree(Random rand);
+
+	int getFreeCount();
+
+	/**
+	 * @return independent copy with the same content and the same order of free cells
+	 */
+	CellIndex copy();
+
+	Lattice getLattice();
+}
@@ -0,0 +1,414 @@
+package com.compmodel.sim.trsfr.core;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.DoubleSummaryStatistics;
+import java.util.IntSummaryStatistics;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Chains of bonded transformers and world statistics built from them.
+ * Only transformers and bonds of the store are read, so analytics may run
+ * on a frozen copy of the store in the background, while the world simulates the next seed.
+ * Chains are found in one pass over transformers, each chain is walked once, so extraction is O(n).
+ * A visitor receives chains one by one, statistics are aggregated without building a Chain per chain.
+ *
+ * @author Sergey Sherstyuk
+ *
+ */
+class ChainAnalytics {
+	private static final Logger log = LoggerFactory.getLogger(ChainAnalytics.class);
+	private static final int NONE = WorldState.NONE;
+	private final WorldState state;
+	private final long seedCnt;
+	private final ChainLinks links = new ChainLinks();
+	private int[] tail = new int[16];	// links found in the direction of the second bond of the first transformer
+	private boolean closed;		// the last walk came back to the first transformer
+
+	/**
+	 * Receives chains found by visitChains
+	 */
+	interface ChainVisitor {
+		void visit(ChainLinks chain);
+	}
+
+	/**
+	 * Links of the chain being visited with strength and age of the bond of each link to the next one,
+	 * the last link of a non-circular chain repeats the values of the previous one.
+	 * Arrays are reused for the next chain, visitor copies what it keeps.
+	 */
+	static final class ChainLinks {
+		private int[] trsf = new int[16];
+		private double[] strength = new double[16];
+		private long[] age = new long[16];
+		private int size;
+		private boolean circular;
+
+		int size() {
+			return size;
+		}
+
+		boolean isCircular() {
+			return circular;
+		}
+
+		/**
+		 * @return first link: the end with lower id for non-circular chain, the lowest id for circular one
+		 */
+		int getStart() {
+			return trsf[0];
+		}
+
+		int getTrsf(int i) {
+			return trsf[i];
+		}
+
+		double getStrength(int i) {
+			return strength[i];
+		}
+
+		long getAge(int i) {
+			return age[i];
+		}
+
+		Chain toChain(WorldState state) {
+			Chain chain = new Chain();
+			chain.setCircular(circular);
+			for(int i=0;i<size;i++) {
+				chain.addLink(state.getTransformer(trsf[i]), strength[i], age[i]);
+			}
+			return chain;
+		}
+
+		private void ensureCapacity(int capacity) {
+			if(trsf.length < capacity) {
+				int newCapacity = Math.max(capacity, trsf.length * 2);
+				trsf = Arrays.copyOf(trsf, newCapacity);
+				strength = Arrays.copyOf(strength, newCapacity);
+				age = Arrays.copyOf(age, newCapacity);
+			}
+		}
+	}
+
+	/**
+	 * @param state live store or its frozen copy
+	 * @param seedCnt seed the bond strengths and ages are calculated for
+	 */
+	ChainAnalytics(WorldState state, long seedCnt) {
+		this.state = state;
+		this.seedCnt = seedCnt;
+	}
+
+	/**
+	 * Statistics of the chains, see WorldStatsSummary
+	 */
+	WorldStatsSummary buildWorldStatsRecord(List<Chain> chains) {
+		int cnt = chains.size();
+		int[] length = new int[cnt];
+		boolean[] circular = new boolean[cnt];
+		double[] strength = new double[cnt];
+		double[] age = new double[cnt];
+		double[] matchPct = new double[cnt];
+		for(int i=0;i<cnt;i++) {
+			Chain chain = chains.get(i);
+			ChainStatsSummary stats = chain.getSummaryStats(seedCnt);
+			length[i] = chain.getLength();
+			circular[i] = chain.isCircular();
+			strength[i] = stats.getAvgStrength();
+			age[i] = stats.getAvgAge();
+			matchPct[i] = stats.getMatchTypePct();
+		}
+		return summarize(cnt, length, circular, strength, age, matchPct);
+	}
+
+	/**
+	 * Statistics of the chains without building them, same as buildWorldStatsRecord(extractChains(minLength))
+	 */
+	WorldStatsSummary buildWorldStatsRecord(int minLength) {
+		int trsfCount = state.getTrsfCount();
+		// per chain values by the first link, so chains are summarized in the order of extractChains
+		int[] lengthByStart = new int[trsfCount];
+		boolean[] circularByStart = new boolean[trsfCount];
+		double[] strengthByStart = new double[trsfCount];
+		double[] ageByStart = new double[trsfCount];
+		double[] matchPctByStart = new double[trsfCount];
+		int cnt = visitChains(minLength, chain -> {
+			int start = chain.getStart();
+			DoubleSummaryStatistics statsS = new DoubleSummaryStatistics();
+			long ageSum = 0;
+			int matchCnt = 0;
+			for(int i=0;i<chain.size();i++) {
+				statsS.accept(chain.getStrength(i));
+				ageSum += chain.getAge(i);
+				if(i > 0 && state.getTrsfInputType(chain.getTrsf(i)) == state.getTrsfOutputType(chain.getTrsf(i - 1))) {
+					matchCnt++;
+				}
+			}
+			lengthByStart[start] = chain.size();
+			circularByStart[start] = chain.isCircular();
+			strengthByStart[start] = statsS.getAverage();
+			ageByStart[start] = (double)ageSum / chain.size();
+			matchPctByStart[start] = matchCnt*100.0/(chain.size()-1);
+		});
+		int[] order = orderByStart(lengthByStart, circularByStart, cnt);
+		int[] length = new int[cnt];
+		boolean[] circular = new boolean[cnt];
+		double[] strength = new double[cnt];
+		double[] age = new double[cnt];
+		double[] matchPct = new double[cnt];
+		for(int i=0;i<cnt;i++) {
+			int start = order[i];
+			length[i] = lengthByStart[start];
+			circular[i] = circularByStart[start];
+			strength[i] = strengthByStart[start];
+			age[i] = ageByStart[start];
+			matchPct[i] = matchPctByStart[start];
+		}
+		return summarize(cnt, length, circular, strength, age, matchPct);
+	}
+
+	private WorldStatsSummary summarize(int cnt, int[] length, boolean[] circular, double[] strength, double[] age, double[] matchPct) {
+		IntSummaryStatistics statsLength = new IntSummaryStatistics();
+		IntSummaryStatistics statsLengthNonCirc = new IntSummaryStatistics();
+		DoubleSummaryStatistics statsStrength = new DoubleSummaryStatistics();
+		DoubleSummaryStatistics statsStrengthNonCirc = new DoubleSummaryStatistics();
+		DoubleSummaryStatistics statsAge = new DoubleSummaryStatistics();
+		DoubleSummaryStatistics statsAgeNonCirc = new DoubleSummaryStatistics();
+		DoubleSummaryStatistics statsMatchPct = new DoubleSummaryStatistics();
+		for(int i=0;i<cnt;i++) {
+			statsLength.accept(length[i]);
+			statsStrength.accept(strength[i]);
+			statsAge.accept(age[i]);
+			statsMatchPct.accept(matchPct[i]);
+			if(circular[i] == false) {
+				statsLengthNonCirc.accept(length[i]);
+				statsStrengthNonCirc.accept(strength[i]);
+				statsAgeNonCirc.accept(age[i]);
+			}
+		}
+		WorldStatsSummary statsWorld= new WorldStatsSummary();
+		statsWorld.setCount(cnt);
+		statsWorld.setAvgAge(statsAge.getAverage());
+		statsWorld.setAvgLength(statsLength.getAverage());
+		statsWorld.setAvgStrength(statsStrength.getAverage());
+		statsWorld.setCreatedSeedCnt(seedCnt);
+		statsWorld.setMaxAge((long)statsAge.getMax());
+		statsWorld.setMaxLength(statsLength.getMax());
+		statsWorld.setMaxStrength(statsStrength.getMax());
+		statsWorld.setMinAge((long)statsAge.getMin());
+		statsWorld.setMinStrength(statsStrength.getMin());
+		statsWorld.setCountNonCircular((int)statsAgeNonCirc.getCount());
+		statsWorld.setAvgAgeNonCircular(statsAgeNonCirc.getAverage());
+		statsWorld.setAvgLengthNonCircular(statsLengthNonCirc.getAverage());
+		statsWorld.setAvgStrengthNonCircular(statsStrengthNonCirc.getAverage());
+		statsWorld.setMaxAgeNonCircular((long)statsAgeNonCirc.getMax());
+		statsWorld.setMaxLengthNonCircular(statsLengthNonCirc.getMax());
+		statsWorld.setMaxStrengthNonCircular(statsStrengthNonCirc.getMax());
+		statsWorld.setMinAgeNonCircular((long)statsAgeNonCirc.getMin());
+		statsWorld.setMinStrengthNonCircular(statsStrengthNonCirc.getMin());
+		statsWorld.setAvgMatchPct(statsMatchPct.getAverage());
+		statsWorld.setMaxMatchPct(statsMatchPct.getMax());
+		statsWorld.setMinMatchPct(statsMatchPct.getMin());
+		return statsWorld;
+	}
+
+
+	/**
+	 * Extract chains of bonded transformers.
+	 * Chains of the same size are ordered non-circular first, then circular, each by the id of the first link.
+	 * 
+	 * @param minLength chains with less transformers are skipped
+	 * @return chains sorted by size, longest first
+	 */
+	List<Chain> extractChains(int minLength) {
+		Chain[] byStart = new Chain[state.getTrsfCount()];
+		visitChains(minLength, chain -> byStart[chain.getStart()] = chain.toChain(state));
+		ArrayList<Chain> chains = new ArrayList<Chain>();
+		for(Chain chain : byStart) {
+			if(chain != null && chain.isCircular() == false) {
+				chains.add(chain);
+			}
+		}
+		for(Chain chain : byStart) {
+			if(chain != null && chain.isCircular()) {
+				chains.add(chain);
+			}
+		}
+		return chains.stream().sorted(Comparator.comparing(Chain::size).reversed()).collect(Collectors.toList());
+	}
+
+	/**
+	 * Walk each chain of bonded transformers once and pass it to the visitor.
+	 * Transformers are scanned by id, the chain is walked from the first transformer not visited yet
+	 * in the direction of both its bonds, then its links are put in order from the first link, see ChainLinks.getStart.
+	 * Circular chains go in the direction of the first bond of the first link.
+	 * With valence above 2 a walk takes the first bond not leading back and stops at visited transformers,
+	 * so branches are walked as separate chains, a branch may be a single link.
+	 *
+	 * @param minLength chains with less transformers are not passed to the visitor
+	 * @return number of chains passed to the visitor
+	 */
+	int visitChains(int minLength, ChainVisitor visitor) {
+		int trsfCount = state.getTrsfCount();
+		BitSet visited = new BitSet(trsfCount);
+		int cnt = 0;
+		for(int t=0;t<trsfCount;t++) {
+			if(visited.get(t) || state.getBondCnt(t) == 0) {
+				continue;
+			}
+			walk(t, visited);
+			if(links.size >= minLength) {
+				setBonds();
+				visitor.visit(links);
+				cnt++;
+			}
+		}
+		return cnt;
+	}
+
+	/**
+	 * Collect the chain of the first transformer into links, ordered from the first link
+	 */
+	private void walk(int first, BitSet visited) {
+		visited.set(first);
+		links.size = 0;
+		links.circular = false;
+		append(first);
+		walkFrom(first, state.getBondNeighbor(state.getBondSlot(first, 0)), visited, true);
+		if(closed) {
+			links.circular = true;
+			return;
+		}
+		int tailCnt = 0;
+		if(state.getBondCnt(first) > 1) {
+			tailCnt = walkFrom(first, state.getBondNeighbor(state.getBondSlot(first, 1)), visited, false);
+		}
+		// the chain is tail (reversed), then links; it starts from the end with lower id
+		int end1 = tailCnt > 0 ? tail[tailCnt - 1] : first;
+		int end2 = links.trsf[links.size - 1];
+		int size = links.size + tailCnt;
+		links.ensureCapacity(size);
+		int[] trsf = links.trsf;
+		if(end1 < end2) {
+			System.arraycopy(trsf, 0, trsf, tailCnt, links.size);
+			for(int i=0;i<tailCnt;i++) {
+				trsf[i] = tail[tailCnt - 1 - i];
+			}
+		}else {
+			for(int i=0, j=links.size-1;i<j;i++, j--) {
+				int tmp = trsf[i];
+				trsf[i] = trsf[j];
+				trsf[j] = tmp;
+			}
+			System.arraycopy(tail, 0, trsf, links.size, tailCnt);
+		}
+		links.size = size;
+	}
+
+	/**
+	 * Follow the chain from the first transformer through the next one
+	 *
+	 * @param toLinks append to links, otherwise to tail
+	 * @return number of transformers added, closed is set if the walk came back to the first transformer
+	 */
+	private int walkFrom(int first, int next, BitSet visited, boolean toLinks) {
+		int cnt = 0;
+		int prev = first;
+		closed = false;
+		while(next != NONE) {
+			if(next == first) {
+				closed = true;
+				break;
+			}
+			if(visited.get(next)) {
+				break;
+			}
+			visited.set(next);
+			if(toLinks) {
+				append(next);
+			}else {
+				if(cnt == tail.length) {
+					tail = Arrays.copyOf(tail, cnt * 2);
+				}
+				tail[cnt] = next;
+			}
+			cnt++;
+			int cur = next;
+			next = ChainIndex.nextLink(state, cur, prev);
+			prev = cur;
+		}
+		return cnt;
+	}
+
+	private void append(int trsf) {
+		links.ensureCapacity(links.size + 1);
+		links.trsf[links.size++] = trsf;
+	}
+
+	/**
+	 * Strength and age of the bond of each link to the next one
+	 */
+	private void setBonds() {
+		int size = links.size;
+		int[] trsf = links.trsf;
+		for(int i=0;i<size;i++) {
+			int next = i + 1 < size ? trsf[i + 1] : trsf[0];
+			if(size == 1) {
+				// branch with all neighbors in other chains
+				next = state.getBondNeighbor(state.getBondSlot(trsf[0], 0));
+			}else if(i + 1 == size && links.circular == false) {
+				// end of chain, setting strength and age same as for the last link
+				links.strength[i] = links.strength[i - 1];
+				links.age[i] = links.age[i - 1];
+				break;
+			}
+			int slot = state.findBondSlot(trsf[i], next);
+			double strength = state.getBondStrength(slot, seedCnt);
+			long age = seedCnt - state.getBondCreatedSeedCnt(slot);
+			if(age < 0 || strength > 10) {
+				log.error("!!! unrealistic age or strength: age="+ age+", strength="+strength+
+					", curTrsf="+state.getTransformer(trsf[i]).getFullInfoWithBonds(seedCnt));
+			}
+			links.strength[i] = strength;
+			links.age[i] = age;
+		}
+	}
+
+	/**
+	 * First links of the chains in the order of extractChains: by size, longest first,
+	 * of the same size non-circular first, each by the first link. Counting sort, O(n).
+	 *
+	 * @param lengthByStart chain length by its first link, 0 where no chain starts
+	 */
+	private static int[] orderByStart(int[] lengthByStart, boolean[] circularByStart, int cnt) {
+		int maxLength = 0;
+		for(int length : lengthByStart) {
+			maxLength = Math.max(maxLength, length);
+		}
+		int[] pos = new int[maxLength + 2];	// first position of the chains of each length
+		for(int length : lengthByStart) {
+			if(length > 0) {
+				pos[maxLength - length + 1]++;
+			}
+		}
+		for(int i=1;i<pos.length;i++) {
+			pos[i] += pos[i - 1];
+		}
+		int[] order = new int[cnt];
+		for(int pass=0;pass<2;pass++) {
+			boolean circular = pass == 1;
+			for(int start=0;start<lengthByStart.length;start++) {
+				if(lengthByStart[start] > 0 && circularByStart[start] == circular) {
+					order[pos[maxLength - lengthByStart[start]]++] = start;
+				}
+			}
+		}
+		return order;
+	}
+}
@@ -0,0 +1,358 @@
+package com.compmodel.sim.trsfr.core;
+
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Genealogy of chains, recorded by ChainIndex when bonds are created and broken.
+ * Each chain gets a persistent id at birth, the id is kept while the chain grows, shrinks, closes and opens.
+ *  - BIRTH: two standalone transformers are bonded
+ *  - MERGE: chain absorbs another one, the larger chain keeps its id, the absorbed one ends
+ *  - SPLIT: smaller part of a broken chain gets a new id, other refers to the parent
+ *  - DEATH: the last bond of a chain is broken
+ * Events are kept in a ring buffer of fixed capacity, two words per event, the oldest ones are overwritten.
+ * Counters and lifetimes of ended chains are kept for the whole run,
+ * so lifetimes and survival are available at any seed without extracting chains.
+ * In parallel turns events of each tile are kept as Pending with provisional ids
+ * and recorded after the phase in the order of tiles, so ids do not depend on thread scheduling.
+ *
+ * @author Sergey Sherstyuk
+ *
+ */
+public final class ChainGenealogy implements Serializable {
+	private static final long serialVersionUID = 4471207361825148032L;
+	public static final int NONE = -1;
+	public static final int BIRTH = 0;
+	public static final int MERGE = 1;
+	public static final int SPLIT = 2;
+	public static final int DEATH = 3;
+	public static final int EVENT_LOG_SIZE = 1 << 15;
+	private final long[] events;	// seed << 2 | type, chain << 32 | other
+	private final int capacity;
+	private long eventCnt;		// recorded since the start, the last capacity ones are kept
+	private long seedCnt;		// events are stamped with the current seed
+	private int nextId;
+	private long birthCnt;
+	private long mergeCnt;
+	private long splitCnt;
+	private long deathCnt;
+	private long[] endedCnt = new long[16];	// ended chains per lifetime in seeds
+	private long endedTotal;
+	private long lifetimeSum;
+
+	ChainGenealogy(int capacity) {
+		this.capacity = capacity;
+		events = new long[2 * capacity];
+	}
+
+	private ChainGenealogy(ChainGenealogy other) {
+		capacity = other.capacity;
+		events = other.events.clone();
+		eventCnt = other.eventCnt;
+		seedCnt = other.seedCnt;
+		nextId = other.nextId;
+		birthCnt = other.birthCnt;
+		mergeCnt = other.mergeCnt;
+		splitCnt = other.splitCnt;
+		deathCnt = other.deathCnt;
+		endedCnt = other.endedCnt.clone();
+		endedTotal = other.endedTotal;
+		lifetimeSum = other.lifetimeSum;
+	}
+
+	ChainGenealogy copy() {
+		return new ChainGenealogy(this);
+	}
+
+	void setSeedCnt(long seedCnt) {
+		this.seedCnt = seedCnt;
+	}
+
+	public long getSeedCnt() {
+		return seedCnt;
+	}
+
+	/**
+	 * @return id of the new chain
+	 */
+	int born() {
+		int id = nextId++;
+		birthCnt++;
+		record(BIRTH, id, NONE);
+		return id;
+	}
+
+	/**
+	 * Chain absorbed other one, born at absorbedBirth
+	 */
+	void merged(int chain, int absorbed, long absorbedBirth) {
+		mergeCnt++;
+		record(MERGE, chain, absorbed);
+		ended(absorbedBirth);
+	}
+
+	/**
+	 * @return id of the part split off the parent chain
+	 */
+	int split(int parent) {
+		int id = nextId++;
+		splitCnt++;
+		record(SPLIT, id, parent);
+		return id;
+	}
+
+	void died(int chain, long birth) {
+		deathCnt++;
+		record(DEATH, chain, NONE);
+		ended(birth);
+	}
+
+	private void record(int type, int chain, int other) {
+		int i = 2 * (int)(eventCnt % capacity);
+		events[i] = seedCnt << 2 | type;
+		events[i + 1] = (long)chain << 32 | (other & 0xffffffffL);
+		eventCnt++;
+	}
+
+	private void ended(long birth) {
+		int lifetime = (int)Math.max(0, seedCnt - birth);
+		if(lifetime >= endedCnt.length) {
+			endedCnt = Arrays.copyOf(endedCnt, Math.max(lifetime + 1, endedCnt.length * 2));
+		}
+		endedCnt[lifetime]++;
+		endedTotal++;
+		lifetimeSum += lifetime;
+	}
+
+	/**
+	 * @return number of events recorded since the start
+	 */
+	public long getEventCount() {
+		return eventCnt;
+	}
+
+	/**
+	 * @return index of the oldest event kept in the log
+	 */
+	public long getFirstEvent() {
+		return Math.max(0, eventCnt - capacity);
+	}
+
+	public int getEventType(long event) {
+		return (int)(events[slot(event)] & 3);
+	}
+
+	public long getEventSeed(long event) {
+		return events[slot(event)] >>> 2;
+	}
+
+	public int getEventChain(long event) {
+		return (int)(events[slot(event) + 1] >> 32);
+	}
+
+	/**
+	 * @return absorbed chain for MERGE, parent for SPLIT, NONE otherwise
+	 */
+	public int getEventOther(long event) {
+		return (int)events[slot(event) + 1];
+	}
+
+	private int slot(long event) {
+		if(event < getFirstEvent() || event >= eventCnt) {
+			throw new IndexOutOfBoundsException("event "+event+" is not in the log, kept "+getFirstEvent()+".."+eventCnt);
+		}
+		return 2 * (int)(event % capacity);
+	}
+
+	/**
+	 * Lineage through splits: chain that the given one was split from.
+	 * Events kept in the log are searched from the newest, up to the birth or split of the chain.
+	 *
+	 * @return parent chain, NONE if the chain was born or its origin is not in the log anymore
+	 */
+	public int getParent(int chain) {
+		for(long e=eventCnt-1, first=getFirstEvent();e>=first;e--) {
+			int i = 2 * (int)(e % capacity);
+			if((int)(events[i + 1] >> 32) == chain) {
+				int type = (int)(events[i] & 3);
+				if(type == SPLIT) {
+					return (int)events[i + 1];
+				}else if(type == BIRTH) {
+					return NONE;
+				}
+			}
+		}
+		return NONE;
+	}
+
+	/**
+	 * Lineage through merges: chains absorbed by the given one, as far as they are kept in the log.
+	 * The log is read in one pass, hits are collected in a buffer growing by doubling.
+	 *
+	 * @return ids of absorbed chains, the earliest first
+	 */
+	public int[] getAbsorbed(int chain) {
+		int[] absorbed = new int[8];
+		int cnt = 0;
+		long key = (long)chain << 32;
+		for(long e=getFirstEvent();e<eventCnt;e++) {
+			int i = 2 * (int)(e % capacity);
+			if((events[i] & 3) == MERGE && (events[i + 1] & 0xffffffff00000000L) == key) {
+				if(cnt == absorbed.length) {
+					absorbed = Arrays.copyOf(absorbed, cnt * 2);
+				}
+				absorbed[cnt++] = (int)events[i + 1];
+			}
+		}
+		return Arrays.copyOf(absorbed, cnt);
+	}
+
+	public long getBirthCnt() {
+		return birthCnt;
+	}
+
+	public long getMergeCnt() {
+		return mergeCnt;
+	}
+
+	public long getSplitCnt() {
+		return splitCnt;
+	}
+
+	public long getDeathCnt() {
+		return deathCnt;
+	}
+
+	/**
+	 * @return number of chains that ended, by death or absorbed by merge
+	 */
+	public long getEndedCnt() {
+		return endedTotal;
+	}
+
+	/**
+	 * @return number of ended chains with the given lifetime in seeds
+	 */
+	public long getEndedCnt(int lifetime) {
+		return lifetime < endedCnt.length ? endedCnt[lifetime] : 0;
+	}
+
+	/**
+	 * @return mean lifetime of ended chains in seeds, 0 if none ended yet
+	 */
+	public double getMeanLifetime() {
+		return endedTotal == 0 ? 0.0 : (double)lifetimeSum / endedTotal;
+	}
+
+	/**
+	 * Kaplan-Meier estimate of survival: chains that ended are observed lifetimes,
+	 * chains alive now are censored at their current age
+	 *
+	 * @param aliveCnt chains alive now per age in seeds
+	 * @return probability for a chain to live longer than the index in seeds
+	 */
+	double[] getSurvival(long[] aliveCnt) {
+		int maxAge = 0;
+		for(int age=0;age<Math.max(endedCnt.length, aliveCnt.length);age++) {
+			if(getEndedCnt(age) > 0 || (age < aliveCnt.length && aliveCnt[age] > 0)) {
+				maxAge = age + 1;
+			}
+		}
+		double[] survival = new double[maxAge];
+		long atRisk = endedTotal;
+		for(long cnt : aliveCnt) {
+			atRisk += cnt;
+		}
+		double s = 1.0;
+		for(int age=0;age<maxAge;age++) {
+			long ended = getEndedCnt(age);
+			if(atRisk > 0) {
+				s *= 1.0 - (double)ended / atRisk;
+			}
+			survival[age] = s;
+			atRisk -= ended + (age < aliveCnt.length ? aliveCnt[age] : 0);
+		}
+		return survival;
+	}
+
+	/**
+	 * Events of one tile of a parallel turn, with provisional ids of the chains born and split off in the tile.
+	 * Provisional ids are below NONE and unique among the tiles sharing the counter.
+	 */
+	static final class Pending {
+		private final AtomicInteger provisionalIds;
+		private long[] events = new long[3 * 16];	// type << 32 | slot, chain << 32 | other, birth
+		private int cnt;
+
+		Pending(AtomicInteger provisionalIds) {
+			this.provisionalIds = provisionalIds;
+		}
+
+		/**
+		 * @param slot chain id in the index, reused unlike the persistent id
+		 * @return provisional id of the new chain
+		 */
+		int born(int slot) {
+			int id = NONE - 1 - provisionalIds.getAndIncrement();
+			add(BIRTH, slot, id, NONE, 0);
+			return id;
+		}
+
+		int split(int slot, int parent) {
+			int id = NONE - 1 - provisionalIds.getAndIncrement();
+			add(SPLIT, slot, id, parent, 0);
+			return id;
+		}
+
+		void merged(int chain, int absorbed, long absorbedBirth) {
+			add(MERGE, NONE, chain, absorbed, absorbedBirth);
+		}
+
+		void died(int chain, long birth) {
+			add(DEATH, NONE, chain, NONE, birth);
+		}
+
+		private void add(int type, int slot, int chain, int other, long birth) {
+			if(3 * cnt + 3 > events.length) {
+				events = Arrays.copyOf(events, events.length * 2);
+			}
+			events[3 * cnt] = (long)type << 32 | (slot & 0xffffffffL);
+			events[3 * cnt + 1] = (long)chain << 32 | (other & 0xffffffffL);
+			events[3 * cnt + 2] = birth;
+			cnt++;
+		}
+
+		static boolean isProvisional(int id) {
+			return id < NONE;
+		}
+
+		int size() {
+			return cnt;
+		}
+
+		int getType(int event) {
+			return (int)(events[3 * event] >> 32);
+		}
+
+		int getSlot(int event) {
+			return (int)events[3 * event];
+		}
+
+		int getChain(int event) {
+			return (int)(events[3 * event + 1] >> 32);
+		}
+
+		int getOther(int event) {
+			return (int)events[3 * event + 1];
+		}
+
+		long getBirth(int event) {
+			return events[3 * event + 2];
+		}
+
+		void clear() {
+			cnt = 0;
+		}
+	}
+}
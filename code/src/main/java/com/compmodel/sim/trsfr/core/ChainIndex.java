@@ -0,0 +1,637 @@
+package com.compmodel.sim.trsfr.core;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.Serializable;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.Arrays;
+
+/**
+ * Chain membership of transformers, maintained when bonds are created and broken.
+ * With valence 2 a chain is a path with two ends or a circle, so each chain keeps its size and ends,
+ * size, ends and circularity of the chain of a transformer are constant time queries.
+ *  - new bond of two standalone transformers creates a chain
+ *  - new bond of a standalone transformer and a chain end extends the chain
+ *  - new bond of two ends of the same chain makes it circular
+ *  - new bond of ends of two chains merges them, the smaller one is relabeled
+ *  - broken bond of a circular chain opens it at the broken bond
+ *  - broken bond of a path splits it, the smaller part gets a new id
+ * Relabeling walks the part of the chain, so updates cost O(chain) at worst.
+ * Standalone transformers do not belong to a chain.
+ *
+ * Sum and min of bond strengths of a chain are cached for the seed they were calculated for.
+ * Strength of a bond grows by 0.5/age with each action of the pair, so the sum is updated with actions,
+ * new bonds and bonds of a circle broken; the min is kept while the weakest bond is not the one changed.
+ * Otherwise, after splits and for a new seed, the chain is walked again when the aggregates are queried.
+ * Actions update the cache without the lock of the store: while a parallel turn runs
+ * a chain is changed by one thread only, and the sum is added atomically in any case.
+ * Cache arrays are sized by the number of transformers, so they do not grow while transformers act.
+ *
+ * Chain ids are reused, so each chain also has a persistent id and the seed of its birth,
+ * births, merges, splits and deaths of chains are recorded in ChainGenealogy.
+ * While a tile of a parallel turn is processed, events of the thread are deferred
+ * with provisional ids and replayed after the phase, see ChainGenealogy.Pending.
+ *
+ * @author Sergey Sherstyuk
+ *
+ */
+final class ChainIndex implements Serializable {
+	private static final long serialVersionUID = -3326170914217264419L;
+	public static final int NONE = -1;
+	private int[] trsfChain;	// chain id of the transformer, NONE for standalone
+	private int[] chainSize;
+	private int[] chainEnd1;	// NONE for circular chains
+	private int[] chainEnd2;
+	private int[] freeIds;		// released chain ids, reused first
+	private int freeCnt;
+	private int nextId;			// ids below are used or released
+	private int[] chainUid;		// persistent id, never reused
+	private long[] chainBirth;	// seed the chain was born or split off at
+	private ChainGenealogy genealogy;
+	// cached aggregates of bond strengths by chain id, rebuilt on demand
+	private transient double[] strengthSum;
+	private transient double[] strengthMin;
+	private transient long[] strengthSeed;	// seed the aggregates are valid for, NONE if they are not
+	private static final VarHandle STRENGTH_SUM = MethodHandles.arrayElementVarHandle(double[].class);
+	private static final ThreadLocal<ChainGenealogy.Pending> PENDING = new ThreadLocal<ChainGenealogy.Pending>();
+
+	ChainIndex(int capacity) {
+		trsfChain = new int[capacity];
+		Arrays.fill(trsfChain, NONE);
+		chainSize = new int[capacity];
+		chainEnd1 = new int[capacity];
+		chainEnd2 = new int[capacity];
+		freeIds = new int[capacity];
+		chainUid = new int[capacity];
+		chainBirth = new long[capacity];
+		genealogy = new ChainGenealogy(ChainGenealogy.EVENT_LOG_SIZE);
+		initStrength(capacity);
+	}
+
+	private ChainIndex(ChainIndex other, int trsfCount) {
+		trsfChain = Arrays.copyOf(other.trsfChain, trsfCount);
+		chainSize = Arrays.copyOf(other.chainSize, other.nextId);
+		chainEnd1 = Arrays.copyOf(other.chainEnd1, other.nextId);
+		chainEnd2 = Arrays.copyOf(other.chainEnd2, other.nextId);
+		freeIds = Arrays.copyOf(other.freeIds, other.nextId);
+		freeCnt = other.freeCnt;
+		nextId = other.nextId;
+		chainUid = Arrays.copyOf(other.chainUid, other.nextId);
+		chainBirth = Arrays.copyOf(other.chainBirth, other.nextId);
+		genealogy = other.genealogy.copy();
+		initStrength(trsfChain.length);
+	}
+
+	/**
+	 * Cached aggregates are not copied or saved, they are rebuilt on demand.
+	 * A chain has at least 2 links, so chain ids are below the number of transformers.
+	 */
+	private void initStrength(int capacity) {
+		strengthSum = new double[capacity];
+		strengthMin = new double[capacity];
+		strengthSeed = new long[capacity];
+		Arrays.fill(strengthSeed, NONE);
+	}
+
+	private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+		in.defaultReadObject();
+		if(genealogy == null) {	// saved before chains had persistent ids, they are born now
+			chainUid = new int[chainSize.length];
+			chainBirth = new long[chainSize.length];
+			genealogy = new ChainGenealogy(ChainGenealogy.EVENT_LOG_SIZE);
+			for(int c=0;c<nextId;c++) {
+				if(chainSize[c] > 0) {
+					born(c);
+				}
+			}
+		}
+		initStrength(trsfChain.length);
+	}
+
+	/**
+	 * @return independent copy for the first trsfCount transformers
+	 */
+	ChainIndex copy(int trsfCount) {
+		return new ChainIndex(this, trsfCount);
+	}
+
+	/**
+	 * Build the index from the bonds of the store, for stores saved without it
+	 */
+	static ChainIndex build(WorldState state) {
+		int trsfCount = state.getTrsfCount();
+		ChainIndex index = new ChainIndex(trsfCount);
+		// paths are labeled from one of their ends, the rest are circles
+		for(int t=0;t<trsfCount;t++) {
+			if(index.trsfChain[t] == NONE && state.getBondCnt(t) == 1) {
+				int c = index.newChain();
+				int end = index.label(state, t, c);
+				index.setChain(c, index.chainSize[c], t, end);
+				index.born(c);
+			}
+		}
+		for(int t=0;t<trsfCount;t++) {
+			if(index.trsfChain[t] == NONE && state.getBondCnt(t) == 2) {
+				int c = index.newChain();
+				index.label(state, t, c);
+				index.chainEnd1[c] = NONE;
+				index.chainEnd2[c] = NONE;
+				index.born(c);
+			}
+		}
+		return index;
+	}
+
+	/**
+	 * Make place for transformers with ids below capacity
+	 */
+	void ensureCapacity(int capacity) {
+		if(trsfChain.length < capacity) {
+			int oldLength = trsfChain.length;
+			trsfChain = Arrays.copyOf(trsfChain, capacity);
+			Arrays.fill(trsfChain, oldLength, capacity, NONE);
+			strengthSum = Arrays.copyOf(strengthSum, capacity);
+			strengthMin = Arrays.copyOf(strengthMin, capacity);
+			strengthSeed = Arrays.copyOf(strengthSeed, capacity);
+			Arrays.fill(strengthSeed, oldLength, capacity, NONE);
+		}
+	}
+
+	void clear() {
+		Arrays.fill(trsfChain, NONE);
+		Arrays.fill(strengthSeed, NONE);
+		freeCnt = 0;
+		nextId = 0;
+		genealogy = new ChainGenealogy(ChainGenealogy.EVENT_LOG_SIZE);
+	}
+
+	/**
+	 * Events of the genealogy are stamped with the current seed
+	 */
+	void setSeedCnt(long seedCnt) {
+		genealogy.setSeedCnt(seedCnt);
+	}
+
+	/**
+	 * Update after bonds (a -> b) and (b -> a) were created
+	 *
+	 * @param createdSeedCnt seed the bonds were created at, their action count is 1
+	 */
+	void bondAdded(WorldState state, int a, int b, long createdSeedCnt) {
+		int ca = trsfChain[a];
+		int cb = trsfChain[b];
+		if(ca == NONE && cb == NONE) {
+			int c = newChain();
+			trsfChain[a] = c;
+			trsfChain[b] = c;
+			setChain(c, 2, a, b);
+			double strength = Bond.calcStrength(1, createdSeedCnt, createdSeedCnt);
+			setStrength(c, strength, strength, createdSeedCnt);
+			born(c);
+		}else if(ca == NONE) {
+			extend(cb, b, a);
+			addStrength(cb, createdSeedCnt);
+		}else if(cb == NONE) {
+			extend(ca, a, b);
+			addStrength(ca, createdSeedCnt);
+		}else if(ca == cb) {
+			// ends of the same chain are linked
+			chainEnd1[ca] = NONE;
+			chainEnd2[ca] = NONE;
+			addStrength(ca, createdSeedCnt);
+		}else {
+			int endA = otherEnd(ca, a);
+			int endB = otherEnd(cb, b);
+			int size = chainSize[ca] + chainSize[cb];
+			int c = ca, relabeled = cb, from = endB;
+			if(chainSize[ca] < chainSize[cb]) {
+				c = cb;
+				relabeled = ca;
+				from = endA;
+			}
+			long seed = strengthSeed[ca];
+			boolean merged = seed != NONE && seed == strengthSeed[cb];
+			double sum = merged ? strengthSum[ca] + strengthSum[cb] : 0.0;
+			double min = merged ? Math.min(strengthMin[ca], strengthMin[cb]) : 0.0;
+			label(state, from, c);
+			ChainGenealogy.Pending pending = PENDING.get();
+			if(pending != null) {
+				pending.merged(chainUid[c], chainUid[relabeled], chainBirth[relabeled]);
+			}else {
+				genealogy.merged(chainUid[c], chainUid[relabeled], chainBirth[relabeled]);
+			}
+			releaseChain(relabeled);
+			setChain(c, size, endA, endB);
+			if(merged) {
+				setStrength(c, sum, min, seed);
+				addStrength(c, createdSeedCnt);
+			}else {
+				strengthSeed[c] = NONE;
+			}
+		}
+	}
+
+	/**
+	 * Update after an action of the pair increased the action count of the bond (a -> b),
+	 * strength of the bond grows by 0.5/age.
+	 * Called without the lock of the store, see the class comment.
+	 *
+	 * @param actionCnt action count of the bond before the action
+	 */
+	void bondAction(int a, long actionCnt, long createdSeedCnt) {
+		int c = trsfChain[a];
+		if(c == NONE) {
+			return;
+		}
+		long seed = strengthSeed[c];
+		if(seed == NONE) {
+			return;
+		}
+		double oldStrength = Bond.calcStrength(actionCnt, createdSeedCnt, seed);
+		addSum(c, Bond.calcStrength(actionCnt + 1, createdSeedCnt, seed) - oldStrength);
+		if(oldStrength <= strengthMin[c]) {
+			strengthSeed[c] = NONE;	// the weakest bond may be another one now
+		}
+	}
+
+	/**
+	 * Action count of a bond of the transformer was changed otherwise
+	 */
+	void invalidateStrength(int trsf) {
+		int c = trsfChain[trsf];
+		if(c != NONE) {
+			strengthSeed[c] = NONE;
+		}
+	}
+
+	/**
+	 * Update after bonds (a -> b) and (b -> a) were broken
+	 *
+	 * @param actionCnt action count of the broken bond
+	 */
+	void bondRemoved(WorldState state, int a, int b, long actionCnt, long createdSeedCnt) {
+		int c = trsfChain[a];
+		if(chainEnd1[c] == NONE) {
+			// circle is opened between a and b
+			chainEnd1[c] = a;
+			chainEnd2[c] = b;
+			long seed = strengthSeed[c];
+			if(seed != NONE) {
+				double strength = Bond.calcStrength(actionCnt, createdSeedCnt, seed);
+				addSum(c, -strength);
+				if(strength <= strengthMin[c]) {
+					strengthSeed[c] = NONE;
+				}
+			}
+			return;
+		}
+		int sizeA = 1;
+		int farA = a;
+		for(int prev=NONE, cur=a, next;(next = nextLink(state, cur, prev)) != NONE;prev=cur, cur=next) {
+			sizeA++;
+			farA = next;
+		}
+		int sizeB = chainSize[c] - sizeA;
+		int farB = farA == chainEnd1[c] ? chainEnd2[c] : chainEnd1[c];
+		if(sizeA <= sizeB) {
+			split(state, c, a, farA, sizeA, b, farB, sizeB);
+		}else {
+			split(state, c, b, farB, sizeB, a, farA, sizeA);
+		}
+	}
+
+	/**
+	 * Part from..fromEnd gets a new id, the other part keeps the id of the chain
+	 */
+	private void split(WorldState state, int c, int from, int fromEnd, int fromSize, int rest, int restEnd, int restSize) {
+		strengthSeed[c] = NONE;
+		if(fromSize == 1) {
+			trsfChain[from] = NONE;
+		}else {
+			int newC = newChain();
+			label(state, from, newC);
+			setChain(newC, fromSize, from, fromEnd);
+			strengthSeed[newC] = NONE;
+			ChainGenealogy.Pending pending = PENDING.get();
+			chainUid[newC] = pending != null ? pending.split(newC, chainUid[c]) : genealogy.split(chainUid[c]);
+			chainBirth[newC] = genealogy.getSeedCnt();
+		}
+		if(restSize == 1) {
+			trsfChain[rest] = NONE;
+			ChainGenealogy.Pending pending = PENDING.get();
+			if(pending != null) {
+				pending.died(chainUid[c], chainBirth[c]);
+			}else {
+				genealogy.died(chainUid[c], chainBirth[c]);
+			}
+			releaseChain(c);
+		}else {
+			setChain(c, restSize, rest, restEnd);
+		}
+	}
+
+	/**
+	 * Chain c gets new link at its end
+	 */
+	private void extend(int c, int end, int link) {
+		trsfChain[link] = c;
+		chainSize[c]++;
+		if(chainEnd1[c] == end) {
+			chainEnd1[c] = link;
+		}else {
+			chainEnd2[c] = link;
+		}
+	}
+
+	/**
+	 * Set chain id c for links reachable from the end,
+	 * stops at the end of the path or at a link that already has id c
+	 *
+	 * @return the last link labeled
+	 */
+	private int label(WorldState state, int end, int c) {
+		int size = 1;
+		trsfChain[end] = c;
+		int last = end;
+		for(int prev=NONE, cur=end, next;(next = nextLink(state, cur, prev)) != NONE && trsfChain[next] != c;prev=cur, cur=next) {
+			trsfChain[next] = c;
+			size++;
+			last = next;
+		}
+		chainSize[c] = size;
+		return last;
+	}
+
+	/**
+	 * @return neighbor of cur other than prev, or NONE
+	 */
+	static int nextLink(WorldState state, int cur, int prev) {
+		for(int k=0;k<state.getBondCnt(cur);k++) {
+			int neighbor = state.getBondNeighbor(state.getBondSlot(cur, k));
+			if(neighbor != prev) {
+				return neighbor;
+			}
+		}
+		return NONE;
+	}
+
+	private int otherEnd(int c, int end) {
+		return chainEnd1[c] == end ? chainEnd2[c] : chainEnd1[c];
+	}
+
+	/**
+	 * Aggregates of chain c become valid for the seed
+	 */
+	private void setStrength(int c, double sum, double min, long seed) {
+		strengthSum[c] = sum;
+		strengthMin[c] = min;
+		strengthSeed[c] = seed;
+	}
+
+	/**
+	 * New bond of chain c with action count 1, counted in the aggregates if they are valid
+	 */
+	private void addStrength(int c, long createdSeedCnt) {
+		long seed = strengthSeed[c];
+		if(seed == NONE) {
+			return;
+		}
+		double strength = Bond.calcStrength(1, createdSeedCnt, seed);
+		addSum(c, strength);
+		strengthMin[c] = Math.min(strengthMin[c], strength);
+	}
+
+	private void addSum(int c, double delta) {
+		double sum;
+		do {
+			sum = (double)STRENGTH_SUM.getVolatile(strengthSum, c);
+		} while(!STRENGTH_SUM.compareAndSet(strengthSum, c, sum, sum + delta));
+	}
+
+	/**
+	 * Walk the chain of trsf, each bond once, and cache its aggregates for the seed
+	 */
+	private void updateStrength(WorldState state, int c, int trsf, long seedCnt) {
+		boolean circular = chainEnd1[c] == NONE;
+		int first = circular ? trsf : chainEnd1[c];
+		double sum = 0.0;
+		double min = Double.MAX_VALUE;
+		int prev = NONE;
+		int cur = first;
+		while(true) {
+			int next = nextLink(state, cur, prev);
+			if(next == NONE) {
+				break;
+			}
+			double strength = state.getBondStrength(state.findBondSlot(cur, next), seedCnt);
+			sum += strength;
+			min = Math.min(min, strength);
+			if(next == first) {
+				break;
+			}
+			prev = cur;
+			cur = next;
+		}
+		setStrength(c, sum, min, seedCnt);
+	}
+
+	/**
+	 * @return sum of strengths of the bonds of the chain, 0 for standalone transformer
+	 */
+	double getStrengthSum(WorldState state, int trsf, long seedCnt) {
+		int c = trsfChain[trsf];
+		if(c == NONE) {
+			return 0.0;
+		}
+		if(strengthSeed[c] != seedCnt) {
+			updateStrength(state, c, trsf, seedCnt);
+		}
+		return strengthSum[c];
+	}
+
+	/**
+	 * @return true if the aggregates of the chain of trsf are cached for the seed
+	 */
+	boolean isStrengthCached(int trsf, long seedCnt) {
+		int c = trsfChain[trsf];
+		return c != NONE && strengthSeed[c] == seedCnt;
+	}
+
+	/**
+	 * @return strength of the weakest bond of the chain, 0 for standalone transformer
+	 */
+	double getStrengthMin(WorldState state, int trsf, long seedCnt) {
+		int c = trsfChain[trsf];
+		if(c == NONE) {
+			return 0.0;
+		}
+		if(strengthSeed[c] != seedCnt) {
+			updateStrength(state, c, trsf, seedCnt);
+		}
+		return strengthMin[c];
+	}
+
+	/**
+	 * New chain c gets persistent id
+	 */
+	private void born(int c) {
+		ChainGenealogy.Pending pending = PENDING.get();
+		chainUid[c] = pending != null ? pending.born(c) : genealogy.born();
+		chainBirth[c] = genealogy.getSeedCnt();
+	}
+
+	/**
+	 * Defer events of chains changed by the current thread, until it is called with null
+	 */
+	static void deferEvents(ChainGenealogy.Pending pending) {
+		if(pending == null) {
+			PENDING.remove();
+		}else {
+			PENDING.set(pending);
+		}
+	}
+
+	/**
+	 * Record deferred events in the genealogy, chains born and split off get persistent ids
+	 * in place of the provisional ones
+	 */
+	void replay(ChainGenealogy.Pending pending) {
+		int[] provisional = new int[pending.size()];
+		int[] uid = new int[pending.size()];
+		int mappedCnt = 0;
+		for(int e=0;e<pending.size();e++) {
+			int chain = pending.getChain(e);
+			int other = resolve(pending.getOther(e), provisional, uid, mappedCnt);
+			switch(pending.getType(e)) {
+			case ChainGenealogy.BIRTH:
+			case ChainGenealogy.SPLIT:
+				int id = pending.getType(e) == ChainGenealogy.BIRTH ? genealogy.born() : genealogy.split(other);
+				provisional[mappedCnt] = chain;
+				uid[mappedCnt++] = id;
+				int slot = pending.getSlot(e);
+				if(chainUid[slot] == chain) {
+					chainUid[slot] = id;
+				}
+				break;
+			case ChainGenealogy.MERGE:
+				genealogy.merged(resolve(chain, provisional, uid, mappedCnt), other, pending.getBirth(e));
+				break;
+			default:
+				genealogy.died(resolve(chain, provisional, uid, mappedCnt), pending.getBirth(e));
+			}
+		}
+	}
+
+	private static int resolve(int id, int[] provisional, int[] uid, int mappedCnt) {
+		if(!ChainGenealogy.Pending.isProvisional(id)) {
+			return id;
+		}
+		for(int i=0;i<mappedCnt;i++) {
+			if(provisional[i] == id) {
+				return uid[i];
+			}
+		}
+		throw new IllegalStateException("chain "+id+" is not born in the replayed events");
+	}
+
+	private void setChain(int c, int size, int end1, int end2) {
+		chainSize[c] = size;
+		chainEnd1[c] = end1;
+		chainEnd2[c] = end2;
+	}
+
+	private int newChain() {
+		if(freeCnt > 0) {
+			return freeIds[--freeCnt];
+		}
+		if(nextId == chainSize.length) {
+			int newCapacity = Math.max(16, nextId * 2);
+			chainSize = Arrays.copyOf(chainSize, newCapacity);
+			chainEnd1 = Arrays.copyOf(chainEnd1, newCapacity);
+			chainEnd2 = Arrays.copyOf(chainEnd2, newCapacity);
+			freeIds = Arrays.copyOf(freeIds, newCapacity);
+			chainUid = Arrays.copyOf(chainUid, newCapacity);
+			chainBirth = Arrays.copyOf(chainBirth, newCapacity);
+		}
+		return nextId++;
+	}
+
+	private void releaseChain(int c) {
+		chainSize[c] = 0;
+		strengthSeed[c] = NONE;
+		freeIds[freeCnt++] = c;
+	}
+
+	/**
+	 * @return chain id or NONE for standalone transformer
+	 */
+	int getChain(int trsf) {
+		return trsfChain[trsf];
+	}
+
+	/**
+	 * @return number of links in the chain, 1 for standalone transformer
+	 */
+	int getSize(int trsf) {
+		int c = trsfChain[trsf];
+		return c == NONE ? 1 : chainSize[c];
+	}
+
+	/**
+	 * @return end of the chain or NONE for circular chain, the transformer itself if it is standalone
+	 */
+	int getEnd1(int trsf) {
+		int c = trsfChain[trsf];
+		return c == NONE ? trsf : chainEnd1[c];
+	}
+
+	int getEnd2(int trsf) {
+		int c = trsfChain[trsf];
+		return c == NONE ? trsf : chainEnd2[c];
+	}
+
+	boolean isCircular(int trsf) {
+		int c = trsfChain[trsf];
+		return c != NONE && chainEnd1[c] == NONE;
+	}
+
+	/**
+	 * @return persistent id of the chain or NONE for standalone transformer
+	 */
+	int getUid(int trsf) {
+		int c = trsfChain[trsf];
+		return c == NONE ? NONE : chainUid[c];
+	}
+
+	/**
+	 * @return seed the chain was born or split off at, NONE for standalone transformer
+	 */
+	long getBirth(int trsf) {
+		int c = trsfChain[trsf];
+		return c == NONE ? NONE : chainBirth[c];
+	}
+
+	ChainGenealogy getGenealogy() {
+		return genealogy;
+	}
+
+	/**
+	 * Survival of chains, alive chains are counted by age without walking them
+	 *
+	 * @see ChainGenealogy#getSurvival(long[])
+	 */
+	double[] getSurvival() {
+		long[] aliveCnt = new long[16];
+		for(int c=0;c<nextId;c++) {
+			if(chainSize[c] > 0) {
+				int age = (int)Math.max(0, genealogy.getSeedCnt() - chainBirth[c]);
+				if(age >= aliveCnt.length) {
+					aliveCnt = Arrays.copyOf(aliveCnt, Math.max(age + 1, aliveCnt.length * 2));
+				}
+				aliveCnt[age]++;
+			}
+		}
+		return genealogy.getSurvival(aliveCnt);
+	}
+}
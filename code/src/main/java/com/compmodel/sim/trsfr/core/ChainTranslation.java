@@ -0,0 +1,155 @@
+package com.compmodel.sim.trsfr.core;
+
+import java.util.Arrays;
+
+/**
+ * Rigid translation of a group of bonded transformers by one step.
+ * The group is loaded once: its transformers are stamped with the epoch of the load,
+ * so a test whether a transformer belongs to the group is O(1) instead of a search in the list of links.
+ * A move is checked in one pass over the links, for each link:
+ *  - its new cell is inside the space and the tile, free or taken by the group
+ *  - transformers around the new cell, except the group, accept a new bond and the link does not get too many bonds
+ * The move is committed in the grid per line of the group along the move vector:
+ * the leading link of the line takes the free cell ahead and the cell of the trailing link is vacated,
+ * cells in between stay taken and only get new ids. So the content of the grid and the order of its free cells
+ * are the same as after moving the links one by one, the leading ones first, but links are not sorted.
+ * Check and commit cost O(links).
+ * Not thread safe, each turn thread has its own translation.
+ *
+ * @author Sergey Sherstyuk
+ *
+ */
+final class ChainTranslation {
+	private static final int NONE = WorldState.NONE;
+	private int[] stamps = new int[0];	// epoch of the last load that included the transformer
+	private int epoch;
+	private int cnt;
+	private int[] links = new int[16];
+	private int[] targets = new int[16];	// cells of the links after the last checked move
+	private int[] lineMoves = new int[16];	// trailing cell and free cell ahead of each line, in pairs
+	private int fromCell;	// move vector of the last check
+	private int toCell;
+
+	/**
+	 * Load the group of transformers linked to trsf
+	 *
+	 * @param traversal of the calling thread
+	 * @return number of transformers in the group, trsf included
+	 */
+	int load(WorldState state, LinkTraversal traversal, int trsf) {
+		nextEpoch(state.getTrsfCount());
+		cnt = traversal.collect(state, trsf, null);
+		if(links.length < cnt) {
+			links = new int[Math.max(cnt, links.length * 2)];
+			targets = new int[links.length];
+		}
+		for(int i=0;i<cnt;i++) {
+			int link = traversal.get(i);
+			links[i] = link;
+			stamps[link] = epoch;
+		}
+		return cnt;
+	}
+
+	boolean isMember(int trsf) {
+		return stamps[trsf] == epoch;
+	}
+
+	int size() {
+		return cnt;
+	}
+
+	int getLink(int i) {
+		return links[i];
+	}
+
+	/**
+	 * Check move of the loaded group by the vector (newCell - origCell)
+	 *
+	 * @param grid transformers grid
+	 * @param maxNeighborNumber valence of transformers
+	 * @return true if the move is not possible
+	 */
+	boolean isForbidden(TurnContext ctx, WorldState state, CellIndex grid, int maxNeighborNumber, int origCell, int newCell) {
+		Lattice lattice = state.getLattice();
+		fromCell = origCell;
+		toCell = newCell;
+		for(int i=0;i<cnt;i++) {
+			int link = links[i];
+			int target = lattice.translate(state.getTrsfCell(link), origCell, newCell);
+			if(target == Lattice.NONE || ctx.isOutsideTile(target)) {
+				return true;
+			}
+			targets[i] = target;
+			int occupant = grid.get(target);
+			if(occupant != NONE && !isMember(occupant)) {
+				return true;
+			}
+			// transformers around the new cell, links of the group will not be there after the move
+			int newNeighbCnt = state.getBondCnt(link);
+			ctx.cursor.resetDisk(target, 1);
+			while(ctx.cursor.next()) {
+				int neighb = grid.get(ctx.cursor.cell());
+				if(neighb == NONE || isMember(neighb)) {
+					continue;
+				}
+				if(state.getBondCnt(neighb) >= maxNeighborNumber || ctx.isForeign(neighb)) {
+					return true;
+				}
+				if(!state.hasNeighbor(link, neighb)) {
+					newNeighbCnt++;
+				}
+			}
+			if(newNeighbCnt > maxNeighborNumber) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Move the loaded group as checked by the last isForbidden that returned false.
+	 * Lines are found first, then the grid and the cells of the links are updated.
+	 */
+	void commit(WorldState state, CellIndex grid) {
+		Lattice lattice = state.getLattice();
+		int lineCnt = 0;
+		for(int i=0;i<cnt;i++) {
+			int ahead = targets[i];
+			int occupant = grid.get(ahead);
+			if(occupant != NONE && isMember(occupant)) {
+				continue;	// not the leading link of its line
+			}
+			// walk back along the line to its trailing link
+			int trailing = state.getTrsfCell(links[i]);
+			int prev = lattice.translate(trailing, toCell, fromCell);
+			while(prev != Lattice.NONE && (occupant = grid.get(prev)) != NONE && isMember(occupant)) {
+				trailing = prev;
+				prev = lattice.translate(trailing, toCell, fromCell);
+			}
+			if(2 * lineCnt + 2 > lineMoves.length) {
+				lineMoves = Arrays.copyOf(lineMoves, lineMoves.length * 2);
+			}
+			lineMoves[2 * lineCnt] = trailing;
+			lineMoves[2 * lineCnt + 1] = ahead;
+			lineCnt++;
+		}
+		for(int l=0;l<lineCnt;l++) {
+			grid.move(lineMoves[2 * l], lineMoves[2 * l + 1]);
+		}
+		for(int i=0;i<cnt;i++) {
+			grid.set(targets[i], links[i]);
+			state.setTrsfCell(links[i], targets[i]);
+		}
+	}
+
+	private void nextEpoch(int trsfCount) {
+		if(stamps.length < trsfCount) {
+			stamps = Arrays.copyOf(stamps, Math.max(trsfCount, stamps.length * 2));
+		}
+		if(++epoch == Integer.MAX_VALUE) {
+			Arrays.fill(stamps, 0);
+			epoch = 1;
+		}
+	}
+}
@@ -0,0 +1,136 @@
+package com.compmodel.sim.trsfr.core;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayDeque;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Writes world checkpoints on a background thread.
+ * The world hands over a consistent copy of itself and goes on, the copy is serialized to a temporary file,
+ * synced to disk and renamed to the checkpoint file, so a checkpoint file is either complete or absent.
+ * When more than keep checkpoints are written, the oldest ones are deleted.
+ * At most maxInFlight copies are waiting or being written, submit blocks until one of them is finished,
+ * so copies cannot exhaust the heap when the disk is slow.
+ *
+ * @author Sergey Sherstyuk
+ *
+ */
+public class CheckpointWriter {
+	private static final Logger log = LoggerFactory.getLogger(CheckpointWriter.class);
+	private static final String TMP_SUFFIX = ".tmp";
+
+	/**
+	 * Called on the writer thread when a checkpoint is written or failed
+	 */
+	public interface Listener {
+		/**
+		 * @param error null if the checkpoint was written
+		 */
+		void checkpointDone(String fileName, long seedCnt, IOException error);
+	}
+
+	private final ExecutorService executor;
+	private final Semaphore inFlight;
+	private final int keep;
+	private final Listener listener;
+	private final ArrayDeque<String> written = new ArrayDeque<String>();	// writer thread only
+
+	/**
+	 * @param maxInFlight checkpoints waiting or being written
+	 * @param keep number of the latest checkpoints to keep, 0 to keep all
+	 * @param listener may be null
+	 */
+	public CheckpointWriter(int maxInFlight, int keep, Listener listener) {
+		if(maxInFlight < 1) {
+			throw new IllegalArgumentException("maxInFlight must be positive: "+maxInFlight);
+		}
+		this.inFlight = new Semaphore(maxInFlight);
+		this.keep = keep;
+		this.listener = listener;
+		executor = Executors.newSingleThreadExecutor(r -> {
+			Thread thread = new Thread(r, "checkpoint");
+			thread.setDaemon(true);
+			return thread;
+		});
+	}
+
+	/**
+	 * Write the copy in the background, blocks only when maxInFlight checkpoints are in flight
+	 *
+	 * @param copy consistent copy, not changed after the call
+	 */
+	public void submit(Serializable copy, String fileName, long seedCnt) {
+		inFlight.acquireUninterruptibly();
+		executor.execute(() -> {
+			IOException error = null;
+			try {
+				write(copy, fileName);
+				rotate(fileName);
+				log.info(" === Saved snapshot {}",fileName);
+			} catch (IOException e) {
+				error = e;
+				log.error("!!! failed to save snapshot "+fileName, e);
+			} finally {
+				inFlight.release();
+			}
+			if(listener != null) {
+				listener.checkpointDone(fileName, seedCnt, error);
+			}
+		});
+	}
+
+	private static void write(Serializable copy, String fileName) throws IOException {
+		File tmp = new File(fileName + TMP_SUFFIX);
+		try(FileOutputStream file = new FileOutputStream(tmp)) {
+			ObjectOutputStream out = new ObjectOutputStream(new BufferedOutputStream(file));
+			out.writeObject(copy);
+			out.flush();
+			file.getFD().sync();
+		}
+		Path target = new File(fileName).toPath();
+		try {
+			Files.move(tmp.toPath(), target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} catch (AtomicMoveNotSupportedException e) {
+			Files.move(tmp.toPath(), target, StandardCopyOption.REPLACE_EXISTING);
+		}
+	}
+
+	private void rotate(String fileName) {
+		written.addLast(fileName);
+		while(keep > 0 && written.size() > keep) {
+			String old = written.removeFirst();
+			if(!new File(old).delete()) {
+				log.warn("!!! could not delete old snapshot {}", old);
+			}
+		}
+	}
+
+	/**
+	 * Wait until all submitted checkpoints are written and stop the writer thread
+	 */
+	public void shutdown() {
+		executor.shutdown();
+		try {
+			while(!executor.awaitTermination(1, TimeUnit.MINUTES)) {
+				log.info("waiting for snapshots to be written");
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+}
@@ -0,0 +1,142 @@
+package com.compmodel.sim.trsfr.core;
+
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.function.UnaryOperator;
+
+/**
+ * Open addressing hash map with non-negative int keys, used to hold chunks of sparse stores
+ * without boxing the keys.
+ * Linear probing, removal shifts the following entries back, so no tombstones are left.
+ *
+ * @author Sergey Sherstyuk
+ *
+ */
+public class ChunkMap<V> implements Serializable {
+	private static final long serialVersionUID = -3057294583013527480L;
+	private static final int EMPTY = -1;
+	private static final int INIT_CAPACITY = 16;
+	private int[] keys;
+	private Object[] values;
+	private int size;
+	private int mask;
+
+	public ChunkMap() {
+		clear();
+	}
+
+	public void clear() {
+		keys = new int[INIT_CAPACITY];
+		Arrays.fill(keys, EMPTY);
+		values = new Object[INIT_CAPACITY];
+		mask = INIT_CAPACITY - 1;
+		size = 0;
+	}
+
+	private int slot(int key) {
+		return (key * 0x9E3779B9 >>> 7) & mask;
+	}
+
+	@SuppressWarnings("unchecked")
+	public V get(int key) {
+		for(int i=slot(key);;i=(i+1)&mask) {
+			int k = keys[i];
+			if(k == key) {
+				return (V)values[i];
+			}
+			if(k == EMPTY) {
+				return null;
+			}
+		}
+	}
+
+	public void put(int key, V value) {
+		if(key < 0) {
+			throw new IllegalArgumentException("negative key: "+key);
+		}
+		int i = slot(key);
+		for(;;i=(i+1)&mask) {
+			if(keys[i] == key) {
+				values[i] = value;
+				return;
+			}
+			if(keys[i] == EMPTY) {
+				break;
+			}
+		}
+		keys[i] = key;
+		values[i] = value;
+		if(++size * 2 > keys.length) {
+			rehash(keys.length * 2);
+		}
+	}
+
+	public void remove(int key) {
+		int i = slot(key);
+		for(;;i=(i+1)&mask) {
+			if(keys[i] == key) {
+				break;
+			}
+			if(keys[i] == EMPTY) {
+				return;
+			}
+		}
+		size--;
+		// shift back entries of the probe sequence following the removed one
+		int hole = i;
+		for(int j=(i+1)&mask;keys[j]!=EMPTY;j=(j+1)&mask) {
+			int home = slot(keys[j]);
+			if(((j - home) & mask) >= ((j - hole) & mask)) {
+				keys[hole] = keys[j];
+				values[hole] = values[j];
+				hole = j;
+			}
+		}
+		keys[hole] = EMPTY;
+		values[hole] = null;
+	}
+
+	private void rehash(int capacity) {
+		int[] oldKeys = keys;
+		Object[] oldValues = values;
+		keys = new int[capacity];
+		Arrays.fill(keys, EMPTY);
+		values = new Object[capacity];
+		mask = capacity - 1;
+		for(int j=0;j<oldKeys.length;j++) {
+			if(oldKeys[j] != EMPTY) {
+				int i = slot(oldKeys[j]);
+				while(keys[i] != EMPTY) {
+					i = (i+1)&mask;
+				}
+				keys[i] = oldKeys[j];
+				values[i] = oldValues[j];
+			}
+		}
+	}
+
+	/**
+	 * @param copyValue copies a value, values are shared if null
+	 * @return independent copy of the map
+	 */
+	@SuppressWarnings("unchecked")
+	public ChunkMap<V> copy(UnaryOperator<V> copyValue) {
+		ChunkMap<V> copy = new ChunkMap<V>();
+		copy.keys = keys.clone();
+		copy.values = values.clone();
+		copy.size = size;
+		copy.mask = mask;
+		if(copyValue != null) {
+			for(int i=0;i<copy.values.length;i++) {
+				if(copy.values[i] != null) {
+					copy.values[i] = copyValue.apply((V)copy.values[i]);
+				}
+			}
+		}
+		return copy;
+	}
+
+	public int size() {
+		return size;
+	}
+}
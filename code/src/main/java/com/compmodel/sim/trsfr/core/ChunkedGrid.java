@@ -0,0 +1,161 @@
+package com.compmodel.sim.trsfr.core;
+
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Sparse spatial store: the space is split into hypercube chunks with chunkSize points on each axis,
+ * chunks are allocated when the first entity is placed into them and freed when they become empty.
+ * Memory is proportional to the number of occupied chunks, not to the space volume.
+ * Free cells are not indexed, random placement retries random cells,
+ * which takes constant expected time in low-density worlds this store is meant for.
+ *
+ * @author Sergey Sherstyuk
+ *
+ */
+public class ChunkedGrid implements CellIndex {
+	private static final long serialVersionUID = 2931864250781749862L;
+	public static final int CHUNK_SIZE = 8;
+	private final Lattice lattice;
+	private final int chunkShift;
+	private final int chunkMask;
+	private final int chunksPerAxis;
+	private final int chunkVolume;
+	private final ChunkMap<Chunk> chunks;
+	private int occupiedCount;
+
+	private static class Chunk implements Serializable {
+		private static final long serialVersionUID = -7480923570218596011L;
+		private final int[] data;
+		private int count;	// number of non-empty cells
+
+		Chunk(int volume) {
+			data = new int[volume];
+			Arrays.fill(data, NONE);
+		}
+
+		Chunk(Chunk other) {
+			data = other.data.clone();
+			count = other.count;
+		}
+	}
+
+	public ChunkedGrid(Lattice lattice) {
+		this(lattice, CHUNK_SIZE);
+	}
+
+	/**
+	 * @param lattice
+	 * @param chunkSize power of 2
+	 */
+	public ChunkedGrid(Lattice lattice, int chunkSize) {
+		if(chunkSize < 2 || Integer.bitCount(chunkSize) != 1) {
+			throw new IllegalArgumentException("chunkSize must be a power of 2: "+chunkSize);
+		}
+		this.lattice = lattice;
+		chunkShift = Integer.numberOfTrailingZeros(chunkSize);
+		chunkMask = chunkSize - 1;
+		chunksPerAxis = (lattice.getSize() + chunkSize - 1) / chunkSize;
+		chunkVolume = 1 << (lattice.getDim() * chunkShift);
+		chunks = new ChunkMap<Chunk>();
+	}
+
+	private ChunkedGrid(ChunkedGrid other) {
+		lattice = other.lattice;
+		chunkShift = other.chunkShift;
+		chunkMask = other.chunkMask;
+		chunksPerAxis = other.chunksPerAxis;
+		chunkVolume = other.chunkVolume;
+		chunks = other.chunks.copy(Chunk::new);
+		occupiedCount = other.occupiedCount;
+	}
+
+	@Override
+	public ChunkedGrid copy() {
+		return new ChunkedGrid(this);
+	}
+
+	/*
+	 * Chunk key and offset within chunk are packed into long: key in high half, offset in low half
+	 */
+	private long locate(int cell) {
+		int key = 0;
+		int offset = 0;
+		for(int axis=0;axis<lattice.getDim();axis++) {
+			int c = lattice.coord(cell, axis);
+			key = key * chunksPerAxis + (c >> chunkShift);
+			offset = (offset << chunkShift) | (c & chunkMask);
+		}
+		return ((long)key << 32) | offset;
+	}
+
+	public int get(int cell) {
+		long loc = locate(cell);
+		Chunk chunk = chunks.get((int)(loc >>> 32));
+		return chunk == null ? NONE : chunk.data[(int)loc];
+	}
+
+	public void set(int cell, int value) {
+		long loc = locate(cell);
+		int key = (int)(loc >>> 32);
+		int offset = (int)loc;
+		Chunk chunk = chunks.get(key);
+		if(chunk == null) {
+			if(value == NONE) {
+				return;
+			}
+			chunk = new Chunk(chunkVolume);
+			chunks.put(key, chunk);
+		}
+		int old = chunk.data[offset];
+		chunk.data[offset] = value;
+		if(old == NONE && value != NONE) {
+			chunk.count++;
+			occupiedCount++;
+		}else if(old != NONE && value == NONE) {
+			occupiedCount--;
+			if(--chunk.count == 0) {
+				chunks.remove(key);
+			}
+		}
+	}
+
+	public void move(int from, int to) {
+		int value = get(from);
+		set(from, NONE);
+		set(to, value);
+	}
+
+	public void clear() {
+		chunks.clear();
+		occupiedCount = 0;
+	}
+
+	public int randomFree(Random rand) {
+		if(occupiedCount >= lattice.getCellCount()) {
+			return NONE;
+		}
+		while(true) {
+			int cell = lattice.randomCell(rand);
+			if(get(cell) == NONE) {
+				return cell;
+			}
+		}
+	}
+
+	public int getFreeCount() {
+		return lattice.getCellCount() - occupiedCount;
+	}
+
+	public Lattice getLattice() {
+		return lattice;
+	}
+
+	/**
+	 * @return number of allocated chunks
+	 */
+	public int getChunkCount() {
+		return chunks.size();
+	}
+}
@@ -8,13 +8,10 @@ import java.util.Random;
 
 public class Coordinates  implements Serializable{
 	private static final long serialVersionUID = 7477570124358252379L;
-	private static final long RANDOM_SEED = 5772891L;
-	public static Random rand = new Random(RANDOM_SEED);
-	private int[] coords = new int[World.SPACE_DIM];
+	private static final Lattice LATTICE = new Lattice(World.SPACE_SIZE, World.SPACE_DIM);
+	private int[] coords;
 	public Coordinates(int[] coords) {
-		for(int i=0;i<World.SPACE_DIM;i++) {
-			this.coords[i] = coords[i];
-		}
+		this.coords = coords.clone();
 	}
 	
 	public int[] getCoords() {
@@ -22,16 +19,16 @@ public class Coordinates  implements Serializable{
 	}
 
 	public static Coordinates subtract(Coordinates c1, Coordinates c2) {
-		int[] resultC = new int[World.SPACE_DIM];
-		for(int i=0;i<World.SPACE_DIM;i++) {
+		int[] resultC = new int[c1.getCoords().length];
+		for(int i=0;i<resultC.length;i++) {
 			resultC[i] = c1.getCoords()[i] - c2.getCoords()[i];
 		}
 		return new Coordinates(resultC);
 	}
 
 	public static Coordinates add(Coordinates c1, Coordinates c2) {
-		int[] resultC = new int[World.SPACE_DIM];
-		for(int i=0;i<World.SPACE_DIM;i++) {
+		int[] resultC = new int[c1.getCoords().length];
+		for(int i=0;i<resultC.length;i++) {
 			resultC[i] = c1.getCoords()[i] + c2.getCoords()[i];
 		}
 		return new Coordinates(resultC);
@@ -42,14 +39,13 @@ public class Coordinates  implements Serializable{
 	}
 	
 	public static String deltaToString(Coordinates c1, Coordinates c2) {
-		return "["+(c1.getCoords()[0]-c2.getCoords()[0])+"]["
-				+(c1.getCoords()[1]-c2.getCoords()[1])+"]";
+		return subtract(c1, c2).toString();
 	}
 	
 	@Override
 	public String toString() {
 		StringBuilder sb = new StringBuilder();
-		for(int i=0;i<World.SPACE_DIM;i++) {
+		for(int i=0;i<coords.length;i++) {
 			sb.append("[").append(coords[i]).append("]");
 		}
 		return sb.toString();
@@ -57,59 +53,44 @@ public class Coordinates  implements Serializable{
 	
 	/**
 	 * Return array of points located within given distance from center,
-	 * inclusive.
+	 * inclusive, in the space with default size and dimension.
 	 * 
 	 * @param center
 	 * @param distance
 	 * @return
 	 */
 	public static ArrayList<Coordinates> getVicinity(Coordinates center, int distance){
-		int[] startIdx = new int[World.SPACE_DIM];
-		int[] endIdx = new int[World.SPACE_DIM];
-		int[] centerc = center.getCoords();
-		ArrayList<Coordinates> result = new ArrayList<Coordinates>();
-		// Determine a cube
-		for(int i=0;i<World.SPACE_DIM;i++) {
-			startIdx[i] = centerc[i] < distance?0:centerc[i] - distance;
-			endIdx[i] = centerc[i] >= World.SPACE_SIZE - distance?World.SPACE_SIZE-1:centerc[i] + distance;
-		}
-		/* Check each point in a cube if the distance is within the given range.
-		 */
-		for(int i=startIdx[0];i<=endIdx[0];i++) {
-			for(int j=startIdx[1];j<=endIdx[1];j++) {
-				if(calcDistance(center,i,j)<=distance) {
-					result.add(new Coordinates(new int[] {i,j}));
-				}
-			}
+		return getVicinity(LATTICE, center, distance);
+	}
+
+	public static ArrayList<Coordinates> getVicinity(Lattice lattice, Coordinates center, int distance){
+		RingStencil stencil = new RingStencil(lattice.getDim(), distance);
+		ArrayList<Coordinates> result = new ArrayList<Coordinates>(stencil.getDiskSize(distance));
+		RingCursor cursor = new RingCursor(stencil, lattice).resetDisk(lattice.toCell(center), distance);
+		while(cursor.next()) {
+			result.add(lattice.toCoordinates(cursor.cell()));
 		}
 		return result;
 	}
 
 	/**
 	 * Return array of points located on the surface with given distance from center,
-	 * Note, algorithm is not optimized for our definition of distance, could be calculated more efficiently.
+	 * in the space with default size and dimension.
+	 * Points are taken from the precomputed ring, so the cost is proportional to the ring size.
 	 * @param center
 	 * @param distance
 	 * @return
 	 */
 	public static ArrayList<Coordinates> getSurface(Coordinates center, int distance){
-		int[] startIdx = new int[World.SPACE_DIM];
-		int[] endIdx = new int[World.SPACE_DIM];
-		int[] centerc = center.getCoords();
-		ArrayList<Coordinates> result = new ArrayList<Coordinates>();
-		// Determine a cube
-		for(int i=0;i<World.SPACE_DIM;i++) {
-			startIdx[i] = centerc[i] < distance?0:centerc[i] - distance;
-			endIdx[i] = centerc[i] >= World.SPACE_SIZE - distance?World.SPACE_SIZE-1:centerc[i] + distance;
-		}
-		/* Check each point in a cube if the distance is within the given range.
-		 */
-		for(int i=startIdx[0];i<=endIdx[0];i++) {
-			for(int j=startIdx[1];j<=endIdx[1];j++) {
-				if(calcDistance(center,i,j) == distance) {
-					result.add(new Coordinates(new int[] {i,j}));
-				}
-			}
+		return getSurface(LATTICE, center, distance);
+	}
+
+	public static ArrayList<Coordinates> getSurface(Lattice lattice, Coordinates center, int distance){
+		RingStencil stencil = new RingStencil(lattice.getDim(), distance);
+		ArrayList<Coordinates> result = new ArrayList<Coordinates>(stencil.getRingSize(distance));
+		RingCursor cursor = new RingCursor(stencil, lattice).resetRing(lattice.toCell(center), distance);
+		while(cursor.next()) {
+			result.add(lattice.toCoordinates(cursor.cell()));
 		}
 		return result;
 	}
@@ -125,7 +106,7 @@ public class Coordinates  implements Serializable{
 	
 	public static int calcDistance(Coordinates center, int... axisCoords) {
 		int distance = 0;
-		for(int i=0;i<World.SPACE_DIM;i++) {
+		for(int i=0;i<axisCoords.length;i++) {
 			distance += Math.abs(center.getCoords()[i]-axisCoords[i]);
 		}
 		return distance;
@@ -133,17 +114,13 @@ public class Coordinates  implements Serializable{
 
 	public static int calcDistance(Coordinates coord1, Coordinates coord2) {
 		int distance = 0;
-		for(int i=0;i<World.SPACE_DIM;i++) {
+		for(int i=0;i<coord1.getCoords().length;i++) {
 			distance += Math.abs(coord1.getCoords()[i]-coord2.getCoords()[i]);
 		}
 		return distance;
 	}
 
-	public static Coordinates createRandom() {
-		int[] coords = new int[World.SPACE_DIM];
-		for(int i=0;i<World.SPACE_DIM;i++) {
-			coords[i] = rand.nextInt(World.SPACE_SIZE);
-		}
-		return new Coordinates(coords);
+	public static Coordinates createRandom(Lattice lattice, Random rand) {
+		return lattice.toCoordinates(lattice.randomCell(rand));
 	}
 }
@@ -0,0 +1,118 @@
+package com.compmodel.sim.trsfr.core;
+
+import java.io.Serializable;
+import java.util.Random;
+
+/**
+ * Indexable set of free cells: free cells are kept at the head of an array,
+ * with a position map cell -> index in the array.
+ * Occupying a cell is a swap-remove, releasing is an append,
+ * so picking a random free cell takes constant time at any density.
+ *
+ * @author Sergey Sherstyuk
+ *
+ */
+public class FreeCellSet implements Serializable {
+	private static final long serialVersionUID = 4419638017702957512L;
+	public static final int NONE = -1;
+	private final int[] cells;	// free cells in [0, count)
+	private final int[] pos;	// index of the cell in cells, NONE when occupied
+	private int count;
+
+	public FreeCellSet(int cellCount) {
+		cells = new int[cellCount];
+		pos = new int[cellCount];
+		clear();
+	}
+
+	private FreeCellSet(FreeCellSet other) {
+		cells = other.cells.clone();
+		pos = other.pos.clone();
+		count = other.count;
+	}
+
+	/**
+	 * @return independent copy, random picks from it give the same cells as from this set
+	 */
+	public FreeCellSet copy() {
+		return new FreeCellSet(this);
+	}
+
+	/**
+	 * Mark all cells as free
+	 */
+	public void clear() {
+		for(int i=0;i<cells.length;i++) {
+			cells[i] = i;
+			pos[i] = i;
+		}
+		count = cells.length;
+	}
+
+	public boolean isFree(int cell) {
+		return pos[cell] != NONE;
+	}
+
+	public void occupy(int cell) {
+		int idx = pos[cell];
+		if(idx == NONE) {
+			return;
+		}
+		int last = cells[--count];
+		cells[idx] = last;
+		pos[last] = idx;
+		cells[count] = cell;
+		pos[cell] = NONE;
+	}
+
+	public void release(int cell) {
+		if(pos[cell] != NONE) {
+			return;
+		}
+		cells[count] = cell;
+		pos[cell] = count++;
+	}
+
+	/**
+	 * Occupy free cell to and release occupied cell from in one step.
+	 * The array slot of to is handed over to from, the number of free cells does not change,
+	 * so moves of disjoint cells do not interfere and may run concurrently.
+	 */
+	public void move(int from, int to) {
+		int idx = pos[to];
+		if(idx == NONE || pos[from] != NONE) {
+			// not a move from occupied to free cell
+			release(from);
+			occupy(to);
+			return;
+		}
+		cells[idx] = from;
+		pos[from] = idx;
+		pos[to] = NONE;
+	}
+
+	/**
+	 * @return random free cell or NONE if there are no free cells
+	 */
+	public int random(Random rand) {
+		return count == 0 ? NONE : cells[rand.nextInt(count)];
+	}
+
+	public int size() {
+		return count;
+	}
+
+	/**
+	 * @return free cell at the index of the array, for index < size()
+	 */
+	int cellAt(int idx) {
+		return cells[idx];
+	}
+
+	/**
+	 * @return index of the cell in the array, NONE when occupied
+	 */
+	int indexOf(int cell) {
+		return pos[cell];
+	}
+}
@@ -10,10 +10,11 @@ public class HistoryRecord  implements Serializable{
 	private long seedCnt = 0;
 	private int turnCnt = 0;
 	private String	actorName;
-	private Coordinates	actorCoords;
+	private Lattice lattice;
+	private int	actorCell;
 	private AtomTypeEnum atomConsumedType;
 	private AtomTypeEnum atomProducedType;
-	private Coordinates	atomCoords;
+	private int	atomCell;
 	private boolean moved;
 	private boolean transformed;
 	
@@ -26,14 +27,15 @@ public class HistoryRecord  implements Serializable{
 		this.actorName = actor.getName();
 		atomConsumedType = actor.getInputType();
 		atomProducedType = actor.getOutputType();
+		lattice = actor.getLattice();
 		if(carrier != null) {
 			transformed = true;
-			atomCoords = new Coordinates(carrier.getCoords().getCoords());
+			atomCell = carrier.getCell();
 		}else {
 			transformed = false;
-			atomCoords = null;
+			atomCell = Lattice.NONE;
 		}
-		actorCoords = new Coordinates(actor.getCoords().getCoords());
+		actorCell = actor.getCell();
 		this.setMoved(moved);
 	}
 	
@@ -44,12 +46,12 @@ public class HistoryRecord  implements Serializable{
 			append(String.format("%06d",seedCnt)).append(",turn:").
 			append(String.format("%02d",turnCnt)).append(",actor:").
 			append(actorName).append(",at").
-			append(actorCoords.toString()).append(",");
+			append(lattice.toString(actorCell)).append(",");
 		if(transformed) {
 			sb.append("act:").append(atomConsumedType.name()).
 				append("->").append(atomProducedType.name()).
 				append(",atom at").
-				append(atomCoords.toString()).append(",");
+				append(lattice.toString(atomCell)).append(",");
 		}else {
 			sb.append(",idle,");
 		}
@@ -96,11 +98,17 @@ public class HistoryRecord  implements Serializable{
 	public void setActorName(String actorName) {
 		this.actorName = actorName;
 	}
+	public int getActorCell() {
+		return actorCell;
+	}
+	public void setActorCell(int actorCell) {
+		this.actorCell = actorCell;
+	}
 	public Coordinates getActorCoords() {
-		return actorCoords;
+		return lattice.toCoordinates(actorCell);
 	}
 	public void setActorCoords(Coordinates actorCoords) {
-		this.actorCoords = actorCoords;
+		this.actorCell = lattice.toCell(actorCoords);
 	}
 	public AtomTypeEnum getAtomConsumedType() {
 		return atomConsumedType;
@@ -114,11 +122,17 @@ public class HistoryRecord  implements Serializable{
 	public void setAtomProducedType(AtomTypeEnum atomProducedType) {
 		this.atomProducedType = atomProducedType;
 	}
+	public int getAtomCell() {
+		return atomCell;
+	}
+	public void setAtomCell(int atomCell) {
+		this.atomCell = atomCell;
+	}
 	public Coordinates getAtomCoords() {
-		return atomCoords;
+		return atomCell == Lattice.NONE ? null : lattice.toCoordinates(atomCell);
 	}
 	public void setAtomCoords(Coordinates atomCoords) {
-		this.atomCoords = atomCoords;
+		this.atomCell = atomCoords == null ? Lattice.NONE : lattice.toCell(atomCoords);
 	}
 
 	public boolean isMoved() {
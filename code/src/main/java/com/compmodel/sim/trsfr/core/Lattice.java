@@ -0,0 +1,170 @@
+package com.compmodel.sim.trsfr.core;
+
+import java.io.Serializable;
+import java.util.Random;
+
+/**
+ * Geometry of the world space: hypercube with size points on each of dim axes.
+ * Points are addressed by a packed int cell index with row-major strides:
+ * cell = sum(coord[axis] * stride[axis]), stride of the last axis is 1.
+ * For 2-D space it gives cell = x*size + y.
+ * Cell index is the canonical position type inside the world,
+ * Coordinates are used only for logging and external API.
+ *
+ * @author Sergey Sherstyuk
+ *
+ */
+public class Lattice implements Serializable {
+	private static final long serialVersionUID = -4398719387513655721L;
+	public static final int NONE = -1;
+	private final int size;
+	private final int dim;
+	private final int[] strides;
+	private final int cellCount;
+
+	public Lattice(int size, int dim) {
+		if(size < 1 || dim < 1) {
+			throw new IllegalArgumentException("invalid space size:"+size+" or dimension:"+dim);
+		}
+		long count = 1;
+		strides = new int[dim];
+		for(int axis=dim-1;axis>=0;axis--) {
+			strides[axis] = (int)count;
+			count *= size;
+			if(count > Integer.MAX_VALUE) {
+				throw new IllegalArgumentException("space is too big, size:"+size+", dimension:"+dim);
+			}
+		}
+		this.size = size;
+		this.dim = dim;
+		this.cellCount = (int)count;
+	}
+
+	public int getSize() {
+		return size;
+	}
+
+	public int getDim() {
+		return dim;
+	}
+
+	public int getCellCount() {
+		return cellCount;
+	}
+
+	public int getStride(int axis) {
+		return strides[axis];
+	}
+
+	public int coord(int cell, int axis) {
+		return (cell / strides[axis]) % size;
+	}
+
+	/**
+	 * Cell from the first two coordinates, the rest are 0.
+	 * Used for the 2-D projection of the space, in 1-D space y is ignored.
+	 */
+	public int cell(int x, int y) {
+		return dim > 1 ? x * strides[0] + y * strides[1] : x;
+	}
+
+	public int cell(int[] coords) {
+		int cell = 0;
+		for(int axis=0;axis<dim;axis++) {
+			cell += coords[axis] * strides[axis];
+		}
+		return cell;
+	}
+
+	public int x(int cell) {
+		return coord(cell, 0);
+	}
+
+	/**
+	 * @return second coordinate of the cell, 0 in 1-D space
+	 */
+	public int y(int cell) {
+		return dim > 1 ? coord(cell, 1) : 0;
+	}
+
+	public boolean contains(int[] coords) {
+		for(int axis=0;axis<dim;axis++) {
+			if(coords[axis] < 0 || coords[axis] >= size) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Distance is calculated as a sum of differences on each dimension,
+	 * same as Coordinates.calcDistance
+	 */
+	public int distance(int cell1, int cell2) {
+		if(dim == 2) {
+			int x1 = cell1 / size;
+			int x2 = cell2 / size;
+			return Math.abs(x1 - x2) + Math.abs((cell1 - x1 * size) - (cell2 - x2 * size));
+		}
+		int distance = 0;
+		for(int axis=0;axis<dim;axis++) {
+			distance += Math.abs(coord(cell1, axis) - coord(cell2, axis));
+		}
+		return distance;
+	}
+
+	/**
+	 * Position of the cell along the vector (toCell - fromCell): dot product of cell coordinates and the vector
+	 */
+	public int projection(int cell, int fromCell, int toCell) {
+		int result = 0;
+		for(int axis=0;axis<dim;axis++) {
+			result += coord(cell, axis) * (coord(toCell, axis) - coord(fromCell, axis));
+		}
+		return result;
+	}
+
+	/**
+	 * Shift cell by the vector (toCell - fromCell)
+	 *
+	 * @return shifted cell or NONE if it is outside of space
+	 */
+	public int translate(int cell, int fromCell, int toCell) {
+		int result = 0;
+		for(int axis=0;axis<dim;axis++) {
+			int c = coord(cell, axis) + coord(toCell, axis) - coord(fromCell, axis);
+			if(c < 0 || c >= size) {
+				return NONE;
+			}
+			result += c * strides[axis];
+		}
+		return result;
+	}
+
+	public int randomCell(Random rand) {
+		return rand.nextInt(cellCount);
+	}
+
+	public Coordinates toCoordinates(int cell) {
+		int[] coords = new int[dim];
+		for(int axis=0;axis<dim;axis++) {
+			coords[axis] = coord(cell, axis);
+		}
+		return new Coordinates(coords);
+	}
+
+	public int toCell(Coordinates coords) {
+		return cell(coords.getCoords());
+	}
+
+	/**
+	 * Format cell the same way as Coordinates.toString()
+	 */
+	public String toString(int cell) {
+		StringBuilder sb = new StringBuilder();
+		for(int axis=0;axis<dim;axis++) {
+			sb.append("[").append(coord(cell, axis)).append("]");
+		}
+		return sb.toString();
+	}
+}
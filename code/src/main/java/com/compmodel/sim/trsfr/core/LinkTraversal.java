@@ -0,0 +1,115 @@
+package com.compmodel.sim.trsfr.core;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Iterative traversal of transformers linked by bonds, without recursion, so chains of any length fit the stack.
+ * Visited transformers are marked with the epoch of the traversal in a stamp array,
+ * so the array is not cleared between traversals and a visit check is O(1).
+ * Transformers are collected in the same order as the recursive depth-first search did:
+ * the start transformer, then the links reachable by its first bond, then by the second one, etc.
+ * When chains are indexed, a chain is walked directly in the direction of each bond of the start.
+ * Not thread safe, each turn thread has its own traversal.
+ *
+ * @author Sergey Sherstyuk
+ *
+ */
+final class LinkTraversal {
+	private static final int NONE = WorldState.NONE;
+	private int[] stamps = new int[0];	// epoch of the last traversal that visited the transformer
+	private int epoch;
+	private int[] links = new int[16];	// collected transformers
+	private int[] stackTrsf = new int[16];
+	private int[] stackBond = new int[16];	// next bond to follow
+
+	/**
+	 * Collect transformers linked to trsf, trsf itself is the first one
+	 *
+	 * @param visited transformers that are not collected and not passed through, may be null
+	 * @return number of collected transformers, see get
+	 */
+	int collect(WorldState state, int trsf, List<Transformer> visited) {
+		if(visited == null && state.hasChainIndex()) {
+			return walkChain(state, trsf);
+		}
+		nextEpoch(state.getTrsfCount());
+		if(visited != null) {
+			for(Transformer t : visited) {
+				stamps[t.getId()] = epoch;
+			}
+		}
+		int cnt = 0;
+		int depth = 0;
+		stamps[trsf] = epoch;
+		links = ensure(links, cnt + 1);
+		links[cnt++] = trsf;
+		stackTrsf[depth] = trsf;
+		stackBond[depth++] = 0;
+		while(depth > 0) {
+			int cur = stackTrsf[depth - 1];
+			int k = stackBond[depth - 1];
+			if(k >= state.getBondCnt(cur)) {
+				depth--;
+				continue;
+			}
+			stackBond[depth - 1] = k + 1;
+			int neighbor = state.getBondNeighbor(state.getBondSlot(cur, k));
+			if(stamps[neighbor] == epoch) {
+				continue;
+			}
+			stamps[neighbor] = epoch;
+			links = ensure(links, cnt + 1);
+			links[cnt++] = neighbor;
+			if(depth == stackTrsf.length) {
+				stackTrsf = Arrays.copyOf(stackTrsf, depth * 2);
+				stackBond = Arrays.copyOf(stackBond, depth * 2);
+			}
+			stackTrsf[depth] = neighbor;
+			stackBond[depth++] = 0;
+		}
+		return cnt;
+	}
+
+	/**
+	 * Chain with valence up to 2: walk from trsf in the direction of each bond until the end or back to trsf
+	 */
+	private int walkChain(WorldState state, int trsf) {
+		int size = state.getChainSize(trsf);
+		links = ensure(links, size);
+		int cnt = 0;
+		links[cnt++] = trsf;
+		for(int k=0;k<state.getBondCnt(trsf) && cnt<size;k++) {
+			int prev = trsf;
+			int cur = state.getBondNeighbor(state.getBondSlot(trsf, k));
+			while(cur != NONE && cur != trsf && cnt < size) {
+				links[cnt++] = cur;
+				int next = ChainIndex.nextLink(state, cur, prev);
+				prev = cur;
+				cur = next;
+			}
+		}
+		return cnt;
+	}
+
+	/**
+	 * @return i-th transformer collected by the last traversal
+	 */
+	int get(int i) {
+		return links[i];
+	}
+
+	private void nextEpoch(int trsfCount) {
+		if(stamps.length < trsfCount) {
+			stamps = Arrays.copyOf(stamps, Math.max(trsfCount, stamps.length * 2));
+		}
+		if(++epoch == Integer.MAX_VALUE) {
+			Arrays.fill(stamps, 0);
+			epoch = 1;
+		}
+	}
+
+	private static int[] ensure(int[] arr, int size) {
+		return arr.length >= size ? arr : Arrays.copyOf(arr, Math.max(size, arr.length * 2));
+	}
+}
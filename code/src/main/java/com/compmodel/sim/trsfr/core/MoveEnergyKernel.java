@@ -0,0 +1,145 @@
+package com.compmodel.sim.trsfr.core;
+
+/**
+ * Energy levels of a transformer at candidate cells of a move, see Transformer.getEnergyLevel.
+ * Bonds of the transformer are loaded once: neighbor coordinates and bond strengths,
+ * then all candidates are scored in one pass over primitive arrays.
+ * Coordinates are kept per axis, so inner loops run over plain int and double arrays
+ * and can be vectorized by the JIT compiler.
+ * Levels are summed in the order of bonds, so they are exactly the same as calculated one by one.
+ *
+ * @author Sergey Sherstyuk
+ *
+ */
+final class MoveEnergyKernel {
+	private final int size;
+	private final int dim;
+	private int bondCnt;
+	private int[][] bondCoords;		// [axis][bond] coordinates of bonded neighbors
+	private double[] bondStrengths;
+	private int[][] cellCoords;		// [axis][candidate]
+	private int[] distances;		// [candidate] distance to the current bond
+	private double[] levels;		// [candidate]
+
+	MoveEnergyKernel(Lattice lattice, int valence, int candidateCnt) {
+		size = lattice.getSize();
+		dim = lattice.getDim();
+		bondCoords = new int[dim][valence];
+		bondStrengths = new double[valence];
+		allocateCandidates(candidateCnt);
+	}
+
+	/**
+	 * Load bonds of the transformer, strengths are taken at curSeedCnt
+	 */
+	void load(WorldState state, int trsf, long curSeedCnt) {
+		bondCnt = state.getBondCnt(trsf);
+		if(bondStrengths.length < bondCnt) {
+			bondCoords = new int[dim][bondCnt];
+			bondStrengths = new double[bondCnt];
+		}
+		for(int k=0;k<bondCnt;k++) {
+			int slot = state.getBondSlot(trsf, k);
+			int cell = state.getTrsfCell(state.getBondNeighbor(slot));
+			for(int axis=dim-1;axis>0;axis--) {
+				int rest = cell / size;
+				bondCoords[axis][k] = cell - rest * size;
+				cell = rest;
+			}
+			bondCoords[0][k] = cell;
+			bondStrengths[k] = state.getBondStrength(slot, curSeedCnt);
+		}
+	}
+
+	/**
+	 * Energy level of the loaded transformer at a single cell
+	 */
+	double level(int cell) {
+		double level = 0.0;
+		for(int k=0;k<bondCnt;k++) {
+			int distance = 0;
+			int c = cell;
+			for(int axis=dim-1;axis>0;axis--) {
+				int rest = c / size;
+				distance += Math.abs(c - rest * size - bondCoords[axis][k]);
+				c = rest;
+			}
+			distance += Math.abs(c - bondCoords[0][k]);
+			level += (distance - 1) * bondStrengths[k];
+		}
+		return level;
+	}
+
+	/**
+	 * Score cells[0..cnt) for the loaded transformer, results are available by getLevel
+	 */
+	void score(int[] cells, int cnt) {
+		if(levels.length < cnt) {
+			allocateCandidates(cnt);
+		}
+		if(dim == 2) {
+			score2d(cells, cnt);
+			return;
+		}
+		for(int i=0;i<cnt;i++) {
+			int c = cells[i];
+			for(int axis=dim-1;axis>0;axis--) {
+				int rest = c / size;
+				cellCoords[axis][i] = c - rest * size;
+				c = rest;
+			}
+			cellCoords[0][i] = c;
+			levels[i] = 0.0;
+		}
+		for(int k=0;k<bondCnt;k++) {
+			for(int i=0;i<cnt;i++) {
+				distances[i] = -1;
+			}
+			for(int axis=0;axis<dim;axis++) {
+				int[] coords = cellCoords[axis];
+				int bondCoord = bondCoords[axis][k];
+				for(int i=0;i<cnt;i++) {
+					distances[i] += Math.abs(coords[i] - bondCoord);
+				}
+			}
+			double strength = bondStrengths[k];
+			for(int i=0;i<cnt;i++) {
+				levels[i] += distances[i] * strength;
+			}
+		}
+	}
+
+	/**
+	 * Same as score for 2-D space, bonds are the inner loop and coordinates are kept in locals
+	 */
+	private void score2d(int[] cells, int cnt) {
+		int[] bondX = bondCoords[0];
+		int[] bondY = bondCoords[1];
+		for(int i=0;i<cnt;i++) {
+			int x = cells[i] / size;
+			int y = cells[i] - x * size;
+			double level = 0.0;
+			for(int k=0;k<bondCnt;k++) {
+				level += (Math.abs(x - bondX[k]) + Math.abs(y - bondY[k]) - 1) * bondStrengths[k];
+			}
+			levels[i] = level;
+		}
+	}
+
+	/**
+	 * Level of the i-th cell of the last score call
+	 */
+	double getLevel(int i) {
+		return levels[i];
+	}
+
+	int getBondCnt() {
+		return bondCnt;
+	}
+
+	private void allocateCandidates(int candidateCnt) {
+		cellCoords = new int[dim][candidateCnt];
+		distances = new int[candidateCnt];
+		levels = new double[candidateCnt];
+	}
+}
@@ -0,0 +1,213 @@
+package com.compmodel.sim.trsfr.core;
+
+import java.util.Iterator;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Background output of the world: rendering, encoding and writing files
+ * are done by worker threads, while the simulation goes on.
+ * The world captures immutable data at the seed boundary and submits a task working on it.
+ *
+ * Tasks wait in a bounded queue, so pending output cannot exhaust the heap.
+ * When the queue is full, droppable tasks (shots) are handled by the drop policy:
+ *  - BLOCK: simulation waits for a free place in the queue
+ *  - DROP_NEWEST: the new task is dropped
+ *  - DROP_OLDEST: the oldest waiting droppable task is dropped to make place for the new one
+ * Other tasks (analytics) are never dropped, the simulation waits for them when the queue is full.
+ * Ordered tasks are run in the order they were submitted, for appending to the same file.
+ *
+ * @author Sergey Sherstyuk
+ *
+ */
+public class OutputPipeline {
+	private static final Logger log = LoggerFactory.getLogger(OutputPipeline.class);
+	public enum DropPolicy {BLOCK, DROP_NEWEST, DROP_OLDEST}
+
+	private final BlockingQueue<OutputTask> queue;
+	private final DropPolicy dropPolicy;
+	private final Thread[] workers;
+	private final Object lock = new Object();	// guards counters below
+	private int pendingCnt;			// submitted and not finished
+	private long droppedCnt;
+	private long nextTicket;		// of the next ordered task to submit
+	private long runTicket;			// of the ordered task allowed to run
+
+	public OutputPipeline(int threads, int capacity, DropPolicy dropPolicy) {
+		if(threads < 1 || capacity < 1) {
+			throw new IllegalArgumentException("invalid output threads:"+threads+" or queue size:"+capacity);
+		}
+		this.queue = new ArrayBlockingQueue<OutputTask>(capacity);
+		this.dropPolicy = dropPolicy;
+		workers = new Thread[threads];
+		for(int i=0;i<threads;i++) {
+			workers[i] = new Thread(this::work, "output-"+i);
+			workers[i].setDaemon(true);
+			workers[i].start();
+		}
+	}
+
+	/**
+	 * Submit task that may be dropped when the output is behind
+	 */
+	public void submitDroppable(Runnable task) {
+		submit(new OutputTask(task, true, -1));
+	}
+
+	/**
+	 * Submit task that is never dropped
+	 */
+	public void submit(Runnable task) {
+		submit(new OutputTask(task, false, -1));
+	}
+
+	/**
+	 * Submit task that is never dropped and runs after all ordered tasks submitted before it
+	 */
+	public synchronized void submitOrdered(Runnable task) {
+		long ticket;
+		synchronized(lock) {
+			ticket = nextTicket++;
+		}
+		submit(new OutputTask(task, false, ticket));	// queued in the order of tickets
+	}
+
+	private void submit(OutputTask task) {
+		synchronized(lock) {
+			pendingCnt++;
+		}
+		if(queue.offer(task)) {
+			return;
+		}
+		if(task.droppable && dropPolicy == DropPolicy.DROP_NEWEST) {
+			dropped(task);
+			return;
+		}
+		if(task.droppable && dropPolicy == DropPolicy.DROP_OLDEST) {
+			while(!queue.offer(task)) {
+				if(!dropOldest()) {
+					dropped(task);	// nothing to drop, queue is full of tasks that must run
+					return;
+				}
+			}
+			return;
+		}
+		boolean interrupted = false;
+		while(true) {
+			try {
+				queue.put(task);
+				break;
+			} catch (InterruptedException e) {
+				interrupted = true;	// task must not be lost, ordered tasks after it would wait forever
+			}
+		}
+		if(interrupted) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private boolean dropOldest() {
+		for(Iterator<OutputTask> it = queue.iterator();it.hasNext();) {
+			OutputTask old = it.next();
+			if(old.droppable && queue.remove(old)) {
+				dropped(old);
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private void dropped(OutputTask task) {
+		synchronized(lock) {
+			droppedCnt++;
+			pendingCnt--;
+			lock.notifyAll();
+		}
+		log.warn("!!! output is behind, dropped task, total dropped:{}", droppedCnt);
+	}
+
+	private void work() {
+		while(true) {
+			OutputTask task;
+			try {
+				task = queue.take();
+			} catch (InterruptedException e) {
+				return;
+			}
+			try {
+				if(task.ticket >= 0) {
+					synchronized(lock) {
+						// earlier tickets are already taken from the queue, so they are running or done
+						while(runTicket != task.ticket) {
+							lock.wait();
+						}
+					}
+				}
+				task.task.run();
+			} catch (InterruptedException e) {
+				return;
+			} catch (RuntimeException e) {
+				log.error("!!! output task failed", e);
+			} finally {
+				synchronized(lock) {
+					if(task.ticket >= 0) {
+						runTicket++;
+					}
+					pendingCnt--;
+					lock.notifyAll();
+				}
+			}
+		}
+	}
+
+	/**
+	 * Wait until all submitted tasks are finished or dropped
+	 */
+	public void flush() {
+		synchronized(lock) {
+			while(pendingCnt > 0) {
+				try {
+					lock.wait();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					return;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Finish submitted tasks and stop the workers
+	 */
+	public void shutdown() {
+		flush();
+		for(Thread worker : workers) {
+			worker.interrupt();
+		}
+	}
+
+	public long getDroppedCnt() {
+		synchronized(lock) {
+			return droppedCnt;
+		}
+	}
+
+	public DropPolicy getDropPolicy() {
+		return dropPolicy;
+	}
+
+	private static class OutputTask {
+		final Runnable task;
+		final boolean droppable;
+		final long ticket;	// order of ordered tasks, -1 for others
+
+		OutputTask(Runnable task, boolean droppable, long ticket) {
+			this.task = task;
+			this.droppable = droppable;
+			this.ticket = ticket;
+		}
+	}
+}
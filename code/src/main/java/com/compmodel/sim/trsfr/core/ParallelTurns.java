@@ -0,0 +1,243 @@
+package com.compmodel.sim.trsfr.core;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Turn executed in parallel with spatial domain decomposition.
+ *
+ * The space is split into tiles by TurnTiling, tiles of one phase are processed concurrently on a ForkJoinPool,
+ * phases run one after another.
+ * Transformer is owned by a tile when all transformers of its chain are within the tile.
+ * While the tile is processed, its transformers may move only within the tile
+ * and may interact only with transformers owned by the same tile, the others are obstacles.
+ * So chains never leave the tile, and an action reaches at most halo = searchDistance + 1 points outside of it:
+ * atoms are searched within searchDistance and moved by one point,
+ * transformers around the new position are checked within one point.
+ * Tiles are at least 2*halo + 1 wide, so reach of the tiles of one phase does not overlap.
+ * Transformers whose chains cross tile borders are deferred and act serially after all phases.
+ *
+ * Transformers keep the turn order within their tile, and each of them draws from its own random stream,
+ * so the result depends neither on the number of threads nor on the order the tiles are processed in.
+ * The automatic tile size does not depend on the number of threads either.
+ * Chain genealogy events of a tile are deferred and recorded after the phase in the order of tiles,
+ * so persistent ids of chains do not depend on the threads either.
+ *
+ * @author Sergey Sherstyuk
+ *
+ */
+class ParallelTurns {
+	private static final Logger log = LoggerFactory.getLogger(ParallelTurns.class);
+	private static final int NO_TILE = TurnContext.NO_TILE;
+	private static final int TILES_PER_AXIS = 16;	// for automatic tile size, 64 tiles per phase in 2-D
+	private final World world;
+	private final TurnTiling tiling;
+	private final ForkJoinPool pool;
+	private final ThreadLocal<TurnContext> workerCtx;
+	private final int[] tileStart;	// owned transformers of the tile are tileMembers[tileStart[tile]..tileStart[tile+1])
+	private final int[] tileFill;
+	private final int[][] phaseTiles;	// non-empty tiles of each phase
+	private final int[] phaseTileCnt;
+	private int[] trsfTile = new int[0];	// tile owning the transformer, NO_TILE if deferred
+	private int[] tileMembers = new int[0];
+	private int[] deferred = new int[0];
+	private int deferredCnt;
+	private int[] chainMark = new int[0];
+	private int chainEpoch;
+	private int[] chain = new int[0];
+	private final ChainGenealogy.Pending[] tileEvents;	// created by the tile, replayed after its phase
+	private final AtomicInteger provisionalIds = new AtomicInteger();
+
+	ParallelTurns(World world) {
+		if(world.isSparseSpace()) {
+			throw new IllegalStateException("parallel turns require dense space, sparse space is not thread safe");
+		}
+		this.world = world;
+		int tileSize = chooseTileSize(world);
+		tiling = new TurnTiling(world.getLattice(), tileSize);
+		pool = new ForkJoinPool(world.getTurnThreads());
+		workerCtx = ThreadLocal.withInitial(() -> world.createTurnContext());
+		tileStart = new int[tiling.getTileCount() + 1];
+		tileFill = new int[tiling.getTileCount()];
+		phaseTiles = new int[tiling.getPhaseCount()][tiling.getTileCount()];
+		phaseTileCnt = new int[tiling.getPhaseCount()];
+		tileEvents = new ChainGenealogy.Pending[tiling.getTileCount()];
+		log.info("parallel turns, threads:{}, tileSize:{}, tiles:{}", world.getTurnThreads(), tileSize, tiling.getTileCount());
+	}
+
+	/**
+	 * Minimal tile size, so that actions of the tiles of one phase do not reach each other
+	 */
+	static int minTileSize(int searchDistance) {
+		return 2 * (searchDistance + 1) + 1;
+	}
+
+	private static int chooseTileSize(World world) {
+		int minSize = minTileSize(world.getSearchDistance());
+		if(world.getTurnTileSize() > 0) {
+			if(world.getTurnTileSize() < minSize) {
+				throw new IllegalArgumentException("turnTileSize "+world.getTurnTileSize()
+					+" must be at least "+minSize+" for searchDistance "+world.getSearchDistance());
+			}
+			return world.getTurnTileSize();
+		}
+		return Math.max(minSize, world.getLattice().getSize() / TILES_PER_AXIS);
+	}
+
+	/**
+	 * Run one turn: tiles phase by phase, then deferred transformers serially with serialCtx
+	 * 
+	 * @param turnOrder transformers in the order they act
+	 * @param rand world-level stream of the turn, used to shift the tiles
+	 */
+	void runTurn(int[] turnOrder, Random rand, TurnContext serialCtx) {
+		tiling.reshift(rand);
+		assignTiles(world.getState(), turnOrder);
+		for(int phase=0;phase<phaseTileCnt.length;phase++) {
+			if(phaseTileCnt[phase] > 0) {
+				pool.invoke(new TileTask(phaseTiles[phase], 0, phaseTileCnt[phase]));
+				replayChainEvents(phase);
+			}
+		}
+		for(int i=0;i<deferredCnt;i++) {
+			world.turnForTransformer(serialCtx, deferred[i]);
+		}
+	}
+
+	/*
+	 * Find owning tile of each chain, group owned transformers by tiles and tiles by phases
+	 */
+	private void assignTiles(WorldState state, int[] turnOrder) {
+		int trsfCount = state.getTrsfCount();
+		if(trsfTile.length < trsfCount) {
+			trsfTile = new int[trsfCount];
+			tileMembers = new int[trsfCount];
+			deferred = new int[trsfCount];
+			chainMark = new int[trsfCount];
+			chain = new int[trsfCount];
+			chainEpoch = 0;
+		}
+		if(++chainEpoch == Integer.MAX_VALUE) {
+			Arrays.fill(chainMark, 0);
+			chainEpoch = 1;
+		}
+		Arrays.fill(tileStart, 0);
+		deferredCnt = 0;
+		for(int t=0;t<trsfCount;t++) {
+			if(chainMark[t] == chainEpoch) {
+				continue;
+			}
+			int tile = tiling.tileOf(state.getTrsfCell(t));
+			int chainCnt = 0;
+			chain[chainCnt++] = t;
+			chainMark[t] = chainEpoch;
+			for(int head=0;head<chainCnt;head++) {
+				int cur = chain[head];
+				if(tile != NO_TILE && tiling.tileOf(state.getTrsfCell(cur)) != tile) {
+					tile = NO_TILE;
+				}
+				for(int k=0;k<state.getBondCnt(cur);k++) {
+					int neighbor = state.getBondNeighbor(state.getBondSlot(cur, k));
+					if(chainMark[neighbor] != chainEpoch) {
+						chainMark[neighbor] = chainEpoch;
+						chain[chainCnt++] = neighbor;
+					}
+				}
+			}
+			for(int i=0;i<chainCnt;i++) {
+				trsfTile[chain[i]] = tile;
+			}
+			if(tile != NO_TILE) {
+				tileStart[tile + 1] += chainCnt;
+			}
+		}
+		int tileCount = tiling.getTileCount();
+		for(int tile=0;tile<tileCount;tile++) {
+			tileStart[tile + 1] += tileStart[tile];
+		}
+		System.arraycopy(tileStart, 0, tileFill, 0, tileCount);
+		for(int t : turnOrder) {
+			if(trsfTile[t] != NO_TILE) {
+				tileMembers[tileFill[trsfTile[t]]++] = t;
+			}else {
+				deferred[deferredCnt++] = t;
+			}
+		}
+		Arrays.fill(phaseTileCnt, 0);
+		for(int tile=0;tile<tileCount;tile++) {
+			if(tileStart[tile + 1] > tileStart[tile]) {
+				int phase = tiling.phaseOf(tile);
+				phaseTiles[phase][phaseTileCnt[phase]++] = tile;
+			}
+		}
+	}
+
+	private void runTile(int tile) {
+		TurnContext ctx = workerCtx.get();
+		ctx.tiling = tiling;
+		ctx.trsfTile = trsfTile;
+		ctx.tile = tile;
+		if(tileEvents[tile] == null) {
+			tileEvents[tile] = new ChainGenealogy.Pending(provisionalIds);
+		}
+		ChainIndex.deferEvents(tileEvents[tile]);
+		try {
+			for(int i=tileStart[tile];i<tileStart[tile + 1];i++) {
+				world.turnForTransformer(ctx, tileMembers[i]);
+			}
+		}finally {
+			ChainIndex.deferEvents(null);
+			ctx.tile = NO_TILE;
+		}
+	}
+
+	/*
+	 * Record chain events of the tiles of the phase, tiles are in ascending order
+	 */
+	private void replayChainEvents(int phase) {
+		for(int i=0;i<phaseTileCnt[phase];i++) {
+			ChainGenealogy.Pending events = tileEvents[phaseTiles[phase][i]];
+			if(events != null && events.size() > 0) {
+				world.getState().replayChainEvents(events);
+				events.clear();
+			}
+		}
+		provisionalIds.set(0);
+	}
+
+	void shutdown() {
+		pool.shutdown();
+	}
+
+	/**
+	 * Process tiles[from..to) of one phase, splitting the range between workers
+	 */
+	private class TileTask extends RecursiveAction {
+		private static final long serialVersionUID = -3324157790617392460L;
+		private final int[] tiles;
+		private final int from;
+		private final int to;
+
+		TileTask(int[] tiles, int from, int to) {
+			this.tiles = tiles;
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected void compute() {
+			if(to - from > 1) {
+				int mid = (from + to) >>> 1;
+				invokeAll(new TileTask(tiles, from, mid), new TileTask(tiles, mid, to));
+			}else {
+				runTile(tiles[from]);
+			}
+		}
+	}
+}
@@ -0,0 +1,80 @@
+package com.compmodel.sim.trsfr.core;
+
+import java.util.Random;
+
+/**
+ * Replace atoms in compact spatial patches, leaving the rest of the space intact.
+ * Removal: pick a random atom and remove atoms within patchRadius from it, repeat until count is reached.
+ * Addition: pick a random free cell and fill free cells within patchRadius from it, repeat until count is reached.
+ *
+ * @author Sergey Sherstyuk
+ *
+ */
+public class PatchReseed implements ReseedStrategy {
+	private static final long serialVersionUID = -5207330178226304818L;
+	public static final int PATCH_RADIUS = 5;
+	private final int patchRadius;
+	private transient RingCursor cursor;
+	private transient Lattice cursorLattice;
+
+	public PatchReseed() {
+		this(PATCH_RADIUS);
+	}
+
+	public PatchReseed(int patchRadius) {
+		this.patchRadius = patchRadius;
+	}
+
+	private RingCursor getCursor(Lattice lattice) {
+		if(cursor == null || cursorLattice != lattice) {
+			cursor = new RingCursor(new RingStencil(lattice.getDim(), patchRadius), lattice);
+			cursorLattice = lattice;
+		}
+		return cursor;
+	}
+
+	public void removeAtoms(World world, int count, Random rand) {
+		WorldState state = world.getState();
+		RingCursor patch = getCursor(world.getLattice());
+		int removed = 0;
+		while(removed < count && state.getAtomCount() > 0) {
+			int center = state.getAtomCell(rand.nextInt(state.getAtomCount()));
+			patch.resetDisk(center, patchRadius);
+			while(removed < count && patch.next()) {
+				int atom = world.getAtomIdAt(patch.cell());
+				if(atom != WorldState.NONE) {
+					world.removeAtom(atom);
+					removed++;
+				}
+			}
+		}
+	}
+
+	public void addAtoms(World world, int count, Random rand) {
+		RingCursor patch = getCursor(world.getLattice());
+		int typeNumber = world.getAtomTypeNumber();
+		int added = 0;
+		while(added < count) {
+			int center = world.randomFreeAtomCell();
+			if(center == WorldState.NONE) {
+				throw new IllegalStateException("no free place for a new atom, atoms:"+world.getState().getAtomCount());
+			}
+			patch.resetDisk(center, patchRadius);
+			while(added < count && patch.next()) {
+				if(world.getAtomIdAt(patch.cell()) == WorldState.NONE) {
+					world.createAtom(patch.cell(), rand.nextInt(typeNumber));
+					added++;
+				}
+			}
+		}
+	}
+
+	public int getPatchRadius() {
+		return patchRadius;
+	}
+
+	@Override
+	public String toString() {
+		return "patches("+patchRadius+")";
+	}
+}
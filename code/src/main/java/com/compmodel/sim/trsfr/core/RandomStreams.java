@@ -0,0 +1,53 @@
+package com.compmodel.sim.trsfr.core;
+
+import java.io.Serializable;
+
+/**
+ * Source of reproducible random streams.
+ * Each stream is keyed by (run seed, seedCnt, turnCnt, entity id),
+ * draws from one stream do not affect any other stream.
+ * So the results do not depend on the order entities act in, nor on the number of threads,
+ * and a run resumed from a snapshot continues exactly as the uninterrupted one:
+ * the run seed is the only state to be saved.
+ *
+ * Negative turnCnt keys are used for the steps outside of turns,
+ * negative entity keys for world-level decisions.
+ *
+ * @author Sergey Sherstyuk
+ *
+ */
+public class RandomStreams implements Serializable {
+	private static final long serialVersionUID = -6093162517839527740L;
+	public static final int SEED_TRANSFORMERS = -1;	// turnCnt key of transformers seeding
+	public static final int SEED_ATOMS = -2;		// turnCnt key of atoms seeding and reseeding
+	public static final int IDLE_MOVES = -3;		// turnCnt key of random moves of idle transformers
+	public static final int WORLD = -1;				// entity key of world-level decisions: turn order, tiling
+	private final long runSeed;
+
+	public RandomStreams(long runSeed) {
+		this.runSeed = runSeed;
+	}
+
+	public long key(long seedCnt, int turnCnt, int entity) {
+		long key = StreamRandom.mix64(runSeed);
+		key = StreamRandom.mix64(key + seedCnt);
+		key = StreamRandom.mix64(key + turnCnt);
+		return StreamRandom.mix64(key + entity);
+	}
+
+	/**
+	 * Restart the generator at the beginning of the stream
+	 */
+	public StreamRandom reset(StreamRandom rand, long seedCnt, int turnCnt, int entity) {
+		rand.setSeed(key(seedCnt, turnCnt, entity));
+		return rand;
+	}
+
+	public StreamRandom stream(long seedCnt, int turnCnt, int entity) {
+		return new StreamRandom(key(seedCnt, turnCnt, entity));
+	}
+
+	public long getRunSeed() {
+		return runSeed;
+	}
+}
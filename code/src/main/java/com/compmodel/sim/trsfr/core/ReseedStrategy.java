@@ -0,0 +1,25 @@
+package com.compmodel.sim.trsfr.core;
+
+import java.io.Serializable;
+import java.util.Random;
+
+/**
+ * Defines which atoms are replaced during the partial reseed after each seed cycle.
+ * World removes and then adds the same number of atoms, 
+ * strategies must keep the cost of each removal/addition independent of the atoms number.
+ *
+ * @author Sergey Sherstyuk
+ *
+ */
+public interface ReseedStrategy extends Serializable {
+
+	/**
+	 * Remove count atoms from the world
+	 */
+	void removeAtoms(World world, int count, Random rand);
+
+	/**
+	 * Add count atoms to the world
+	 */
+	void addAtoms(World world, int count, Random rand);
+}
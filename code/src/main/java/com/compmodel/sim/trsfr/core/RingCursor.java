@@ -0,0 +1,141 @@
+package com.compmodel.sim.trsfr.core;
+
+import java.util.Arrays;
+
+/**
+ * Allocation-free iterator over the cells of a Manhattan ring or disk,
+ * clipped at the space borders.
+ * Usage:
+ * <pre>
+ *   cursor.resetRing(centerCell, distance);
+ *   while(cursor.next()) {
+ *       grid.get(cursor.cell())...
+ *   }
+ * </pre>
+ * The cursor is reused, it is not thread safe.
+ *
+ * @author Sergey Sherstyuk
+ *
+ */
+public final class RingCursor {
+	private final RingStencil stencil;
+	private final Lattice lattice;
+	private final int spaceSize;
+	private final int dim;
+	private final int[] centerCoords;
+	private int[][] cellOffsets = new int[0][];	// stencil offsets converted to cell deltas, per radius
+	private int center;
+	private int radius;
+	private int maxRadius;
+	private boolean interior;	// all points of the current disk are inside the space, no clipping needed
+	private int[] offsets;
+	private int[] deltas;
+	private int idx;
+	private int cell;
+
+	public RingCursor(RingStencil stencil, Lattice lattice) {
+		if(stencil.getDim() != lattice.getDim()) {
+			throw new IllegalArgumentException("stencil dimension "+stencil.getDim()+" does not match lattice dimension "+lattice.getDim());
+		}
+		this.stencil = stencil;
+		this.lattice = lattice;
+		this.spaceSize = lattice.getSize();
+		this.dim = lattice.getDim();
+		this.centerCoords = new int[dim];
+	}
+
+	/**
+	 * Iterate cells with distance == radius from the center
+	 */
+	public RingCursor resetRing(int centerCell, int radius) {
+		return reset(centerCell, radius, radius);
+	}
+
+	/**
+	 * Iterate cells with distance <= radius from the center, ring by ring starting from the center
+	 */
+	public RingCursor resetDisk(int centerCell, int radius) {
+		return reset(centerCell, 0, radius);
+	}
+
+	private RingCursor reset(int centerCell, int fromRadius, int toRadius) {
+		this.center = centerCell;
+		this.radius = fromRadius;
+		this.maxRadius = toRadius;
+		interior = true;
+		for(int axis=0;axis<dim;axis++) {
+			int c = lattice.coord(centerCell, axis);
+			centerCoords[axis] = c;
+			interior &= c - toRadius >= 0 && c + toRadius < spaceSize;
+		}
+		selectRing(fromRadius);
+		idx = -1;
+		return this;
+	}
+
+	private void selectRing(int r) {
+		if(r >= cellOffsets.length) {
+			buildCellOffsets(r);
+		}
+		offsets = stencil.getOffsets(r);
+		deltas = cellOffsets[r];
+	}
+
+	private void buildCellOffsets(int toRadius) {
+		int oldLen = cellOffsets.length;
+		cellOffsets = Arrays.copyOf(cellOffsets, toRadius + 1);
+		for(int r=oldLen;r<=toRadius;r++) {
+			int[] ring = stencil.getOffsets(r);
+			int[] ringDeltas = new int[ring.length / dim];
+			for(int i=0;i<ringDeltas.length;i++) {
+				for(int axis=0;axis<dim;axis++) {
+					ringDeltas[i] += ring[i*dim + axis] * lattice.getStride(axis);
+				}
+			}
+			cellOffsets[r] = ringDeltas;
+		}
+	}
+
+	/**
+	 * Advance to the next point within the space
+	 *
+	 * @return false when there are no more points
+	 */
+	public boolean next() {
+		while(true) {
+			if(++idx >= deltas.length) {
+				if(radius >= maxRadius) {
+					return false;
+				}
+				selectRing(++radius);
+				idx = 0;
+			}
+			if(interior || isInside()) {
+				cell = center + deltas[idx];
+				return true;
+			}
+		}
+	}
+
+	private boolean isInside() {
+		int base = idx * dim;
+		for(int axis=0;axis<dim;axis++) {
+			int c = centerCoords[axis] + offsets[base + axis];
+			if(c < 0 || c >= spaceSize) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	public int cell() {
+		return cell;
+	}
+
+	/**
+	 * @return radius of the ring the current point belongs to
+	 */
+	public int radius() {
+		return radius;
+	}
+}
@@ -0,0 +1,115 @@
+package com.compmodel.sim.trsfr.core;
+
+import java.util.Arrays;
+
+/**
+ * Precomputed offsets of the points located on the Manhattan ring of each radius,
+ * i.e. points with |d0|+|d1|+...+|dN| == radius, for the space of any dimension.
+ * Ring 0 is the center itself, in 2-D space ring r > 0 has 4*r points.
+ * Offsets are ordered by d0, then by d1 etc., the same order as a scan of the bounding box.
+ * Offsets of the ring are kept in one flat array: offset of point i on axis a is [i*dim + a].
+ *
+ * Tables are built once per radius and extended on demand.
+ *
+ * @author Sergey Sherstyuk
+ *
+ */
+public final class RingStencil {
+	private final int dim;
+	private int[][] rings = new int[0][];
+
+	public RingStencil(int dim, int maxRadius) {
+		this.dim = dim;
+		ensureRadius(maxRadius);
+	}
+
+	/**
+	 * Make sure tables exist for all rings up to maxRadius, inclusive.
+	 */
+	public synchronized void ensureRadius(int maxRadius) {
+		int oldLen = rings.length;
+		if(maxRadius < oldLen) {
+			return;
+		}
+		int[][] newRings = Arrays.copyOf(rings, maxRadius + 1);
+		for(int r=oldLen;r<=maxRadius;r++) {
+			int[] ring = new int[countPoints(0, r) * dim];
+			fillRing(ring, 0, new int[dim], 0, r);
+			newRings[r] = ring;
+		}
+		rings = newRings;
+	}
+
+	/*
+	 * Number of points with sum of |offsets| on axes [axis..dim) equal to rest
+	 */
+	private int countPoints(int axis, int rest) {
+		if(axis == dim - 1) {
+			return rest == 0 ? 1 : 2;
+		}
+		int cnt = 0;
+		for(int d=-rest;d<=rest;d++) {
+			cnt += countPoints(axis + 1, rest - Math.abs(d));
+		}
+		return cnt;
+	}
+
+	/*
+	 * Enumerate points in lexicographic order, return the next free point index
+	 */
+	private int fillRing(int[] ring, int idx, int[] point, int axis, int rest) {
+		if(axis == dim - 1) {
+			if(rest == 0) {
+				point[axis] = 0;
+				System.arraycopy(point, 0, ring, dim * idx++, dim);
+			}else {
+				point[axis] = -rest;
+				System.arraycopy(point, 0, ring, dim * idx++, dim);
+				point[axis] = rest;
+				System.arraycopy(point, 0, ring, dim * idx++, dim);
+			}
+			return idx;
+		}
+		for(int d=-rest;d<=rest;d++) {
+			point[axis] = d;
+			idx = fillRing(ring, idx, point, axis + 1, rest - Math.abs(d));
+		}
+		return idx;
+	}
+
+	public int getDim() {
+		return dim;
+	}
+
+	public int getMaxRadius() {
+		return rings.length - 1;
+	}
+
+	/**
+	 * @return flat offsets of the ring points, point i on axis a is at [i*dim + a]
+	 */
+	public int[] getOffsets(int radius) {
+		if(radius >= rings.length) {
+			ensureRadius(radius);
+		}
+		return rings[radius];
+	}
+
+	/**
+	 * @return number of points on the unclipped ring
+	 */
+	public int getRingSize(int radius) {
+		return getOffsets(radius).length / dim;
+	}
+
+	/**
+	 * @return number of points within the unclipped disk, rings 0..radius
+	 */
+	public int getDiskSize(int radius) {
+		int cnt = 0;
+		for(int r=0;r<=radius;r++) {
+			cnt += getRingSize(r);
+		}
+		return cnt;
+	}
+}
@@ -0,0 +1,96 @@
+package com.compmodel.sim.trsfr.core;
+
+import java.util.Arrays;
+
+/**
+ * Pull of a chain by its end, like a snake:
+ * the end moves to the new cell and each pulled link takes the old cell of the previous one.
+ * A link is pulled while its bond to the previous link would become too long otherwise,
+ * so the pull stops at the tail of the chain, at a link that stays close enough to the previous one,
+ * and at a branching link, which is moved but does not pull its branches.
+ * Bonds between pulled links are not touched: they keep their slots, action counts and creation seeds.
+ * Links are found in one walk and moved in one pass, the grid ends up in the same state,
+ * with the same order of free cells, as after moving the links one by one from the end.
+ * Not thread safe, each turn thread has its own pull.
+ *
+ * @author Sergey Sherstyuk
+ *
+ */
+final class SnakePull {
+	private static final int NONE = WorldState.NONE;
+	private int[] links = new int[16];	// pulled links, from the end
+	private int cnt;
+	private int headCell;	// new cell of the end
+	private int tailCell;	// new cell of the last pulled link
+
+	/**
+	 * Find links pulled by the end of the chain moving to newCell
+	 *
+	 * @param end transformer with one bond
+	 * @param maxNeighborDistance the longest bond
+	 * @return number of pulled links, the end included
+	 */
+	int load(WorldState state, int end, int newCell, int maxNeighborDistance) {
+		Lattice lattice = state.getLattice();
+		cnt = 0;
+		headCell = newCell;
+		int prev = NONE;
+		int trsf = end;
+		int cell = newCell;	// new cell of trsf
+		while(true) {
+			if(cnt == links.length) {
+				links = Arrays.copyOf(links, cnt * 2);
+			}
+			links[cnt++] = trsf;
+			if(state.getBondCnt(trsf) != (prev == NONE ? 1 : 2)) {
+				break;	// tail or branching link
+			}
+			int next = state.getBondNeighbor(state.getBondSlot(trsf, 0));
+			if(next == prev) {
+				next = state.getBondNeighbor(state.getBondSlot(trsf, 1));
+			}
+			if(lattice.distance(state.getTrsfCell(next), cell) <= maxNeighborDistance) {
+				break;	// bond to the next link stays short enough
+			}
+			cell = state.getTrsfCell(trsf);
+			prev = trsf;
+			trsf = next;
+		}
+		tailCell = cell;
+		return cnt;
+	}
+
+	int size() {
+		return cnt;
+	}
+
+	int getLink(int i) {
+		return links[i];
+	}
+
+	/**
+	 * @return the last pulled link, the end if nothing else is pulled
+	 */
+	int getTail() {
+		return links[cnt - 1];
+	}
+
+	int getTailCell() {
+		return tailCell;
+	}
+
+	/**
+	 * Move the loaded links: the cell of the last pulled link is vacated, the new cell of the end is taken,
+	 * cells in between only get new ids.
+	 */
+	void commit(WorldState state, CellIndex grid) {
+		grid.move(state.getTrsfCell(links[cnt - 1]), headCell);
+		for(int i=cnt-1;i>0;i--) {
+			int cell = state.getTrsfCell(links[i - 1]);
+			grid.set(cell, links[i]);
+			state.setTrsfCell(links[i], cell);
+		}
+		grid.set(headCell, links[0]);
+		state.setTrsfCell(links[0], headCell);
+	}
+}
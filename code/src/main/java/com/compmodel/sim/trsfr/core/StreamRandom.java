@@ -0,0 +1,47 @@
+package com.compmodel.sim.trsfr.core;
+
+import java.util.Random;
+
+/**
+ * SplitMix64 generator with java.util.Random interface.
+ * Unlike Random it does not update a shared atomic seed on each draw,
+ * and it is cheap to re-key: RandomStreams re-seeds one instance for every entity and turn.
+ * Not thread safe, each thread uses its own instance.
+ *
+ * @author Sergey Sherstyuk
+ *
+ */
+public class StreamRandom extends Random {
+	private static final long serialVersionUID = 8417350286314297165L;
+	private static final long GOLDEN_GAMMA = 0x9E3779B97F4A7C15L;
+	private long state;
+
+	public StreamRandom(long seed) {
+		super(seed);
+	}
+
+	/**
+	 * Start the stream from the seed, cached Gaussian value is dropped
+	 */
+	@Override
+	public synchronized void setSeed(long seed) {
+		super.setSeed(seed);
+		state = seed;
+	}
+
+	@Override
+	protected int next(int bits) {
+		return (int)(nextLong() >>> (64 - bits));
+	}
+
+	@Override
+	public long nextLong() {
+		return mix64(state += GOLDEN_GAMMA);
+	}
+
+	static long mix64(long z) {
+		z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+		z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+		return z ^ (z >>> 31);
+	}
+}
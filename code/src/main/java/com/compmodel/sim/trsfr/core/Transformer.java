@@ -4,13 +4,12 @@ import java.awt.Color;
 import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.Collections;
-import java.util.Random;
-import java.util.UUID;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 /**
+ * Thin view over the transformer attributes kept in WorldState.
  * 
  * @author Sergey Sherstyuk
  *
@@ -49,82 +48,70 @@ public class Transformer implements Serializable {
 	private static final Color COLOR_FC = Color.BLACK; // not used
 	private static final Color COLOR_FD = Color.BLACK; // not used
 	private static final Color COLOR_FE = Color.BLACK; // not used
-	private static final long RANDOM_SEED = 6320981971L;
-	public static Random rand = new Random(RANDOM_SEED);
-
-	private UUID id;
-	private Coordinates coords;
-	private ArrayList<Bond> bonds;
-	private int idleCnt;	// number of seeds with no actions, since last action
-	private int actionCnt;	// number of actions since last seed
-
-	private AtomTypeEnum inputType;
-	private AtomTypeEnum outputType;
-	public Transformer(Coordinates coords, AtomTypeEnum inputType, AtomTypeEnum outputType) {
-		id = UUID.randomUUID();
-		bonds = new ArrayList<Bond>();
-		this.coords = coords;
-		this.inputType = inputType;
-		this.outputType = outputType;
-		idleCnt = 0;
-		actionCnt = 0;
+
+	private final WorldState state;
+	private final int id;
+
+	Transformer(WorldState state, int id) {
+		this.state = state;
+		this.id = id;
+	}
+
+	public int getId() {
+		return id;
 	}
 
 	public String getName() {
-		return inputType.name()+outputType.name()+"_"+id.toString().substring(28);
+		return getInputType().name()+getOutputType().name()+"_"+String.format("%08d",id);
 	}
 
 	/**
 	 * Get number of all transformers linked as neighbors to each other.
+	 * When chains are indexed, it is the size of the chain without this transformer.
 	 * 
+	 * @param curLevelChain transformers already counted, they are not passed through, null from the top level
 	 * @return
 	 */
 	public int getLinkedCount(ArrayList<Transformer> curLevelChain) {
-		if(bonds.size() == 0) {
+		if(state.getBondCnt(id) == 0) {
 			return 0;	// Standalone transformer
 		}
-		if(curLevelChain == null) {
-			// Call from the top level
-			curLevelChain = new ArrayList<Transformer>();
-			curLevelChain.add(this);	// to detect circular chain or link back to self
+		if(curLevelChain == null && state.hasChainIndex()) {
+			return state.getChainSize(id) - 1;
 		}
-		int linkedCount = 0;
-		for(Bond curBond : bonds) {
-			if(curLevelChain.contains(curBond.getNeighbor())) {
-				continue;
+		LinkTraversal traversal = state.getLinkTraversal();
+		synchronized(traversal) {
+			if(curLevelChain == null) {
+				return state.getGroupSize(id, traversal) - 1;
 			}
-			linkedCount++;
-			curLevelChain.add(curBond.getNeighbor()); 
-			int linkedCountNeighb = curBond.getNeighbor().getLinkedCount(curLevelChain);
-			linkedCount += linkedCountNeighb;
+			return traversal.collect(state, id, curLevelChain) - 1;
 		}
-		return linkedCount;	
 	}
 
 	/**
 	 * Mthod that calculates list of all transformers that have linked to this via bonds.
 	 * "This" is included
-	 * Takes input curLevelLinks array and adds links from neighbors recursively.
+	 * Takes input curLevelLinks array and adds links from neighbors, see LinkTraversal for the order.
 	 * 
-	 * @param curLevelLinks
+	 * @param curLevelLinks transformers already collected, they are not passed through, null from the top level
 	 * @return
 	 */
 	public ArrayList<Transformer> getLinked(ArrayList<Transformer> curLevelLinks) {
-		if(bonds.size() == 0) {
+		if(state.getBondCnt(id) == 0) {
 			// Standalone transformer, unrealistic scenario, but handling just in case
 			curLevelLinks = new ArrayList<Transformer>();
 			curLevelLinks.add(this);	
 			return curLevelLinks;	
 		}
-		if(curLevelLinks == null) {
-			// Call from the top level
-			curLevelLinks = new ArrayList<Transformer>();
-		}
-		curLevelLinks.add(this);	
-		for(Bond curBond : bonds) {
-			Transformer curBondTrsf = curBond.getNeighbor();
-			if(!curLevelLinks.contains(curBondTrsf)) { // to detect circular chain or link back to self
-				curLevelLinks = curBond.getNeighbor().getLinked(curLevelLinks); 
+		LinkTraversal traversal = state.getLinkTraversal();
+		synchronized(traversal) {
+			int cnt = traversal.collect(state, id, curLevelLinks);
+			if(curLevelLinks == null) {
+				// Call from the top level
+				curLevelLinks = new ArrayList<Transformer>(cnt);
+			}
+			for(int i=0;i<cnt;i++) {
+				curLevelLinks.add(state.getTransformer(traversal.get(i)));
 			}
 		}
 		return curLevelLinks;	
@@ -144,14 +131,14 @@ public class Transformer implements Serializable {
 	 * Not used
 	 */
 	private Atom findAndTransform(World world) {
-		ArrayList<Atom> vicinity = world.getAtomsInVicinity(coords, World.SEARCH_DISTANCE);
+		ArrayList<Atom> vicinity = world.getAtomsInVicinity(getCoords(), World.SEARCH_DISTANCE);
 		Collections.shuffle(vicinity);
 		for(Atom atom : vicinity) {
 			synchronized(atom) {
-				if(atom.getType().equals(inputType)) {
-					atom.setType(outputType);
-					actionCnt++;
-					idleCnt = 0;
+				if(atom.getType().equals(getInputType())) {
+					atom.setType(getOutputType());
+					setActionCnt(getActionCnt() + 1);
+					setIdleCnt(0);
 					return atom;
 				}
 			}
@@ -172,37 +159,11 @@ public class Transformer implements Serializable {
 	 * @return
 	 */
 	public Atom tryTransform(Atom input) {
-		synchronized(input) {
-			if(input.getType().equals(inputType)) {
-				input.setType(outputType);
-				updateBondsActionCnt(input.getActor());
-				input.setActor(this);
-				actionCnt++;
-				idleCnt = 0;
-				return input;
-			}
+		if(state.tryTransform(id, input.getId())) {
+			return input;
 		}
 		return null;
 	}
-	
-	/*
-	 * Increase actionCnt for bonds (this -> previousActor) and (previousActor -> this)
-	 */
-	private void updateBondsActionCnt(Transformer prevActor) {
-		for(Bond bond : bonds) {
-			if(bond.getNeighbor() == prevActor) {
-				long newActionCnt = bond.getActionCnt() + 1;
-				bond.setActionCnt(newActionCnt);
-				for(Bond prevActorBond : prevActor.getBonds()) {
-					if(prevActorBond.getNeighbor() == this) {
-						prevActorBond.setActionCnt(newActionCnt);
-						break;
-					}
-				}
-				break;
-			}
-		}		
-	}
 
 	/**
 	 * Calculate energy level for the transformer
@@ -216,42 +177,30 @@ public class Transformer implements Serializable {
 	 * @return
 	 */
 	public double getEnergyLevel(Coordinates newCoords, long curSeedCnt) {
+		return getEnergyLevel(state.getLattice().toCell(newCoords), curSeedCnt);
+	}
+
+	public double getEnergyLevel(int newCell, long curSeedCnt) {
+		Lattice lattice = state.getLattice();
 		double level = 0.0;
-		for(Bond bond:bonds){
-			level += (Coordinates.calcDistance(bond.getNeighbor().getCoords(), newCoords) - 1)
-					* bond.getStrength(curSeedCnt);
+		for(int k=0;k<state.getBondCnt(id);k++){
+			int slot = state.getBondSlot(id, k);
+			int neighbor = state.getBondNeighbor(slot);
+			level += (lattice.distance(state.getTrsfCell(neighbor), newCell) - 1) * state.getBondStrength(slot, curSeedCnt);
 		}	
 		return level;
 	}
 	
 	public boolean hasNeighbor(Transformer trsf) {
-		for(Bond bond :bonds) {
-			if(bond.getNeighbor() == trsf) {
-				return true;
-			}
-		}
-		return false;
+		return state.hasNeighbor(id, trsf.getId());
 	}
 	
 	public boolean removeNeighbor(Transformer trsf) {
-		Bond toRemove = null;;
-		for(Bond bond :bonds) {
-			if(bond.getNeighbor() == trsf) {
-				toRemove = bond;
-				break;
-			}
-		}
-		if(toRemove != null) {
-			bonds.remove(toRemove);
-			return true;
-		}
-		return false;
+		return state.removeNeighbor(id, trsf.getId());
 	}
 
 	public void resetStatus() {
-		idleCnt = 0;
-		actionCnt = 0;
-		bonds.stream().forEach(b -> b.setActionCnt(1l));
+		state.resetStatus(id);
 	}
 
 
@@ -261,27 +210,11 @@ public class Transformer implements Serializable {
 	 * @param trsf
 	 */
 	public void addNeighbor(Transformer trsf, long createdSeedCnt) {
-		if(!hasNeighbor(trsf)) {
-			if(bonds.size()>2) {
-				log.error("!!! too many bonds in trsfr-initiator, this:"+getShortInfo());
-			}
-			if(trsf.hasNeighbor(this)) {
-				log.error("!!! attaching trsf that has this as a neighbor already, trsf:"+getShortInfo());			
-			}
-			if(trsf.getBonds().size()>2) {
-				log.error("!!! too many bonds in trsfr-attachment, trsf:"+trsf.getShortInfo());
-			}
-			bonds.add(new Bond(trsf, 1l, createdSeedCnt));
-			trsf.getBonds().add(new Bond(this, 1l, createdSeedCnt));
-			log.debug("created bonds between "+this+" and "+trsf);
-		}else {
-			log.debug("attmept to add tsrf that is already a neighbor, this:"+getShortInfo()+", tsrf:"+trsf.getShortInfo());
-		}
+		state.addNeighbor(id, trsf.getId(), createdSeedCnt);
 	}
 
 	public String getShortInfo() {
-		String name =  this.toString(); 
-		return inputType.toString()+outputType.toString()+name.substring(name.length()-9)+ getCoords();
+		return getName()+ state.getLattice().toString(state.getTrsfCell(id));
 	}
 
 	public String getShortInfoWithBonds() {
@@ -297,8 +230,8 @@ public class Transformer implements Serializable {
 	public String getFullInfoWithBonds(long curSeedCnt) {
 		StringBuilder sb = new StringBuilder();
 		sb.append(getShortInfo())
-			.append(", idleCnt=").append(idleCnt)
-			.append(", actionCnt=").append(actionCnt)
+			.append(", idleCnt=").append(getIdleCnt())
+			.append(", actionCnt=").append(getActionCnt())
 			.append("(");
 		for(Bond bond:getBonds()) {
 			sb.append(bond.getNeighbor().getShortInfo())
@@ -311,32 +244,48 @@ public class Transformer implements Serializable {
 		return sb.toString();
 	}
 
+	@Override
+	public String toString() {
+		return getName();
+	}
+
+	public int getCell() {
+		return state.getTrsfCell(id);
+	}
+
+	Lattice getLattice() {
+		return state.getLattice();
+	}
+
 	public Coordinates getCoords() {
-		return coords;
+		return state.getLattice().toCoordinates(state.getTrsfCell(id));
 	}
 
+	/**
+	 * Changes transformer position only, transformer space has to be adjusted by the caller.
+	 */
 	public void setCoords(Coordinates coords) {
-		this.coords = coords;
+		state.setTrsfCell(id, state.getLattice().toCell(coords));
 	}
 
 	public AtomTypeEnum getInputType() {
-		return inputType;
+		return state.getTrsfInputType(id);
 	}
 
 	public void setInputType(AtomTypeEnum inputType) {
-		this.inputType = inputType;
+		state.setTrsfInputType(id, inputType);
 	}
 
 	public AtomTypeEnum getOutputType() {
-		return outputType;
+		return state.getTrsfOutputType(id);
 	}
 
 	public void setOutputType(AtomTypeEnum outputType) {
-		this.outputType = outputType;
+		state.setTrsfOutputType(id, outputType);
 	}
 
 	public String encodeTransformerType() {
-		switch(inputType) {
+		switch(getInputType()) {
 		case A:
 			return encodeTransformerA();
 		case B:
@@ -355,7 +304,7 @@ public class Transformer implements Serializable {
 	}
 
 	private String encodeTransformerA() {
-		switch(outputType) {
+		switch(getOutputType()) {
 		case A:
 			return "A";
 		case B:
@@ -373,7 +322,7 @@ public class Transformer implements Serializable {
 		}
 	}
 	private String encodeTransformerB() {
-		switch(outputType) {
+		switch(getOutputType()) {
 		case A:
 			return "G";
 		case B:
@@ -391,7 +340,7 @@ public class Transformer implements Serializable {
 		}
 	}
 	private String encodeTransformerC() {
-		switch(outputType) {
+		switch(getOutputType()) {
 		case A:
 			return "M";
 		case B:
@@ -409,7 +358,7 @@ public class Transformer implements Serializable {
 		}
 	}
 	private String encodeTransformerD() {
-		switch(outputType) {
+		switch(getOutputType()) {
 		case A:
 			return "S";
 		case B:
@@ -427,7 +376,7 @@ public class Transformer implements Serializable {
 		}
 	}
 	private String encodeTransformerE() {
-		switch(outputType) {
+		switch(getOutputType()) {
 		case A:
 			return "Y";
 		case B:
@@ -445,7 +394,7 @@ public class Transformer implements Serializable {
 		}
 	}
 	private String encodeTransformerF() {
-		switch(outputType) {
+		switch(getOutputType()) {
 		case A:
 			return "Й";
 		case B:
@@ -548,29 +497,37 @@ public class Transformer implements Serializable {
 	}
 
 	public int getIdleCnt() {
-		return idleCnt;
+		return state.getTrsfIdleCnt(id);
 	}
 
 	public void setIdleCnt(int idleCnt) {
-		this.idleCnt = idleCnt;
+		state.setTrsfIdleCnt(id, idleCnt);
 	}
 
 	public int getActionCnt() {
-		return actionCnt;
+		return state.getTrsfActionCnt(id);
 	}
 
 	public void setActionCnt(int actionCnt) {
-		this.actionCnt = actionCnt;
+		state.setTrsfActionCnt(id, actionCnt);
 	}
 
+	/**
+	 * @return copy of the bonds of this transformer
+	 */
 	public ArrayList<Bond> getBonds() {
+		int bondCnt = state.getBondCnt(id);
+		ArrayList<Bond> bonds = new ArrayList<Bond>(bondCnt);
+		for(int k=0;k<bondCnt;k++) {
+			int slot = state.getBondSlot(id, k);
+			bonds.add(new Bond(state.getTransformer(state.getBondNeighbor(slot)),
+					state.getBondActionCnt(slot), state.getBondCreatedSeedCnt(slot)));
+		}
 		return bonds;
 	}
 
-	public void setBonds(ArrayList<Bond> bonds) {
-		this.bonds = bonds;
+	public int getBondCnt() {
+		return state.getBondCnt(id);
 	}
 
-
-
 }
@@ -0,0 +1,171 @@
+package com.compmodel.sim.trsfr.core;
+
+import java.awt.Color;
+import java.awt.Font;
+import java.awt.FontMetrics;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.BitSet;
+
+import javax.imageio.ImageIO;
+
+/**
+ * Immutable picture of transformers at the seed boundary, for rendering in the background.
+ * Keeps only what is drawn: positions projected onto the first two axes, y=0 in 1-D space, colors,
+ * bonds, action flags and optionally atom positions.
+ *
+ * @author Sergey Sherstyuk
+ *
+ */
+public class TransformerFrame {
+	private static final int WIDTH = 1000;
+	private static final int TITLE_HEIGHT = 20;
+	private final String title;
+	private final String fileName;	// without extension
+	private final int size;
+	private final int dim;
+	private final int[] trsfX;
+	private final int[] trsfY;
+	private final int[] trsfRgb;
+	private final BitSet acted;		// transformers with actions during the seed
+	private final int[] bondStart;	// bonds of transformer t are bondTo[bondStart[t]..bondStart[t+1])
+	private final int[] bondTo;
+	private final int[] atomX;		// null if atoms are not shown
+	private final int[] atomY;
+
+	/**
+	 * Copy the state of transformers
+	 *
+	 * @param showAtoms include atom positions
+	 */
+	public TransformerFrame(WorldState state, String title, String fileName, boolean showAtoms) {
+		Lattice lattice = state.getLattice();
+		this.title = title;
+		this.fileName = fileName;
+		size = lattice.getSize();
+		dim = lattice.getDim();
+		int trsfCount = state.getTrsfCount();
+		trsfX = new int[trsfCount];
+		trsfY = new int[trsfCount];
+		trsfRgb = new int[trsfCount];
+		acted = new BitSet(trsfCount);
+		bondStart = new int[trsfCount + 1];
+		for(int t=0;t<trsfCount;t++) {
+			bondStart[t + 1] = bondStart[t] + state.getBondCnt(t);
+		}
+		bondTo = new int[bondStart[trsfCount]];
+		for(int t=0;t<trsfCount;t++) {
+			int cell = state.getTrsfCell(t);
+			trsfX[t] = lattice.x(cell);
+			trsfY[t] = dim > 1 ? lattice.y(cell) : 0;
+			trsfRgb[t] = state.getTransformer(t).getColor().getRGB();
+			if(state.getTrsfActionCnt(t) > 0) {
+				acted.set(t);
+			}
+			for(int k=0;k<state.getBondCnt(t);k++) {
+				bondTo[bondStart[t] + k] = state.getBondNeighbor(state.getBondSlot(t, k));
+			}
+		}
+		if(showAtoms) {
+			atomX = new int[state.getAtomCount()];
+			atomY = new int[state.getAtomCount()];
+			for(int a=0;a<atomX.length;a++) {
+				int cell = state.getAtomCell(a);
+				atomX[a] = lattice.x(cell);
+				atomY[a] = dim > 1 ? lattice.y(cell) : 0;
+			}
+		}else {
+			atomX = null;
+			atomY = null;
+		}
+	}
+
+	/**
+	 * Create a 2-D image of transformers.
+	 * Spaces with more dimensions are projected onto the first two axes.
+	 */
+	public BufferedImage render() {
+		// http://www.java2s.com/Code/Java/2D-Graphics-GUI/DrawanImageandsavetopng.htm
+		int width = WIDTH, titleHeight=TITLE_HEIGHT, height = width+titleHeight;
+		BufferedImage bi = new BufferedImage(width, height, BufferedImage.TYPE_3BYTE_BGR);
+		Graphics2D ig2 = bi.createGraphics();
+		ig2.setColor(Color.WHITE);
+		ig2.fillRect(0, 0, width, height);
+		Font font = new Font("TimesRoman", Font.PLAIN, 14);
+		ig2.setFont(font);
+		FontMetrics fontMetrics = ig2.getFontMetrics();
+		int stringWidth = fontMetrics.stringWidth(title);
+		int stringHeight = fontMetrics.getAscent();
+		ig2.setPaint(Color.black);
+		ig2.drawString(title, (width - stringWidth) / 2, 10 + stringHeight / 4);
+		double delta = (double)width / size;
+		int x1, y1, x2, y2;
+		int ox,oy,ow,oh;
+		if(delta >= 2 && dim == 2) {
+			// Draw a grid of empty points when they are distinguishable
+			BitSet occupied = new BitSet(size * size);
+			for(int t=0;t<trsfX.length;t++) {
+				occupied.set(trsfX[t] * size + trsfY[t]);
+			}
+			ig2.setColor(Color.GRAY);
+			for(int i=0;i<size;i++) {
+				for(int j=0;j<size;j++) {
+					if(!occupied.get(i * size + j)) {
+						ox = (int)(delta * i + (delta - 2)/2);
+						oy = titleHeight + (int)(delta * j + (delta - 2)/2);
+						ig2.fillOval(ox, oy, 2, 2);
+					}
+				}
+			}
+		}
+		ow = delta >= 2 ? 7 : 1;
+		oh = ow;
+		for(int t=0;t<trsfX.length;t++) {
+			int i = trsfX[t];
+			int j = trsfY[t];
+			ox = (int)(delta * i + (delta - ow)/2);
+			oy = titleHeight + (int)(delta * j + (delta - oh)/2);
+			ig2.setColor(new Color(trsfRgb[t]));
+			ig2.fillOval(ox, oy, ow, oh);
+			// Draw vertexes to neighbors
+			for(int b=bondStart[t];b<bondStart[t + 1];b++) {
+				x1 = (int)(delta * i + delta/2);
+				y1 =  titleHeight + (int)(delta * j + delta/2);
+				x2 = (int)(delta * trsfX[bondTo[b]] + delta/2);
+				y2 =  titleHeight + (int)(delta * trsfY[bondTo[b]] + delta/2);
+				ig2.setColor(Color.WHITE);
+				ig2.drawLine(x1, y1, x2, y2);
+			}
+			if(acted.get(t)) {
+				// If action occurred, draw an edge
+				ig2.setColor(Color.BLACK);
+				ig2.drawOval(ox, oy, ow, oh);
+			}
+		}
+		if(atomX != null) {
+			/* Draw a dot for an atom */
+			int aw = delta >= 2 ? 3 : 1;
+			ig2.setColor(Color.BLACK);
+			for(int a=0;a<atomX.length;a++) {
+				ox = (int)(delta * atomX[a] + (delta - aw)/2);
+				oy = titleHeight + (int)(delta * atomY[a] + (delta - aw)/2);
+				ig2.fillOval(ox, oy, aw, aw);
+			}
+		}
+		ig2.dispose();
+		return bi;
+	}
+
+	/**
+	 * Render and save to PNG file
+	 */
+	public void save() throws IOException {
+		ImageIO.write(render(), "PNG", new File(fileName+".png"));
+	}
+
+	public String getFileName() {
+		return fileName;
+	}
+}
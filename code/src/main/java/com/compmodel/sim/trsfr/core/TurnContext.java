@@ -0,0 +1,52 @@
+package com.compmodel.sim.trsfr.core;
+
+/**
+ * Scratch state of the thread running transformer turns:
+ * random generator, vicinity cursor, buffers for collected ids, move energy kernel, link traversal,
+ * translation of linked groups and pull of chains.
+ * Serial turns use one context of the World, in parallel turns each worker thread has its own.
+ * When tile is set, the transformers may only move within this tile
+ * and interact with transformers owned by it.
+ *
+ * @author Sergey Sherstyuk
+ *
+ */
+final class TurnContext {
+	static final int NO_TILE = -1;
+	final StreamRandom rand;	// re-keyed for each transformer turn
+	final RingCursor cursor;
+	final MoveEnergyKernel energy;
+	final LinkTraversal traversal = new LinkTraversal();
+	final ChainTranslation translation = new ChainTranslation();
+	final SnakePull pull = new SnakePull();
+	int[] nbBuf;		// transformer ids
+	int[] atomBuf;		// atom ids
+	int[] cellBuf;		// cells
+	int tile = NO_TILE;	// tile being processed, NO_TILE for serial turns
+	TurnTiling tiling;	// parallel turns only
+	int[] trsfTile;		// tile owning each transformer, parallel turns only
+
+	TurnContext(RingStencil stencil, Lattice lattice, int valence, int searchDistance, StreamRandom rand) {
+		this.rand = rand;
+		cursor = new RingCursor(stencil, lattice);
+		energy = new MoveEnergyKernel(lattice, valence, stencil.getDiskSize(1));
+		nbBuf = new int[stencil.getDiskSize(1)];
+		atomBuf = new int[stencil.getRingSize(searchDistance)];
+		cellBuf = new int[stencil.getDiskSize(1)];
+	}
+
+	/**
+	 * In parallel turns transformer may interact only with transformers owned by the same tile,
+	 * the others are treated as obstacles.
+	 */
+	boolean isForeign(int trsf) {
+		return tile != NO_TILE && trsfTile[trsf] != tile;
+	}
+
+	/**
+	 * In parallel turns transformers may not leave their tile
+	 */
+	boolean isOutsideTile(int cell) {
+		return tile != NO_TILE && tiling.tileOf(cell) != tile;
+	}
+}
@@ -0,0 +1,87 @@
+package com.compmodel.sim.trsfr.core;
+
+import java.util.Random;
+
+/**
+ * Checkerboard decomposition of the lattice for parallel turns.
+ * The space is split into hypercube tiles with tileSize points on each axis,
+ * tiles are colored by parity of their index on each axis, which gives 2^dim phases.
+ * Two tiles of the same phase are separated by at least one whole tile on some axis,
+ * so the tiles of one phase can be processed concurrently as long as
+ * every action reaches less than tileSize/2 points outside of its tile.
+ * The tile borders are shifted by a random offset each turn, so they do not form permanent walls.
+ *
+ * @author Sergey Sherstyuk
+ *
+ */
+public class TurnTiling {
+	private final Lattice lattice;
+	private final int tileSize;
+	private final int tilesPerAxis;
+	private final int tileCount;
+	private final int[] shift;
+
+	public TurnTiling(Lattice lattice, int tileSize) {
+		if(tileSize < 1) {
+			throw new IllegalArgumentException("tileSize must be positive: "+tileSize);
+		}
+		this.lattice = lattice;
+		this.tileSize = tileSize;
+		// shifted coordinate is up to size - 1 + tileSize - 1
+		tilesPerAxis = (lattice.getSize() + 2 * tileSize - 2) / tileSize;
+		long cnt = 1;
+		for(int axis=0;axis<lattice.getDim();axis++) {
+			cnt *= tilesPerAxis;
+		}
+		if(cnt > Integer.MAX_VALUE) {
+			throw new IllegalArgumentException("tileSize "+tileSize+" is too small for the space");
+		}
+		tileCount = (int)cnt;
+		shift = new int[lattice.getDim()];
+	}
+
+	/**
+	 * Move tile borders by random offset on each axis
+	 */
+	public void reshift(Random rand) {
+		for(int axis=0;axis<shift.length;axis++) {
+			shift[axis] = rand.nextInt(tileSize);
+		}
+	}
+
+	public int tileOf(int cell) {
+		int tile = 0;
+		for(int axis=0;axis<shift.length;axis++) {
+			tile = tile * tilesPerAxis + (lattice.coord(cell, axis) + shift[axis]) / tileSize;
+		}
+		return tile;
+	}
+
+	/**
+	 * @return phase of the tile, bit on each axis is parity of the tile index on this axis
+	 */
+	public int phaseOf(int tile) {
+		int phase = 0;
+		for(int axis=shift.length-1;axis>=0;axis--) {
+			phase |= (tile % tilesPerAxis & 1) << axis;
+			tile /= tilesPerAxis;
+		}
+		return phase;
+	}
+
+	public int getPhaseCount() {
+		return 1 << shift.length;
+	}
+
+	public int getTileCount() {
+		return tileCount;
+	}
+
+	public int getTileSize() {
+		return tileSize;
+	}
+
+	public Lattice getLattice() {
+		return lattice;
+	}
+}
@@ -0,0 +1,50 @@
+package com.compmodel.sim.trsfr.core;
+
+import java.util.Random;
+
+/**
+ * Remove atoms uniformly, add atoms of the types which are below their quota.
+ * Transformations shift the population towards the types produced by the active chains,
+ * this strategy restores the equal share of atomsNumber/atomTypeNumber for each type.
+ *
+ * @author Sergey Sherstyuk
+ *
+ */
+public class TypeQuotaReseed extends UniformReseed {
+	private static final long serialVersionUID = 3380165243090768671L;
+
+	@Override
+	public void addAtoms(World world, int count, Random rand) {
+		WorldState state = world.getState();
+		int typeNumber = world.getAtomTypeNumber();
+		int quota = (world.getAtomsNumber() + typeNumber - 1) / typeNumber;
+		for(int i=0;i<count;i++) {
+			world.createRandomAtom(pickType(state, typeNumber, quota, rand));
+		}
+	}
+
+	/*
+	 * Random type among the ones with the largest deficit
+	 */
+	private int pickType(WorldState state, int typeNumber, int quota, Random rand) {
+		int maxDeficit = Integer.MIN_VALUE;
+		int candidates = 0;
+		int result = 0;
+		for(int type=0;type<typeNumber;type++) {
+			int deficit = quota - state.getAtomTypeCount(type);
+			if(deficit > maxDeficit) {
+				maxDeficit = deficit;
+				candidates = 1;
+				result = type;
+			}else if(deficit == maxDeficit && rand.nextInt(++candidates) == 0) {
+				result = type;
+			}
+		}
+		return result;
+	}
+
+	@Override
+	public String toString() {
+		return "typeQuota";
+	}
+}
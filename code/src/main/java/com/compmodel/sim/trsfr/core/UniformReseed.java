@@ -0,0 +1,31 @@
+package com.compmodel.sim.trsfr.core;
+
+import java.util.Random;
+
+/**
+ * Replace atoms chosen uniformly at random with atoms of random type in random free places.
+ *
+ * @author Sergey Sherstyuk
+ *
+ */
+public class UniformReseed implements ReseedStrategy {
+	private static final long serialVersionUID = -1263904471815730215L;
+
+	public void removeAtoms(World world, int count, Random rand) {
+		WorldState state = world.getState();
+		for(int i=0;i<count && state.getAtomCount()>0;i++) {
+			world.removeAtom(rand.nextInt(state.getAtomCount()));
+		}
+	}
+
+	public void addAtoms(World world, int count, Random rand) {
+		for(int i=0;i<count;i++) {
+			world.createRandomAtom();
+		}
+	}
+
+	@Override
+	public String toString() {
+		return "uniform";
+	}
+}
@@ -1,29 +1,23 @@
 package com.compmodel.sim.trsfr.core;
 
-import java.awt.Color;
-import java.awt.Font;
-import java.awt.FontMetrics;
-import java.awt.Graphics2D;
-import java.awt.image.BufferedImage;
 import java.io.BufferedWriter;
-import java.io.File;
 import java.io.FileOutputStream;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 import java.io.PrintWriter;
 import java.io.Serializable;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
-import java.util.Collections;
-import java.util.Comparator;
-import java.util.DoubleSummaryStatistics;
-import java.util.IntSummaryStatistics;
 import java.util.List;
 import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.stream.Collectors;
 
-import javax.imageio.ImageIO;
-
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 /**
@@ -161,7 +155,7 @@ import org.slf4j.LoggerFactory;
  *
  */
 
-public class World implements Serializable{
+public class World implements Serializable, Cloneable{
 	private static final long serialVersionUID = 237404165099225379L;
 
 	private static final Logger log = LoggerFactory.getLogger(World.class);
@@ -170,8 +164,8 @@ public class World implements Serializable{
 	 * World default parameters
 	 */
 	public static final int ATOM_TYPE_NUMBER=4;	// Number of atom types
-	public static final int SPACE_DIM = 2;
-	public static final int SPACE_SIZE = 200;
+	public static final int SPACE_DIM = 2;		// default number of space dimensions
+	public static final int SPACE_SIZE = 200;	// default number of points on each axis
 	public static final int ATOMS_NUMBER = 3000;
 	public static final int TRSFR_NUMBER = 1000;
 	public static final int MAX_TEMPERATURE = 100;
@@ -186,18 +180,41 @@ public class World implements Serializable{
 	public static final int MASS_RATIO_LINKED = 4;  // Determines positions adjustment when trsf is in the chain	
 	public static final int TEMPERATURE = 10; // determines probability of random move
 	public static final int IDLE_WAIT = 5;	  // seeds transformer can wait without making any actions before it starts to move randomly 
+	public static final int GRID_TILE_SIZE = 0;	// 0 - linear grid layout, power of 2 - blocked tiles
+	public static final boolean SPARSE_SPACE = false;	// keep space in chunks allocated on demand, for big low-density worlds
+	public static final int TURN_THREADS = 1;	// >1 - transformers of distant tiles act concurrently
+	public static final int TURN_TILE_SIZE = 0;	// tile size for parallel turns, 0 - choose automatically
+	public static final int OUTPUT_THREADS = 1;	// background threads rendering and writing output
+	public static final int OUTPUT_QUEUE_SIZE = 4;	// output tasks waiting for the background threads
+	public static final boolean ASYNC_SNAPSHOTS = true;	// snapshots are copied at the seed boundary and written in the background
+	public static final int SNAPSHOTS_IN_FLIGHT = 1;	// snapshot copies waiting or being written
+	public static final int SNAPSHOTS_KEEP = 0;	// number of latest snapshots to keep, 0 - keep all
+	public static final boolean INLINE_ANALYTICS = false;	// run chain analytics on the simulation thread
+	public static final boolean GAUSSIAN_ACCEPTANCE = false;	// draw Gaussian values for decisions instead of using AcceptanceTables
+	private static final double MOVE_INIT_PENALTY = 0.5;	// threshold of a move without energy change
+	private static final int ANALYTICS_IN_FLIGHT = 2;	// frozen bond graphs waiting for analytics
 	private static final int MAX_FILES_CNT = 3000;
 	private static final int SAVE_SHOT_PERIOD = 1; // save picture every XX seedCnt
 	private static final int SAVE_SNAPSHOT_PERIOD = 10; // save world snapshot every XX seedCnt
 	private static final int CHAIN_ANALYTICS_PERIOD = 5; // save  chain analytics every XX seedCnt
+	private static final int MIN_CHAIN_LENGTH = 3;	// shorter chains are not in analytics
 	private static final int WORLD_ANALYTICS_PERIOD = 10; // build  WorldStatsSummary every XX seedCnt
 	private static final boolean SHOW_ATOMS = true; 
 	private static final String FILE_DIR = "C:\\Users\\Aii3x\\sergey\\shots\\shots07\\"; //"c:\\Users\\Aii3x\\sergey\\shots\\shots06\\";
 	private static final long RANDOM_SEED = 3432716543l;
-	private static Random rand = new Random(RANDOM_SEED);
+	private static final int NONE = WorldState.NONE;
+	private RandomStreams randomStreams;
+	private transient StreamRandom rand;	// world-level stream, re-keyed before each step
 	
-	public Transformer[][] trsfSpace;
-	public Atom[][] atomSpace;
+	private Lattice lattice;
+	private WorldState state;
+	private CellIndex trsfGrid;	// transformer id per cell, NONE if empty
+	private CellIndex atomGrid;	// atom id per cell, NONE if empty
+	private int gridTileSize;
+	private boolean sparseSpace;
+	private int turnThreads;
+	private int turnTileSize;
+	private int[] turnOrder;	// transformer ids in the order they act during the turn
 	
 	private int atomTypeNumber;
 	private int searchDistance;
@@ -207,6 +224,7 @@ public class World implements Serializable{
 	private double energyScale;
 	private int turnsPerSeed;
 	private int reseedPct;
+	private ReseedStrategy reseedStrategy;
 	private int atomsNumber;
 	private int trsfrNumber;
 	private int massRatio;
@@ -215,16 +233,33 @@ public class World implements Serializable{
 	private int temperature;
 	private int idleWait;
 	private int maxFilesCnt;
+	private long maxSeedCnt;	// 0 for no limit
 	private int saveShotPeriod;
 	private int saveSnapShotPeriod;
 	private int chainAnaliticsPeriod;
 	private int worldAnaliticsPeriod;
 	private boolean showAtoms;
 	private String fileDir;
-	public ArrayList<Atom> atoms;
-	public ArrayList<Transformer> transformers;
+	private int outputThreads;
+	private int outputQueueSize;
+	private OutputPipeline.DropPolicy outputDropPolicy;
+	private transient OutputPipeline output;
+	private boolean asyncSnapshots;
+	private int snapshotsInFlight;
+	private int snapshotsKeep;
+	private transient CheckpointWriter checkpoints;
+	private transient CheckpointWriter.Listener checkpointListener;
 	private ArrayList<WorldStatsSummary> worldStats;
-	private transient WorldStatsSummary curStatsWorld;
+	private boolean inlineAnalytics;
+	private boolean gaussianAcceptance;
+	private transient AcceptanceTables acceptance;	// rebuilt when parameters change
+	private transient ExecutorService analytics;	// null when analytics run inline
+	private transient ArrayDeque<Future<?>> pendingAnalytics;
+	
+	// Scratch state for the turn loop, buffers are filled by collectXxx methods
+	private transient RingStencil stencil;
+	private transient TurnContext serialCtx;	// scratch state of serial turns
+	private transient ParallelTurns parallelTurns;
 			
 	private transient int  turnCnt = 0;
 	private long  totalTurns = 0;
@@ -237,6 +272,7 @@ public class World implements Serializable{
 	}
 	
 	private void init() {
+		randomStreams = new RandomStreams(RANDOM_SEED);
 		atomTypeNumber = ATOM_TYPE_NUMBER;
 		searchDistance = SEARCH_DISTANCE;
 		actionDistancePenalty = ACTION_DISTANCE_PENALTY;
@@ -244,6 +280,7 @@ public class World implements Serializable{
 		energyScale = ENERGY_SCALE;
 		turnsPerSeed = TURNS_PER_SEED;
 		reseedPct = RESEED_PCT;
+		reseedStrategy = new UniformReseed();
 		atomsNumber = ATOMS_NUMBER;
 		trsfrNumber = TRSFR_NUMBER;
 		massRatio = MASS_RATIO;
@@ -258,18 +295,97 @@ public class World implements Serializable{
 		worldAnaliticsPeriod = WORLD_ANALYTICS_PERIOD;
 		showAtoms = SHOW_ATOMS;
 		fileDir = FILE_DIR;
-		atoms = new ArrayList<Atom>();
-		transformers = new ArrayList<Transformer>();
+		outputThreads = OUTPUT_THREADS;
+		outputQueueSize = OUTPUT_QUEUE_SIZE;
+		outputDropPolicy = OutputPipeline.DropPolicy.BLOCK;
+		asyncSnapshots = ASYNC_SNAPSHOTS;
+		snapshotsInFlight = SNAPSHOTS_IN_FLIGHT;
+		snapshotsKeep = SNAPSHOTS_KEEP;
+		gridTileSize = GRID_TILE_SIZE;
+		sparseSpace = SPARSE_SPACE;
+		turnThreads = TURN_THREADS;
+		turnTileSize = TURN_TILE_SIZE;
+		createSpace(SPACE_SIZE, SPACE_DIM);
 		worldStats = new ArrayList<WorldStatsSummary>();
-		curStatsWorld = null;
+		inlineAnalytics = INLINE_ANALYTICS;
+		gaussianAcceptance = GAUSSIAN_ACCEPTANCE;
+		initBuffers();
+	}
+
+	/**
+	 * Create empty space of given geometry, all entities are dropped.
+	 */
+	private void createSpace(int spaceSize, int spaceDim) {
+		lattice = new Lattice(spaceSize, spaceDim);
+		state = new WorldState(lattice, maxNeighborNumber, sparseSpace);
+		state.setSeedCnt(seedCnt);
+		trsfGrid = createGrid();
+		atomGrid = createGrid();
+		turnOrder = new int[0];
+	}
+
+	private CellIndex createGrid() {
+		if(sparseSpace) {
+			return new ChunkedGrid(lattice);
+		}
+		return new CellGrid(lattice, gridTileSize);
+	}
+
+	private void initBuffers() {
+		stencil = new RingStencil(lattice.getDim(), searchDistance);
+		rand = new StreamRandom(randomStreams.getRunSeed());
+		serialCtx = createTurnContext();
+		resetParallelTurns();
+		resetAcceptance();
+	}
+
+	/**
+	 * Rebuild probabilities of decisions after change of parameters they depend on
+	 */
+	private void resetAcceptance() {
+		acceptance = new AcceptanceTables(searchDistance, actionDistancePenalty,
+				MOVE_INIT_PENALTY - temperature/MAX_TEMPERATURE, energyScale);
+	}
+
+	/**
+	 * Create scratch state for a thread running transformer turns
+	 */
+	TurnContext createTurnContext() {
+		return new TurnContext(stencil, lattice, state.getValence(), searchDistance, new StreamRandom(randomStreams.getRunSeed()));
+	}
+
+	private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+		in.defaultReadObject();
+		if(outputThreads == 0) {	// snapshot saved before output settings were added
+			outputThreads = OUTPUT_THREADS;
+			outputQueueSize = OUTPUT_QUEUE_SIZE;
+			outputDropPolicy = OutputPipeline.DropPolicy.BLOCK;
+		}
+		if(snapshotsInFlight == 0) {	// snapshot saved before checkpoint settings were added
+			asyncSnapshots = ASYNC_SNAPSHOTS;
+			snapshotsInFlight = SNAPSHOTS_IN_FLIGHT;
+			snapshotsKeep = SNAPSHOTS_KEEP;
+		}
+		initBuffers();
 	}
 
 	public void run() {
 		//seedCnt = 0;
+		output = new OutputPipeline(outputThreads, outputQueueSize, outputDropPolicy);
+		if(!inlineAnalytics) {
+			analytics = Executors.newSingleThreadExecutor(r -> {
+				Thread thread = new Thread(r, "analytics");
+				thread.setDaemon(true);
+				return thread;
+			});
+			pendingAnalytics = new ArrayDeque<Future<?>>();
+		}
+		if(asyncSnapshots) {
+			checkpoints = new CheckpointWriter(snapshotsInFlight, snapshotsKeep, checkpointListener);
+		}
 		while (!isPaused){
 			seedAtoms();
 			resetActionCount();
-			curStatsWorld = null;
 			for(turnCnt=0;turnCnt<turnsPerSeed;turnCnt++) {
 				//saveShotForTransformers();
 				nextTurn();
@@ -279,230 +395,157 @@ public class World implements Serializable{
 				saveShotForTransformers();
 				//printTrsfSpaceNames();
 			}
-			if(seedCnt % saveSnapShotPeriod == 0) {
-				saveWorldSnapshot();
+			if(seedCnt % worldAnaliticsPeriod == 0 || seedCnt % chainAnaliticsPeriod == 0) {
+				saveAnalytics(seedCnt % worldAnaliticsPeriod == 0, seedCnt % chainAnaliticsPeriod == 0);
 			}
-			if(seedCnt % worldAnaliticsPeriod == 0) {
-				saveWorldAnalytics();
+			if(seedCnt % saveSnapShotPeriod == 0) {
+				saveWorldSnapshot();	// after the analytics, a resumed world continues with the next seed
 			}
-			if(seedCnt % chainAnaliticsPeriod == 0) {
-				saveChainsAnalytics();
+			if(fileCntTransformers >= maxFilesCnt || (maxSeedCnt > 0 && seedCnt >= maxSeedCnt)) { 
+				break;
 			}
-			if(fileCntTransformers >= maxFilesCnt) { 
-				log.info("===== run finished =====");
-				return;
+		}
+		if(analytics != null) {
+			flushAnalytics();
+			analytics.shutdown();
+			analytics = null;
+		}
+		output.shutdown();
+		if(output.getDroppedCnt() > 0) {
+			log.warn("!!! output could not keep up, dropped tasks:{}", output.getDroppedCnt());
+		}
+		output = null;
+		if(checkpoints != null) {
+			checkpoints.shutdown();
+			checkpoints = null;
+		}
+		resetParallelTurns();
+		log.info("===== run finished =====");
+	}
+
+	/**
+	 * Build chains and world statistics for the current seed,
+	 * save world analytics (WorldStatsSummary) and chain analytics (list of chains with ChainStatsSummary).
+	 * Unless analytics are inline, transformers and bonds are frozen here and analytics run in the background,
+	 * while the next seed is simulated. They run one after another, so results do not differ from inline ones.
+	 */
+	private void saveAnalytics(boolean saveWorld, boolean saveChains) {
+		long analyticsSeedCnt = seedCnt;
+		String title = buildWorldParamsTitle();
+		if(analytics == null) {
+			runAnalytics(state, analyticsSeedCnt, title, saveWorld, saveChains);
+			return;
+		}
+		WorldState frozen = state.copyBonds();
+		while(pendingAnalytics.size() >= ANALYTICS_IN_FLIGHT) {
+			waitForAnalytics(pendingAnalytics.removeFirst());
+		}
+		pendingAnalytics.addLast(analytics.submit(
+				() -> runAnalytics(frozen, analyticsSeedCnt, title, saveWorld, saveChains)));
+	}
+
+	private void runAnalytics(WorldState analyticsState, long analyticsSeedCnt, String title, boolean saveWorld, boolean saveChains) {
+		ChainAnalytics chainAnalytics = new ChainAnalytics(analyticsState, analyticsSeedCnt);
+		if(saveChains == false) {
+			// statistics only, chains are not built
+			if(saveWorld) {
+				saveWorldAnalytics(chainAnalytics.buildWorldStatsRecord(MIN_CHAIN_LENGTH), title);
 			}
+			return;
+		}
+		List<Chain> chains = chainAnalytics.extractChains(MIN_CHAIN_LENGTH);
+		WorldStatsSummary statsWorld = chainAnalytics.buildWorldStatsRecord(chains);
+		if(saveWorld) {
+			saveWorldAnalytics(statsWorld, title);
 		}
+		saveChainsAnalytics(chains, statsWorld, analyticsSeedCnt, title);
 	}
 
 	/**
 	 * print list of chains with ChainStatsSummary
 	 */
-	private void saveChainsAnalytics() {
-		List<Chain> chains = extractChains(3);	// minimum 3 links in a chain
-		String fileName = fileDir+"\\"+"chain_analytics_"+String.format("%07d",seedCnt)+".txt";
-		String line1 = buildWorldParamsTitle()+ "\n";
-		if(curStatsWorld == null) {
-			curStatsWorld = buildWorldStatsRecord(chains);
-		}		
-		String line2 = curStatsWorld+"\n";
-	    FileWriter fw=null;
-	    try {
-	        fw = new FileWriter(fileName,false);
-	        BufferedWriter bw=new BufferedWriter(fw);
-	        PrintWriter out = new PrintWriter(bw);
-	        out.write(line1);
-	        out.write(line2);
-	        chains.stream().forEach(chain -> out.write(chain.getSummaryStr(seedCnt)+","+chain.getTrsfTypeList()+"\n"));
-	        out.close();
-	    } catch (IOException e) {
-	        e.printStackTrace();
-	    }	
-        log.info(" === Saved chain analytics {}",fileName);
-	}
-
-	private void saveWorldAnalytics() {
-		List<Chain> chains = extractChains(3);	// minimum 3 links in a chain
+	private void saveChainsAnalytics(List<Chain> chains, WorldStatsSummary statsWorld, long analyticsSeedCnt, String title) {
+		String fileName = fileDir+"\\"+"chain_analytics_"+String.format("%07d",analyticsSeedCnt)+".txt";
+		String line1 = title+ "\n";
+		String line2 = statsWorld+"\n";
+		List<String> lines = chains.stream()
+				.map(chain -> chain.getSummaryStr(analyticsSeedCnt)+","+chain.getTrsfTypeList()+"\n")
+				.collect(Collectors.toList());
+		output.submit(() -> {
+		    FileWriter fw=null;
+		    try {
+		        fw = new FileWriter(fileName,false);
+		        BufferedWriter bw=new BufferedWriter(fw);
+		        PrintWriter out = new PrintWriter(bw);
+		        out.write(line1);
+		        out.write(line2);
+		        lines.forEach(out::write);
+		        out.close();
+		    } catch (IOException e) {
+		        e.printStackTrace();
+		    }	
+	        log.info(" === Saved chain analytics {}",fileName);
+		});
+	}
+
+	private void saveWorldAnalytics(WorldStatsSummary statsWorld, String title) {
 		String fileName = fileDir+"\\"+"world_analytics.txt";
-		if(curStatsWorld == null) {
-			curStatsWorld = buildWorldStatsRecord(chains);
-		}
-		worldStats.add(curStatsWorld);
-	    FileWriter fw=null;
-	    try {
-	        fw = new FileWriter(fileName,true);
-	        BufferedWriter bw=new BufferedWriter(fw);
-	        PrintWriter out = new PrintWriter(bw);
-			if(worldStats.size() <= 1) {
-		        out.write(buildWorldParamsTitle()+ "\n");
-		        out.write(WorldStatsSummary.getCsvHeader()+ "\n");
-			}
-	        out.write(curStatsWorld.toCsv()+"\n");
-	        out.close();
-	    } catch (IOException e) {
-	        e.printStackTrace();
-	    }	
-        log.info(" === Saved world analytics {}",worldStats.size());
-	}
-
-	private WorldStatsSummary buildWorldStatsRecord(List<Chain> chains) {
-		IntSummaryStatistics statsLength = chains.stream().mapToInt(Chain::getLength).summaryStatistics();
-		IntSummaryStatistics statsLengthNonCirc = chains.stream()
-				.filter(c -> c.isCircular()==false)
-				.mapToInt(Chain::getLength).summaryStatistics();
-		DoubleSummaryStatistics statsStrength = chains.stream().mapToDouble(chain -> chain.getSummaryStats(seedCnt).getAvgStrength()).summaryStatistics();
-		DoubleSummaryStatistics statsStrengthNonCirc = chains.stream()
-				.filter(c -> c.isCircular()==false)
-				.mapToDouble(chain -> chain.getSummaryStats(seedCnt).getAvgStrength()).summaryStatistics();
-		DoubleSummaryStatistics statsAge = chains.stream().mapToDouble(chain -> chain.getSummaryStats(seedCnt).getAvgAge()).summaryStatistics();
-		DoubleSummaryStatistics statsAgeNonCirc = chains.stream()
-				.filter(c -> c.isCircular()==false)
-				.mapToDouble(chain -> chain.getSummaryStats(seedCnt).getAvgAge()).summaryStatistics();
-		DoubleSummaryStatistics statsMatchPct = chains.stream().mapToDouble(chain -> chain.getMatchTypePct()).summaryStatistics();
-		WorldStatsSummary statsWorld= new WorldStatsSummary();
-		statsWorld.setCount(chains.size());
-		statsWorld.setAvgAge(statsAge.getAverage());
-		statsWorld.setAvgLength(statsLength.getAverage());
-		statsWorld.setAvgStrength(statsStrength.getAverage());
-		statsWorld.setCreatedSeedCnt(seedCnt);
-		statsWorld.setMaxAge((long)statsAge.getMax());
-		statsWorld.setMaxLength(statsLength.getMax());
-		statsWorld.setMaxStrength(statsStrength.getMax());
-		statsWorld.setMinAge((long)statsAge.getMin());
-		statsWorld.setMinStrength(statsStrength.getMin());
-		statsWorld.setCountNonCircular((int)statsAgeNonCirc.getCount());
-		statsWorld.setAvgAgeNonCircular(statsAgeNonCirc.getAverage());
-		statsWorld.setAvgLengthNonCircular(statsLengthNonCirc.getAverage());
-		statsWorld.setAvgStrengthNonCircular(statsStrengthNonCirc.getAverage());
-		statsWorld.setMaxAgeNonCircular((long)statsAgeNonCirc.getMax());
-		statsWorld.setMaxLengthNonCircular(statsLengthNonCirc.getMax());
-		statsWorld.setMaxStrengthNonCircular(statsStrengthNonCirc.getMax());
-		statsWorld.setMinAgeNonCircular((long)statsAgeNonCirc.getMin());
-		statsWorld.setMinStrengthNonCircular(statsStrengthNonCirc.getMin());
-		statsWorld.setAvgMatchPct(statsMatchPct.getAverage());
-		statsWorld.setMaxMatchPct(statsMatchPct.getMax());
-		statsWorld.setMinMatchPct(statsMatchPct.getMin());
-		return statsWorld;
-	}
-
-	private List<Chain> extractChains(int minLength) {
-		ArrayList<Chain> chains = new ArrayList<Chain>();
-		ArrayList<Transformer> tmpArr = (ArrayList<Transformer>) transformers.clone();
-		// Extract non-circular first
-		while(true) {
-			/* Searh end of the chain and then remove it from tmpArr.
-			   until only standalone transformers remain */
-			Chain chain = null;
-			int i = 0;
-			for(Transformer trsf: tmpArr) {
-				//log.info("=== i:{}",++i);
-				if(trsf.getBonds().size() == 1) {
-					chain = buildChainFromTheEnd(trsf);
-					if(chain.size() >= minLength) {
-						chains.add(chain);
-					}
-					break;
-				}
-			}
-			if(chain != null) {
-				tmpArr.removeAll(chain.getLinks());
-			}else {
-				//log.debug("=== no more chains");
-				break;
-			}
-			//log.debug("=== tmpArr.size();:{}",tmpArr.size());
-		}
-		// Now get circular
-		while(true) {
-			Chain chain = null;
-			int i = 0;
-			for(Transformer trsf: tmpArr) {
-				//log.debug("=== i:{}",++i);
-				if(trsf.getBonds().size() == 2) {
-					chain = buildChainFromTheEnd(trsf);
-					if(chain.size() >= minLength) {
-						chains.add(chain);
-					}
-					break;
-				}
-			}
-			if(chain != null) {
-				tmpArr.removeAll(chain.getLinks());
-			}else {
-				//log.debug("=== no more chains");
-				break;
-			}
-			//log.debug("=== tmpArr.size();:{}",tmpArr.size());
-		}
-		//log.debug("=== done");
-		return chains.stream().sorted(Comparator.comparing(Chain::size).reversed()).collect(Collectors.toList());
+		worldStats.add(statsWorld);
+		String header = worldStats.size() <= 1 ? title+ "\n"+WorldStatsSummary.getCsvHeader()+ "\n" : "";
+		String line = statsWorld.toCsv()+"\n";
+		int statsCnt = worldStats.size();
+		output.submitOrdered(() -> {	// appended in the order of seeds
+		    FileWriter fw=null;
+		    try {
+		        fw = new FileWriter(fileName,true);
+		        BufferedWriter bw=new BufferedWriter(fw);
+		        PrintWriter out = new PrintWriter(bw);
+		        out.write(header);
+		        out.write(line);
+		        out.close();
+		    } catch (IOException e) {
+		        e.printStackTrace();
+		    }	
+	        log.info(" === Saved world analytics {}",statsCnt);
+		});
 	}
 
 	/**
-	 * Input endTrsf has only one bond, i.e. it repesents end of the chain.
-	 * Pull all linked trsfrs into a chain.
-	 * 
-	 * @param endTrsf
-	 * @return
+	 * Wait until background analytics are finished, worldStats are complete after that
 	 */
-	private Chain buildChainFromTheEnd(Transformer endTrsf) {
-		Chain chain = new Chain();
-		chain.setCircular(false);
-		double strength = endTrsf.getBonds().get(0).getStrength(seedCnt);
-		long age = seedCnt - endTrsf.getBonds().get(0).getCreatedSeedCnt();
-		chain.addLink(endTrsf, strength, age);
-		Transformer prevTrsf = endTrsf;
-		Transformer curTrsf = endTrsf.getBonds().get(0).getNeighbor();
-		int i = 0;
-		while(true) {
-			//log.debug("===== i:"+(++i)+", trsf:"+trsf+", curTrsf:"+curTrsf+"("+curTrsf.getBonds().size()+"), prevTrsf:"+prevTrsf+"("+prevTrsf.getBonds().size()+")" );
-			if(curTrsf == endTrsf) {
-				// circular chain
-				chain.setCircular(true);
-				//log.debug("===== circular chain");
-				break;
-			}
-			if(curTrsf.getBonds().size() == 1) {
-				//log.debug("===== end of chain");
-				// end of chain, setting strength and age same as for the last link
-				strength = chain.getStrengths().get(chain.size() - 1);
-				age = chain.getAges().get(chain.size() - 1);
-				chain.addLink(curTrsf, strength, age);
-				break;
-			}
-			// Add next link
-			for(Bond bond : curTrsf.getBonds()) {
-				if(bond.getNeighbor() == prevTrsf) {
-					// bond back to prev link - skip it
-					//log.debug("===== skip backward bond");
-					continue;
-				}
-				//log.debug("===== adding next link with curTrsf:"+curTrsf+" and switching to next:"+bond.getTransformer());
-				strength = bond.getStrength(seedCnt);
-				age = seedCnt - bond.getCreatedSeedCnt();
-				if(chain.size() > 100) {
- 					log.error("!!! "
- 							+ " Suspisious chain: "+chain.getSummaryStr(seedCnt));
-				}
-				chain.addLink(curTrsf, strength, age);
-				if(age < 0 || strength > 10) {
-					log.error("!!! unrealistic age or strength: age="+ age+", strength="+strength+
-						", curTrsf="+curTrsf.getFullInfoWithBonds(seedCnt));
-				}
-				prevTrsf = curTrsf;
-				curTrsf = bond.getNeighbor();
-				break;
+	private void flushAnalytics() {
+		if(pendingAnalytics != null) {
+			while(!pendingAnalytics.isEmpty()) {
+				waitForAnalytics(pendingAnalytics.removeFirst());
 			}
 		}
-		return chain;
 	}
-	
+
+	private static void waitForAnalytics(Future<?> task) {
+		try {
+			task.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} catch (ExecutionException e) {
+			log.error("!!! analytics failed", e.getCause());
+		}
+	}
+
 	/**
 	 * Serialize current instance of the world.
+	 * With async snapshots only a copy of the world is taken here, it is written in the background.
 	 */
 	private void saveWorldSnapshot() {
+		flushAnalytics();	// snapshot includes world stats of all seeds up to the current one
+		String fileName = fileDir+"\\"+"world_snapshot_"+String.format("%07d",seedCnt)+".trsf";
+		if(checkpoints != null) {
+			long startTime = System.nanoTime();
+			World copy = copyForCheckpoint();
+			checkpoints.submit(copy, fileName, seedCnt);
+			log.info(" === Snapshot copy taken in {} ms", (System.nanoTime() - startTime) / 1000000);
+			return;
+		}
 		try {  
-			String fileName = fileDir+"\\"+"world_snapshot_"+String.format("%07d",seedCnt)+".trsf";
             FileOutputStream file = new FileOutputStream(fileName); 
             ObjectOutputStream out = new ObjectOutputStream(file); 
             out.writeObject(this); 
@@ -515,6 +558,35 @@ public class World implements Serializable{
 		
 	}
 	
+	/**
+	 * Consistent copy of the world at the seed boundary, independent of further changes.
+	 * Entities and spatial stores are copied, immutable objects are shared,
+	 * transient scratch state is not copied.
+	 */
+	World copyForCheckpoint() {
+		World copy;
+		try {
+			copy = (World)super.clone();
+		} catch (CloneNotSupportedException e) {
+			throw new IllegalStateException(e);
+		}
+		copy.state = state.copy();
+		copy.trsfGrid = trsfGrid.copy();
+		copy.atomGrid = atomGrid.copy();
+		copy.turnOrder = turnOrder.clone();
+		copy.worldStats = new ArrayList<WorldStatsSummary>(worldStats);
+		copy.rand = null;
+		copy.stencil = null;
+		copy.serialCtx = null;
+		copy.parallelTurns = null;
+		copy.output = null;
+		copy.checkpoints = null;
+		copy.checkpointListener = null;
+		copy.analytics = null;
+		copy.pendingAnalytics = null;
+		return copy;
+	}
+
 	/**
 	 * After all turns finished check all transformers,
 	 * if there were actions during the seed.
@@ -524,14 +596,15 @@ public class World implements Serializable{
 	 *   - reset idleCnt.
 	 */
 	private void updateIdleTransformers() {
-		transformers.stream().forEach(t -> {
-			if(t.getActionCnt() == 0) {
-				t.setIdleCnt(t.getIdleCnt() + 1);
-				if(moveTransformerRandomly(t)) {
-					t.setIdleCnt(0);
+		for(int t=0;t<state.getTrsfCount();t++) {
+			if(state.getTrsfActionCnt(t) == 0) {
+				state.setTrsfIdleCnt(t, state.getTrsfIdleCnt(t) + 1);
+				randomStreams.reset(serialCtx.rand, seedCnt, RandomStreams.IDLE_MOVES, t);
+				if(moveTransformerRandomly(serialCtx, t)) {
+					state.setTrsfIdleCnt(t, 0);
 				}
 			}
-		});		
+		}
 	}
 
 	/**
@@ -539,7 +612,9 @@ public class World implements Serializable{
 	 * reset actionCnt for transformers
 	 */
 	private void resetActionCount() {
-		transformers.stream().forEach(t -> t.setActionCnt(0));	
+		for(int t=0;t<state.getTrsfCount();t++) {
+			state.setTrsfActionCnt(t, 0);
+		}
 	}
 
 	/**
@@ -547,12 +622,21 @@ public class World implements Serializable{
 	 * During the turn each transformer gets a chance to act.
 	 * If transformer was able to find atom and transform it,
 	 * we move the transformer and atom closer to each other.
+	 * With turnThreads > 1 transformers of distant tiles act concurrently, see ParallelTurns.
 	 */
 	private void nextTurn() {
-		Collections.shuffle(transformers);
-		transformers.stream().forEach(t -> {
-			turnForTransformer(t);
-		});		
+		randomStreams.reset(rand, seedCnt, turnCnt, RandomStreams.WORLD);
+		shuffle(rand, turnOrder, turnOrder.length);
+		if(turnThreads > 1) {
+			if(parallelTurns == null) {
+				parallelTurns = new ParallelTurns(this);
+			}
+			parallelTurns.runTurn(turnOrder, rand, serialCtx);
+		}else {
+			for(int t : turnOrder) {
+				turnForTransformer(serialCtx, t);
+			}
+		}
 		totalTurns++;
 	}
 
@@ -561,18 +645,28 @@ public class World implements Serializable{
 	 * First it searches for atoms with distance =  0,
 	 * then with distance = 1, etc. up to searchDistance.
 	 * When distance increases, probability of interaction decreases.
+	 * Only atoms of the transformer input type are considered,
+	 * if there are none within searchDistance the turn is skipped.
+	 * Random draws come from the stream of the transformer for this turn,
+	 * so they do not depend on the order transformers act in.
 	 * 
 	 * @param t
 	 */
-	private void turnForTransformer(Transformer t) {		
+	void turnForTransformer(TurnContext ctx, int t) {		
+		randomStreams.reset(ctx.rand, seedCnt, turnCnt, t);
+		int cell = state.getTrsfCell(t);
+		int inType = state.getTrsfInTypeIdx(t);
+		if(!state.getAtomPlanes().anyWithin(inType, cell, searchDistance)) {
+			return;
+		}
 		for(int curDist=0; curDist<=searchDistance;curDist++) {
-			double actionThreshold = curDist * actionDistancePenalty;
-			if(Math.abs(rand.nextGaussian()) > actionThreshold) {
-				ArrayList<Atom> atoms = getAtomsOnSurface(t.getCoords(), curDist);
-				Collections.shuffle(atoms);
-				for(Atom a: atoms) {
-					if(t.tryTransform(a) != null) {
-						moveAfterAction(t, a);
+			if(actionAllowed(ctx, curDist)) {
+				int atomCnt = collectAtomsOnSurface(ctx, cell, curDist, inType);
+				if(atomCnt > 0) {
+					// all collected atoms match, pick one at random
+					int a = ctx.atomBuf[atomCnt == 1 ? 0 : ctx.rand.nextInt(atomCnt)];
+					if(state.tryTransform(t, a, totalTurns)) {
+						moveAfterAction(ctx, t, a);
 						return;
 					}
 				}
@@ -580,6 +674,18 @@ public class World implements Serializable{
 		}
 	}
 
+	/**
+	 * Probability of action decreases with distance,
+	 * action is allowed when |N(0,1)| > curDist * actionDistancePenalty
+	 */
+	private boolean actionAllowed(TurnContext ctx, int curDist) {
+		if(!gaussianAcceptance) {
+			return acceptance.acceptAction(ctx.rand, curDist);
+		}
+		double actionThreshold = curDist * actionDistancePenalty;
+		return Math.abs(ctx.rand.nextGaussian()) > actionThreshold;
+	}
+
 	/**
 	 * When atom was transformed:
 	 *   - we move atom closer to transformer
@@ -592,18 +698,19 @@ public class World implements Serializable{
 	 * @param trsf
 	 * @param atom
 	 */
-	private boolean moveAfterAction(Transformer trsf, Atom atom) {
-		int curDistance = Coordinates.calcDistance(atom.getCoords(), trsf.getCoords());
+	private boolean moveAfterAction(TurnContext ctx, int trsf, int atom) {
+		int trsfCell = state.getTrsfCell(trsf);
+		int curDistance = lattice.distance(state.getAtomCell(atom), trsfCell);
 		if(curDistance == 0) {
 			return false;
 		}
-		tryMoveAtomTowardsTo(atom, trsf.getCoords());
-		curDistance = Coordinates.calcDistance(atom.getCoords(), trsf.getCoords());
+		tryMoveAtomTowardsTo(ctx, atom, trsfCell);
+		curDistance = lattice.distance(state.getAtomCell(atom), trsfCell);
 		if(curDistance == 0) {
 			// If atom new position is the same as trsf, no need to move the latter
 			return false;
 		}
-		return tryMoveTransformerTowardsTo(trsf, atom.getCoords());
+		return tryMoveTransformerTowardsTo(ctx, trsf, state.getAtomCell(atom));
 	}
 	
 	/**
@@ -614,72 +721,81 @@ public class World implements Serializable{
 	 *  - if energy level difference and temperature allows, turned off
 	 * relocate atom to this spot.
 	 * 
-	 * @param newCoords
-	 * @param newCoord
+	 * @param trsf
+	 * @param newCell
 	 * @return
 	 */
-	private boolean tryMoveTransformerTowardsTo(Transformer trsf, Coordinates newCoord) {
+	private boolean tryMoveTransformerTowardsTo(TurnContext ctx, int trsf, int newCell) {
+		Transformer trsfView = state.getTransformer(trsf);
 		double trsfrMoveThr = 1.0 - 1.0/massRatio;	// threshold to move or tear off single transformer
-		double chainMoveThr = 1.0 - 1.0/(massRatioLinked * (trsf.getLinkedCount(null) +1));	// threshold to move the whole chain
-		double rnd = rand.nextDouble();
-		Coordinates curCoord = trsf.getCoords();
-		double curLevel = getEnergyLevel(trsf, curCoord);
-		ArrayList<Coordinates> vicinity = Coordinates.getVicinity(curCoord, 1);
-		Collections.shuffle(vicinity);
-		int origDistance = Coordinates.calcDistance(curCoord, newCoord);
-		int neighbCnt = trsf.getBonds().size();
+		double chainMoveThr = 1.0 - 1.0/(massRatioLinked * (getLinkedCount(ctx, trsf) +1));	// threshold to move the whole chain
+		double rnd = ctx.rand.nextDouble();
+		int curCell = state.getTrsfCell(trsf);
+		int cellCnt = collectCellsWithin(ctx, curCell, 1);
+		int origDistance = lattice.distance(curCell, newCell);
+		int neighbCnt = state.getBondCnt(trsf);
 		if(neighbCnt == 0) {
 			// === standalone transformer
 			if(rnd > trsfrMoveThr) {
-				for(Coordinates tmpCoord : vicinity) {
-					if(Coordinates.calcDistance(tmpCoord, newCoord) < origDistance
-						&& !isCoordForbidden(trsf, tmpCoord, false)){
-						relocateTransformerTo(trsf, tmpCoord);
-						log.debug("=== tryMoveTransformerTowardsTo, standalone move allowed for "+trsf.getShortInfo()+" to "+tmpCoord);
+				for(int i=0;i<cellCnt;i++) {
+					int tmpCell = ctx.cellBuf[i];
+					if(lattice.distance(tmpCell, newCell) < origDistance
+						&& !isCoordForbidden(ctx, trsf, tmpCell, false)){
+						relocateTransformerTo(ctx, trsf, tmpCell);
+						if(log.isDebugEnabled()) {
+							log.debug("=== tryMoveTransformerTowardsTo, standalone move allowed for {} to {}", trsfView, lattice.toString(tmpCell));
+						}
 						//verifyTrsfPositions();
 						return true;
 					}
 				}
-				log.debug("=== tryMoveTransformerTowardsTo, standalone move failed, no place for "+trsf.getShortInfo());
+				log.debug("=== tryMoveTransformerTowardsTo, standalone move failed, no place for {}", trsfView);
 			}else {
-				log.debug("=== tryMoveTransformerTowardsTo, standalone move failed, no luck for "+trsf.getShortInfo());
+				log.debug("=== tryMoveTransformerTowardsTo, standalone move failed, no luck for {}", trsfView);
 			}
 			return false;
 		}else if(neighbCnt == 1) {
 			// === end of the chain
 			if(rnd > chainMoveThr) {
 				// first, try to pull the chain
-				for(Coordinates tmpCoord : vicinity) {
-					if(Coordinates.calcDistance(tmpCoord, newCoord) < origDistance
-						&& !isCoordForbidden(trsf, tmpCoord, true)){
+				for(int i=0;i<cellCnt;i++) {
+					int tmpCell = ctx.cellBuf[i];
+					if(lattice.distance(tmpCell, newCell) < origDistance
+						&& !isCoordForbidden(ctx, trsf, tmpCell, true)){
 						/* No need to compare energy levels, because with simplified energy
 						 * we do not consider possible attraction at tmpCoord from new neighbor
 						 */
-						log.debug("=== tryMoveTransformerTowardsTo, endOfChain, whole chain pull allowed for "+trsf.getShortInfo()+" to "+tmpCoord);
-						tearOffOrPullTransformer(trsf, tmpCoord);
+						if(log.isDebugEnabled()) {
+							log.debug("=== tryMoveTransformerTowardsTo, endOfChain, whole chain pull allowed for {} to {}", trsfView, lattice.toString(tmpCell));
+						}
+						tearOffOrPullTransformer(ctx, trsf, tmpCell);
 						//verifyTrsfPositions();
 						return true;
 					}
 				}
-				log.debug("=== tryMoveTransformerTowardsTo, endOfChain move failed, no place for "+trsf.getShortInfo());
+				log.debug("=== tryMoveTransformerTowardsTo, endOfChain move failed, no place for {}", trsfView);
 			}else if(rnd > trsfrMoveThr) {
 				// next try to tear off the single trsf
-				for(Coordinates tmpCoord : vicinity) {
-					if(Coordinates.calcDistance(tmpCoord, newCoord) < origDistance
-						&& !isCoordForbidden(trsf, tmpCoord, false)){
+				double curLevel = scoreMoves(ctx, trsf, curCell, cellCnt);
+				for(int i=0;i<cellCnt;i++) {
+					int tmpCell = ctx.cellBuf[i];
+					if(lattice.distance(tmpCell, newCell) < origDistance
+						&& !isCoordForbidden(ctx, trsf, tmpCell, false)){
 						// Compare energy levels
-						double tmpLevel = getEnergyLevel(trsf,tmpCoord);
-						if(enoughEnergyForMove(tmpLevel - curLevel)) {
-							log.debug("=== tryMoveTransformerTowardsTo, endOfChain tear off allowed for "+trsf.getShortInfo()+" to "+tmpCoord);
-							relocateTransformerTo(trsf, tmpCoord);
+						double tmpLevel = ctx.energy.getLevel(i);
+						if(enoughEnergyForMove(ctx, tmpLevel - curLevel)) {
+							if(log.isDebugEnabled()) {
+								log.debug("=== tryMoveTransformerTowardsTo, endOfChain tear off allowed for {} to {}", trsfView, lattice.toString(tmpCell));
+							}
+							relocateTransformerTo(ctx, trsf, tmpCell);
 							//verifyTrsfPositions();
 							return true;
 						}
 					}
 				}
-				log.debug("=== tryMoveTransformerTowardsTo, endOfChain tear off failed, no place for "+trsf.getShortInfo());
+				log.debug("=== tryMoveTransformerTowardsTo, endOfChain tear off failed, no place for {}", trsfView);
 			}else {
-				log.debug("=== tryMoveTransformerTowardsTo, endOfChain move failed, no luck for "+trsf.getShortInfo());
+				log.debug("=== tryMoveTransformerTowardsTo, endOfChain move failed, no luck for {}", trsfView);
 			}
 			return false;
 		}else {
@@ -687,106 +803,104 @@ public class World implements Serializable{
 			chainMoveThr = 0.;
 			if(rnd > chainMoveThr) {
 				// first, try to move the chain
-				ArrayList<Transformer> links = trsf.getLinked(null);
-				log.debug("=== tryMoveTransformerTowardsTo, inside chain:"+links);
-				for(Coordinates tmpCoord : vicinity) {
-					//log.debug("=== tryMoveTransformerTowardsTo, inside chain vicinity, tmpCoord:"+tmpCoord
-					//		+", newCoord:"+newCoord+". dist:"+Coordinates.calcDistance(tmpCoord, newCoord)
-					//		+", origDist:"+origDistance);
-					if(Coordinates.calcDistance(tmpCoord, newCoord) < origDistance
-						&& !isMoveForbiddenForLinks(trsf, tmpCoord, links)){
+				int linkCnt = ctx.translation.load(state, ctx.traversal, trsf);
+				log.debug("=== tryMoveTransformerTowardsTo, inside chain of {} links", linkCnt);
+				for(int i=0;i<cellCnt;i++) {
+					int tmpCell = ctx.cellBuf[i];
+					if(lattice.distance(tmpCell, newCell) < origDistance
+						&& !isMoveForbiddenForLinks(ctx, trsf, tmpCell)){
 						/* No need to compare energy levels, because with simplified energy
 						 * we do not consider possible attraction at tmpCoord from new neighbors
 						 */
-						log.debug("=== tryMoveTransformerTowardsTo, inside chain whole chain move allowed for "+trsf.getShortInfo()+" to "+tmpCoord);
-						moveTransformerWithLinks(trsf, tmpCoord, links);
+						if(log.isDebugEnabled()) {
+							log.debug("=== tryMoveTransformerTowardsTo, inside chain whole chain move allowed for {} to {}", trsfView, lattice.toString(tmpCell));
+						}
+						moveTransformerWithLinks(ctx, trsf, tmpCell);
 						//verifyTrsfPositions();
 						return true;
 					}
 				}
-				log.debug("=== tryMoveTransformerTowardsTo, inside chain whole chain move failed, no place for "+trsf.getShortInfo());
+				log.debug("=== tryMoveTransformerTowardsTo, inside chain whole chain move failed, no place for {}", trsfView);
 			}else if(rnd > trsfrMoveThr) {
 				// next try to tear off the single trsf
-				for(Coordinates tmpCoord : vicinity) {
-					if(Coordinates.calcDistance(tmpCoord, newCoord) < origDistance
-						&& !isCoordForbidden(trsf, tmpCoord, false)){
+				double curLevel = scoreMoves(ctx, trsf, curCell, cellCnt);
+				for(int i=0;i<cellCnt;i++) {
+					int tmpCell = ctx.cellBuf[i];
+					if(lattice.distance(tmpCell, newCell) < origDistance
+						&& !isCoordForbidden(ctx, trsf, tmpCell, false)){
 						// Compare energy levels
-						double tmpLevel = getEnergyLevel(trsf,tmpCoord);
-						if(enoughEnergyForMove(tmpLevel - curLevel)) {
-							log.debug("=== tryMoveTransformerTowardsTo, inside chain tear off allowed for "+trsf.getShortInfo()+" to "+tmpCoord);
-							relocateTransformerTo(trsf, tmpCoord);
+						double tmpLevel = ctx.energy.getLevel(i);
+						if(enoughEnergyForMove(ctx, tmpLevel - curLevel)) {
+							if(log.isDebugEnabled()) {
+								log.debug("=== tryMoveTransformerTowardsTo, inside chain tear off allowed for {} to {}", trsfView, lattice.toString(tmpCell));
+							}
+							relocateTransformerTo(ctx, trsf, tmpCell);
 							//verifyTrsfPositions();
 							return true;
 						}
 					}
 				}
-				log.debug("=== tryMoveTransformerTowardsTo, inside chain failed, no place for "+trsf.getShortInfo());
+				log.debug("=== tryMoveTransformerTowardsTo, inside chain failed, no place for {}", trsfView);
 			}else {
-				log.debug("=== tryMoveTransformerTowardsTo, insideChain move failed, no luck for "+trsf.getShortInfo());
+				log.debug("=== tryMoveTransformerTowardsTo, insideChain move failed, no luck for {}", trsfView);
 			}
 		}
 		return false;
-		//log.debug("moved {} delta: {}",trsf.getName(),Coordinates.deltaToString(trsf.getCoords(), newCoord));
 	}
 	
 	/**
-	 * Move transformer and all linked ones to newCoord
+	 * Move transformer and all linked ones to new position
 	 * When doing that we add/remove neighbors.
+	 * Links are loaded into ctx.translation and the move is checked by isMoveForbiddenForLinks.
 	 * 
 	 * @param trsf
-	 * @param newCoord
-	 * @param links
+	 * @param newCell
 	 */
-	private void moveTransformerWithLinks(Transformer trsf, Coordinates newCoord, ArrayList<Transformer> links) {
-		Coordinates delta = Coordinates.subtract(newCoord, trsf.getCoords());
-		log.debug("=== moveTransformerWithLinks start, trsf:"+trsf.getShortInfo()+", links.size:"+links.size()+", delta: "+delta);
-		log.debug("=== links before:"+buildLinksInfo(links));
-		int i =0;
-		for(Transformer linkTrsf : links) {
-			Coordinates tmpCoord = Coordinates.add(linkTrsf.getCoords(), delta);
-			log.debug("===== moveTransformerWithLinks, "+(++i)+":  moving linkTrsf:"+linkTrsf.getShortInfo()+" to "+tmpCoord);
-			changeCoordsForTransformer(linkTrsf, tmpCoord, "from moveTransformerWithLinks, "+i+":  moving linkTrsf:"+linkTrsf.getShortInfo());
+	private void moveTransformerWithLinks(TurnContext ctx, int trsf, int newCell) {
+		ChainTranslation links = ctx.translation;
+		if(log.isDebugEnabled()) {
+			log.debug("=== moveTransformerWithLinks start, trsf:{}, links.size:{}, to: {}", state.getTransformer(trsf), links.size(), lattice.toString(newCell));
+		}
+		links.commit(state, trsfGrid);
+		for(int l=0;l<links.size();l++) {
+			int link = links.getLink(l);
 			// For ends only it is possible to add neighbors
-			if(linkTrsf.getBonds().size() == 1) {
-				log.debug("======= moveTransformerWithLinks, trsf:"+trsf.getShortInfo()+", end detected, check if we need to add neighbor at "+tmpCoord);
-				ArrayList<Transformer> newNeighb = getTransformersWithin(tmpCoord, 1);	
-				newNeighb.remove(linkTrsf);	// exclude moving linkTrsf from new neighbors
-				for(Transformer neighbTrsf: newNeighb) {
-					if(!linkTrsf.hasNeighbor(neighbTrsf)
-						&& !links.contains(neighbTrsf)) { // do not add trsf from links
-						linkTrsf.addNeighbor(neighbTrsf, seedCnt);
-						log.debug("========= moveTransformerWithLinks, added neighbor "+neighbTrsf.getShortInfo()+" to "+linkTrsf.getShortInfo());
+			if(state.getBondCnt(link) == 1) {
+				int nbCnt = collectTransformersWithin(ctx, state.getTrsfCell(link), 1);
+				for(int i=0;i<nbCnt;i++) {
+					int neighb = ctx.nbBuf[i];
+					if(neighb != link	// exclude moving linkTrsf from new neighbors
+						&& !state.hasNeighbor(link, neighb)
+						&& state.getBondCnt(neighb) < maxNeighborNumber
+						&& !isForeign(ctx, neighb)
+						&& !links.isMember(neighb)) { // do not add trsf from links
+						state.addNeighbor(link, neighb, seedCnt);
+						log.debug("========= moveTransformerWithLinks, added neighbor {} to {}", state.getTransformer(neighb), state.getTransformer(link));
 						break;	// Only one trsf can be added, so no need to loop more
 					}
 				}
 			}
 		}
-		// Have to restore links positions in space, because changeCoordsForTransformer could wipe out values for each other  
-		for(Transformer linkTrsf : links) {
-			trsfSpace[linkTrsf.getCoords().getCoords()[0]][linkTrsf.getCoords().getCoords()[1]] = linkTrsf;
-		}
-		log.debug("=== moveTransformerWithLinks end, trsf:"+trsf.getShortInfo()+", links after:"+buildLinksInfo(links));
+		log.debug("=== moveTransformerWithLinks end, trsf:{}", state.getTransformer(trsf));
 	}
 
 	/**
-	 * Change coords for transformer and also adjust content of trsfSpace 
+	 * Change coords for transformer and also adjust content of trsfGrid 
 	 * 
 	 * @param trsf
-	 * @param newCoord
-	 * @param info
+	 * @param newCell
 	 */
-	private void changeCoordsForTransformer(Transformer trsf, Coordinates newCoord, String info) {
-		int[] coorArr = trsf.getCoords().getCoords();
-		trsfSpace[coorArr[0]][coorArr[1]] = null;
-		trsf.setCoords(newCoord);
-		int[] coorArrNew = newCoord.getCoords();
-		trsfSpace[coorArrNew[0]][coorArrNew[1]] = trsf;
-		String oldSpaceOccupant = trsfSpace[coorArr[0]][coorArr[1]]==null?"null":trsfSpace[coorArr[0]][coorArr[1]].getShortInfo();
-		String newSpaceOccupant = trsfSpace[coorArrNew[0]][coorArrNew[1]]==null?"null":trsfSpace[coorArrNew[0]][coorArrNew[1]].getShortInfo();
-		log.debug("===== === changeCoordsForTransformer, "+", trsf:"+trsf.getShortInfo()
-			+", old space("+coorArr[0]+","+coorArr[1]+"):"+oldSpaceOccupant
-				+ ", new space("+coorArrNew[0]+","+coorArrNew[1]+"):"+newSpaceOccupant+", caller: "+info);
-		
+	private void changeCoordsForTransformer(int trsf, int newCell) {
+		trsfGrid.move(state.getTrsfCell(trsf), newCell);
+		state.setTrsfCell(trsf, newCell);
+	}
+
+	private boolean isForeign(TurnContext ctx, int trsf) {
+		return ctx.isForeign(trsf);
+	}
+
+	private boolean isOutsideTile(TurnContext ctx, int cell) {
+		return ctx.isOutsideTile(cell);
 	}
 
 	private String buildLinksInfo(ArrayList<Transformer> links) {
@@ -799,85 +913,36 @@ public class World implements Serializable{
 
 	/**
 	 * Check if the whole links can be moved.
-	 * Move is defined by trsf to newCoord,
-	 * all transformers in links will be moved in parallel.
+	 * Move is defined by trsf to new position,
+	 * all transformers in links will be moved in parallel, see ChainTranslation.
 	 * 
 	 * @param trsf
-	 * @param tmpCoord
-	 * @param links
+	 * @param newCell
 	 * @return
 	 */
-	private boolean isMoveForbiddenForLinks(Transformer trsf, Coordinates newCoord, ArrayList<Transformer> links) {
-		Coordinates delta = Coordinates.subtract(newCoord, trsf.getCoords());
-		log.debug("=== isMoveForbiddenForLinks starts, trsf:"+trsf.getShortInfo()+", links.size():"+links.size()+", delta: "+delta);
-		for(Transformer linkTrsf : links) {
-			log.debug("===== isMoveForbiddenForLinks testing linkTrsf:"+linkTrsf.getShortInfo());
-			Coordinates tmpCoord = Coordinates.add(linkTrsf.getCoords(), delta);
-			if(!isWithinSpace(tmpCoord)) {
-				log.debug("======= isMoveForbiddenForLinks, new location "+tmpCoord+" is outside of space ");
-				return true;
-			}
-			// Check tmpCoord is free
-			Transformer tmpTrsf = getTransformerAt(tmpCoord);
-			if(tmpTrsf != null 	&& !links.contains(tmpTrsf)) {
-				// new location is occupied already
-				log.debug("======= isMoveForbiddenForLinks, new location "+tmpCoord+" is occupied already for "+linkTrsf.getShortInfo());
-				return true;
-			}
-			// Check tmpCoord has no repulsive neighbors
-			ArrayList<Transformer> newNeighb = getTransformersWithin(tmpCoord, 1);	
-			newNeighb.remove(linkTrsf);
-			int newNeigbCont = linkTrsf.getBonds().size();
-			for(Transformer neighbTrsf: newNeighb) {
-				if(links.contains(neighbTrsf)) {
-					continue;	// if neighbTrsf is part of linke, it won't be at this place after the move, so ignore it
-				}
-				if(neighbTrsf.getBonds().size() >= maxNeighborNumber) {
-					// One of the transformer around the new location already has full list
-					// and won't accept a new neighbor, stop further check
-					log.debug("======= isMoveForbiddenForLinks, new location "+tmpCoord+" has "+neighbTrsf.getShortInfo()+" that won't accept a new neighbor");
-					return true;	
-				}
-				/* Not sure if it possible to have an existing neighbor to be preserved
-				   after the move to a new location, when MAX_NEIGHBOR_DISTANCE=1,
-				   but making check just in case
-				   */
-				if(!linkTrsf.hasNeighbor(neighbTrsf)) {
-					newNeigbCont++;
-				}
-			}
-			// check not too many neighbors in new location
-			if(newNeigbCont > maxNeighborNumber) {				
-				log.debug("======= isMoveForbiddenForLinks, new location "+tmpCoord+" has too many neighbors for "+linkTrsf.getShortInfo());
-				return true;
-			}
+	private boolean isMoveForbiddenForLinks(TurnContext ctx, int trsf, int newCell) {
+		boolean forbidden = ctx.translation.isForbidden(ctx, state, trsfGrid, maxNeighborNumber, state.getTrsfCell(trsf), newCell);
+		if(log.isDebugEnabled()) {
+			log.debug("=== isMoveForbiddenForLinks, move towards {} forbidden:{} for links with {}", lattice.toString(newCell), forbidden, state.getTransformer(trsf));
 		}
-		log.debug("=== isMoveForbiddenForLinks, move towards "+newCoord+" allowed for links with "+trsf.getShortInfo());
-		return false;
-	}
-
-	
-	private boolean isWithinSpace(Coordinates testCoord) {
-		for( int coord : testCoord.getCoords()) {
-			if(coord < 0 || coord >= SPACE_SIZE) {
-				return false;
-			}
-		}
-		return true;
+		return forbidden;
 	}
 
 	/**
 	 * Simplified version of calculating energy level.
 	 * It takes into account only increasing length of the existing bonds.
 	 * It does not calculate possible benefits if in new location new bonds will be added.
+	 * Levels of all cells from cellBuf are calculated in one pass by the energy kernel of the context.
 	 * 
-	 * @param pullWholeChain 
-	 * 
-	 * @param newCoords
-	 * @return
+	 * @param trsf
+	 * @param curCell
+	 * @param cellCnt number of cells in cellBuf
+	 * @return energy level at curCell, levels at cellBuf are available by ctx.energy.getLevel(i)
 	 */
-	private double getEnergyLevel(Transformer trsf, Coordinates newCoord) {
-			return trsf.getEnergyLevel(newCoord, seedCnt);
+	private double scoreMoves(TurnContext ctx, int trsf, int curCell, int cellCnt) {
+		ctx.energy.load(state, trsf, seedCnt);
+		ctx.energy.score(ctx.cellBuf, cellCnt);
+		return ctx.energy.level(curCell);
 	}
 			
 	/**
@@ -888,53 +953,64 @@ public class World implements Serializable{
 	 *   if moved to new location.
 	 * 
 	 * @param trsf
-	 * @param coord
+	 * @param cell
 	 * @return
 	 */
-	private boolean isCoordForbidden(Transformer trsf, Coordinates coord, boolean withPull) {
-		log.debug("=== isCoordForbidden, trfs:"+trsf.getShortInfo()+", coord: "+coord+", getTransformerAt(coord):"+getTransformerAt(coord));
-		if(getTransformerAt(coord) != null) {
-			log.debug("=== isCoordForbidden, trfs:"+trsf.getShortInfo()+", to "+coord+", pull:"+withPull+ " occupied, blocked");
+	private boolean isCoordForbidden(TurnContext ctx, int trsf, int cell, boolean withPull) {
+		if(trsfGrid.get(cell) != NONE || isOutsideTile(ctx, cell)) {
+			if(log.isDebugEnabled()) {
+				log.debug("=== isCoordForbidden, trfs:{}, to {}, pull:{} occupied, blocked", state.getTransformer(trsf), lattice.toString(cell), withPull);
+			}
 			return true;
 		}
 		// Get the number of neighbors that will be removed if trsf moves to new location
-		int preservedNeighbCnt = trsf.getBonds().size();
+		int preservedNeighbCnt = state.getBondCnt(trsf);
 		if(withPull) {
 			// When we want to pull the whole chain, 
 			// After relocation trsf will keep the existing neighbor
 			preservedNeighbCnt = 1;
 		}else {
-			for(Bond bond:trsf.getBonds()){
-				if(Coordinates.calcDistance(bond.getNeighbor().getCoords(), coord) > maxNeighborDistance) {
+			for(int k=0;k<state.getBondCnt(trsf);k++){
+				int neighbor = state.getBondNeighbor(state.getBondSlot(trsf, k));
+				if(lattice.distance(state.getTrsfCell(neighbor), cell) > maxNeighborDistance) {
 					preservedNeighbCnt--;
 				}
 			}
 		}
 		// Get the number of neighbors that will be added if trsf moves to new location
-		ArrayList<Transformer> newNeighb = getTransformersWithin(coord, 1);	
-		newNeighb.remove(trsf);
+		int nbCnt = collectTransformersWithin(ctx, cell, 1);
 		int newNeigbCont = 0;
-		for(Transformer tmpTrsf: newNeighb) {
-			if(tmpTrsf.getBonds().size() >= maxNeighborNumber
-				&& !tmpTrsf.hasNeighbor(trsf)) {
+		for(int i=0;i<nbCnt;i++) {
+			int tmpTrsf = ctx.nbBuf[i];
+			if(tmpTrsf == trsf) {
+				continue;
+			}
+			boolean isNeighbor = state.hasNeighbor(tmpTrsf, trsf);
+			if((state.getBondCnt(tmpTrsf) >= maxNeighborNumber && !isNeighbor) || isForeign(ctx, tmpTrsf)) {
 				// One of the transformer around the new location already has full list
 				// and won't accept a new neighbor, stop further check
-				log.debug("=== isCoordForbidden, trfs:"+trsf.getShortInfo()+", to "+coord+", pull:"+withPull+ " repulsed blocked");
+				if(log.isDebugEnabled()) {
+					log.debug("=== isCoordForbidden, trfs:{}, to {}, pull:{} repulsed blocked", state.getTransformer(trsf), lattice.toString(cell), withPull);
+				}
 				return true;	
 			}
 			/* Not sure if it possible to have an existing neighbor to be preserved
 			   after the move to a new location, when MAX_NEIGHBOR_DISTANCE=1,
 			   but making check just in case
 			   */
-			if(!tmpTrsf.hasNeighbor(trsf)) {
+			if(!isNeighbor) {
 				newNeigbCont++;
 			}
 		}
 		if(newNeigbCont + preservedNeighbCnt > maxNeighborNumber ) {
-			log.debug("=== isCoordForbidden, trfs:"+trsf.getShortInfo()+", to "+coord+", pull:"+withPull+ " exceed maxNeighborNumber blocked");
+			if(log.isDebugEnabled()) {
+				log.debug("=== isCoordForbidden, trfs:{}, to {}, pull:{} exceed maxNeighborNumber blocked", state.getTransformer(trsf), lattice.toString(cell), withPull);
+			}
 			return true;	// after removing current neighbors and adding new ones, we exceed maxNeighborNumber
 		}
-		log.debug("=== isCoordForbidden, trfs:"+trsf.getShortInfo()+", to "+coord+", pull:"+withPull+ " allowed");
+		if(log.isDebugEnabled()) {
+			log.debug("=== isCoordForbidden, trfs:{}, to {}, pull:{} allowed", state.getTransformer(trsf), lattice.toString(cell), withPull);
+		}
 		return false;
 	}
 	
@@ -943,22 +1019,26 @@ public class World implements Serializable{
 	 * the probability of move depends on the energy difference and temperature.
 	 * Formula for the threshold:
 	 * treshold = initPenalty + (delta/energyScale - temperature/MAX_TEMPERATURE)
-	 * Random value is generated using Gaussian formula.
+	 * Random value is generated using Gaussian formula,
+	 * unless the probability to exceed the threshold is taken from AcceptanceTables.
 	 * 
 	 * @param delta
 	 */
 	private long tryMoveCnt =0;
 	private long allowedMoveCnt = 0;
-	private boolean enoughEnergyForMove(double delta) {
-		double initPenalty = 0.5;
+	private boolean enoughEnergyForMove(TurnContext ctx, double delta) {
+		double initPenalty = MOVE_INIT_PENALTY;
 		if (delta <= 0) {
 			return true;
 		}
+		if(!gaussianAcceptance) {
+			return acceptance.acceptMove(ctx.rand, delta);
+		}
 		// linear
 		//double treshold = initPenalty + (1.0 - initPenalty)*((delta-1)/maxEnergyBarier - temperature/MAX_TEMPERATURE);
 		// Gaussian
 		double treshold = initPenalty + (delta/energyScale - temperature/MAX_TEMPERATURE);
-		double val = Math.abs(rand.nextGaussian());
+		double val = Math.abs(ctx.rand.nextGaussian());
 		if(val > treshold) {
 			//log.debug("move allowed, delta:"+delta+", treshold:"+treshold+", val:"+val+", %:"+100.0*((float)++allowedMoveCnt/(float)++tryMoveCnt));
 			return true;
@@ -969,125 +1049,52 @@ public class World implements Serializable{
 	
 	/**
 	 * Scan immediate vicinity of an atom,
-	 * if there is a free spot that is closer to the newCoord,
+	 * if there is a free spot that is closer to the new position,
 	 * relocate atom to this spot.
 	 * 
 	 * @param atom
-	 * @param newCoord
+	 * @param newCell
 	 * @return
 	 */
-	private boolean tryMoveAtomTowardsTo(Atom atom, Coordinates newCoord) {
-		Coordinates oldCoord = atom.getCoords();
-		ArrayList<Coordinates> vicinity = Coordinates.getVicinity(oldCoord, 1);
-		Collections.shuffle(vicinity);
-		int origDistance = Coordinates.calcDistance(oldCoord, newCoord);
-		for(Coordinates curCoord : vicinity) {
-			if(getAtomAt(curCoord) == null
-				&& Coordinates.calcDistance(curCoord, newCoord) < origDistance){
-				relocateAtomTo(atom, curCoord);
+	private boolean tryMoveAtomTowardsTo(TurnContext ctx, int atom, int newCell) {
+		int oldCell = state.getAtomCell(atom);
+		int cellCnt = collectCellsWithin(ctx, oldCell, 1);
+		int origDistance = lattice.distance(oldCell, newCell);
+		for(int i=0;i<cellCnt;i++) {
+			int curCell = ctx.cellBuf[i];
+			if(atomGrid.get(curCell) == NONE
+				&& lattice.distance(curCell, newCell) < origDistance){
+				relocateAtomTo(atom, curCell);
 				return true;
 			}
 		}
 		return false;
-		//log.debug("moved {} delta: {}",trsf.getName(),Coordinates.deltaToString(trsf.getCoords(), newCoord));
 	}
 		
-	private void relocateAtomTo(Atom atom, Coordinates newCoord) {
-		int[] coordsArr = atom.getCoords().getCoords();
-		atomSpace[coordsArr[0]][coordsArr[1]] = null;
-		atom.setCoords(newCoord);
-		coordsArr = newCoord.getCoords();
-		atomSpace[coordsArr[0]][coordsArr[1]] = atom;
+	private void relocateAtomTo(int atom, int newCell) {
+		atomGrid.move(state.getAtomCell(atom), newCell);
+		state.setAtomCell(atom, newCell);
 	}
 
 	/**
-	 * Create a 2-D image of transformers and save to a file
+	 * Capture transformers into a frame, it is rendered and saved to a file in the background.
+	 * If output is behind, the frame may be dropped according to the drop policy.
 	 */
 	private void saveShotForTransformers() {
-	    try {
-	    	// http://www.java2s.com/Code/Java/2D-Graphics-GUI/DrawanImageandsavetopng.htm
-	        int width = 1000, titleHeight=20, height = width+titleHeight;
-	        BufferedImage bi = new BufferedImage(width, height, BufferedImage.TYPE_3BYTE_BGR);
-	        Graphics2D ig2 = bi.createGraphics();
-	        ig2.setColor(Color.WHITE);
-	        ig2.fillRect(0, 0, width, height);
-	        Font font = new Font("TimesRoman", Font.PLAIN, 14);
-	        ig2.setFont(font);
-	        String message = buildWorldParamsTitle();
-	        FontMetrics fontMetrics = ig2.getFontMetrics();
-	        int stringWidth = fontMetrics.stringWidth(message);
-	        int stringHeight = fontMetrics.getAscent();
-	        ig2.setPaint(Color.black);
-	        ig2.drawString(message, (width - stringWidth) / 2, 10 + stringHeight / 4);
-	        Font fontForAtom = new Font("Consolas", Font.PLAIN, 8);
-	        ig2.setFont(fontForAtom);
-	        FontMetrics fontMetricsForAtom = ig2.getFontMetrics();
-	        int letterWidth = fontMetricsForAtom.stringWidth("A");
-	        int letterHeight = fontMetricsForAtom.getAscent();
-	        double delta = width /SPACE_SIZE;
-	        int x1, y1, x2, y2;
-			int ox,oy,ow,oh;
-			for(int i=0;i<SPACE_SIZE;i++) {
-				for(int j=0;j<SPACE_SIZE;j++) {
-					Color color = null;
-					Transformer curTrsf = trsfSpace[i][j];
-					if (curTrsf != null) { 
-						ow=7;
-						oh=7;
-						color = curTrsf.getColor();
-					}else {
-						ow=2;
-						oh=2;
-						color = Color.GRAY;
-					}
-					ox = (int)(delta * i + (delta - ow)/2);
-					oy = titleHeight + (int)(delta * j + (delta - oh)/2);
-					ig2.setColor(color);
-					ig2.fillOval(ox, oy, ow, oh);
-					if (curTrsf != null) { 
-						// Draw vertexes to neighbors
-						for(Bond bond: curTrsf.getBonds()) {
-							int[] neighbCoord = bond.getNeighbor().getCoords().getCoords();
-							x1 = (int)(delta * i + delta/2);
-							y1 =  titleHeight + (int)(delta * j + delta/2);
-							x2 = (int)(delta * neighbCoord[0] + delta/2);
-							y2 =  titleHeight + (int)(delta * neighbCoord[1] + delta/2);
-							ig2.setColor(Color.WHITE);
-							ig2.drawLine(x1, y1, x2, y2);
-						}
-						if(curTrsf.getActionCnt()>0) {
-							// If action occurred, draw an edge
-							ig2.setColor(Color.BLACK);
-							ig2.drawOval(ox, oy, ow, oh);
-						}
-					}
-					if(showAtoms && atomSpace != null && atomSpace[i][j] != null) { 
-						/* Draw atom type
-						ig2.setPaint(Color.GRAY);
-						ox = (int)(delta * i + (delta - letterWidth)/2);
-						oy = titleHeight + (int)(delta * j + 5);
-				        ig2.drawString(atomSpace[i][j].getType().name(), ox, oy);
-				        */
-						/* Draw a dot for an atom */
-						ow=3;
-						oh=3;
-						color = Color.BLACK;
-						ox = (int)(delta * i + (delta - ow)/2);
-						oy = titleHeight + (int)(delta * j + (delta - oh)/2);
-						ig2.setColor(color);
-						ig2.fillOval(ox, oy, ow, oh);						
-					}
-				}
+		++fileCntTransformers;
+		String fileName = fileDir+"\\"+"transformers_"+String.format("%05d",fileCntTransformers);
+		TransformerFrame frame = new TransformerFrame(state, buildWorldParamsTitle(), fileName, showAtoms);
+		long frameSeedCnt = seedCnt;
+		int frameFileCnt = fileCntTransformers;
+		output.submitDroppable(() -> {
+			try {
+				frame.save();
+			} catch (IOException ie) {
+				ie.printStackTrace();
 			}
-			++fileCntTransformers;
-	        String fileName = fileDir+"\\"+"transformers_"+String.format("%05d",fileCntTransformers);
-	        ImageIO.write(bi, "PNG", new File(fileName+".png"));
-	        //ImageIO.write(bi, "JPEG", new File("c:\\yourImageName.JPG"));	        
-	      	} catch (IOException ie) {
-	      		ie.printStackTrace();
-	      	}	
-    		log.info(" === Saving transformes shot, seedCnt:{}, fileCntTransformers:{}", seedCnt, fileCntTransformers);
-	    }
+			log.info(" === Saving transformes shot, seedCnt:{}, fileCntTransformers:{}", frameSeedCnt, frameFileCnt);
+		});
+	}
 
 	public String buildWorldParamsTitle() {
 		String message = "Transformers, T:"+temperature+
@@ -1099,7 +1106,8 @@ public class World implements Serializable{
 				", distPnlty:"+actionDistancePenalty +
 				//", neibDst:" + maxNeighborDistance +
 				//", neibNum:"+maxNeighborNumber +
-				", atoms:"+ atomsNumber+", trsfrs:"+trsfrNumber+", seedCnt:"+seedCnt;
+				", atoms:"+ atomsNumber+", trsfrs:"+trsfrNumber+", seedCnt:"+seedCnt+
+				(lattice.getSize() != SPACE_SIZE || lattice.getDim() != SPACE_DIM ? ", space:"+lattice.getSize()+"^"+lattice.getDim() : "");
 		return message;
 	}
 
@@ -1116,52 +1124,124 @@ public class World implements Serializable{
 	 * @param trsf
 	 * @return
 	 */
-	private boolean moveTransformerRandomly(Transformer trsf) {
+	private boolean moveTransformerRandomly(TurnContext ctx, int trsf) {
 		double trsfrMoveChance = 0.;
 		boolean pullWholeChain = false;
-		int neighbCnt = trsf.getBonds().size();
+		int neighbCnt = state.getBondCnt(trsf);
+		int idleCnt = state.getTrsfIdleCnt(trsf);
 		switch(neighbCnt ) {
 		case 0:
-			trsfrMoveChance =  (double)trsf.getIdleCnt()/(idleWait*massRatio);	// Move standalone trsf
+			trsfrMoveChance =  (double)idleCnt/(idleWait*massRatio);	// Move standalone trsf
 			break;
 		case 1:
-			int linkedCnt = trsf.getLinkedCount(null);
-			trsfrMoveChance = (double)trsf.getIdleCnt()/(idleWait*massRatioLinked * (linkedCnt+1));	// Pull the whole chain by the ending trsf
+			int linkedCnt = getLinkedCount(ctx, trsf);
+			trsfrMoveChance = (double)idleCnt/(idleWait*massRatioLinked * (linkedCnt+1));	// Pull the whole chain by the ending trsf
 			pullWholeChain = true;
 			break;
 		default:
-			trsfrMoveChance = (double)trsf.getIdleCnt()/(idleWait*massRatio);	// Tear off trsf out of chain
+			trsfrMoveChance = (double)idleCnt/(idleWait*massRatio);	// Tear off trsf out of chain
 		}
-		if(rand.nextDouble() > trsfrMoveChance) {
+		if(ctx.rand.nextDouble() > trsfrMoveChance) {
 			return false;
 		}
-		//log.debug("=== move trsf randomly with moveChance:{}, pullWholeChain:{}",trsfrMoveChance,pullWholeChain);
-		double curLevel = getEnergyLevel(trsf, trsf.getCoords());
-		ArrayList<Coordinates> vicinity = Coordinates.getVicinity(trsf.getCoords(), 1);
-		Collections.shuffle(vicinity);
-		for(Coordinates tmpCoord : vicinity) {
-			if(!isCoordForbidden(trsf, tmpCoord,pullWholeChain)){
-				// Compare energy levels
-				double tmpLevel = getEnergyLevel(trsf,tmpCoord);
-				if(enoughEnergyForMove(tmpLevel - curLevel)) {
+		int curCell = state.getTrsfCell(trsf);
+		int cellCnt = collectCellsWithin(ctx, curCell, 1);
+		for(int i=0;i<cellCnt;i++) {
+			int tmpCell = ctx.cellBuf[i];
+			if(!isCoordForbidden(ctx, trsf, tmpCell, pullWholeChain)){
+				// Compare energy levels, only one cell is tried, so it is not worth scoring all of them
+				ctx.energy.load(state, trsf, seedCnt);
+				double curLevel = ctx.energy.level(curCell);
+				double tmpLevel = ctx.energy.level(tmpCell);
+				if(enoughEnergyForMove(ctx, tmpLevel - curLevel)) {
 					if(pullWholeChain) {
-						tearOffOrPullTransformer(trsf, tmpCoord);
-						//log.debug("=== random. whole chain, trsfrMoveChance:{}",trsfrMoveChance );
+						tearOffOrPullTransformer(ctx, trsf, tmpCell);
 					}else {
-						relocateTransformerTo(trsf, tmpCoord);
-						//log.debug("=== random, trsf, neighbCnt:"+neighbCnt+", curLevel:"+curLevel+", tmpLevel:"+tmpLevel);
+						relocateTransformerTo(ctx, trsf, tmpCell);
 					}
 					return true;
 				}
 				/* Once free spot found, only one attempt is allowed, 
 				 * do not try others from vicinity
 				 */
-				//log.debug("=== random no luck");
 				return false;
 			}	
 		}
 		return false;
 	}
+
+	/**
+	 * Collect cells within given distance from center into cellBuf, shuffled.
+	 * 
+	 * @return number of cells
+	 */
+	private int collectCellsWithin(TurnContext ctx, int center, int distance) {
+		int maxCnt = stencil.getDiskSize(distance);
+		if(ctx.cellBuf.length < maxCnt) {
+			ctx.cellBuf = new int[maxCnt];
+		}
+		int cnt = 0;
+		ctx.cursor.resetDisk(center, distance);
+		while(ctx.cursor.next()) {
+			ctx.cellBuf[cnt++] = ctx.cursor.cell();
+		}
+		shuffle(ctx.rand, ctx.cellBuf, cnt);
+		return cnt;
+	}
+
+	/**
+	 * Collect ids of transformers within given distance from center into nbBuf.
+	 * 
+	 * @return number of transformers
+	 */
+	private int collectTransformersWithin(TurnContext ctx, int center, int distance) {
+		int maxCnt = stencil.getDiskSize(distance);
+		if(ctx.nbBuf.length < maxCnt) {
+			ctx.nbBuf = new int[maxCnt];
+		}
+		int cnt = 0;
+		ctx.cursor.resetDisk(center, distance);
+		while(ctx.cursor.next()) {
+			int trsf = trsfGrid.get(ctx.cursor.cell());
+			if(trsf != NONE) {
+				ctx.nbBuf[cnt++] = trsf;
+			}
+		}
+		return cnt;
+	}
+
+	/**
+	 * Collect ids of atoms of the given type on the given distance from center into atomBuf.
+	 * Cost is proportional to the ring size, not to the bounding square.
+	 * Cells are tested against the type bitplane, the grid is read only for matching cells.
+	 * 
+	 * @return number of atoms
+	 */
+	private int collectAtomsOnSurface(TurnContext ctx, int center, int distance, int type) {
+		int maxCnt = stencil.getRingSize(distance);
+		if(ctx.atomBuf.length < maxCnt) {
+			ctx.atomBuf = new int[maxCnt];
+		}
+		AtomTypePlanes planes = state.getAtomPlanes();
+		int cnt = 0;
+		ctx.cursor.resetRing(center, distance);
+		while(ctx.cursor.next()) {
+			int c = ctx.cursor.cell();
+			if(planes.get(type, c)) {
+				ctx.atomBuf[cnt++] = atomGrid.get(c);
+			}
+		}
+		return cnt;
+	}
+
+	static void shuffle(Random rand, int[] arr, int cnt) {
+		for(int i=cnt-1;i>0;i--) {
+			int k = rand.nextInt(i+1);
+			int tmp = arr[i];
+			arr[i] = arr[k];
+			arr[k] = tmp;
+		}
+	}
 	
 	/**
 	 * Get list of atoms with coords not further than given 
@@ -1173,16 +1253,13 @@ public class World implements Serializable{
 	 */
 	public ArrayList<Atom> getAtomsInVicinity(Coordinates center, int distance){
 		ArrayList<Atom> result = new ArrayList<Atom>();
-		ArrayList<Coordinates> vicinity = Coordinates.getVicinity(center, distance);
-		vicinity.stream().forEach(coord -> {
-			Atom atom = getAtomAt(coord);
-			if(atom != null) {
-				if(distance == 0) {
-					log.debug("found atom at zero distance from: "+ center);
-				}
-				result.add(atom);
+		RingCursor vicinity = new RingCursor(stencil, lattice).resetDisk(lattice.toCell(center), distance);
+		while(vicinity.next()) {
+			int atom = atomGrid.get(vicinity.cell());
+			if(atom != NONE) {
+				result.add(state.getAtom(atom));
 			}
-		});
+		}
 		return result;
 	}		
 
@@ -1196,36 +1273,39 @@ public class World implements Serializable{
 	 */
 	public ArrayList<Atom> getAtomsOnSurface(Coordinates center, int distance){
 		ArrayList<Atom> result = new ArrayList<Atom>();
-		ArrayList<Coordinates> vicinity = Coordinates.getSurface(center, distance);
-		vicinity.stream().forEach(coord -> {
-			Atom atom = getAtomAt(coord);
-			if(atom != null) {
-				result.add(atom);
+		RingCursor surface = new RingCursor(stencil, lattice).resetRing(lattice.toCell(center), distance);
+		while(surface.next()) {
+			int atom = atomGrid.get(surface.cell());
+			if(atom != NONE) {
+				result.add(state.getAtom(atom));
 			}
-		});
+		}
 		return result;
 	}		
 
 	public ArrayList<Transformer> getTransformersWithin(Coordinates center, int distance){
 		ArrayList<Transformer> result = new ArrayList<Transformer>();
-		ArrayList<Coordinates> vicinity = Coordinates.getVicinity(center, distance);
-		vicinity.stream().forEach(coord -> {
-			Transformer trsf = getTransformerAt(coord);
-			if(trsf != null) {
-				result.add(trsf);
+		RingCursor vicinity = new RingCursor(stencil, lattice).resetDisk(lattice.toCell(center), distance);
+		while(vicinity.next()) {
+			int trsf = trsfGrid.get(vicinity.cell());
+			if(trsf != NONE) {
+				result.add(state.getTransformer(trsf));
 			}
-		});
+		}
 		return result;
 	}
 	
+	/*
+	 * Debug dumps of the space print the plane of the first two axes, other coordinates are 0.
+	 */
 	private void printTrsfSpaceTypes() {
 		StringBuilder sbTotal = new StringBuilder("\n=== Transformers space === \n");
 		sbTotal.append("   .........1.........2.........3.........4.........5.........6.........7.........8.........9.........0\n");
-		for(int i=0;i<SPACE_SIZE;i++) {
+		for(int i=0;i<lattice.getSize();i++) {
 			StringBuilder sb = new StringBuilder(String.format("%3d",i));
-			for(int j=0;j<SPACE_SIZE;j++) {
-				if (trsfSpace[i][j] != null) {
-					sb.append(trsfSpace[i][j].encodeTransformerType());
+			for(int j=0;j<lattice.getSize();j++) {
+				if (trsfGrid.get(lattice.cell(i, j)) != NONE) {
+					sb.append(state.getTransformer(trsfGrid.get(lattice.cell(i, j))).encodeTransformerType());
 				}else {
 					sb.append(".");
 				}
@@ -1239,11 +1319,11 @@ public class World implements Serializable{
 	private void printTrsfSpaceNames() {
 		StringBuilder sbTotal = new StringBuilder("\n=== Transformers space === \n");
 		sbTotal.append("   .........1.........2.........3.........4.........5.........6.........7.........8.........9.........0\n");
-		for(int j=0;j<SPACE_SIZE;j++) {
+		for(int j=0;j<lattice.getSize();j++) {
 			StringBuilder sb = new StringBuilder(String.format("%3d",j));
-			for(int i=0;i<SPACE_SIZE;i++) {
-				if (trsfSpace[i][j] != null) {
-					String name =  trsfSpace[i][j].toString(); // trsfSpace[i][j].getName();
+			for(int i=0;i<lattice.getSize();i++) {
+				if (trsfGrid.get(lattice.cell(i, j)) != NONE) {
+					String name =  state.getTransformer(trsfGrid.get(lattice.cell(i, j))).getName();
 					sb.append(name.substring(name.length()-9)).append(".");
 				}else {
 					sb.append("..........");
@@ -1258,11 +1338,11 @@ public class World implements Serializable{
 	private void printAtomSpace() {
 		StringBuilder sbTotal = new StringBuilder("\n=== Atoms space === \n");
 		sbTotal.append("   .........1.........2.........3.........4.........5.........6.........7.........8.........9.........0\n");
-		for(int j=0;j<SPACE_SIZE;j++) {
+		for(int j=0;j<lattice.getSize();j++) {
 			StringBuilder sb = new StringBuilder(String.format("%3d",j));
-			for(int i=0;i<SPACE_SIZE;i++) {
-				if (atomSpace[i][j] != null) {
-					sb.append(atomSpace[i][j].getType().name());
+			for(int i=0;i<lattice.getSize();i++) {
+				if (atomGrid.get(lattice.cell(i, j)) != NONE) {
+					sb.append(state.getAtomType(atomGrid.get(lattice.cell(i, j))).name());
 				}else {
 					sb.append(".");
 				}
@@ -1274,11 +1354,13 @@ public class World implements Serializable{
 	}
 	
 	public Atom getAtomAt(Coordinates location) {
-		return atomSpace[location.getCoords()[0]][location.getCoords()[1]];
+		int atom = atomGrid.get(lattice.toCell(location));
+		return atom == NONE ? null : state.getAtom(atom);
 	}
 		
 	public Transformer getTransformerAt(Coordinates location) {
-		return trsfSpace[location.getCoords()[0]][location.getCoords()[1]];
+		int trsf = trsfGrid.get(lattice.toCell(location));
+		return trsf == NONE ? null : state.getTransformer(trsf);
 	}
 	
 	/**
@@ -1288,190 +1370,214 @@ public class World implements Serializable{
 	 * Note that we need to adjust neighborhood on both sides of relationship.
 	 * 
 	 * @param trsf
-	 * @param newCoord
+	 * @param newCell
 	 */
-	private void relocateTransformerTo(Transformer trsf, Coordinates newCoord) {
-		//log.debug("moved {} delta: {}",trsf.getName(),Coordinates.deltaToString(trsf.getCoords(), newCoord));
+	private void relocateTransformerTo(TurnContext ctx, int trsf, int newCell) {
 		// Move away from current neighbors:
 		// check if trsf needs to be removed from their neighborhood
-		ArrayList<Bond> bondsToRemove = new ArrayList<Bond>();
-		for(Bond bond:trsf.getBonds()){
-			if(Coordinates.calcDistance(bond.getNeighbor().getCoords(), newCoord) > maxNeighborDistance) {
-				log.debug("relocateTransformerTo, breaking bond from "+trsf.getShortInfo()+" to "+bond.getNeighbor().getShortInfo() );
-				boolean removed = bond.getNeighbor().removeNeighbor(trsf); 
-				log.debug("relocateTransformerTo, removing trsf from neighbor's bond, removed="+removed );
-				bondsToRemove.add(bond);
-			}
-		}
-		trsf.getBonds().removeAll(bondsToRemove);
+		breakFarBonds(trsf, newCell);
 		// Move to new position, adding neighbors if we're close to it, and there are free slots
-		ArrayList<Transformer> possibleNeighbors = this.getTransformersWithin(newCoord, 1);
-		for(Transformer pNeighbor:possibleNeighbors){
+		int nbCnt = collectTransformersWithin(ctx, newCell, 1);
+		for(int i=0;i<nbCnt;i++) {
+			int pNeighbor = ctx.nbBuf[i];
 				// Some of these check are redundant. The newCoord supposed to be already verified by isCoordForbiddent method.
-				if(!trsf.hasNeighbor(pNeighbor)
-				&& !pNeighbor.hasNeighbor(trsf)
+				if(!state.hasNeighbor(trsf, pNeighbor)
+				&& !state.hasNeighbor(pNeighbor, trsf)
 				&& trsf != pNeighbor
-				&& trsf.getBonds().size() < maxNeighborNumber
-				&& pNeighbor.getBonds().size() < maxNeighborNumber
-				&& Coordinates.calcDistance(pNeighbor.getCoords(), newCoord) <= maxNeighborDistance) {
-				pNeighbor.addNeighbor(trsf, seedCnt);
-				//trsf.addNeighbor(pNeighbor, seedCnt);
+				&& state.getBondCnt(trsf) < maxNeighborNumber
+				&& state.getBondCnt(pNeighbor) < maxNeighborNumber
+				&& !isForeign(ctx, pNeighbor)
+				&& lattice.distance(state.getTrsfCell(pNeighbor), newCell) <= maxNeighborDistance) {
+				state.addNeighbor(pNeighbor, trsf, seedCnt);
 			}
 		}
-		changeCoordsForTransformer(trsf,newCoord," from relocateTransformerTo, "+trsf.getShortInfo());
-		/*int[] coords = trsf.getCoords().getCoords();
-		trsfSpace[coords[0]][coords[1]] = null;
-		trsf.setCoords(newCoord);
-		coords = trsf.getCoords().getCoords();
-		trsfSpace[coords[0]][coords[1]] = trsf;
-		*/
+		changeCoordsForTransformer(trsf, newCell);
+	}
+
+	/**
+	 * Break bonds to neighbors that will be too far from newCell,
+	 * on both sides of relationship.
+	 * 
+	 * @return first neighbor which bond was broken, or NONE
+	 */
+	private int breakFarBonds(int trsf, int newCell) {
+		int firstBroken = NONE;
+		for(int k=state.getBondCnt(trsf)-1;k>=0;k--){
+			int neighbor = state.getBondNeighbor(state.getBondSlot(trsf, k));
+			if(lattice.distance(state.getTrsfCell(neighbor), newCell) > maxNeighborDistance) {
+				log.debug("breaking bond from {} to {}", state.getTransformer(trsf), state.getTransformer(neighbor));
+				state.breakBond(trsf, neighbor);
+				firstBroken = neighbor;
+			}
+		}
+		return firstBroken;
 	}
 			
 	/**
 	 * Relocate transformer and pull neighbors with it.
 	 * Allowed only when transformer resides at the end of the chain.
+	 * Pulled links follow the end like a snake, see SnakePull, bonds between them are preserved.
+	 * Only the end and the last pulled link may get new neighbors.
 	 * 
 	 * @param trsf
-	 * @param newCoord
+	 * @param newCell
 	 */
-	private void tearOffOrPullTransformer(Transformer trsf, Coordinates newCoord) {
-		boolean pullWholeChain = false;
-		log.debug("tearOffOrPullTransformer, trsf:"+trsf.getShortInfoWithBonds()+", newCoord:"+newCoord);
-		if(trsf.getBonds().size() == 1) {
-			pullWholeChain = true;
+	private void tearOffOrPullTransformer(TurnContext ctx, int trsf, int newCell) {
+		if(log.isDebugEnabled()) {
+			log.debug("tearOffOrPullTransformer, trsf:{}, new position: {}", state.getTransformer(trsf), lattice.toString(newCell));
 		}
-		// Tear off neighbors
-		ArrayList<Bond> bondsToRemove = new ArrayList<Bond>();
-		for(Bond bond:trsf.getBonds()){
-			log.debug("tearOffOrPullTransformer, neighb:"+bond.getNeighbor().getShortInfo()+", newDist:"+Coordinates.calcDistance(bond.getNeighbor().getCoords(), newCoord));
-			if(Coordinates.calcDistance(bond.getNeighbor().getCoords(), newCoord) > maxNeighborDistance) {
-				log.debug("tearOffOrPullTransformer, breaking bond from "+trsf.getShortInfo()+" to "+bond.getNeighbor().getShortInfo() );
-				boolean removed = bond.getNeighbor().removeNeighbor(trsf); 
-				log.debug("tearOffOrPullTransformer, removing trsf from neighbor's bond, neighb:"+bond.getNeighbor().getShortInfo()+", removed="+removed );
-				bondsToRemove.add(bond);
-			}
+		SnakePull pull = ctx.pull;
+		int pullCnt = pull.load(state, trsf, newCell, maxNeighborDistance);
+		int tail = pull.getTail();
+		int tailCell = pull.getTailCell();
+		// Tear off branches of the last pulled link
+		breakFarBonds(tail, tailCell);
+		pull.commit(state, trsfGrid);
+		log.debug("tearOffOrPullTransformer, pulled {} links", pullCnt);
+		// adding neighbors at new positions of both ends, the last pulled link first
+		if(tail != trsf) {
+			addNeighborsAt(ctx, tail, tailCell);
 		}
-		trsf.getBonds().removeAll(bondsToRemove);
-		Coordinates origCoords = trsf.getCoords();
-		changeCoordsForTransformer(trsf, newCoord, "from tearOffOrPullTransformer, "+trsf.getShortInfo());
-		// Move trsf to new position, 
-		/*int[] spaceCoords = origCoords.getCoords();
-		trsfSpace[spaceCoords[0]][spaceCoords[1]] = null;
-		trsf.setCoords(newCoord);
-		spaceCoords = trsf.getCoords().getCoords();
-		trsfSpace[spaceCoords[0]][spaceCoords[1]] = trsf;
-		*/
-		if(pullWholeChain) {
-			// at this moment neighborsToRemove.get(0) becomes an end of the chain,
-			// so repeat the pull recursively
-			tearOffOrPullTransformer(bondsToRemove.get(0).getNeighbor(), origCoords);
-		}
-		// adding neighbors at new position
-		// old neighbor supposed to be restored during this step
-		ArrayList<Transformer> possibleNeighbors = this.getTransformersWithin(newCoord, 1);
-		for(Transformer pNeighbor:possibleNeighbors){
-				if(!trsf.hasNeighbor(pNeighbor)
-				&& !pNeighbor.hasNeighbor(trsf)
+		addNeighborsAt(ctx, trsf, newCell);
+	}
+
+	/**
+	 * Bond trsf, already moved to the cell, with transformers around it if both have free slots
+	 */
+	private void addNeighborsAt(TurnContext ctx, int trsf, int cell) {
+		int nbCnt = collectTransformersWithin(ctx, cell, 1);
+		for(int i=0;i<nbCnt;i++) {
+			int pNeighbor = ctx.nbBuf[i];
+				if(!state.hasNeighbor(trsf, pNeighbor)
+				&& !state.hasNeighbor(pNeighbor, trsf)
 				&& trsf != pNeighbor
-				&& trsf.getBonds().size() < maxNeighborNumber
-				&& pNeighbor.getBonds().size() < maxNeighborNumber) {
-				pNeighbor.addNeighbor(trsf, seedCnt);
-				//trsf.addNeighbor(pNeighbor, seedCnt);
+				&& state.getBondCnt(trsf) < maxNeighborNumber
+				&& state.getBondCnt(pNeighbor) < maxNeighborNumber
+				&& !isForeign(ctx, pNeighbor)) {
+				state.addNeighbor(pNeighbor, trsf, seedCnt);
 			}
-		}	
-		
+		}
+	}
+
+	/**
+	 * Number of transformers linked to trsf, without trsf
+	 */
+	private int getLinkedCount(TurnContext ctx, int trsf) {
+		if(state.getBondCnt(trsf) == 0) {
+			return 0;
+		}
+		return state.getGroupSize(trsf, ctx.traversal) - 1;
 	}
+
 	
 	public void seedTransformers() {
-		trsfSpace = new Transformer[SPACE_SIZE][SPACE_SIZE];
-		transformers.clear();
+		randomStreams.reset(rand, seedCnt, RandomStreams.SEED_TRANSFORMERS, RandomStreams.WORLD);
+		trsfGrid.clear();
+		state.clearTransformers();
 		for(int i=0;i<trsfrNumber;i++) {
-			while(true) {
-				Transformer trsf = createRandomTransformer();
-				if(getTransformerAt(trsf.getCoords()) != null) {
-					continue;
-				}
-				transformers.add(trsf);
-				int[] coord = trsf.getCoords().getCoords();
-				trsfSpace[coord[0]][coord[1]] = trsf;
-				log.trace("seeding transformers, i="+i+", added "+trsf+" at "+coord[0]+","+coord[1]);
-				break;
-			}
+			Transformer trsf = createRandomTransformer();
+			log.trace("seeding transformers, i="+i+", added "+trsf+" at "+trsf.getCoords());
 		}		
+		turnOrder = new int[state.getTrsfCount()];
+		for(int t=0;t<turnOrder.length;t++) {
+			turnOrder[t] = t;
+		}
 		log.debug("seeding transformers,  done");
 	}
 	
 	private void seedAtoms() {
+		randomStreams.reset(rand, seedCnt, RandomStreams.SEED_ATOMS, RandomStreams.WORLD);
 		if(seedCnt == 0) {
 			// Initial full seed
-			atomSpace =  new Atom[SPACE_SIZE][SPACE_SIZE];
-			atoms.clear();
+			atomGrid.clear();
+			state.clearAtoms();
 			for(int i=0;i<atomsNumber;i++) {
 				Atom atom = createRandomAtom();
-				atoms.add(atom);
-				int[] coord = atom.getCoords().getCoords();
-				atomSpace[coord[0]][coord[1]] = atom;
-				log.trace("Initial seed of atoms, i="+i+", added "+ atom+" at "+coord[0]+","+coord[1]);
+				log.trace("Initial seed of atoms, i="+i+", added "+ atom+" at "+atom.getCoords());
 			}
 		}else {
-			// Partial reseed, remove random portion
-			int curAtomsSize = atomsNumber;
-			int reseedNumber = (int)(atomsNumber + reseedPct /100.0);
-			for(int i=0;i<reseedNumber;i++) {
-				int rmvIdx = rand.nextInt(curAtomsSize);
-				Atom rmvAtom = atoms.get(rmvIdx);
-				int[] clrCoord = rmvAtom.getCoords().getCoords();
-				atomSpace[clrCoord[0]][clrCoord[1]] = null;
-				atoms.remove(rmvIdx);
-				curAtomsSize--;
-				log.trace("Partial seed of atoms, i="+i+", removed "+ rmvAtom+" at "+clrCoord[0]+","+clrCoord[1]);
-			}
-			// Partial reseed, add random portion
-			for(int i=0;i<reseedNumber;i++) {
-				while(true) {
-					Atom atom = createRandomAtom();
-					if(getAtomAt(atom.getCoords()) != null) {
-						// place is occupied, try one more time
-						continue;
-					}
-					int[] coord = atom.getCoords().getCoords();
-					atomSpace[coord[0]][coord[1]] = atom;
-					atoms.add(atom);
-					log.trace("Partial seed of atoms, i="+i+", added "+ atom+" at "+coord[0]+","+coord[1]);
-					break;
-				}
-			}
+			// Partial reseed, replace reseedPct of atoms
+			int reseedNumber = (int)(atomsNumber * reseedPct /100.0);
+			reseedStrategy.removeAtoms(this, reseedNumber, rand);
+			reseedStrategy.addAtoms(this, reseedNumber, rand);
+			log.trace("Partial seed of atoms, replaced {} using {}", reseedNumber, reseedStrategy);
 		}
 		seedCnt++;
+		state.setSeedCnt(seedCnt);
 		//log.debug("seeding atoms done, seedCnt:{}",seedCnt);
 	}
 
+	/**
+	 * Remove atom from the world.
+	 * Atom ids are kept dense, so the last atom gets the id of the removed one.
+	 */
+	void removeAtom(int atom) {
+		atomGrid.set(state.getAtomCell(atom), NONE);
+		if(state.removeAtom(atom) != NONE) {
+			atomGrid.set(state.getAtomCell(atom), atom);
+		}
+	}
+
+	/**
+	 * Create atom of random type in a random free place
+	 */
 	public Atom createRandomAtom() {
-		int typeIdx = rand.nextInt(atomTypeNumber);
-		while(true) {
-			Coordinates coord = Coordinates.createRandom();
-			if(getAtomAt(coord) == null) {
-				return new Atom(coord, AtomTypeEnum.values()[typeIdx]);
-			}
+		return createRandomAtom(rand.nextInt(atomTypeNumber));
+	}
+
+	/**
+	 * Create atom of given type in a random free place
+	 */
+	public Atom createRandomAtom(int typeIdx) {
+		int cell = atomGrid.randomFree(rand);
+		if(cell == NONE) {
+			throw new IllegalStateException("no free place for a new atom, atoms:"+state.getAtomCount());
 		}
+		return state.getAtom(createAtom(cell, typeIdx));
+	}
+
+	/**
+	 * Create atom in a free cell
+	 * 
+	 * @return id of the new atom
+	 */
+	int createAtom(int cell, int typeIdx) {
+		int atom = state.addAtom(cell, AtomTypeEnum.values()[typeIdx]);
+		atomGrid.set(cell, atom);
+		return atom;
 	}
 
 	/**
-	 * Create random combination of input/outputType.
+	 * @return id of the atom in the cell or NONE
+	 */
+	int getAtomIdAt(int cell) {
+		return atomGrid.get(cell);
+	}
+
+	/**
+	 * @return random cell free of atoms or NONE if there is none
+	 */
+	int randomFreeAtomCell() {
+		return atomGrid.randomFree(rand);
+	}
+
+	/**
+	 * Create random combination of input/outputType in a random free place.
 	 * Do not allow same type for input/output.
 	 */
 	public Transformer createRandomTransformer() {
 		int typeIdx1, typeIdx2;
 		typeIdx1 = rand.nextInt(atomTypeNumber);
-		while(true) {
+		do {
 			typeIdx2 = rand.nextInt(atomTypeNumber);
-			if (typeIdx2 != typeIdx1) {
-				Coordinates coord = Coordinates.createRandom();
-				if(getTransformerAt(coord) == null) {
-					return new Transformer(coord, AtomTypeEnum.values()[typeIdx1],AtomTypeEnum.values()[typeIdx2]);
-				}
-			}
+		}while(typeIdx2 == typeIdx1);
+		int cell = trsfGrid.randomFree(rand);
+		if(cell == NONE) {
+			throw new IllegalStateException("no free place for a new transformer, transformers:"+state.getTrsfCount());
 		}
+		int trsf = state.addTransformer(cell, AtomTypeEnum.values()[typeIdx1],AtomTypeEnum.values()[typeIdx2]);
+		trsfGrid.set(cell, trsf);
+		return state.getTransformer(trsf);
 	}
 
 	private void initRunSet() {
@@ -1481,81 +1587,172 @@ public class World implements Serializable{
 	 * Verify that we did not place multiple transformers into one place.
 	 */
 	private void verifyTrsfPositions() {
-		for(int i=0;i<transformers.size();i++) {
-			int[] coord1 = transformers.get(i).getCoords().getCoords();
-			for(int j=i+1;j<transformers.size();j++) {
-				int[] coord2 = transformers.get(j).getCoords().getCoords();
-				boolean sameCoords = true;
-				for(int k=0;k<SPACE_DIM;k++) {
-					if((coord1[k] != coord2[k])) {
-						sameCoords = false;
-						break;
-					}
-				}
-				if(sameCoords) {
-					log.error("===== Same coords: "+transformers.get(i).getShortInfo()+", "+transformers.get(j).getShortInfo());
-				}
+		for(int t=0;t<state.getTrsfCount();t++) {
+			int occupant = trsfGrid.get(state.getTrsfCell(t));
+			if(occupant != t) {
+				log.error("===== Same coords: "+state.getTransformer(t).getShortInfo()
+					+", "+(occupant == NONE ? "none" : state.getTransformer(occupant).getShortInfo()));
 			}
 		}
-		
+	}
+
+	public WorldState getState() {
+		return state;
+	}
+
+	public Lattice getLattice() {
+		return lattice;
+	}
+
+	public int getSpaceSize() {
+		return lattice.getSize();
+	}
+
+	public int getSpaceDim() {
+		return lattice.getDim();
+	}
+
+	public boolean isSparseSpace() {
+		return sparseSpace;
+	}
+
+	public int getMaxNeighborNumber() {
+		return maxNeighborNumber;
 	}
 
 	/**
-	 * Create a 2-D image of atoms and save to a file
+	 * Change valence of transformers, e.g. 3 for 3-D worlds.
+	 * Allowed only before the world started to run, bond slots are allocated per valence,
+	 * so the store is created again and seeded transformers are seeded again.
+	 * Chains are indexed only with valence up to 2.
 	 */
-	/*
-	private void saveShotForAtoms() {
-	    try {
-	        int width = 1000, titleHeight=20, height = width+titleHeight;
-	        BufferedImage bi = new BufferedImage(width, height, BufferedImage.TYPE_3BYTE_BGR);
-	        Graphics2D ig2 = bi.createGraphics();
-	        ig2.setColor(Color.WHITE);
-	        ig2.fillRect(0, 0, width, height);
-	        Font font = new Font("TimesRoman", Font.BOLD, 18);
-	        ig2.setFont(font);
-	        String message = "Atoms, seedCnt:"+seedCnt;
-	        FontMetrics fontMetrics = ig2.getFontMetrics();
-	        int stringWidth = fontMetrics.stringWidth(message);
-	        int stringHeight = fontMetrics.getAscent();
-	        ig2.setPaint(Color.black);
-	        ig2.drawString(message, (width - stringWidth) / 2, 10 + stringHeight / 4);
-	        double delta = width /SPACE_SIZE;
-			for(int i=0;i<SPACE_SIZE;i++) {
-				for(int j=0;j<SPACE_SIZE;j++) {
-					int ox,oy,ow,oh;
-					Color color = null;
-					if (atomSpace[i][j] != null) {
-						ow=8;
-						oh=8;
-						color = atomSpace[i][j].getColor();
-					}else {
-						ow=2;
-						oh=2;
-						color = Color.GRAY;
-					}
-					ox = (int)(delta * i + (delta - ow)/2);
-					oy = titleHeight + (int)(delta * j + (delta - oh)/2);
-					ig2.setColor(color);
-					ig2.fillOval(ox, oy, ow, oh);
-					//log.debug("fillOval: ox="+ox+", oy="+oy+", ow="+ow+", oh="+oh+", color+"+color);
-				}
-			}
-			//++fileCntAtoms;
-	        //String fileName = "d:\\sergey\\transformers\\shots\\atoms_"+String.format("%05d",fileCntAtoms);
-	        ImageIO.write(bi, "PNG", new File(fileName+".png"));
-	        //ImageIO.write(bi, "JPEG", new File("c:\\yourImageName.JPG"));	        
-	      	} catch (IOException ie) {
-	      		ie.printStackTrace();
-	      	}	
-	    	log.debug(" === Saving atoms shot, seedCnt:{}, fileCntAtom:{}", seedCnt, fileCntAtoms);
-	    }
-*/
+	public void setMaxNeighborNumber(int maxNeighborNumber) {
+		if(maxNeighborNumber == this.maxNeighborNumber) {
+			return;
+		}
+		if(seedCnt > 0) {
+			log.error("!!! cannot change valence of the running world, keeping {}", this.maxNeighborNumber);
+			return;
+		}
+		boolean seeded = state.getTrsfCount() > 0;
+		this.maxNeighborNumber = maxNeighborNumber;
+		createSpace(lattice.getSize(), lattice.getDim());
+		initBuffers();
+		if(seeded) {
+			seedTransformers();
+		}
+	}
+
+	public void setSpace(int spaceSize, int spaceDim) {
+		setSpace(spaceSize, spaceDim, sparseSpace);
+	}
+
+	/**
+	 * Change size and dimension of the space, and the kind of spatial store.
+	 * Allowed only before the world started to run, 
+	 * seeded transformers are seeded again in the new space.
+	 * 
+	 * @param spaceSize number of points on each axis
+	 * @param spaceDim number of dimensions
+	 * @param sparse use chunked store with memory proportional to the number of entities
+	 * @throws IllegalArgumentException if sparse space is requested for parallel turns, it is not thread safe
+	 */
+	public void setSpace(int spaceSize, int spaceDim, boolean sparse) {
+		if(spaceSize == lattice.getSize() && spaceDim == lattice.getDim() && sparse == sparseSpace) {
+			return;
+		}
+		if(sparse && turnThreads > 1) {
+			throw new IllegalArgumentException("sparse space is not thread safe, turnThreads: "+turnThreads);
+		}
+		if(seedCnt > 0) {
+			log.error("!!! cannot change space of the running world, keeping {}^{}", lattice.getSize(), lattice.getDim());
+			return;
+		}
+		boolean seeded = state.getTrsfCount() > 0;
+		sparseSpace = sparse;
+		createSpace(spaceSize, spaceDim);
+		initBuffers();
+		if(seeded) {
+			seedTransformers();
+		}
+	}
+
+	public int getGridTileSize() {
+		return gridTileSize;
+	}
+
+	/**
+	 * Change memory layout of the dense grids, content is rebuilt from the state
+	 * 
+	 * @param gridTileSize 0 for linear layout, otherwise power of 2
+	 */
+	public void setGridTileSize(int gridTileSize) {
+		this.gridTileSize = gridTileSize;
+		trsfGrid = createGrid();
+		for(int t=0;t<state.getTrsfCount();t++) {
+			trsfGrid.set(state.getTrsfCell(t), t);
+		}
+		atomGrid = createGrid();
+		for(int a=0;a<state.getAtomCount();a++) {
+			atomGrid.set(state.getAtomCell(a), a);
+		}
+	}
+
+	public long getRunSeed() {
+		return randomStreams.getRunSeed();
+	}
+
+	/**
+	 * All random streams of the run are derived from the run seed
+	 */
+	public void setRunSeed(long runSeed) {
+		randomStreams = new RandomStreams(runSeed);
+	}
+
+	public int getTurnThreads() {
+		return turnThreads;
+	}
+
+	/**
+	 * @param turnThreads number of threads running transformer turns, 1 for serial turns
+	 * @throws IllegalArgumentException if turns are parallel in sparse space, it is not thread safe
+	 */
+	public void setTurnThreads(int turnThreads) {
+		if(turnThreads > 1 && sparseSpace) {
+			throw new IllegalArgumentException("parallel turns require dense space, turnThreads: "+turnThreads);
+		}
+		this.turnThreads = turnThreads;
+		resetParallelTurns();
+	}
+
+	public int getTurnTileSize() {
+		return turnTileSize;
+	}
+
+	/**
+	 * @param turnTileSize tile size for parallel turns, 0 to choose automatically
+	 */
+	public void setTurnTileSize(int turnTileSize) {
+		this.turnTileSize = turnTileSize;
+		resetParallelTurns();
+	}
+
+	private void resetParallelTurns() {
+		if(parallelTurns != null) {
+			parallelTurns.shutdown();
+			parallelTurns = null;
+		}
+	}
+
 	public int getSearchDistance() {
 		return searchDistance;
 	}
 
 	public void setSearchDistance(int searchDistance) {
 		this.searchDistance = searchDistance;
+		stencil.ensureRadius(searchDistance);
+		resetParallelTurns();	// tiles must be wider than the reach of actions
+		resetAcceptance();
 	}
 
 	public int getMaxNeighborDistance() {
@@ -1612,6 +1809,7 @@ public class World implements Serializable{
 
 	public void setTemperature(int temperature) {
 		this.temperature = temperature;
+		resetAcceptance();
 	}
 
 	public int getIdleWait() {
@@ -1630,6 +1828,116 @@ public class World implements Serializable{
 		this.maxFilesCnt = maxFilesCnt;
 	}
 
+	public long getMaxSeedCnt() {
+		return maxSeedCnt;
+	}
+
+	/**
+	 * @param maxSeedCnt run finishes after this number of seeds, 0 for no limit
+	 */
+	public void setMaxSeedCnt(long maxSeedCnt) {
+		this.maxSeedCnt = maxSeedCnt;
+	}
+
+	/**
+	 * World statistics are added by background analytics, the list is complete when run() returns
+	 * and must not be read by other threads while the world is running.
+	 *
+	 * @return world statistics collected every worldAnaliticsPeriod seeds
+	 */
+	public List<WorldStatsSummary> getWorldStats() {
+		return worldStats;
+	}
+
+	public int getOutputThreads() {
+		return outputThreads;
+	}
+
+	public void setOutputThreads(int outputThreads) {
+		this.outputThreads = outputThreads;
+	}
+
+	public int getOutputQueueSize() {
+		return outputQueueSize;
+	}
+
+	/**
+	 * @param outputQueueSize output tasks that may wait for the background threads, bounds the memory taken by them
+	 */
+	public void setOutputQueueSize(int outputQueueSize) {
+		this.outputQueueSize = outputQueueSize;
+	}
+
+	public OutputPipeline.DropPolicy getOutputDropPolicy() {
+		return outputDropPolicy;
+	}
+
+	/**
+	 * @param outputDropPolicy what to do with a new shot when the output queue is full
+	 */
+	public void setOutputDropPolicy(OutputPipeline.DropPolicy outputDropPolicy) {
+		this.outputDropPolicy = outputDropPolicy;
+	}
+
+	public boolean isAsyncSnapshots() {
+		return asyncSnapshots;
+	}
+
+	public void setAsyncSnapshots(boolean asyncSnapshots) {
+		this.asyncSnapshots = asyncSnapshots;
+	}
+
+	public int getSnapshotsInFlight() {
+		return snapshotsInFlight;
+	}
+
+	/**
+	 * @param snapshotsInFlight async snapshots waiting or being written, simulation waits when there are more
+	 */
+	public void setSnapshotsInFlight(int snapshotsInFlight) {
+		this.snapshotsInFlight = snapshotsInFlight;
+	}
+
+	public int getSnapshotsKeep() {
+		return snapshotsKeep;
+	}
+
+	/**
+	 * @param snapshotsKeep number of the latest async snapshots to keep, 0 to keep all
+	 */
+	public void setSnapshotsKeep(int snapshotsKeep) {
+		this.snapshotsKeep = snapshotsKeep;
+	}
+
+	/**
+	 * @param checkpointListener called on the writer thread when an async snapshot is written
+	 */
+	public void setCheckpointListener(CheckpointWriter.Listener checkpointListener) {
+		this.checkpointListener = checkpointListener;
+	}
+
+	public boolean isInlineAnalytics() {
+		return inlineAnalytics;
+	}
+
+	/**
+	 * @param inlineAnalytics run chain analytics on the simulation thread instead of the background
+	 */
+	public void setInlineAnalytics(boolean inlineAnalytics) {
+		this.inlineAnalytics = inlineAnalytics;
+	}
+
+	public boolean isGaussianAcceptance() {
+		return gaussianAcceptance;
+	}
+
+	/**
+	 * @param gaussianAcceptance draw a Gaussian value for each decision instead of a uniform one compared with AcceptanceTables
+	 */
+	public void setGaussianAcceptance(boolean gaussianAcceptance) {
+		this.gaussianAcceptance = gaussianAcceptance;
+	}
+
 	public String getFileDir() {
 		return fileDir;
 	}
@@ -1638,22 +1946,28 @@ public class World implements Serializable{
 		this.fileDir = fileDir;
 	}
 
+	/**
+	 * @return views of all atoms, ordered by id
+	 */
 	public ArrayList<Atom> getAtoms() {
+		ArrayList<Atom> atoms = new ArrayList<Atom>(state.getAtomCount());
+		for(int a=0;a<state.getAtomCount();a++) {
+			atoms.add(state.getAtom(a));
+		}
 		return atoms;
 	}
 
-	public void setAtoms(ArrayList<Atom> atoms) {
-		this.atoms = atoms;
-	}
-
+	/**
+	 * @return views of all transformers, ordered by id
+	 */
 	public ArrayList<Transformer> getTransformers() {
+		ArrayList<Transformer> transformers = new ArrayList<Transformer>(state.getTrsfCount());
+		for(int t=0;t<state.getTrsfCount();t++) {
+			transformers.add(state.getTransformer(t));
+		}
 		return transformers;
 	}
 
-	public void setTransformers(ArrayList<Transformer> transformers) {
-		this.transformers = transformers;
-	}
-
 	public int getTurnCnt() {
 		return turnCnt;
 	}
@@ -1676,6 +1990,7 @@ public class World implements Serializable{
 
 	public void setSeedCnt(long seedCnt) {
 		this.seedCnt = seedCnt;
+		state.setSeedCnt(seedCnt);
 	}
 
 	public int getFileCntTransformers() {
@@ -1724,6 +2039,7 @@ public class World implements Serializable{
 
 	public void setEnergyScale(double energyScale) {
 		this.energyScale = energyScale;
+		resetAcceptance();
 	}
 
 	public double getActionDistancePenalty() {
@@ -1732,6 +2048,7 @@ public class World implements Serializable{
 
 	public void setActionDistancePenalty(double actionDistancePenalty) {
 		this.actionDistancePenalty = actionDistancePenalty;
+		resetAcceptance();
 	}
 
 	public int getMassRatioLinked() {
@@ -1750,6 +2067,18 @@ public class World implements Serializable{
 		this.reseedPct = reseedPct;
 	}
 
+	public ReseedStrategy getReseedStrategy() {
+		return reseedStrategy;
+	}
+
+	public void setReseedStrategy(ReseedStrategy reseedStrategy) {
+		this.reseedStrategy = reseedStrategy;
+	}
+
+	public int getAtomTypeNumber() {
+		return atomTypeNumber;
+	}
+
 	public int getWorldAnaliticsPeriod() {
 		return worldAnaliticsPeriod;
 	}
@@ -0,0 +1,826 @@
+package com.compmodel.sim.trsfr.core;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.Serializable;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.Arrays;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Structure-of-arrays store for the world entities.
+ * Transformers and atoms are addressed by dense int ids, all their attributes
+ * live in primitive arrays indexed by these ids.
+ * Positions are packed lattice cell indexes.
+ * Transformer and Atom objects are thin views over this store, they are not serialized
+ * and are created again when the store is loaded.
+ *
+ * Bonds are kept in fixed slots, valence slots per transformer:
+ * slot = trsfId * valence + k, k < bondCnt[trsfId].
+ * Each slot keeps the slot of the same bond on the neighbor side, so the pair is updated and removed without a search.
+ * With valence up to 2 chain membership is kept in ChainIndex, updated when bonds are created and broken,
+ * together with persistent ids of chains and their genealogy.
+ * Bonds are changed under the lock of the store, so chains spanning tiles of parallel turns stay consistent.
+ *
+ * Atoms are removed with swap-remove, the last atom takes the id of the removed one.
+ * Positions of atoms are also tracked per atom type in AtomTypePlanes.
+ *
+ * Type, last actor and claim turn of an atom are packed into one state word,
+ * so concurrent transformers claim atoms with a single CAS and no locks, see tryTransform.
+ *
+ * @author Sergey Sherstyuk
+ *
+ */
+public class WorldState implements Serializable {
+	private static final long serialVersionUID = -2871137490264383515L;
+	private static final Logger log = LoggerFactory.getLogger(WorldState.class);
+	public static final int NONE = -1;
+	private static final int INIT_CAPACITY = 64;
+	private static final VarHandle COUNTS = MethodHandles.arrayElementVarHandle(int[].class);
+	private static final VarHandle ATOM_WORDS = MethodHandles.arrayElementVarHandle(long[].class);
+	private static final VarHandle BOND_COUNTS = MethodHandles.arrayElementVarHandle(long[].class);
+	// atom state word: type in bits 0..7, actor in bits 8..39, claim turn in bits 40..62, claim in progress in bit 63
+	private static final int ACTOR_SHIFT = 8;
+	private static final int STAMP_SHIFT = 40;
+	private static final long TYPE_MASK = 0xFFL;
+	private static final long ACTOR_MASK = 0xFFFFFFFFL;
+	private static final long STAMP_MASK = (1L << 23) - 1;
+	private static final long CLAIMING = 1L << 63;
+
+	private final Lattice lattice;
+	private final int valence;
+	private final boolean sparse;	// keep atom type planes in sparse pages
+
+	// === transformers
+	private int trsfCount;
+	private int[] trsfCell;
+	private byte[] trsfInType;
+	private byte[] trsfOutType;
+	private int[] trsfIdleCnt;	// number of seeds with no actions, since last action
+	private int[] trsfActionCnt;	// number of actions since last seed
+	private transient Transformer[] trsfViews;
+
+	// === bond slots
+	private int[] bondCnt;
+	private int[] bondNeighbor;
+	private long[] bondActionCnt;
+	private long[] bondCreatedSeedCnt;
+	private int[] bondMirror;	// slot of the same bond on the neighbor side, NONE if it is removed there
+	private ChainIndex chains;	// null for valence above 2
+	private transient LinkTraversal traversal;	// for the views, turns use traversals of their threads
+	// without chains: size of the bonded group per transformer, valid while bondVersion does not change
+	private transient long[] groupStamp;	// bondVersion << 32 | size
+	private transient volatile int bondVersion;
+
+	// === atoms
+	private int atomCount;
+	private int[] atomCell;
+	private long[] atomWord;	// packed type, actor and claim turn
+	private transient Atom[] atomViews;
+	private AtomTypePlanes atomPlanes;
+	private int[] atomTypeCnt;	// number of atoms per type
+
+	public WorldState(Lattice lattice, int valence, boolean sparse) {
+		this.lattice = lattice;
+		this.valence = valence;
+		this.sparse = sparse;
+		clearTransformers();
+		clearAtoms();
+	}
+
+	/*
+	 * Copy of the store, views are created on demand
+	 */
+	private WorldState(WorldState other, boolean withAtoms) {
+		lattice = other.lattice;
+		valence = other.valence;
+		sparse = other.sparse;
+		trsfCount = other.trsfCount;
+		trsfCell = Arrays.copyOf(other.trsfCell, trsfCount);
+		trsfInType = Arrays.copyOf(other.trsfInType, trsfCount);
+		trsfOutType = Arrays.copyOf(other.trsfOutType, trsfCount);
+		trsfIdleCnt = Arrays.copyOf(other.trsfIdleCnt, trsfCount);
+		trsfActionCnt = Arrays.copyOf(other.trsfActionCnt, trsfCount);
+		trsfViews = new Transformer[trsfCount];
+		bondCnt = Arrays.copyOf(other.bondCnt, trsfCount);
+		bondNeighbor = Arrays.copyOf(other.bondNeighbor, trsfCount * valence);
+		bondActionCnt = Arrays.copyOf(other.bondActionCnt, trsfCount * valence);
+		bondCreatedSeedCnt = Arrays.copyOf(other.bondCreatedSeedCnt, trsfCount * valence);
+		bondMirror = Arrays.copyOf(other.bondMirror, trsfCount * valence);
+		chains = other.chains == null ? null : other.chains.copy(trsfCount);
+		initGroupStamps(trsfCount);
+		atomTypeCnt = other.atomTypeCnt.clone();
+		if(withAtoms) {
+			atomCount = other.atomCount;
+			atomCell = Arrays.copyOf(other.atomCell, atomCount);
+			atomWord = Arrays.copyOf(other.atomWord, atomCount);
+			atomViews = new Atom[atomCount];
+			atomPlanes = other.atomPlanes.copy();
+		}else {
+			atomCount = 0;
+			atomCell = new int[0];
+			atomWord = new long[0];
+			atomViews = new Atom[0];
+			atomPlanes = null;
+		}
+	}
+
+	/**
+	 * Consistent copy of the store at the moment of the call, independent of further changes.
+	 * Only arrays are copied, views of the copy are created when requested.
+	 * Arrays are trimmed to the number of entities and grow again if entities are added to the copy.
+	 */
+	public WorldState copy() {
+		return new WorldState(this, true);
+	}
+
+	/**
+	 * Frozen copy of transformers and the bond graph for analytics, without atoms
+	 */
+	public WorldState copyBonds() {
+		return new WorldState(this, false);
+	}
+
+	private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+		in.defaultReadObject();
+		if(bondMirror == null) {	// saved before mirror slots were kept
+			bondMirror = new int[bondNeighbor.length];
+			for(int t=0;t<trsfCount;t++) {
+				for(int slot=t*valence;slot<t*valence+bondCnt[t];slot++) {
+					bondMirror[slot] = findBondSlot(bondNeighbor[slot], t);
+				}
+			}
+		}
+		if(chains == null && valence <= 2) {	// saved before chains were indexed
+			chains = ChainIndex.build(this);
+			chains.ensureCapacity(trsfCell.length);
+		}
+		initGroupStamps(trsfCell.length);
+		trsfViews = new Transformer[trsfCell.length];
+		for(int t=0;t<trsfCount;t++) {
+			trsfViews[t] = new Transformer(this, t);
+		}
+		atomViews = new Atom[atomCell.length];
+		for(int a=0;a<atomCount;a++) {
+			atomViews[a] = new Atom(this, a);
+		}
+	}
+
+	public void clearTransformers() {
+		trsfCount = 0;
+		trsfCell = new int[INIT_CAPACITY];
+		trsfInType = new byte[INIT_CAPACITY];
+		trsfOutType = new byte[INIT_CAPACITY];
+		trsfIdleCnt = new int[INIT_CAPACITY];
+		trsfActionCnt = new int[INIT_CAPACITY];
+		trsfViews = new Transformer[INIT_CAPACITY];
+		bondCnt = new int[INIT_CAPACITY];
+		bondNeighbor = new int[INIT_CAPACITY * valence];
+		bondActionCnt = new long[INIT_CAPACITY * valence];
+		bondCreatedSeedCnt = new long[INIT_CAPACITY * valence];
+		bondMirror = new int[INIT_CAPACITY * valence];
+		long seedCnt = chains == null ? 0 : chains.getGenealogy().getSeedCnt();
+		chains = valence <= 2 ? new ChainIndex(INIT_CAPACITY) : null;
+		if(chains != null) {
+			chains.setSeedCnt(seedCnt);
+		}
+		initGroupStamps(INIT_CAPACITY);
+	}
+
+	private void initGroupStamps(int capacity) {
+		groupStamp = chains == null ? new long[capacity] : null;
+		bondVersion = 1;	// stamps 0 are not valid
+	}
+
+	public void clearAtoms() {
+		atomCount = 0;
+		atomCell = new int[INIT_CAPACITY];
+		atomWord = new long[INIT_CAPACITY];
+		atomViews = new Atom[INIT_CAPACITY];
+		atomPlanes = new AtomTypePlanes(lattice, AtomTypeEnum.values().length, sparse);
+		atomTypeCnt = new int[AtomTypeEnum.values().length];
+	}
+
+	/**
+	 * Append new transformer to the store
+	 *
+	 * @return id of the new transformer
+	 */
+	public int addTransformer(int cell, AtomTypeEnum inputType, AtomTypeEnum outputType) {
+		if(trsfCount == trsfCell.length) {
+			int newCapacity = Math.max(INIT_CAPACITY, trsfCount * 2);
+			trsfCell = Arrays.copyOf(trsfCell, newCapacity);
+			trsfInType = Arrays.copyOf(trsfInType, newCapacity);
+			trsfOutType = Arrays.copyOf(trsfOutType, newCapacity);
+			trsfIdleCnt = Arrays.copyOf(trsfIdleCnt, newCapacity);
+			trsfActionCnt = Arrays.copyOf(trsfActionCnt, newCapacity);
+			trsfViews = Arrays.copyOf(trsfViews, newCapacity);
+			bondCnt = Arrays.copyOf(bondCnt, newCapacity);
+			bondNeighbor = Arrays.copyOf(bondNeighbor, newCapacity * valence);
+			bondActionCnt = Arrays.copyOf(bondActionCnt, newCapacity * valence);
+			bondCreatedSeedCnt = Arrays.copyOf(bondCreatedSeedCnt, newCapacity * valence);
+			bondMirror = Arrays.copyOf(bondMirror, newCapacity * valence);
+			if(chains != null) {
+				chains.ensureCapacity(newCapacity);
+			}else {
+				groupStamp = Arrays.copyOf(groupStamp, newCapacity);
+			}
+		}
+		int id = trsfCount++;
+		trsfCell[id] = cell;
+		trsfInType[id] = (byte)inputType.ordinal();
+		trsfOutType[id] = (byte)outputType.ordinal();
+		trsfIdleCnt[id] = 0;
+		trsfActionCnt[id] = 0;
+		bondCnt[id] = 0;
+		trsfViews[id] = new Transformer(this, id);
+		return id;
+	}
+
+	/**
+	 * Append new atom to the store
+	 *
+	 * @return id of the new atom
+	 */
+	public int addAtom(int cell, AtomTypeEnum type) {
+		if(atomCount == atomCell.length) {
+			int newCapacity = Math.max(INIT_CAPACITY, atomCount * 2);
+			atomCell = Arrays.copyOf(atomCell, newCapacity);
+			atomWord = Arrays.copyOf(atomWord, newCapacity);
+			atomViews = Arrays.copyOf(atomViews, newCapacity);
+		}
+		int id = atomCount++;
+		atomCell[id] = cell;
+		atomWord[id] = packAtom(type.ordinal(), NONE, 0);
+		atomViews[id] = new Atom(this, id);
+		atomPlanes.set(type.ordinal(), cell);
+		atomTypeCnt[type.ordinal()]++;
+		return id;
+	}
+
+	/**
+	 * Remove atom using swap-remove: the last atom is moved into the slot of the removed one.
+	 * The view of the moved atom is re-pointed to its new id.
+	 *
+	 * @param id
+	 * @return former id of the atom that now occupies slot id, or NONE if the last atom was removed
+	 */
+	public int removeAtom(int id) {
+		int last = --atomCount;
+		int type = typeOf(atomWord[id]);
+		atomPlanes.clear(type, atomCell[id]);
+		atomTypeCnt[type]--;
+		if(atomViews[id] != null) {
+			atomViews[id].setId(NONE);
+		}
+		if(id == last) {
+			atomViews[last] = null;
+			return NONE;
+		}
+		atomCell[id] = atomCell[last];
+		atomWord[id] = atomWord[last];
+		atomViews[id] = atomViews[last];
+		if(atomViews[id] != null) {
+			atomViews[id].setId(id);
+		}
+		atomViews[last] = null;
+		return last;
+	}
+
+	/**
+	 * If transformer matches input atom type:
+	 *  - transform (change atom type)
+	 *  - increase actionCnt for bonds (this -> previousActor) and (previousActor -> this)
+	 *  - set this as a new actor for the atom
+	 *  - increase actionCnt for this transformer
+	 *  - reset idleCnt for this transformer
+	 *
+	 * Atom is claimed lock-free: one CAS of its state word sets the new type, actor and turn
+	 * and marks the claim as in progress until the type planes and counters are updated.
+	 * Of the transformers competing for the atom the first successful CAS wins,
+	 * the others fail if the atom is not of their input type any more or its claim is still in progress,
+	 * so a transformer never waits for another one.
+	 * Claims of the same atom by different transformers are therefore ordered as in some serial turn.
+	 *
+	 * @param turn number of the turn, kept in the atom state for diagnostics
+	 * @return true if atom was transformed
+	 */
+	public boolean tryTransform(int trsf, int atom, long turn) {
+		int inType = trsfInType[trsf];
+		int outType = trsfOutType[trsf];
+		long word;
+		do {
+			word = (long)ATOM_WORDS.getAcquire(atomWord, atom);
+			if((word & CLAIMING) != 0 || typeOf(word) != inType) {
+				return false;
+			}
+		}while(!ATOM_WORDS.compareAndSet(atomWord, atom, word, packAtom(outType, trsf, turn) | CLAIMING));
+		int cell = atomCell[atom];
+		atomPlanes.clear(inType, cell);
+		COUNTS.getAndAdd(atomTypeCnt, inType, -1);
+		atomPlanes.set(outType, cell);
+		COUNTS.getAndAdd(atomTypeCnt, outType, 1);
+		updateBondsActionCnt(trsf, actorOf(word));
+		trsfActionCnt[trsf]++;
+		trsfIdleCnt[trsf] = 0;
+		ATOM_WORDS.getAndBitwiseAndRelease(atomWord, atom, ~CLAIMING);
+		return true;
+	}
+
+	/**
+	 * Transform without turn stamp, for callers outside of the turn loop
+	 */
+	public boolean tryTransform(int trsf, int atom) {
+		return tryTransform(trsf, atom, 0);
+	}
+
+	private static long packAtom(int type, int actor, long turn) {
+		return type | (actor & ACTOR_MASK) << ACTOR_SHIFT | (turn & STAMP_MASK) << STAMP_SHIFT;
+	}
+
+	private static int typeOf(long word) {
+		return (int)(word & TYPE_MASK);
+	}
+
+	private static int actorOf(long word) {
+		return (int)(word >>> ACTOR_SHIFT & ACTOR_MASK);
+	}
+
+	/*
+	 * Increase actionCnt for bonds (trsf -> prevActor) and (prevActor -> trsf)
+	 */
+	private void updateBondsActionCnt(int trsf, int prevActor) {
+		if(prevActor == NONE) {
+			return;
+		}
+		int slot = findBondSlot(trsf, prevActor);
+		if(slot == NONE) {
+			return;
+		}
+		// both sides are counted by atomic increments, so concurrent actions of the pair are not lost
+		long actionCnt = (long)BOND_COUNTS.getAndAdd(bondActionCnt, slot, 1L);
+		int mirrorSlot = bondMirror[slot];
+		if(mirrorSlot != NONE) {
+			BOND_COUNTS.getAndAdd(bondActionCnt, mirrorSlot, 1L);
+		}
+		if(chains != null) {
+			chains.bondAction(trsf, actionCnt, bondCreatedSeedCnt[slot]);	// without the lock, see ChainIndex
+		}
+	}
+
+	/**
+	 * Scan of at most valence slots of the transformer
+	 *
+	 * @return slot of the bond (trsf -> neighbor) or NONE
+	 */
+	public int findBondSlot(int trsf, int neighbor) {
+		int base = trsf * valence;
+		for(int slot=base;slot<base+bondCnt[trsf];slot++) {
+			if(bondNeighbor[slot] == neighbor) {
+				return slot;
+			}
+		}
+		return NONE;
+	}
+
+	public boolean hasNeighbor(int trsf, int neighbor) {
+		return findBondSlot(trsf, neighbor) != NONE;
+	}
+
+	/**
+	 * Create pair of bonds with initial action count 1
+	 * (trsf -> neighbor) and (neighbor -> trsf)
+	 */
+	public synchronized void addNeighbor(int trsf, int neighbor, long createdSeedCnt) {
+		if(hasNeighbor(trsf, neighbor)) {
+			log.debug("attmept to add tsrf that is already a neighbor, this:"+trsf+", tsrf:"+neighbor);
+			return;
+		}
+		if(hasNeighbor(neighbor, trsf)) {
+			log.error("!!! attaching trsf that has this as a neighbor already, trsf:"+getTransformer(trsf).getShortInfo());
+			return;
+		}
+		if(bondCnt[trsf] >= valence) {
+			log.error("!!! too many bonds in trsfr-initiator, this:"+getTransformer(trsf).getShortInfo());
+			return;
+		}
+		if(bondCnt[neighbor] >= valence) {
+			log.error("!!! too many bonds in trsfr-attachment, trsf:"+getTransformer(neighbor).getShortInfo());
+			return;
+		}
+		int slot = appendBond(trsf, neighbor, createdSeedCnt);
+		int mirrorSlot = appendBond(neighbor, trsf, createdSeedCnt);
+		bondMirror[slot] = mirrorSlot;
+		bondMirror[mirrorSlot] = slot;
+		if(chains != null) {
+			chains.bondAdded(this, trsf, neighbor, createdSeedCnt);
+		}else {
+			bondsChanged();
+		}
+		log.debug("created bonds between "+trsf+" and "+neighbor);
+	}
+
+	private int appendBond(int trsf, int neighbor, long createdSeedCnt) {
+		int slot = trsf * valence + bondCnt[trsf]++;
+		bondNeighbor[slot] = neighbor;
+		bondActionCnt[slot] = 1l;
+		bondCreatedSeedCnt[slot] = createdSeedCnt;
+		return slot;
+	}
+
+	/**
+	 * Remove one-directional bond (trsf -> neighbor).
+	 * Slots are kept compact, the last slot is moved into the freed one and its mirror is repointed.
+	 * Chains are updated when the bond is removed on both sides.
+	 *
+	 * @return true if bond existed
+	 */
+	public synchronized boolean removeNeighbor(int trsf, int neighbor) {
+		int slot = findBondSlot(trsf, neighbor);
+		if(slot == NONE) {
+			return false;
+		}
+		int mirrorSlot = bondMirror[slot];
+		if(mirrorSlot != NONE) {
+			bondMirror[mirrorSlot] = NONE;
+		}
+		long actionCnt = bondActionCnt[slot];
+		long createdSeedCnt = bondCreatedSeedCnt[slot];
+		int lastSlot = trsf * valence + --bondCnt[trsf];
+		if(slot != lastSlot) {
+			bondNeighbor[slot] = bondNeighbor[lastSlot];
+			bondActionCnt[slot] = bondActionCnt[lastSlot];
+			bondCreatedSeedCnt[slot] = bondCreatedSeedCnt[lastSlot];
+			bondMirror[slot] = bondMirror[lastSlot];
+			if(bondMirror[slot] != NONE) {
+				bondMirror[bondMirror[slot]] = slot;
+			}
+		}
+		if(chains != null && mirrorSlot == NONE) {
+			chains.bondRemoved(this, trsf, neighbor, actionCnt, createdSeedCnt);
+		}else if(chains == null) {
+			bondsChanged();
+		}
+		return true;
+	}
+
+	/**
+	 * Sizes of bonded groups are invalid after any change of bonds
+	 */
+	private void bondsChanged() {
+		int version = bondVersion + 1;
+		bondVersion = version == 0 ? 1 : version;
+	}
+
+	/**
+	 * Number of transformers bonded with trsf directly or through others, trsf included.
+	 * With chains it is the size of the chain. Otherwise the group is walked with the traversal
+	 * and its size is kept for all its transformers, until bonds change.
+	 * A walk concurrent with bond changes is stamped with the version before the change, so it is not reused.
+	 *
+	 * @param traversal of the calling thread
+	 */
+	int getGroupSize(int trsf, LinkTraversal traversal) {
+		if(chains != null) {
+			return chains.getSize(trsf);
+		}
+		int version = bondVersion;
+		long stamp = groupStamp[trsf];
+		if((int)(stamp >>> 32) == version) {
+			return (int)stamp;
+		}
+		int cnt = traversal.collect(this, trsf, null);
+		stamp = (long)version << 32 | cnt;
+		for(int i=0;i<cnt;i++) {
+			groupStamp[traversal.get(i)] = stamp;
+		}
+		return cnt;
+	}
+
+	/**
+	 * Remove bonds on both sides: (trsf -> neighbor) and (neighbor -> trsf)
+	 */
+	public synchronized void breakBond(int trsf, int neighbor) {
+		removeNeighbor(neighbor, trsf);
+		removeNeighbor(trsf, neighbor);
+	}
+
+	public double getBondStrength(int slot, long curSeedCnt) {
+		return Bond.calcStrength(bondActionCnt[slot], bondCreatedSeedCnt[slot], curSeedCnt);
+	}
+
+	/**
+	 * Reset counters of a transformer before the new seed
+	 */
+	public void resetStatus(int trsf) {
+		trsfIdleCnt[trsf] = 0;
+		trsfActionCnt[trsf] = 0;
+		int base = trsf * valence;
+		for(int slot=base;slot<base+bondCnt[trsf];slot++) {
+			bondActionCnt[slot] = 1l;
+		}
+		if(chains != null) {
+			chains.invalidateStrength(trsf);
+		}
+	}
+
+	public Lattice getLattice() {
+		return lattice;
+	}
+
+	public int getValence() {
+		return valence;
+	}
+
+	public int getTrsfCount() {
+		return trsfCount;
+	}
+
+	public int getTrsfCell(int trsf) {
+		return trsfCell[trsf];
+	}
+
+	public void setTrsfCell(int trsf, int cell) {
+		trsfCell[trsf] = cell;
+	}
+
+	public AtomTypeEnum getTrsfInputType(int trsf) {
+		return AtomTypeEnum.values()[trsfInType[trsf]];
+	}
+
+	/**
+	 * @return ordinal of the input type of the transformer
+	 */
+	public int getTrsfInTypeIdx(int trsf) {
+		return trsfInType[trsf];
+	}
+
+	public void setTrsfInputType(int trsf, AtomTypeEnum type) {
+		trsfInType[trsf] = (byte)type.ordinal();
+	}
+
+	public AtomTypeEnum getTrsfOutputType(int trsf) {
+		return AtomTypeEnum.values()[trsfOutType[trsf]];
+	}
+
+	public void setTrsfOutputType(int trsf, AtomTypeEnum type) {
+		trsfOutType[trsf] = (byte)type.ordinal();
+	}
+
+	public int getTrsfIdleCnt(int trsf) {
+		return trsfIdleCnt[trsf];
+	}
+
+	public void setTrsfIdleCnt(int trsf, int idleCnt) {
+		trsfIdleCnt[trsf] = idleCnt;
+	}
+
+	public int getTrsfActionCnt(int trsf) {
+		return trsfActionCnt[trsf];
+	}
+
+	public void setTrsfActionCnt(int trsf, int actionCnt) {
+		trsfActionCnt[trsf] = actionCnt;
+	}
+
+	public Transformer getTransformer(int trsf) {
+		Transformer view = trsfViews[trsf];
+		if(view == null) {	// copy of the store
+			view = trsfViews[trsf] = new Transformer(this, trsf);
+		}
+		return view;
+	}
+
+	/**
+	 * Traversal shared by the views, callers synchronize on it
+	 */
+	synchronized LinkTraversal getLinkTraversal() {
+		if(traversal == null) {
+			traversal = new LinkTraversal();
+		}
+		return traversal;
+	}
+
+	public boolean hasChainIndex() {
+		return chains != null;
+	}
+
+	/**
+	 * Queries of the chain index are valid when hasChainIndex()
+	 *
+	 * @return chain id or NONE for standalone transformer
+	 */
+	public int getChainId(int trsf) {
+		return chains.getChain(trsf);
+	}
+
+	/**
+	 * @return number of transformers in the chain, 1 for standalone transformer
+	 */
+	public int getChainSize(int trsf) {
+		return chains.getSize(trsf);
+	}
+
+	/**
+	 * @return end of the chain, NONE for circular chain
+	 */
+	public int getChainEnd1(int trsf) {
+		return chains.getEnd1(trsf);
+	}
+
+	public int getChainEnd2(int trsf) {
+		return chains.getEnd2(trsf);
+	}
+
+	public boolean isChainCircular(int trsf) {
+		return chains.isCircular(trsf);
+	}
+
+	/**
+	 * Persistent ids, genealogy and strength aggregates of chains are kept by the chain index, for valence 2 at most
+	 *
+	 * @throws IllegalStateException for valence above 2, where bonded groups are not chains
+	 */
+	ChainIndex chainIndex() {
+		if(chains == null) {
+			throw new IllegalStateException("chains are indexed for valence 2 at most, valence: "+valence);
+		}
+		return chains;
+	}
+
+	/**
+	 * @return persistent id of the chain, never reused unlike getChainId, NONE for standalone transformer
+	 * @throws IllegalStateException for valence above 2
+	 */
+	public int getChainUid(int trsf) {
+		return chainIndex().getUid(trsf);
+	}
+
+	/**
+	 * @return seed the chain was born or split off at, NONE for standalone transformer
+	 * @throws IllegalStateException for valence above 2
+	 */
+	public long getChainBirth(int trsf) {
+		return chainIndex().getBirth(trsf);
+	}
+
+	/**
+	 * Genealogy of the chains, changed with bonds, so it is read between turns or from a copy of the store
+	 *
+	 * @throws IllegalStateException for valence above 2
+	 */
+	public ChainGenealogy getChainGenealogy() {
+		return chainIndex().getGenealogy();
+	}
+
+	/**
+	 * Record events deferred by a tile of a parallel turn, called after the phase in the order of tiles
+	 */
+	synchronized void replayChainEvents(ChainGenealogy.Pending pending) {
+		if(chains != null) {
+			chains.replay(pending);
+		}
+	}
+
+	/**
+	 * @return survival of chains by age in seeds, see ChainGenealogy.getSurvival
+	 * @throws IllegalStateException for valence above 2
+	 */
+	public synchronized double[] getChainSurvival() {
+		return chainIndex().getSurvival();
+	}
+
+	/**
+	 * Events of the chain genealogy are stamped with the current seed
+	 */
+	public synchronized void setSeedCnt(long seedCnt) {
+		if(chains != null) {
+			chains.setSeedCnt(seedCnt);
+		}
+	}
+
+	/**
+	 * Cached, the chain is walked only when its bonds were split or for a new seed.
+	 * Actions update the cache without the lock, so it is read between turns or from a copy of the store.
+	 *
+	 * @return sum of bond strengths of the chain, 0 for standalone transformer
+	 * @throws IllegalStateException for valence above 2
+	 */
+	public synchronized double getChainStrengthSum(int trsf, long seedCnt) {
+		return chainIndex().getStrengthSum(this, trsf, seedCnt);
+	}
+
+	/**
+	 * @return strength of the weakest bond of the chain, 0 for standalone transformer
+	 * @throws IllegalStateException for valence above 2
+	 */
+	public synchronized double getChainStrengthMin(int trsf, long seedCnt) {
+		return chainIndex().getStrengthMin(this, trsf, seedCnt);
+	}
+
+	public int getBondCnt(int trsf) {
+		return bondCnt[trsf];
+	}
+
+	/**
+	 * @return slot of k-th bond of the transformer
+	 */
+	public int getBondSlot(int trsf, int k) {
+		return trsf * valence + k;
+	}
+
+	public int getBondNeighbor(int slot) {
+		return bondNeighbor[slot];
+	}
+
+	public long getBondActionCnt(int slot) {
+		return bondActionCnt[slot];
+	}
+
+	public void setBondActionCnt(int slot, long actionCnt) {
+		bondActionCnt[slot] = actionCnt;
+		if(chains != null) {
+			chains.invalidateStrength(slot / valence);
+		}
+	}
+
+	public long getBondCreatedSeedCnt(int slot) {
+		return bondCreatedSeedCnt[slot];
+	}
+
+	/**
+	 * @return slot of the same bond on the neighbor side, NONE if it is removed there
+	 */
+	public int getBondMirror(int slot) {
+		return bondMirror[slot];
+	}
+
+	public int getAtomCount() {
+		return atomCount;
+	}
+
+	public int getAtomCell(int atom) {
+		return atomCell[atom];
+	}
+
+	public void setAtomCell(int atom, int cell) {
+		int type = typeOf(atomWord[atom]);
+		atomPlanes.clear(type, atomCell[atom]);
+		atomCell[atom] = cell;
+		atomPlanes.set(type, cell);
+	}
+
+	public AtomTypeEnum getAtomType(int atom) {
+		return AtomTypeEnum.values()[typeOf(atomWord[atom])];
+	}
+
+	public void setAtomType(int atom, AtomTypeEnum type) {
+		long word = atomWord[atom];
+		atomPlanes.clear(typeOf(word), atomCell[atom]);
+		atomTypeCnt[typeOf(word)]--;
+		atomWord[atom] = word & ~TYPE_MASK | type.ordinal();
+		atomPlanes.set(type.ordinal(), atomCell[atom]);
+		atomTypeCnt[type.ordinal()]++;
+	}
+
+	public int getAtomActor(int atom) {
+		return actorOf(atomWord[atom]);
+	}
+
+	public void setAtomActor(int atom, int actor) {
+		atomWord[atom] = atomWord[atom] & ~(ACTOR_MASK << ACTOR_SHIFT) | (actor & ACTOR_MASK) << ACTOR_SHIFT;
+	}
+
+	/**
+	 * @return low bits of the turn when the atom was last transformed
+	 */
+	public long getAtomClaimTurn(int atom) {
+		return atomWord[atom] >>> STAMP_SHIFT & STAMP_MASK;
+	}
+
+	public AtomTypePlanes getAtomPlanes() {
+		return atomPlanes;
+	}
+
+	/**
+	 * @return number of atoms of the type with given ordinal
+	 */
+	public int getAtomTypeCount(int type) {
+		return atomTypeCnt[type];
+	}
+
+	public boolean isSparse() {
+		return sparse;
+	}
+
+	public Atom getAtom(int atom) {
+		Atom view = atomViews[atom];
+		if(view == null) {	// copy of the store
+			view = atomViews[atom] = new Atom(this, atom);
+		}
+		return view;
+	}
+}
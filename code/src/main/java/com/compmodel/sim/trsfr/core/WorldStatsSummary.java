@@ -100,6 +100,18 @@ public class WorldStatsSummary implements Serializable{
 		return sb.toString();
 	}
 
+	/**
+	 * @return values in the order of getCsvHeader, without createdSeedCnt
+	 */
+	public double[] getValues() {
+		return new double[] {count, avgLength, maxLength, avgStrength, maxStrength, minStrength,
+				avgAge, maxAge, minAge, 
+				countNonCircular, avgLengthNonCircular, maxLengthNonCircular, 
+				avgStrengthNonCircular, maxStrengthNonCircular, minStrengthNonCircular,
+				avgAgeNonCircular, maxAgeNonCircular, minAgeNonCircular,
+				avgMatchPct, maxMatchPct, minMatchPct};
+	}
+
 	public double getAvgLength() {
 		return avgLength;
 	}
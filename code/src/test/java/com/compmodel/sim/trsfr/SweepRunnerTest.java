@@ -0,0 +1,46 @@
+package com.compmodel.sim.trsfr;
+
+import junit.framework.TestCase;
+
+/**
+ * Mean and half width of the 95% confidence interval use Student t quantiles for small numbers of replicas.
+ */
+public class SweepRunnerTest extends TestCase {
+	private static final double EPS = 1e-9;
+
+	public void testSingleSample() {
+		double[] mci = SweepRunner.meanAndCi(new double[][] {{4}}, 0);
+		assertEquals(4, mci[0], EPS);
+		assertEquals(0, mci[1], EPS);
+	}
+
+	public void testTwoSamples() {
+		// standard error 1, t = 12.706 for 1 degree of freedom
+		double[] mci = SweepRunner.meanAndCi(new double[][] {{0, 1}, {0, 3}}, 1);
+		assertEquals(2, mci[0], EPS);
+		assertEquals(12.706, mci[1], EPS);
+	}
+
+	public void testTenSamples() {
+		// 1..10: sample variance 55/6, t = 2.262 for 9 degrees of freedom
+		double[][] samples = new double[10][];
+		for(int i=0;i<samples.length;i++) {
+			samples[i] = new double[] {i + 1};
+		}
+		double[] mci = SweepRunner.meanAndCi(samples, 0);
+		assertEquals(5.5, mci[0], EPS);
+		assertEquals(2.262 * Math.sqrt(55.0 / 6 / 10), mci[1], EPS);
+		assertEquals(2.1657, mci[1], 1e-4);
+	}
+
+	public void testManySamples() {
+		// beyond the table the normal quantile is used
+		double[][] samples = new double[100][];
+		for(int i=0;i<samples.length;i++) {
+			samples[i] = new double[] {i % 2 == 0 ? 1 : -1};
+		}
+		double[] mci = SweepRunner.meanAndCi(samples, 0);
+		assertEquals(0, mci[0], EPS);
+		assertEquals(1.960 * Math.sqrt(100.0 / 99 / 100), mci[1], EPS);
+	}
+}
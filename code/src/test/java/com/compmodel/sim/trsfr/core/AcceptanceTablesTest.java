@@ -0,0 +1,77 @@
+package com.compmodel.sim.trsfr.core;
+
+import junit.framework.TestCase;
+
+/**
+ * Decisions taken with AcceptanceTables are accepted as often as decisions with Gaussian draws.
+ */
+public class AcceptanceTablesTest extends TestCase {
+	private static final int DRAWS = 400000;
+	private static final double MAX_SIGMAS = 5.0;	// allowed difference of rates in standard errors
+
+	public void testTailProbability() {
+		// P(|N(0,1)| > x) = erfc(x/sqrt(2))
+		assertEquals(1.0, AcceptanceTables.tailProbability(0.0), 0.0);
+		assertEquals(0.61707507745197, AcceptanceTables.tailProbability(0.5), 1e-7);
+		assertEquals(0.31731050786291, AcceptanceTables.tailProbability(1.0), 1e-7);
+		assertEquals(0.04550026389636, AcceptanceTables.tailProbability(2.0), 1e-7);
+		assertEquals(0.00269979606326, AcceptanceTables.tailProbability(3.0), 1e-8);
+		assertEquals(6.33424836662e-5, AcceptanceTables.tailProbability(4.0), 1e-10);
+		assertEquals(0.0, AcceptanceTables.tailProbability(10.0), 0.0);
+	}
+
+	public void testSameActionRates() {
+		double penalty = World.ACTION_DISTANCE_PENALTY;
+		AcceptanceTables tables = new AcceptanceTables(5, penalty, 0.5, 1.0);
+		StreamRandom gaussRand = new StreamRandom(1);
+		StreamRandom tableRand = new StreamRandom(2);
+		for(int d=0;d<=5;d++) {
+			int gaussCnt = 0, tableCnt = 0;
+			for(int i=0;i<DRAWS;i++) {
+				if(Math.abs(gaussRand.nextGaussian()) > d * penalty) {
+					gaussCnt++;
+				}
+				if(tables.acceptAction(tableRand, d)) {
+					tableCnt++;
+				}
+			}
+			assertSameRate("ring "+d, gaussCnt, tableCnt);
+		}
+	}
+
+	public void testSameMoveRates() {
+		double[] offsets = {0.5, -0.5};	// temperature below and at MAX_TEMPERATURE
+		double[] scales = {1.0, 0.25};
+		double[] deltas = {0.01, 0.1, 0.25, 0.5, 1.0, 2.0, 3.0};
+		StreamRandom gaussRand = new StreamRandom(3);
+		StreamRandom tableRand = new StreamRandom(4);
+		for(double offset : offsets) {
+			for(double scale : scales) {
+				AcceptanceTables tables = new AcceptanceTables(0, 0.0, offset, scale);
+				for(double delta : deltas) {
+					double threshold = offset + delta/scale;
+					int gaussCnt = 0, tableCnt = 0;
+					for(int i=0;i<DRAWS;i++) {
+						if(Math.abs(gaussRand.nextGaussian()) > threshold) {
+							gaussCnt++;
+						}
+						if(tables.acceptMove(tableRand, delta)) {
+							tableCnt++;
+						}
+					}
+					assertSameRate("offset "+offset+", scale "+scale+", delta "+delta, gaussCnt, tableCnt);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Two-proportion z-test
+	 */
+	private static void assertSameRate(String message, int cnt1, int cnt2) {
+		double p = (cnt1 + cnt2) / (2.0 * DRAWS);
+		double stdErr = Math.sqrt(2 * p * (1 - p) / DRAWS);
+		double diff = Math.abs(cnt1 - cnt2) / (double)DRAWS;
+		assertTrue(message+": rates "+cnt1+" and "+cnt2+" of "+DRAWS, diff <= MAX_SIGMAS * stdErr);
+	}
+}
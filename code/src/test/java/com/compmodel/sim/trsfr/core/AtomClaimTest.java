@@ -0,0 +1,66 @@
+package com.compmodel.sim.trsfr.core;
+
+import java.util.concurrent.CyclicBarrier;
+
+import junit.framework.TestCase;
+
+/**
+ * Of the transformers competing for an atom exactly one claims it,
+ * the atom state, type planes and type counters agree with the winners.
+ */
+public class AtomClaimTest extends TestCase {
+	private static final int ATOMS = 1000;
+	private static final int ROUNDS = 200;
+
+	public void testOneWinner() throws Exception {
+		AtomTypeEnum in = AtomTypeEnum.values()[0];
+		AtomTypeEnum out = AtomTypeEnum.values()[1];
+		Lattice lattice = new Lattice(100, 2);
+		WorldState state = new WorldState(lattice, 2, false);
+		int[] trsfs = {state.addTransformer(0, in, out), state.addTransformer(1, in, out)};
+		boolean[][] won = new boolean[trsfs.length][ATOMS];
+		int[] wonCnt = new int[trsfs.length];
+		CyclicBarrier barrier = new CyclicBarrier(trsfs.length);
+		for(int round=0;round<ROUNDS;round++) {
+			state.clearAtoms();
+			for(int a=0;a<ATOMS;a++) {
+				state.addAtom(a, in);
+			}
+			Thread[] threads = new Thread[trsfs.length];
+			Throwable[] errors = new Throwable[trsfs.length];
+			for(int i=0;i<trsfs.length;i++) {
+				final int k = i;
+				threads[i] = new Thread(() -> {
+					try {
+						barrier.await();
+						// the threads go over the atoms in opposite orders and meet in the middle
+						for(int j=0;j<ATOMS;j++) {
+							int a = k == 0 ? j : ATOMS - 1 - j;
+							won[k][a] = state.tryTransform(trsfs[k], a);
+						}
+					}catch(Throwable e) {
+						errors[k] = e;
+					}
+				});
+				threads[i].start();
+			}
+			for(int i=0;i<trsfs.length;i++) {
+				threads[i].join();
+				assertNull(errors[i]);
+			}
+			for(int a=0;a<ATOMS;a++) {
+				assertTrue("atom "+a+" claimed by both or none", won[0][a] != won[1][a]);
+				wonCnt[won[0][a] ? 0 : 1]++;
+				assertEquals(won[0][a] ? trsfs[0] : trsfs[1], state.getAtomActor(a));
+				assertEquals(out, state.getAtomType(a));
+				assertTrue(state.getAtomPlanes().get(out.ordinal(), a));
+				assertFalse(state.getAtomPlanes().get(in.ordinal(), a));
+			}
+			assertEquals(0, state.getAtomTypeCount(in.ordinal()));
+			assertEquals(ATOMS, state.getAtomTypeCount(out.ordinal()));
+		}
+		for(int i=0;i<trsfs.length;i++) {
+			assertEquals(wonCnt[i], state.getTrsfActionCnt(trsfs[i]));
+		}
+	}
+}
@@ -0,0 +1,99 @@
+package com.compmodel.sim.trsfr.core;
+
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+/**
+ * Range and disk queries give the same answers as a scan of single cells, in dense and sparse modes:
+ * ranges starting or ending on the first and the last bit of a word, spanning several words,
+ * single cells, disks in 2-D and 3-D spaces.
+ */
+public class AtomTypePlanesTest extends TestCase {
+	private static final int[] EDGES = {0, 1, 62, 63, 64, 65, 127, 128, 191, 192, 255, 256, 299};
+
+	public void testRangeDense() {
+		checkRanges(false);
+	}
+
+	public void testRangeSparse() {
+		checkRanges(true);
+	}
+
+	public void testWithinPlaneDense() {
+		checkWithin(new Lattice(64, 2), false);
+		checkWithin(new Lattice(70, 2), false);
+	}
+
+	public void testWithinPlaneSparse() {
+		checkWithin(new Lattice(64, 2), true);
+		checkWithin(new Lattice(70, 2), true);
+	}
+
+	public void testWithinCubeDense() {
+		checkWithin(new Lattice(12, 3), false);
+	}
+
+	public void testWithinCubeSparse() {
+		checkWithin(new Lattice(12, 3), true);
+	}
+
+	/**
+	 * One bit set at a word edge, every range between word edges is checked, single cells included
+	 */
+	private static void checkRanges(boolean sparse) {
+		Lattice lattice = new Lattice(300, 1);
+		for(int bit : EDGES) {
+			AtomTypePlanes planes = new AtomTypePlanes(lattice, 2, sparse);
+			planes.set(1, bit);
+			for(int from : EDGES) {
+				for(int to : EDGES) {
+					if(from <= to) {
+						String range = "bit: "+bit+", range: ["+from+", "+to+"]";
+						assertEquals(range, from <= bit && bit <= to, planes.anyInRange(1, from, to));
+						assertEquals(range, scan(planes, 1, from, to), planes.anyInRange(1, from, to));
+						assertFalse(range, planes.anyInRange(0, from, to));
+					}
+				}
+			}
+			for(int cell=0;cell<lattice.getCellCount();cell++) {
+				assertEquals("cell: "+cell, cell == bit, planes.anyInRange(1, cell, cell));
+			}
+			planes.clear(1, bit);
+			assertFalse(planes.anyInRange(1, 0, lattice.getCellCount() - 1));
+		}
+	}
+
+	private static boolean scan(AtomTypePlanes planes, int type, int from, int to) {
+		for(int cell=from;cell<=to;cell++) {
+			if(planes.get(type, cell)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Few atoms in the space, disks of several radii around random centers and around the atoms
+	 */
+	private static void checkWithin(Lattice lattice, boolean sparse) {
+		Random rand = new Random(lattice.getSize() * 31 + lattice.getDim());
+		AtomTypePlanes planes = new AtomTypePlanes(lattice, 1, sparse);
+		int[] atoms = new int[6];
+		for(int i=0;i<atoms.length;i++) {
+			atoms[i] = lattice.randomCell(rand);
+			planes.set(0, atoms[i]);
+		}
+		for(int i=0;i<300;i++) {
+			int center = i < atoms.length ? atoms[i] : lattice.randomCell(rand);
+			for(int distance : new int[] {0, 1, 3, 7, lattice.getSize()}) {
+				boolean expected = false;
+				for(int atom : atoms) {
+					expected |= lattice.distance(center, atom) <= distance;
+				}
+				assertEquals("center: "+lattice.toString(center)+", distance: "+distance,
+						expected, planes.anyWithin(0, center, distance));
+			}
+		}
+	}
+}
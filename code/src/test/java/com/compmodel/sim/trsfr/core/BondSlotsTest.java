@@ -0,0 +1,83 @@
+package com.compmodel.sim.trsfr.core;
+
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+/**
+ * Mirror slots point to the same bond on the other side after any sequence of bonds created and broken,
+ * action counts of both sides are increased together.
+ */
+public class BondSlotsTest extends TestCase {
+	private static final int TRSF_COUNT = 200;
+	private static final int STEPS = 20000;
+
+	public void testMirrorsValence2() {
+		checkRandomBonds(2);
+	}
+
+	public void testMirrorsValence3() {
+		checkRandomBonds(3);
+	}
+
+	public void testOneSideRemoved() {
+		WorldState state = TestStores.buildStore(3, 3);
+		state.addNeighbor(0, 1, 0);
+		state.addNeighbor(0, 2, 0);
+		int slot = state.findBondSlot(1, 0);
+		assertTrue(state.removeNeighbor(0, 1));
+		assertEquals(WorldState.NONE, state.getBondMirror(slot));
+		// bond to 2 moved into the freed slot, its mirror follows it
+		int moved = state.findBondSlot(0, 2);
+		assertEquals(moved, state.getBondMirror(state.getBondMirror(moved)));
+		assertTrue(state.removeNeighbor(1, 0));
+		assertFalse(state.removeNeighbor(1, 0));
+		assertEquals(0, state.getBondCnt(1));
+		assertEquals(1, state.getBondCnt(0));
+	}
+
+	public void testActionCountsBothSides() {
+		WorldState state = TestStores.buildStore(2, 2);
+		state.addNeighbor(0, 1, 0);
+		state.addAtom(0, AtomTypeEnum.values()[0]);
+		assertTrue(state.tryTransform(1, 0));	// atom was not transformed by anybody yet
+		state.setAtomType(0, AtomTypeEnum.values()[0]);
+		assertTrue(state.tryTransform(0, 0));	// previous actor 1 is a neighbor
+		assertEquals(2, state.getBondActionCnt(state.findBondSlot(0, 1)));
+		assertEquals(2, state.getBondActionCnt(state.findBondSlot(1, 0)));
+	}
+
+	private void checkRandomBonds(int valence) {
+		Random rand = new Random(valence);
+		WorldState state = TestStores.buildStore(TRSF_COUNT, valence);
+		for(int step=0;step<STEPS;step++) {
+			int a = rand.nextInt(TRSF_COUNT);
+			int b = rand.nextInt(TRSF_COUNT);
+			if(a == b) {
+				continue;
+			}
+			if(state.hasNeighbor(a, b)) {
+				state.breakBond(a, b);
+			}else if(state.getBondCnt(a) < valence && state.getBondCnt(b) < valence) {
+				state.addNeighbor(a, b, step);
+			}
+			if(step % 100 == 0) {
+				assertMirrors(state);
+			}
+		}
+		assertMirrors(state);
+	}
+
+	private static void assertMirrors(WorldState state) {
+		for(int t=0;t<state.getTrsfCount();t++) {
+			for(int k=0;k<state.getBondCnt(t);k++) {
+				int slot = state.getBondSlot(t, k);
+				int neighbor = state.getBondNeighbor(slot);
+				int mirror = state.getBondMirror(slot);
+				assertEquals(state.findBondSlot(neighbor, t), mirror);
+				assertEquals(slot, state.getBondMirror(mirror));
+				assertEquals(state.getBondCreatedSeedCnt(slot), state.getBondCreatedSeedCnt(mirror));
+			}
+		}
+	}
+}
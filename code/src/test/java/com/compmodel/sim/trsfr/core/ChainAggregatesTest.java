@@ -0,0 +1,258 @@
+package com.compmodel.sim.trsfr.core;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import junit.framework.TestCase;
+
+/**
+ * Aggregates of chains from the chain index are the same as aggregates calculated by walking the bonds,
+ * after any sequence of bonds created and broken, actions of bonded pairs and new seeds.
+ * Along a scripted life of a chain the cached aggregates match strengths calculated from the action counts
+ * kept by the test, and steps that do not need a walk of the chain keep the cache valid.
+ */
+public class ChainAggregatesTest extends TestCase {
+	private static final int TRSF_COUNT = 100;
+	private static final int STEPS = 20000;
+	private static final double EPS = 1e-9;
+
+	public void testStrengthAggregates() {
+		Random rand = new Random(1);
+		WorldState state = TestStores.buildStore(TRSF_COUNT, 2);
+		int atom = state.addAtom(0, AtomTypeEnum.values()[0]);
+		long seedCnt = 1;
+		for(int step=0;step<STEPS;step++) {
+			int a = rand.nextInt(TRSF_COUNT);
+			int b = rand.nextInt(TRSF_COUNT);
+			int op = rand.nextInt(10);
+			if(op == 0) {
+				seedCnt++;
+			}else if(a == b) {
+				continue;
+			}else if(op < 5) {
+				// action of a after b, counted for the bond if they are bonded
+				state.tryTransform(b, atom);
+				state.tryTransform(a, atom);
+			}else if(state.hasNeighbor(a, b)) {
+				state.breakBond(a, b);
+			}else if(state.getBondCnt(a) < 2 && state.getBondCnt(b) < 2) {
+				state.addNeighbor(a, b, seedCnt);
+			}
+			int t = rand.nextInt(TRSF_COUNT);
+			assertStrengths(state, t, seedCnt);
+		}
+	}
+
+	public void testCachedAfterEachStep() {
+		long seedCnt = 10;
+		Script s = new Script(6);
+		s.add(0, 1, seedCnt);
+		s.check(0, seedCnt, true);
+		s.add(1, 2, seedCnt);
+		s.check(2, seedCnt, true);
+		// the weakest bond gets stronger, the min is found again
+		s.act(0);
+		s.act(1);
+		s.check(0, seedCnt, false);
+		// actions of a bond stronger than the weakest one only add to the sum
+		s.act(0);
+		s.act(1);
+		s.check(1, seedCnt, true);
+		s.act(2);
+		s.check(2, seedCnt, false);
+		// pulled links keep their bonds
+		SnakePull pull = new SnakePull();
+		int newCell = s.state.getLattice().cell(1, 0);
+		assertEquals(3, pull.load(s.state, 0, newCell, 1));
+		pull.commit(s.state, s.grid);
+		assertEquals(newCell, s.state.getTrsfCell(0));
+		s.check(2, seedCnt, true);
+		// extended, made circular, opened at a strong bond
+		s.add(2, 3, seedCnt);
+		s.add(3, 4, seedCnt);
+		s.check(4, seedCnt, true);
+		s.add(4, 0, seedCnt);
+		assertTrue(s.state.isChainCircular(0));
+		s.check(3, seedCnt, true);
+		s.remove(0, 1);
+		s.check(3, seedCnt, true);
+		// split, both parts are walked again
+		s.remove(2, 3);
+		s.check(1, seedCnt, false);
+		s.check(4, seedCnt, false);
+		// merge of two cached chains
+		s.add(2, 3, seedCnt);
+		s.check(0, seedCnt, true);
+		// strengths of older bonds are lower in the next seeds
+		seedCnt += 3;
+		s.act(2);
+		s.act(3);
+		s.check(1, seedCnt, false);
+		s.check(1, seedCnt, true);
+		// counts are reset before the next seed
+		s.resetAll();
+		s.check(2, seedCnt, false);
+	}
+
+	public void testValenceAbove2() {
+		WorldState state = TestStores.buildStore(TRSF_COUNT, 3);
+		state.addNeighbor(0, 1, 0);
+		try {
+			state.getChainStrengthSum(0, 0);
+			fail("strength sum for valence 3");
+		} catch (IllegalStateException e) {
+		}
+		try {
+			state.getChainStrengthMin(0, 0);
+			fail("strength min for valence 3");
+		} catch (IllegalStateException e) {
+		}
+	}
+
+	public void testGroupSizeWithoutChains() {
+		Random rand = new Random(2);
+		WorldState state = TestStores.buildStore(TRSF_COUNT, 3);
+		LinkTraversal traversal = new LinkTraversal();
+		for(int step=0;step<STEPS;step++) {
+			int a = rand.nextInt(TRSF_COUNT);
+			int b = rand.nextInt(TRSF_COUNT);
+			if(a != b && rand.nextInt(4) == 0) {
+				if(state.hasNeighbor(a, b)) {
+					state.breakBond(a, b);
+				}else if(state.getBondCnt(a) < 3 && state.getBondCnt(b) < 3) {
+					state.addNeighbor(a, b, 0);
+				}
+			}
+			int t = rand.nextInt(TRSF_COUNT);
+			int expected = state.getTransformer(t).getLinked(null).size();
+			assertEquals(expected, state.getGroupSize(t, traversal));
+			assertEquals(expected - 1, state.getTransformer(t).getLinkedCount(null));
+		}
+	}
+
+	/**
+	 * Store and grid of transformers on a line, with action counts and seeds of creation
+	 * of the bonds kept by the test
+	 */
+	private static class Script {
+		final WorldState state;
+		final CellIndex grid;
+		final int atom;
+		final Map<Set<Integer>, long[]> bonds = new HashMap<Set<Integer>, long[]>();	// action count, created seed
+		int lastActor = WorldState.NONE;
+
+		Script(int trsfCount) {
+			state = TestStores.buildStore(trsfCount, 2);
+			grid = new CellGrid(state.getLattice(), 0);
+			for(int t=0;t<trsfCount;t++) {
+				grid.set(state.getTrsfCell(t), t);
+			}
+			atom = state.addAtom(state.getLattice().cell(50, 50), AtomTypeEnum.values()[0]);
+		}
+
+		void add(int a, int b, long seedCnt) {
+			state.addNeighbor(a, b, seedCnt);
+			bonds.put(pair(a, b), new long[] {1, seedCnt});
+		}
+
+		void remove(int a, int b) {
+			state.breakBond(a, b);
+			bonds.remove(pair(a, b));
+		}
+
+		/**
+		 * Transformer acts on the atom, the bond with the previous actor is counted
+		 */
+		void act(int trsf) {
+			assertTrue(state.tryTransform(trsf, atom));
+			long[] bond = bonds.get(pair(trsf, lastActor));
+			if(bond != null) {
+				bond[0]++;
+			}
+			lastActor = trsf;
+		}
+
+		void resetAll() {
+			for(int t=0;t<state.getTrsfCount();t++) {
+				state.resetStatus(t);
+			}
+			for(long[] bond : bonds.values()) {
+				bond[0] = 1;
+			}
+		}
+
+		/**
+		 * @param cached whether the aggregates must be cached before the query
+		 */
+		void check(int t, long seedCnt, boolean cached) {
+			assertEquals(cached, state.chainIndex().isStrengthCached(t, seedCnt));
+			// bonds of the chain of t, found by the bonds of the script
+			Set<Integer> links = new HashSet<Integer>();
+			ArrayDeque<Integer> queue = new ArrayDeque<Integer>();
+			links.add(t);
+			queue.add(t);
+			double sum = 0.0;
+			double min = Double.MAX_VALUE;
+			while(!queue.isEmpty()) {
+				int cur = queue.poll();
+				for(Map.Entry<Set<Integer>, long[]> bond : bonds.entrySet()) {
+					if(!bond.getKey().contains(cur)) {
+						continue;
+					}
+					for(int other : bond.getKey()) {
+						if(other != cur && links.add(other)) {
+							queue.add(other);
+						}
+					}
+				}
+			}
+			for(Map.Entry<Set<Integer>, long[]> bond : bonds.entrySet()) {
+				if(links.containsAll(bond.getKey())) {
+					double strength = Bond.calcStrength(bond.getValue()[0], bond.getValue()[1], seedCnt);
+					sum += strength;
+					min = Math.min(min, strength);
+				}
+			}
+			assertEquals(sum, state.getChainStrengthSum(t, seedCnt), EPS);
+			assertEquals(min, state.getChainStrengthMin(t, seedCnt), EPS);
+			assertTrue(state.chainIndex().isStrengthCached(t, seedCnt));
+		}
+
+		private static Set<Integer> pair(int a, int b) {
+			Set<Integer> pair = new HashSet<Integer>();
+			pair.add(a);
+			pair.add(b);
+			return pair;
+		}
+	}
+
+	/**
+	 * Bonds of the chain of t, each once, strength of the pair is the same on both sides
+	 */
+	private static void assertStrengths(WorldState state, int t, long seedCnt) {
+		double sum = 0.0;
+		double min = Double.MAX_VALUE;
+		ArrayList<Transformer> links = state.getTransformer(t).getLinked(null);
+		for(Transformer link : links) {
+			for(int k=0;k<state.getBondCnt(link.getId());k++) {
+				int slot = state.getBondSlot(link.getId(), k);
+				if(state.getBondNeighbor(slot) > link.getId()) {
+					double strength = state.getBondStrength(slot, seedCnt);
+					assertEquals(strength, state.getBondStrength(state.getBondMirror(slot), seedCnt), 0.0);
+					sum += strength;
+					min = Math.min(min, strength);
+				}
+			}
+		}
+		if(links.size() == 1) {
+			sum = min = 0.0;
+		}
+		assertEquals(sum, state.getChainStrengthSum(t, seedCnt), EPS);
+		assertEquals(min, state.getChainStrengthMin(t, seedCnt), EPS);
+	}
+}
@@ -0,0 +1,171 @@
+package com.compmodel.sim.trsfr.core;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Collectors;
+
+import junit.framework.TestCase;
+
+/**
+ * One pass extraction gives the same chains in the same order as rescanning transformers for chain ends,
+ * statistics aggregated from the visitor are the same as statistics of the extracted chains.
+ */
+public class ChainAnalyticsTest extends TestCase {
+	private static final int TRSF_COUNT = 2000;
+	private static final int LARGE_TRSF_COUNT = 100000;
+	private static final long SEED_CNT = 50;
+
+	public void testSameChainsAsRescan() {
+		for(int seed=1;seed<=5;seed++) {
+			WorldState state = buildRandomBonds(TRSF_COUNT, seed);
+			ChainAnalytics analytics = new ChainAnalytics(state, SEED_CNT);
+			for(int minLength : new int[] {2, 3}) {
+				List<Chain> expected = extractByRescan(state, minLength);
+				List<Chain> actual = analytics.extractChains(minLength);
+				assertEquals(expected.size(), actual.size());
+				for(int i=0;i<expected.size();i++) {
+					assertSameChain("seed "+seed+", chain "+i, expected.get(i), actual.get(i));
+				}
+			}
+		}
+	}
+
+	public void testStreamingStats() {
+		for(int seed=1;seed<=5;seed++) {
+			WorldState state = buildRandomBonds(TRSF_COUNT, seed);
+			ChainAnalytics analytics = new ChainAnalytics(state, SEED_CNT);
+			String expected = analytics.buildWorldStatsRecord(analytics.extractChains(3)).toCsv();
+			assertEquals(expected, analytics.buildWorldStatsRecord(3).toCsv());
+		}
+	}
+
+	public void testLargeWorld() {
+		WorldState state = buildRandomBonds(LARGE_TRSF_COUNT, 7);
+		ChainAnalytics analytics = new ChainAnalytics(state, SEED_CNT);
+		int[] linkCnt = new int[1];
+		int chainCnt = analytics.visitChains(1, chain -> linkCnt[0] += chain.size());
+		int bondedCnt = 0;
+		for(int t=0;t<LARGE_TRSF_COUNT;t++) {
+			if(state.getBondCnt(t) > 0) {
+				bondedCnt++;
+			}
+		}
+		assertEquals(bondedCnt, linkCnt[0]);
+		assertTrue(chainCnt > 0);
+	}
+
+	public void testBranchedBonds() {
+		// valence 3: branches and circles through branching links are walked as separate chains
+		for(int seed=1;seed<=5;seed++) {
+			WorldState state = buildRandomBonds(TRSF_COUNT, seed, 3);
+			int[] visitCnt = new int[TRSF_COUNT];
+			new ChainAnalytics(state, SEED_CNT).visitChains(1, chain -> {
+				for(int i=0;i<chain.size();i++) {
+					visitCnt[chain.getTrsf(i)]++;
+				}
+			});
+			for(int t=0;t<TRSF_COUNT;t++) {
+				assertEquals(state.getBondCnt(t) > 0 ? 1 : 0, visitCnt[t]);
+			}
+		}
+	}
+
+	private static void assertSameChain(String message, Chain expected, Chain actual) {
+		assertEquals(message, expected.isCircular(), actual.isCircular());
+		assertEquals(message, expected.size(), actual.size());
+		for(int i=0;i<expected.size();i++) {
+			assertEquals(message, expected.getLinks().get(i).getId(), actual.getLinks().get(i).getId());
+			assertEquals(message, expected.getStrengths().get(i), actual.getStrengths().get(i));
+			assertEquals(message, expected.getAges().get(i), actual.getAges().get(i));
+		}
+	}
+
+	/**
+	 * Random paths and circles, bonds are created at different seeds and have different action counts
+	 */
+	private static WorldState buildRandomBonds(int trsfCount, long seed) {
+		return buildRandomBonds(trsfCount, seed, 2);
+	}
+
+	private static WorldState buildRandomBonds(int trsfCount, long seed, int valence) {
+		Random rand = new Random(seed);
+		WorldState state = new WorldState(new Lattice(1000, 2), valence, false);
+		for(int t=0;t<trsfCount;t++) {
+			state.addTransformer(t, AtomTypeEnum.values()[rand.nextInt(3)], AtomTypeEnum.values()[rand.nextInt(3)]);
+		}
+		for(int i=0;i<trsfCount;i++) {
+			int a = rand.nextInt(trsfCount);
+			int b = rand.nextInt(trsfCount);
+			if(a == b || state.getBondCnt(a) == valence || state.getBondCnt(b) == valence || state.hasNeighbor(a, b)) {
+				continue;
+			}
+			int createdSeedCnt = rand.nextInt((int)SEED_CNT);
+			state.addNeighbor(a, b, createdSeedCnt);
+			// one side only, so the direction of the walk matters
+			state.setBondActionCnt(state.findBondSlot(a, b), 1 + rand.nextInt(9 * (int)(SEED_CNT - createdSeedCnt)));
+		}
+		return state;
+	}
+
+	/**
+	 * Previous extraction: rescan remaining transformers for a chain end, non-circular chains first
+	 */
+	private static List<Chain> extractByRescan(WorldState state, int minLength) {
+		ArrayList<Chain> chains = new ArrayList<Chain>();
+		ArrayList<Transformer> tmpArr = new ArrayList<Transformer>();
+		for(int t=0;t<state.getTrsfCount();t++) {
+			tmpArr.add(state.getTransformer(t));
+		}
+		for(int bondCnt=1;bondCnt<=2;bondCnt++) {
+			while(true) {
+				Chain chain = null;
+				for(Transformer trsf: tmpArr) {
+					if(state.getBondCnt(trsf.getId()) == bondCnt) {
+						chain = buildChainFromTheEnd(state, trsf.getId());
+						if(chain.size() >= minLength) {
+							chains.add(chain);
+						}
+						break;
+					}
+				}
+				if(chain == null) {
+					break;
+				}
+				tmpArr.removeAll(chain.getLinks());
+			}
+		}
+		return chains.stream().sorted(Comparator.comparing(Chain::size).reversed()).collect(Collectors.toList());
+	}
+
+	private static Chain buildChainFromTheEnd(WorldState state, int endTrsf) {
+		Chain chain = new Chain();
+		int endSlot = state.getBondSlot(endTrsf, 0);
+		chain.addLink(state.getTransformer(endTrsf), state.getBondStrength(endSlot, SEED_CNT), SEED_CNT - state.getBondCreatedSeedCnt(endSlot));
+		int prevTrsf = endTrsf;
+		int curTrsf = state.getBondNeighbor(endSlot);
+		while(true) {
+			if(curTrsf == endTrsf) {
+				chain.setCircular(true);
+				break;
+			}
+			int curBondCnt = state.getBondCnt(curTrsf);
+			if(curBondCnt == 1) {
+				chain.addLink(state.getTransformer(curTrsf), chain.getStrengths().get(chain.size() - 1), chain.getAges().get(chain.size() - 1));
+				break;
+			}
+			for(int k=0;k<curBondCnt;k++) {
+				int slot = state.getBondSlot(curTrsf, k);
+				if(state.getBondNeighbor(slot) == prevTrsf) {
+					continue;
+				}
+				chain.addLink(state.getTransformer(curTrsf), state.getBondStrength(slot, SEED_CNT), SEED_CNT - state.getBondCreatedSeedCnt(slot));
+				prevTrsf = curTrsf;
+				curTrsf = state.getBondNeighbor(slot);
+				break;
+			}
+		}
+		return chain;
+	}
+}
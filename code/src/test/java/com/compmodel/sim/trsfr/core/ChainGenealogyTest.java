@@ -0,0 +1,216 @@
+package com.compmodel.sim.trsfr.core;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+/**
+ * Persistent ids of chains are shared by their links and never reused,
+ * events of the genealogy follow bonds created and broken, lifetimes and survival are counted from them.
+ */
+public class ChainGenealogyTest extends TestCase {
+	private static final int TRSF_COUNT = 200;
+	private static final int STEPS = 20000;
+
+	public void testEvents() {
+		WorldState state = TestStores.buildStore(6, 2);
+		state.setSeedCnt(1);
+		state.addNeighbor(0, 1, 1);
+		int uid = state.getChainUid(0);
+		state.addNeighbor(1, 2, 1);
+		state.addNeighbor(2, 3, 1);
+		state.addNeighbor(4, 5, 1);
+		int other = state.getChainUid(4);
+		assertEquals(uid, state.getChainUid(3));
+		assertFalse(uid == other);
+		state.setSeedCnt(3);
+		state.addNeighbor(3, 4, 3);	// the larger chain absorbs the smaller one
+		assertEquals(uid, state.getChainUid(5));
+		state.setSeedCnt(5);
+		state.breakBond(1, 2);	// 0-1 split off
+		int child = state.getChainUid(0);
+		assertFalse(child == uid || child == other);
+		assertEquals(uid, state.getChainUid(2));
+		state.setSeedCnt(9);
+		state.breakBond(0, 1);
+		assertEquals(WorldState.NONE, state.getChainUid(0));
+
+		ChainGenealogy genealogy = state.getChainGenealogy();
+		int[] types = {ChainGenealogy.BIRTH, ChainGenealogy.BIRTH, ChainGenealogy.MERGE, ChainGenealogy.SPLIT, ChainGenealogy.DEATH};
+		long[] seeds = {1, 1, 3, 5, 9};
+		assertEquals(types.length, genealogy.getEventCount());
+		for(int e=0;e<types.length;e++) {
+			assertEquals(types[e], genealogy.getEventType(e));
+			assertEquals(seeds[e], genealogy.getEventSeed(e));
+		}
+		assertEquals(other, genealogy.getEventOther(2));
+		assertEquals(uid, genealogy.getParent(child));
+		assertEquals(ChainGenealogy.NONE, genealogy.getParent(uid));
+		assertEquals(1, genealogy.getAbsorbed(uid).length);
+		assertEquals(other, genealogy.getAbsorbed(uid)[0]);
+		// absorbed at 3 after birth at 1, split off at 5 and died at 9
+		assertEquals(2, genealogy.getEndedCnt());
+		assertEquals(1, genealogy.getEndedCnt(2));
+		assertEquals(1, genealogy.getEndedCnt(4));
+		assertEquals(3.0, genealogy.getMeanLifetime(), 1e-12);
+		assertEquals(1, state.getChainBirth(2));
+	}
+
+	public void testRandomBonds() {
+		Random rand = new Random(3);
+		WorldState state = TestStores.buildStore(TRSF_COUNT, 2);
+		HashSet<Integer> usedUids = new HashSet<Integer>();
+		long seedCnt = 0;
+		for(int step=0;step<STEPS;step++) {
+			if(step % 100 == 0) {
+				state.setSeedCnt(++seedCnt);
+			}
+			int a = rand.nextInt(TRSF_COUNT);
+			int b = rand.nextInt(TRSF_COUNT);
+			if(a == b) {
+				continue;
+			}
+			HashSet<Integer> before = liveUids(state);
+			if(state.hasNeighbor(a, b)) {
+				state.breakBond(a, b);
+			}else if(state.getBondCnt(a) < 2 && state.getBondCnt(b) < 2) {
+				state.addNeighbor(a, b, seedCnt);
+			}
+			HashSet<Integer> after = liveUids(state);
+			for(int uid : after) {
+				// new ids are never the ones used before
+				assertTrue(before.contains(uid) || usedUids.add(uid));
+			}
+			usedUids.addAll(after);
+			ChainGenealogy genealogy = state.getChainGenealogy();
+			assertEquals(genealogy.getBirthCnt() + genealogy.getSplitCnt() - genealogy.getEndedCnt(), after.size());
+			assertEquals(genealogy.getMergeCnt() + genealogy.getDeathCnt(), genealogy.getEndedCnt());
+		}
+		double[] survival = state.getChainSurvival();
+		assertTrue(survival.length > 0);
+		for(int age=1;age<survival.length;age++) {
+			assertTrue(survival[age] <= survival[age - 1]);
+		}
+	}
+
+	public void testSurvival() {
+		ChainGenealogy genealogy = new ChainGenealogy(4);
+		// two chains end at lifetime 1 and 3, one is alive at age 2
+		genealogy.setSeedCnt(10);
+		int a = genealogy.born();
+		int b = genealogy.born();
+		genealogy.setSeedCnt(11);
+		genealogy.died(a, 10);
+		genealogy.setSeedCnt(13);
+		genealogy.merged(genealogy.born(), b, 10);
+		double[] survival = genealogy.getSurvival(new long[] {0, 0, 1});
+		assertEquals(4, survival.length);
+		assertEquals(1.0, survival[0], 1e-12);
+		assertEquals(2.0 / 3, survival[1], 1e-12);
+		assertEquals(2.0 / 3, survival[2], 1e-12);
+		assertEquals(0.0, survival[3], 1e-12);
+	}
+
+	public void testLineage() {
+		ChainGenealogy genealogy = new ChainGenealogy(128);
+		int root = genealogy.born();
+		int other = genealogy.born();
+		int[] expected = new int[20];
+		for(int i=0;i<expected.length;i++) {
+			genealogy.merged(other, genealogy.born(), 0);	// merges of another chain in between
+			expected[i] = genealogy.born();
+			genealogy.merged(root, expected[i], 0);
+		}
+		int child = genealogy.split(root);
+		int grandchild = genealogy.split(child);
+		assertTrue(Arrays.equals(expected, genealogy.getAbsorbed(root)));
+		assertEquals(expected.length, genealogy.getAbsorbed(other).length);
+		assertEquals(0, genealogy.getAbsorbed(child).length);
+		assertEquals(child, genealogy.getParent(grandchild));
+		assertEquals(root, genealogy.getParent(child));
+		assertEquals(ChainGenealogy.NONE, genealogy.getParent(root));
+	}
+
+	public void testRingBuffer() {
+		ChainGenealogy genealogy = new ChainGenealogy(4);
+		for(int i=0;i<10;i++) {
+			genealogy.setSeedCnt(i);
+			genealogy.born();
+		}
+		assertEquals(10, genealogy.getEventCount());
+		assertEquals(6, genealogy.getFirstEvent());
+		for(long e=6;e<10;e++) {
+			assertEquals(e, genealogy.getEventSeed(e));
+			assertEquals((int)e, genealogy.getEventChain(e));
+		}
+		try {
+			genealogy.getEventType(5);
+			fail("overwritten event is read");
+		}catch(IndexOutOfBoundsException e) {
+			// expected
+		}
+		assertEquals(10, genealogy.getBirthCnt());
+	}
+
+	public void testCopyAndSave() throws Exception {
+		WorldState state = TestStores.buildStore(10, 2);
+		state.setSeedCnt(2);
+		state.addNeighbor(0, 1, 2);
+		state.addNeighbor(1, 2, 2);
+		state.addNeighbor(2, 3, 2);
+		WorldState copy = state.copyBonds();
+		state.breakBond(1, 2);
+		assertEquals(1, copy.getChainGenealogy().getEventCount());
+		assertEquals(2, state.getChainGenealogy().getEventCount());
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		ObjectOutputStream out = new ObjectOutputStream(bytes);
+		out.writeObject(state);
+		out.close();
+		WorldState loaded = (WorldState)new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray())).readObject();
+		assertEquals(state.getChainUid(1), loaded.getChainUid(1));
+		assertEquals(2, loaded.getChainGenealogy().getEventCount());
+		assertEquals(2, loaded.getChainGenealogy().getSeedCnt());
+	}
+
+	public void testValenceAbove2() {
+		WorldState state = TestStores.buildStore(1, 3);
+		try {
+			state.getChainUid(0);
+			fail("bonded groups of valence 3 have no genealogy");
+		}catch(IllegalStateException e) {
+			// expected
+		}
+		try {
+			state.getChainGenealogy();
+			fail("bonded groups of valence 3 have no genealogy");
+		}catch(IllegalStateException e) {
+			// expected
+		}
+	}
+
+	/**
+	 * Persistent ids of the chains, links of a chain share its id
+	 */
+	private static HashSet<Integer> liveUids(WorldState state) {
+		HashMap<Integer, Integer> uidByChain = new HashMap<Integer, Integer>();
+		for(int t=0;t<state.getTrsfCount();t++) {
+			int c = state.getChainId(t);
+			if(c != WorldState.NONE) {
+				Integer uid = uidByChain.putIfAbsent(c, state.getChainUid(t));
+				if(uid != null) {
+					assertEquals(uid.intValue(), state.getChainUid(t));
+				}
+			}
+		}
+		HashSet<Integer> uids = new HashSet<Integer>(uidByChain.values());
+		assertEquals(uidByChain.size(), uids.size());
+		return uids;
+	}
+}
@@ -0,0 +1,200 @@
+package com.compmodel.sim.trsfr.core;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+/**
+ * Translation of a linked group gives the same grid, with the same order of free cells,
+ * as moving the links one by one, the leading ones first. Grid accesses per link do not grow with the group.
+ */
+public class ChainTranslationTest extends TestCase {
+	private static final int SIZE = 1000;
+	private static final int ROW = 100;	// links per row of the snake
+	private static final int[] LENGTHS = {1000, 4000, 16000};
+	private static final double MAX_GROWTH = 1.1;	// of grid accesses per link from the shortest to the longest group
+
+	public void testSameGridAsSequentialMoves() {
+		int[][] moves = {{1, 0}, {-1, 0}, {0, 1}, {1, 1}, {-1, -1}};
+		for(int[] move : moves) {
+			Fixture f = new Fixture(2000, 10, 10);
+			CellIndex expected = f.grid.copy();
+			int[] cells = moveSequentially(f, expected, move);
+			int origCell = f.state.getTrsfCell(0);
+			int newCell = f.lattice.cell(f.lattice.x(origCell) + move[0], f.lattice.y(origCell) + move[1]);
+			assertEquals(2000, f.ctx.translation.load(f.state, f.ctx.traversal, 0));
+			assertFalse(f.ctx.translation.isForbidden(f.ctx, f.state, f.grid, 2, origCell, newCell));
+			f.ctx.translation.commit(f.state, f.grid);
+			for(int t=0;t<f.state.getTrsfCount();t++) {
+				assertEquals(cells[t], f.state.getTrsfCell(t));
+			}
+			for(int cell=0;cell<f.lattice.getCellCount();cell++) {
+				assertEquals(expected.get(cell), f.grid.get(cell));
+			}
+			// free cells are in the same order
+			assertEquals(expected.getFreeCount(), f.grid.getFreeCount());
+			Random rand1 = new Random(1);
+			Random rand2 = new Random(1);
+			for(int i=0;i<1000;i++) {
+				assertEquals(expected.randomFree(rand1), f.grid.randomFree(rand2));
+			}
+		}
+	}
+
+	public void testForbidden() {
+		Fixture f = new Fixture(300, 10, 10);
+		int origCell = f.state.getTrsfCell(0);
+		int right = f.lattice.cell(f.lattice.x(origCell) + 1, f.lattice.y(origCell));
+		int left = f.lattice.cell(f.lattice.x(origCell) - 1, f.lattice.y(origCell));
+		f.ctx.translation.load(f.state, f.ctx.traversal, 0);
+		assertFalse(f.ctx.translation.isForbidden(f.ctx, f.state, f.grid, 2, origCell, right));
+		// transformer with full bonds next to the cell ahead of the first row
+		int a = f.addTransformer(10 + ROW + 1, 12);
+		int b = f.addTransformer(10 + ROW + 2, 12);
+		int c = f.addTransformer(10 + ROW + 2, 13);
+		f.state.addNeighbor(a, b, 0);
+		f.state.addNeighbor(a, c, 0);
+		f.ctx.translation.load(f.state, f.ctx.traversal, 0);
+		assertTrue(f.ctx.translation.isForbidden(f.ctx, f.state, f.grid, 2, origCell, right));
+		assertFalse(f.ctx.translation.isForbidden(f.ctx, f.state, f.grid, 2, origCell, left));
+		// standalone transformer on the way
+		f.addTransformer(9, 10);
+		f.ctx.translation.load(f.state, f.ctx.traversal, 0);
+		assertTrue(f.ctx.translation.isForbidden(f.ctx, f.state, f.grid, 2, origCell, left));
+		// outside of space
+		Fixture edge = new Fixture(300, 0, 0);
+		edge.ctx.translation.load(edge.state, edge.ctx.traversal, 0);
+		assertTrue(edge.ctx.translation.isForbidden(edge.ctx, edge.state, edge.grid, 2, edge.lattice.cell(0, 1), edge.lattice.cell(0, 0)));
+	}
+
+	public void testLinearCost() {
+		double[] accessesPerLink = new double[LENGTHS.length];
+		for(int i=0;i<LENGTHS.length;i++) {
+			Fixture f = new Fixture(LENGTHS[i], 10, 10);
+			CountingGrid grid = new CountingGrid(f.grid);
+			for(int step=0;step<10;step++) {
+				int origCell = f.state.getTrsfCell(0);
+				int newCell = f.lattice.cell(f.lattice.x(origCell) + 1, f.lattice.y(origCell));
+				f.ctx.translation.load(f.state, f.ctx.traversal, 0);
+				assertFalse(f.ctx.translation.isForbidden(f.ctx, f.state, grid, 2, origCell, newCell));
+				f.ctx.translation.commit(f.state, grid);
+			}
+			accessesPerLink[i] = grid.accessCnt / (10.0 * LENGTHS[i]);
+		}
+		assertTrue("grid accesses per link grow with the group: "+Arrays.toString(accessesPerLink),
+				accessesPerLink[LENGTHS.length - 1] < MAX_GROWTH * accessesPerLink[0]);
+	}
+
+	/**
+	 * Move the links one by one, sorted by projection on the move, the leading ones first
+	 *
+	 * @return new cells of the transformers
+	 */
+	private static int[] moveSequentially(Fixture f, CellIndex grid, int[] move) {
+		int trsfCount = f.state.getTrsfCount();
+		int origCell = f.state.getTrsfCell(0);
+		int newCell = f.lattice.cell(f.lattice.x(origCell) + move[0], f.lattice.y(origCell) + move[1]);
+		long[] order = new long[trsfCount];
+		for(int t=0;t<trsfCount;t++) {
+			order[t] = ((long)-f.lattice.projection(f.state.getTrsfCell(t), origCell, newCell) << 32) | t;
+		}
+		Arrays.sort(order);
+		int[] cells = new int[trsfCount];
+		for(long o : order) {
+			int t = (int)o;
+			cells[t] = f.lattice.translate(f.state.getTrsfCell(t), origCell, newCell);
+			grid.move(f.state.getTrsfCell(t), cells[t]);
+		}
+		return cells;
+	}
+
+	/**
+	 * Grid that counts reads and writes of cells
+	 */
+	private static class CountingGrid implements CellIndex {
+		private static final long serialVersionUID = 1L;
+		final CellIndex grid;
+		long accessCnt;
+
+		CountingGrid(CellIndex grid) {
+			this.grid = grid;
+		}
+
+		@Override
+		public int get(int cell) {
+			accessCnt++;
+			return grid.get(cell);
+		}
+
+		@Override
+		public void set(int cell, int value) {
+			accessCnt++;
+			grid.set(cell, value);
+		}
+
+		@Override
+		public void clear() {
+			grid.clear();
+		}
+
+		@Override
+		public void move(int from, int to) {
+			accessCnt++;
+			grid.move(from, to);
+		}
+
+		@Override
+		public int randomFree(Random rand) {
+			return grid.randomFree(rand);
+		}
+
+		@Override
+		public int getFreeCount() {
+			return grid.getFreeCount();
+		}
+
+		@Override
+		public CellIndex copy() {
+			return grid.copy();
+		}
+
+		@Override
+		public Lattice getLattice() {
+			return grid.getLattice();
+		}
+	}
+
+	/**
+	 * Snake of bonded transformers: rows of ROW links two cells apart, joined at alternate ends
+	 */
+	private static class Fixture {
+		final Lattice lattice = new Lattice(SIZE, 2);
+		final WorldState state = new WorldState(lattice, 2, false);
+		final CellIndex grid = new CellGrid(lattice, 0);
+		final TurnContext ctx = new TurnContext(new RingStencil(2, 1), lattice, 2, 1, new StreamRandom(1));
+
+		Fixture(int length, int x0, int y0) {
+			for(int t=0;t<length;t++) {
+				int row = t / (ROW + 1);
+				int k = t % (ROW + 1);
+				boolean forward = row % 2 == 0;
+				if(k < ROW) {
+					addTransformer(forward ? x0 + k : x0 + ROW - 1 - k, y0 + 2 * row);
+				}else {
+					addTransformer(forward ? x0 + ROW - 1 : x0, y0 + 2 * row + 1);	// joint to the next row
+				}
+				if(t > 0) {
+					state.addNeighbor(t - 1, t, 0);
+				}
+			}
+		}
+
+		int addTransformer(int x, int y) {
+			int cell = lattice.cell(x, y);
+			int t = state.addTransformer(cell, AtomTypeEnum.values()[0], AtomTypeEnum.values()[0]);
+			grid.set(cell, t);
+			return t;
+		}
+	}
+}
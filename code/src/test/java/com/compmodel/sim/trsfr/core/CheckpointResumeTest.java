@@ -0,0 +1,84 @@
+package com.compmodel.sim.trsfr.core;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.ObjectInputStream;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+/**
+ * A world resumed from the checkpoint written in the middle of a run
+ * ends in the same state as the uninterrupted run, world statistics included,
+ * with serial and parallel turns.
+ */
+public class CheckpointResumeTest extends TestCase {
+	private static final int CHECKPOINT_SEED = 20;
+	private static final int SEEDS = 40;
+	private File dir;
+
+	@Override
+	protected void setUp() throws Exception {
+		dir = Files.createTempDirectory("resume").toFile();
+	}
+
+	@Override
+	protected void tearDown() {
+		// file names are joined with a backslash, on other systems the files are next to the dir
+		for(File file : dir.getParentFile().listFiles((parent, name) -> name.startsWith(dir.getName()))) {
+			file.delete();
+		}
+	}
+
+	public void testSerial() throws Exception {
+		checkResume(1);
+	}
+
+	public void testParallel() throws Exception {
+		checkResume(4);
+	}
+
+	private void checkResume(int threads) throws Exception {
+		World world = new World();
+		world.setSpace(60, 2);
+		world.setTrsfrNumber(300);
+		world.setAtomsNumber(900);
+		world.setRunSeed(5);
+		world.setTurnThreads(threads);
+		world.setTurnTileSize(10);
+		world.setFileDir(dir.getPath());
+		world.setMaxFilesCnt(Integer.MAX_VALUE);
+		world.setMaxSeedCnt(SEEDS);
+		world.setSaveShotPeriod(1000);
+		world.setSaveSnapShotPeriod(CHECKPOINT_SEED);
+		world.setWorldAnaliticsPeriod(1);
+		world.setChainAnaliticsPeriod(1000);
+		world.seedTransformers();
+		world.run();
+		assertEquals(SEEDS, world.getSeedCnt());
+
+		World resumed;
+		String fileName = dir.getPath()+"\\"+"world_snapshot_"+String.format("%07d", CHECKPOINT_SEED)+".trsf";
+		try(ObjectInputStream in = new ObjectInputStream(new FileInputStream(fileName))) {
+			resumed = (World)in.readObject();
+		}
+		assertEquals(CHECKPOINT_SEED, resumed.getSeedCnt());
+		assertEquals(threads, resumed.getTurnThreads());
+		resumed.run();
+		assertEquals(SEEDS, resumed.getSeedCnt());
+		assertTrue(Arrays.equals(TestStores.fingerprint(world.getState()), TestStores.fingerprint(resumed.getState())));
+		assertEquals(SEEDS, stats(world).size());
+		assertEquals(stats(world), stats(resumed));
+	}
+
+	private static List<String> stats(World world) {
+		List<String> lines = new ArrayList<String>();
+		for(WorldStatsSummary stats : world.getWorldStats()) {
+			lines.add(stats.toCsv());
+		}
+		return lines;
+	}
+}
@@ -0,0 +1,91 @@
+package com.compmodel.sim.trsfr.core;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+/**
+ * Only the latest checkpoints are kept, a checkpoint file is complete or left as it was,
+ * temporary files are renamed to checkpoints.
+ */
+public class CheckpointWriterTest extends TestCase {
+	private File dir;
+	private final List<String> done = Collections.synchronizedList(new ArrayList<String>());
+	private final CheckpointWriter.Listener listener = (fileName, seedCnt, error) ->
+		done.add(new File(fileName).getName()+":"+seedCnt+":"+(error == null ? "ok" : "failed"));
+
+	@Override
+	protected void setUp() throws Exception {
+		dir = Files.createTempDirectory("checkpoint").toFile();
+	}
+
+	@Override
+	protected void tearDown() {
+		for(File file : dir.listFiles()) {
+			file.delete();
+		}
+		dir.delete();
+	}
+
+	public void testKeepLatest() throws Exception {
+		CheckpointWriter writer = new CheckpointWriter(2, 2, listener);
+		for(int i=0;i<5;i++) {
+			writer.submit(new int[] {i}, fileName(i), i);
+		}
+		writer.shutdown();
+		assertEquals(Arrays.asList("cp3", "cp4"), fileNames());
+		assertEquals(3, ((int[])read(fileName(3)))[0]);
+		assertEquals(4, ((int[])read(fileName(4)))[0]);
+		assertEquals(Arrays.asList("cp0:0:ok", "cp1:1:ok", "cp2:2:ok", "cp3:3:ok", "cp4:4:ok"), done);
+	}
+
+	public void testKeepAll() throws Exception {
+		CheckpointWriter writer = new CheckpointWriter(1, 0, null);
+		for(int i=0;i<5;i++) {
+			writer.submit(new int[] {i}, fileName(i), i);
+		}
+		writer.shutdown();
+		assertEquals(Arrays.asList("cp0", "cp1", "cp2", "cp3", "cp4"), fileNames());
+	}
+
+	public void testFailedWriteKeepsCheckpoint() throws Exception {
+		CheckpointWriter writer = new CheckpointWriter(1, 0, listener);
+		writer.submit(new int[] {1}, fileName(0), 1);
+		// the copy fails to serialize half way
+		writer.submit(new ArrayList<Object>(Arrays.asList(new int[] {2}, new Object())), fileName(0), 2);
+		writer.shutdown();
+		assertEquals(1, ((int[])read(fileName(0)))[0]);
+		assertEquals(Arrays.asList("cp0:1:ok", "cp0:2:failed"), done);
+	}
+
+	private String fileName(int i) {
+		return new File(dir, "cp"+i).getPath();
+	}
+
+	/**
+	 * @return names of checkpoint files, temporary files excluded
+	 */
+	private List<String> fileNames() {
+		List<String> names = new ArrayList<String>();
+		for(String name : dir.list()) {
+			assertFalse("temporary file left: "+name, name.endsWith(".tmp"));
+			names.add(name);
+		}
+		Collections.sort(names);
+		return names;
+	}
+
+	private static Object read(String fileName) throws IOException, ClassNotFoundException {
+		try(ObjectInputStream in = new ObjectInputStream(new FileInputStream(fileName))) {
+			return in.readObject();
+		}
+	}
+}
@@ -0,0 +1,115 @@
+package com.compmodel.sim.trsfr.core;
+
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+import junit.framework.TestCase;
+
+/**
+ * Sparse grid holds the same content as the dense one after the same operations,
+ * chunks are freed when they become empty.
+ */
+public class ChunkedGridTest extends TestCase {
+	private static final int OPERATIONS = 20000;
+
+	public void testChunkFreedWhenEmpty() {
+		Lattice lattice = new Lattice(32, 2);
+		ChunkedGrid grid = new ChunkedGrid(lattice);
+		assertEquals(0, grid.getChunkCount());
+		grid.set(lattice.cell(1, 1), 5);
+		grid.set(lattice.cell(2, 3), 6);
+		assertEquals(1, grid.getChunkCount());
+		grid.move(lattice.cell(1, 1), lattice.cell(7, 7));	// within the chunk
+		assertEquals(1, grid.getChunkCount());
+		grid.set(lattice.cell(2, 3), CellIndex.NONE);
+		assertEquals(1, grid.getChunkCount());
+		grid.move(lattice.cell(7, 7), lattice.cell(8, 7));	// to the next chunk, the old one is empty
+		assertEquals(1, grid.getChunkCount());
+		assertEquals(5, grid.get(lattice.cell(8, 7)));
+		assertEquals(CellIndex.NONE, grid.get(lattice.cell(7, 7)));
+		grid.set(lattice.cell(8, 7), CellIndex.NONE);
+		assertEquals(0, grid.getChunkCount());
+		assertEquals(lattice.getCellCount(), grid.getFreeCount());
+		grid.set(lattice.cell(20, 20), CellIndex.NONE);	// clearing an empty cell allocates nothing
+		assertEquals(0, grid.getChunkCount());
+	}
+
+	public void testSameAsCellGridPlane() {
+		checkSameAsCellGrid(new Lattice(40, 2));
+	}
+
+	public void testSameAsCellGridCube() {
+		checkSameAsCellGrid(new Lattice(13, 3));	// last chunks are partial
+	}
+
+	/**
+	 * Random sets, clears, moves and random placements, until the space is full and emptied again
+	 */
+	private static void checkSameAsCellGrid(Lattice lattice) {
+		Random rand = new Random(lattice.getCellCount());
+		CellGrid dense = new CellGrid(lattice, 0);
+		ChunkedGrid sparse = new ChunkedGrid(lattice);
+		int cellCount = lattice.getCellCount();
+		for(int i=0;i<OPERATIONS;i++) {
+			int cell = lattice.randomCell(rand);
+			int op = rand.nextInt(4);
+			// fill the space in the first half and empty it in the second one
+			boolean filling = i < OPERATIONS / 2;
+			if(op == 0 || (op == 1 && filling)) {
+				int free = sparse.randomFree(rand);
+				int denseFree = dense.randomFree(rand);
+				if(dense.getFreeCount() == 0) {
+					assertEquals(CellIndex.NONE, free);
+					assertEquals(CellIndex.NONE, denseFree);
+					continue;
+				}
+				assertEquals(CellIndex.NONE, sparse.get(free));
+				assertEquals(CellIndex.NONE, dense.get(free));
+				assertEquals(CellIndex.NONE, dense.get(denseFree));
+				sparse.set(free, i);
+				dense.set(free, i);
+			}else if(op == 1) {
+				sparse.set(cell, CellIndex.NONE);
+				dense.set(cell, CellIndex.NONE);
+			}else if(op == 2) {
+				int value = filling ? i : CellIndex.NONE;
+				sparse.set(cell, value);
+				dense.set(cell, value);
+			}else if(dense.get(cell) != CellIndex.NONE && dense.getFreeCount() > 0) {
+				int to = dense.randomFree(rand);
+				sparse.move(cell, to);
+				dense.move(cell, to);
+			}
+			assertEquals(dense.getFreeCount(), sparse.getFreeCount());
+			if(i % 1000 == 0 || dense.getFreeCount() == 0) {
+				checkSame(dense, sparse);
+			}
+		}
+		checkSame(dense, sparse);
+		for(int cell=0;cell<cellCount;cell++) {
+			sparse.set(cell, CellIndex.NONE);
+		}
+		assertEquals(0, sparse.getChunkCount());
+		assertEquals(cellCount, sparse.getFreeCount());
+	}
+
+	/**
+	 * Same values in every cell, chunks are allocated for occupied cells only
+	 */
+	private static void checkSame(CellGrid dense, ChunkedGrid sparse) {
+		Lattice lattice = dense.getLattice();
+		Set<String> occupiedChunks = new HashSet<String>();
+		for(int cell=0;cell<lattice.getCellCount();cell++) {
+			assertEquals("cell: "+lattice.toString(cell), dense.get(cell), sparse.get(cell));
+			if(dense.get(cell) != CellIndex.NONE) {
+				StringBuilder chunk = new StringBuilder();
+				for(int axis=0;axis<lattice.getDim();axis++) {
+					chunk.append(lattice.coord(cell, axis) / ChunkedGrid.CHUNK_SIZE).append(',');
+				}
+				occupiedChunks.add(chunk.toString());
+			}
+		}
+		assertEquals(occupiedChunks.size(), sparse.getChunkCount());
+	}
+}
@@ -0,0 +1,119 @@
+package com.compmodel.sim.trsfr.core;
+
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+/**
+ * Array and position map of free cells stay consistent across occupy, release and move,
+ * moves that are not from an occupied to a free cell included.
+ * A copy gives the same random cells as the original.
+ */
+public class FreeCellSetTest extends TestCase {
+	private static final int CELLS = 500;
+	private static final int OPERATIONS = 20000;
+
+	public void testInvariants() {
+		Random rand = new Random(11);
+		FreeCellSet set = new FreeCellSet(CELLS);
+		boolean[] occupied = new boolean[CELLS];
+		checkInvariants(set, occupied);
+		for(int i=0;i<OPERATIONS;i++) {
+			int cell = rand.nextInt(CELLS);
+			switch(rand.nextInt(4)) {
+			case 0:
+				set.occupy(cell);	// occupied cells are occupied again as well
+				occupied[cell] = true;
+				break;
+			case 1:
+				set.release(cell);
+				occupied[cell] = false;
+				break;
+			case 2:
+				int to = set.random(rand);
+				if(occupied[cell] && to != FreeCellSet.NONE) {
+					set.move(cell, to);
+					occupied[cell] = false;
+					occupied[to] = true;
+				}
+				break;
+			default:
+				// from a free cell or to an occupied cell
+				int other = rand.nextInt(CELLS);
+				if(cell != other && (!occupied[cell] || occupied[other])) {
+					set.move(cell, other);
+					occupied[cell] = false;
+					occupied[other] = true;
+				}
+			}
+			checkInvariants(set, occupied);
+		}
+	}
+
+	public void testGridMove() {
+		Random rand = new Random(12);
+		Lattice lattice = new Lattice(20, 2);
+		CellGrid grid = new CellGrid(lattice, 4);
+		boolean[] occupied = new boolean[lattice.getCellCount()];
+		for(int i=0;i<lattice.getCellCount()/2;i++) {
+			int cell = grid.randomFree(rand);
+			grid.set(cell, i);
+			occupied[cell] = true;
+		}
+		for(int i=0;i<OPERATIONS;i++) {
+			int from = lattice.randomCell(rand);
+			if(!occupied[from]) {
+				continue;
+			}
+			int to = grid.randomFree(rand);
+			int value = grid.get(from);
+			grid.move(from, to);
+			occupied[from] = false;
+			occupied[to] = true;
+			assertEquals(value, grid.get(to));
+			assertEquals(CellIndex.NONE, grid.get(from));
+			checkInvariants(grid.getFreeCells(), occupied);
+		}
+	}
+
+	public void testCopyRandom() {
+		Random rand = new Random(13);
+		FreeCellSet set = new FreeCellSet(CELLS);
+		for(int i=0;i<CELLS*3;i++) {
+			int cell = rand.nextInt(CELLS);
+			if(set.isFree(cell)) {
+				set.occupy(cell);
+			}else {
+				set.release(cell);
+			}
+		}
+		FreeCellSet copy = set.copy();
+		Random rand1 = new Random(14);
+		Random rand2 = new Random(14);
+		for(int i=0;i<1000;i++) {
+			assertEquals(set.random(rand1), copy.random(rand2));
+		}
+		// the copy is independent
+		int cell = copy.random(rand2);
+		copy.occupy(cell);
+		assertTrue(set.isFree(cell));
+		assertEquals(set.size() - 1, copy.size());
+	}
+
+	private static void checkInvariants(FreeCellSet set, boolean[] occupied) {
+		int free = 0;
+		for(int cell=0;cell<occupied.length;cell++) {
+			if(occupied[cell]) {
+				assertEquals("cell: "+cell, FreeCellSet.NONE, set.indexOf(cell));
+				assertFalse(set.isFree(cell));
+			}else {
+				free++;
+				assertTrue("cell: "+cell, set.indexOf(cell) >= 0 && set.indexOf(cell) < set.size());
+			}
+		}
+		assertEquals(free, set.size());
+		for(int i=0;i<set.size();i++) {
+			assertEquals("index: "+i, i, set.indexOf(set.cellAt(i)));
+		}
+	}
+}
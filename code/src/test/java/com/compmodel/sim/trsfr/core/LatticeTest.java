@@ -0,0 +1,75 @@
+package com.compmodel.sim.trsfr.core;
+
+import java.io.File;
+import java.nio.file.Files;
+
+import junit.framework.TestCase;
+
+/**
+ * Cells of 1-D, 2-D and 3-D spaces match their coordinates, a world in 1-D space runs.
+ */
+public class LatticeTest extends TestCase {
+
+	public void testLine() {
+		Lattice lattice = new Lattice(50, 1);
+		for(int x=0;x<50;x++) {
+			int cell = lattice.cell(x, 0);
+			assertEquals(x, cell);
+			assertEquals(x, lattice.x(cell));
+			assertEquals(0, lattice.y(cell));
+			assertEquals("["+x+"]", lattice.toString(cell));
+		}
+		assertEquals(7, lattice.distance(3, 10));
+		assertEquals(Lattice.NONE, lattice.translate(45, 0, 10));
+	}
+
+	public void testPlane() {
+		checkCells(new Lattice(20, 2));
+	}
+
+	public void testCube() {
+		checkCells(new Lattice(10, 3));
+	}
+
+	public void testLineWorld() throws Exception {
+		World world = new World();
+		world.setSpace(400, 1, false);
+		world.setTrsfrNumber(60);
+		world.setAtomsNumber(100);
+		world.setRunSeed(3);
+		File dir = Files.createTempDirectory("line").toFile();
+		world.setFileDir(dir.getPath());
+		world.setMaxFilesCnt(Integer.MAX_VALUE);
+		world.setMaxSeedCnt(20);
+		world.setSaveShotPeriod(1000);
+		world.setSaveSnapShotPeriod(1000);
+		world.setWorldAnaliticsPeriod(1000);
+		world.setChainAnaliticsPeriod(1000);
+		world.seedTransformers();
+		world.run();
+		// file names are joined with a backslash, on other systems the files are next to the dir
+		for(File file : dir.getParentFile().listFiles((parent, name) -> name.startsWith(dir.getName()))) {
+			file.delete();
+		}
+		WorldState state = world.getState();
+		for(int t=0;t<state.getTrsfCount();t++) {
+			int cell = state.getTrsfCell(t);
+			assertTrue(cell >= 0 && cell < 400);
+			assertEquals(0, world.getLattice().y(cell));
+		}
+	}
+
+	private static void checkCells(Lattice lattice) {
+		int size = lattice.getSize();
+		for(int x=0;x<size;x++) {
+			for(int y=0;y<size;y++) {
+				int cell = lattice.cell(x, y);
+				assertEquals(x, lattice.x(cell));
+				assertEquals(y, lattice.y(cell));
+				for(int axis=2;axis<lattice.getDim();axis++) {
+					assertEquals(0, lattice.coord(cell, axis));
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,138 @@
+package com.compmodel.sim.trsfr.core;
+
+import java.util.ArrayList;
+
+import junit.framework.TestCase;
+
+/**
+ * Stress test of traversals on very long chains: they run on a thread with a small stack,
+ * where a recursion per link would overflow.
+ * Chains with valence 2 are walked with the chain index, with valence 3 by the stamped depth-first search.
+ * Bonds of each link are read at most once per bond in a traversal, so it takes O(links).
+ */
+public class LinkTraversalTest extends TestCase {
+	private static final int[] LENGTHS = {10000, 30000, 100000};
+	private static final long SMALL_STACK = 256 * 1024;
+
+	public void testLongChainsWithIndex() throws Throwable {
+		runOnSmallStack(() -> checkChains(2));
+	}
+
+	public void testLongChainsWithoutIndex() throws Throwable {
+		runOnSmallStack(() -> checkChains(3));
+	}
+
+	public void testTree() {
+		// valence 3: root with two branches, depth-first order follows the bonds of the root
+		WorldState state = new WorldState(new Lattice(10, 2), 3, false);
+		for(int t=0;t<7;t++) {
+			state.addTransformer(t, AtomTypeEnum.values()[0], AtomTypeEnum.values()[0]);
+		}
+		state.addNeighbor(0, 1, 0);
+		state.addNeighbor(1, 2, 0);
+		state.addNeighbor(0, 3, 0);
+		state.addNeighbor(3, 4, 0);
+		state.addNeighbor(3, 5, 0);
+		state.addNeighbor(5, 0, 0);	// circle 0-3-5
+		ArrayList<Transformer> links = state.getTransformer(3).getLinked(null);
+		int[] expected = {3, 0, 1, 2, 5, 4};
+		assertEquals(expected.length, links.size());
+		for(int i=0;i<expected.length;i++) {
+			assertEquals(expected[i], links.get(i).getId());
+		}
+		assertEquals(5, state.getTransformer(3).getLinkedCount(null));
+		assertEquals(0, state.getTransformer(6).getLinkedCount(null));
+		// transformers already visited are not passed through
+		ArrayList<Transformer> visited = new ArrayList<Transformer>();
+		visited.add(state.getTransformer(1));
+		assertEquals(3, state.getTransformer(0).getLinkedCount(visited));	// 3, 4, 5
+	}
+
+	private void checkChains(int valence) {
+		for(int length : LENGTHS) {
+			CountingState state = buildChain(length, valence);
+			int middle = length / 2;
+			state.startCounting();
+			ArrayList<Transformer> links = state.getTransformer(middle).getLinked(null);
+			state.checkLinear();
+			state.startCounting();
+			assertEquals(length - 1, state.getTransformer(middle).getLinkedCount(null));
+			state.checkLinear();
+			assertEquals(length, links.size());
+			assertEquals(length - 1, state.getTransformer(0).getLinkedCount(null));
+			// from the middle towards the first bond, then the other way
+			assertEquals(middle, links.get(0).getId());
+			assertEquals(middle - 1, links.get(1).getId());
+			assertEquals(0, links.get(middle).getId());
+			assertEquals(middle + 1, links.get(middle + 1).getId());
+			assertEquals(length - 1, links.get(length - 1).getId());
+		}
+	}
+
+	/**
+	 * Chain 0-1-2-...-(length-1), bond to the previous link is the first one
+	 */
+	private static CountingState buildChain(int length, int valence) {
+		CountingState state = new CountingState(new Lattice(1000, 2), valence);
+		for(int t=0;t<length;t++) {
+			state.addTransformer(t, AtomTypeEnum.values()[0], AtomTypeEnum.values()[0]);
+		}
+		for(int t=1;t<length;t++) {
+			state.addNeighbor(t, t - 1, 0);
+		}
+		return state;
+	}
+
+	/**
+	 * State that counts reads of the bonds of each transformer
+	 */
+	private static class CountingState extends WorldState {
+		private static final long serialVersionUID = 1L;
+		private int[] bondReads;
+
+		CountingState(Lattice lattice, int valence) {
+			super(lattice, valence, false);
+		}
+
+		void startCounting() {
+			bondReads = new int[getTrsfCount()];
+		}
+
+		@Override
+		public int getBondSlot(int trsf, int k) {
+			if(bondReads != null) {
+				bondReads[trsf]++;
+			}
+			return super.getBondSlot(trsf, k);
+		}
+
+		/**
+		 * Each bond of each transformer is read at most once since counting started
+		 */
+		void checkLinear() {
+			long total = 0;
+			for(int t=0;t<bondReads.length;t++) {
+				assertTrue("bonds of "+t+" read "+bondReads[t]+" times", bondReads[t] <= getBondCnt(t));
+				total += bondReads[t];
+			}
+			assertTrue("bond reads: "+total, total <= 2L * bondReads.length);
+			bondReads = null;
+		}
+	}
+
+	private static void runOnSmallStack(Runnable test) throws Throwable {
+		Throwable[] error = new Throwable[1];
+		Thread thread = new Thread(null, () -> {
+			try {
+				test.run();
+			} catch (Throwable e) {
+				error[0] = e;
+			}
+		}, "small-stack", SMALL_STACK);
+		thread.start();
+		thread.join();
+		if(error[0] != null) {
+			throw error[0];
+		}
+	}
+}
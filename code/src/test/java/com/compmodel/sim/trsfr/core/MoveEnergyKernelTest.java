@@ -0,0 +1,170 @@
+package com.compmodel.sim.trsfr.core;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+/**
+ * Batched move energy kernel gives the same levels as Transformer.getEnergyLevel
+ * for chain transformers with 1-2 bonds.
+ * Benchmark of the speedup runs only with -Dbenchmark, e.g. mvn test -Dtest=MoveEnergyKernelTest -Dbenchmark
+ */
+public class MoveEnergyKernelTest extends TestCase {
+	private static final long SEED_CNT = 50;
+	private static final boolean BENCHMARK = System.getProperty("benchmark") != null;
+	private static final int ROUNDS = Integer.getInteger("benchmarkRounds", 30);
+
+	public void testSameLevelsAsTransformer() {
+		for(int dim=2;dim<=4;dim++) {
+			WorldState state = buildChains(dim, 20, 300, new Random(dim));
+			for(int radius=1;radius<=3;radius++) {
+				Stencil stencil = new Stencil(state.getLattice(), radius);
+				MoveEnergyKernel kernel = new MoveEnergyKernel(state.getLattice(), state.getValence(), 1);
+				for(int t=0;t<state.getTrsfCount();t++) {
+					int cnt = stencil.collect(state.getTrsfCell(t));
+					kernel.load(state, t, SEED_CNT);
+					kernel.score(stencil.cells, cnt);
+					Transformer trsf = state.getTransformer(t);
+					for(int i=0;i<cnt;i++) {
+						double expected = trsf.getEnergyLevel(stencil.cells[i], SEED_CNT);
+						assertEquals("dim "+dim+", trsf "+t, expected, kernel.getLevel(i), 0.0);
+						assertEquals("dim "+dim+", trsf "+t, expected, kernel.level(stencil.cells[i]), 0.0);
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Sums over all candidate cells of large worlds agree, with the kernel reloaded for each transformer
+	 */
+	public void testLargeWorlds() {
+		for(int dim=2;dim<=4;dim++) {
+			WorldState state = buildChains(dim, 30, 2000, new Random(dim));
+			for(int radius=1;radius<=3;radius++) {
+				checkSums(state, radius);
+			}
+		}
+	}
+
+	private static void checkSums(WorldState state, int radius) {
+		Stencil stencil = new Stencil(state.getLattice(), radius);
+		MoveEnergyKernel kernel = new MoveEnergyKernel(state.getLattice(), state.getValence(), 1);
+		double scalarSum = 0, batchedSum = 0;
+		for(int t=0;t<state.getTrsfCount();t++) {
+			int cnt = stencil.collect(state.getTrsfCell(t));
+			Transformer trsf = state.getTransformer(t);
+			for(int i=0;i<cnt;i++) {
+				scalarSum += trsf.getEnergyLevel(stencil.cells[i], SEED_CNT);
+			}
+			kernel.load(state, t, SEED_CNT);
+			kernel.score(stencil.cells, cnt);
+			for(int i=0;i<cnt;i++) {
+				batchedSum += kernel.getLevel(i);
+			}
+		}
+		assertEquals(scalarSum, batchedSum, 1e-9 * Math.abs(scalarSum));
+	}
+
+	/**
+	 * Not a pass/fail test, prints time per candidate cell of both paths and the speedup.
+	 * All cases are run twice and printed the second time, when the JIT has compiled both paths.
+	 */
+	public void testBenchmark() {
+		if(!BENCHMARK) {
+			return;
+		}
+		for(int pass=0;pass<2;pass++) {
+			for(int dim=2;dim<=4;dim++) {
+				WorldState state = buildChains(dim, 30, 2000, new Random(dim));
+				for(int radius=1;radius<=3;radius++) {
+					benchmark(state, radius, pass == 1);
+				}
+			}
+		}
+	}
+
+	private static void benchmark(WorldState state, int radius, boolean print) {
+		Stencil stencil = new Stencil(state.getLattice(), radius);
+		int[][] cells = new int[state.getTrsfCount()][];	// collected in advance, only energy is timed
+		long candidates = 0;
+		for(int t=0;t<cells.length;t++) {
+			int cnt = stencil.collect(state.getTrsfCell(t));
+			cells[t] = Arrays.copyOf(stencil.cells, cnt);
+			candidates += cnt;
+		}
+		MoveEnergyKernel kernel = new MoveEnergyKernel(state.getLattice(), state.getValence(), 1);
+		double scalarSum = 0, batchedSum = 0;	// keeps the JIT from dropping the work
+		long scalarNs = 0, batchedNs = 0;
+		for(int round=0;round<ROUNDS;round++) {
+			long startTime = System.nanoTime();
+			for(int t=0;t<cells.length;t++) {
+				Transformer trsf = state.getTransformer(t);
+				for(int cell : cells[t]) {
+					scalarSum += trsf.getEnergyLevel(cell, SEED_CNT);
+				}
+			}
+			long midTime = System.nanoTime();
+			for(int t=0;t<cells.length;t++) {
+				kernel.load(state, t, SEED_CNT);
+				kernel.score(cells[t], cells[t].length);
+				for(int i=0;i<cells[t].length;i++) {
+					batchedSum += kernel.getLevel(i);
+				}
+			}
+			long endTime = System.nanoTime();
+			scalarNs += midTime - startTime;
+			batchedNs += endTime - midTime;
+		}
+		if(print) {
+			candidates *= ROUNDS;
+			System.out.println(String.format("dim=%d, radius=%d: per candidate %.1f ns, batched %.1f ns, speedup %.2f, sums %.6g / %.6g",
+					state.getLattice().getDim(), radius, (double)scalarNs/candidates, (double)batchedNs/candidates,
+					(double)scalarNs/batchedNs, scalarSum, batchedSum));
+		}
+	}
+
+	/**
+	 * Transformers at random cells linked into chains of 2-4 links, so each has 1 or 2 bonds
+	 */
+	private static WorldState buildChains(int dim, int size, int trsfCnt, Random rand) {
+		Lattice lattice = new Lattice(size, dim);
+		WorldState state = new WorldState(lattice, 2, false);
+		for(int t=0;t<trsfCnt;t++) {
+			state.addTransformer(lattice.randomCell(rand), AtomTypeEnum.values()[0], AtomTypeEnum.values()[0]);
+		}
+		int t = 0;
+		while(t < trsfCnt) {
+			int chainEnd = Math.min(trsfCnt, t + 2 + rand.nextInt(3));
+			for(;t+1<chainEnd;t++) {
+				state.addNeighbor(t, t+1, rand.nextInt((int)SEED_CNT));
+				state.setBondActionCnt(state.findBondSlot(t, t+1), 1 + rand.nextInt(20));
+			}
+			t = chainEnd;
+		}
+		return state;
+	}
+
+	private static class Stencil {
+		final RingCursor cursor;
+		final int[] cells;
+		final int radius;
+
+		Stencil(Lattice lattice, int radius) {
+			RingStencil stencil = new RingStencil(lattice.getDim(), radius);
+			this.cursor = new RingCursor(stencil, lattice);
+			this.cells = new int[stencil.getDiskSize(radius)];
+			this.radius = radius;
+		}
+
+		int collect(int center) {
+			int cnt = 0;
+			cursor.resetDisk(center, radius);
+			while(cursor.next()) {
+				cells[cnt++] = cursor.cell();
+			}
+			return cnt;
+		}
+	}
+}
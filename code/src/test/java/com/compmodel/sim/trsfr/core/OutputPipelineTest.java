@@ -0,0 +1,106 @@
+package com.compmodel.sim.trsfr.core;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import com.compmodel.sim.trsfr.core.OutputPipeline.DropPolicy;
+
+import junit.framework.TestCase;
+
+/**
+ * When the queue is full droppable tasks are dropped by the policy, other tasks are never dropped,
+ * ordered tasks run in the order they were submitted.
+ */
+public class OutputPipelineTest extends TestCase {
+	private static final int CAPACITY = 2;
+	private final List<String> ran = Collections.synchronizedList(new ArrayList<String>());
+	private final CountDownLatch started = new CountDownLatch(1);
+	private final CountDownLatch release = new CountDownLatch(1);
+
+	public void testDropNewest() throws Exception {
+		OutputPipeline pipeline = blockedPipeline(DropPolicy.DROP_NEWEST);
+		pipeline.submitDroppable(record("a"));
+		pipeline.submitDroppable(record("b"));
+		pipeline.submitDroppable(record("c"));	// queue is full
+		release.countDown();
+		pipeline.shutdown();
+		assertEquals(1, pipeline.getDroppedCnt());
+		assertEquals(List.of("blocker", "a", "b"), ran);
+	}
+
+	public void testDropOldest() throws Exception {
+		OutputPipeline pipeline = blockedPipeline(DropPolicy.DROP_OLDEST);
+		pipeline.submitDroppable(record("a"));
+		pipeline.submitDroppable(record("b"));
+		pipeline.submitDroppable(record("c"));	// queue is full
+		release.countDown();
+		pipeline.shutdown();
+		assertEquals(1, pipeline.getDroppedCnt());
+		assertEquals(List.of("blocker", "b", "c"), ran);
+	}
+
+	public void testOrderedNeverDropped() throws Exception {
+		OutputPipeline pipeline = blockedPipeline(DropPolicy.DROP_OLDEST);
+		pipeline.submitOrdered(record("o1"));
+		pipeline.submitDroppable(record("a"));
+		pipeline.submitDroppable(record("b"));	// a is dropped, not o1
+		pipeline.submitDroppable(record("c"));	// b is dropped
+		Thread submitter = new Thread(() -> pipeline.submitOrdered(record("o2")));
+		submitter.start();	// waits for a place in the queue
+		submitter.join(200);
+		assertTrue(submitter.isAlive());
+		release.countDown();
+		submitter.join();
+		pipeline.shutdown();
+		assertEquals(2, pipeline.getDroppedCnt());
+		assertEquals(List.of("blocker", "o1", "c", "o2"), ran);
+	}
+
+	public void testNothingToDrop() throws Exception {
+		OutputPipeline pipeline = blockedPipeline(DropPolicy.DROP_OLDEST);
+		pipeline.submitOrdered(record("o1"));
+		pipeline.submitOrdered(record("o2"));
+		pipeline.submitDroppable(record("a"));	// the queue is full of tasks that must run
+		release.countDown();
+		pipeline.shutdown();
+		assertEquals(1, pipeline.getDroppedCnt());
+		assertEquals(List.of("blocker", "o1", "o2"), ran);
+	}
+
+	public void testOrderedTickets() throws Exception {
+		OutputPipeline pipeline = new OutputPipeline(4, 8, DropPolicy.BLOCK);
+		List<String> expected = new ArrayList<String>();
+		for(int i=0;i<1000;i++) {
+			expected.add(Integer.toString(i));
+			pipeline.submitOrdered(record(Integer.toString(i)));
+			pipeline.submit(() -> Thread.yield());	// unordered tasks in between
+		}
+		pipeline.shutdown();
+		assertEquals(0, pipeline.getDroppedCnt());
+		assertEquals(expected, ran);
+	}
+
+	/**
+	 * One worker busy with a task until released, the queue is empty
+	 */
+	private OutputPipeline blockedPipeline(DropPolicy dropPolicy) throws InterruptedException {
+		OutputPipeline pipeline = new OutputPipeline(1, CAPACITY, dropPolicy);
+		pipeline.submit(() -> {
+			ran.add("blocker");
+			started.countDown();
+			try {
+				release.await();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		});
+		started.await();
+		return pipeline;
+	}
+
+	private Runnable record(String name) {
+		return () -> ran.add(name);
+	}
+}
@@ -0,0 +1,73 @@
+package com.compmodel.sim.trsfr.core;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+import junit.framework.TestCase;
+
+/**
+ * With a fixed tile size, parallel turns give the same world for any number of threads,
+ * tiles processed in any order and chains crossing tile borders deferred, persistent ids of chains included.
+ * Serial turns do not use tiles, they give the same world for the same run seed.
+ * Parallel turns in sparse space are rejected when the world is configured.
+ */
+public class ParallelTurnsTest extends TestCase {
+	private static final long RUN_SEED = 42;
+	private static final int SEEDS = 6;
+
+	public void testSameWorldForAnyThreads() throws Exception {
+		long[] expected = runWorld(2);
+		for(int threads : new int[] {2, 3, 4}) {
+			assertTrue("threads: "+threads, Arrays.equals(expected, runWorld(threads)));
+		}
+	}
+
+	public void testSerialReproducible() throws Exception {
+		assertTrue(Arrays.equals(runWorld(1), runWorld(1)));
+	}
+
+	public void testSparseSpaceRejected() {
+		World world = new World();
+		world.setSpace(80, 2, true);
+		try {
+			world.setTurnThreads(4);
+			fail("parallel turns in sparse space");
+		} catch (IllegalArgumentException e) {
+			assertEquals(1, world.getTurnThreads());
+		}
+		world.setSpace(80, 2, false);
+		world.setTurnThreads(4);
+		try {
+			world.setSpace(80, 2, true);
+			fail("sparse space for parallel turns");
+		} catch (IllegalArgumentException e) {
+			assertFalse(world.isSparseSpace());
+		}
+	}
+
+	/**
+	 * @return fingerprint of the world after the run
+	 */
+	private static long[] runWorld(int threads) throws Exception {
+		World world = new World();
+		world.setSpace(80, 2);
+		world.setTrsfrNumber(400);
+		world.setAtomsNumber(1200);
+		world.setRunSeed(RUN_SEED);
+		world.setTurnThreads(threads);
+		world.setTurnTileSize(10);
+		File dir = Files.createTempDirectory("parallel").toFile();
+		world.setFileDir(dir.getPath());
+		world.setMaxFilesCnt(Integer.MAX_VALUE);
+		world.setMaxSeedCnt(SEEDS);
+		world.setSaveShotPeriod(1000);
+		world.setSaveSnapShotPeriod(1000);
+		world.setWorldAnaliticsPeriod(1000);
+		world.setChainAnaliticsPeriod(1000);
+		world.seedTransformers();
+		world.run();
+		dir.delete();
+		return TestStores.fingerprint(world.getState());
+	}
+}
@@ -0,0 +1,155 @@
+package com.compmodel.sim.trsfr.core;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+/**
+ * Partial reseed replaces reseedPct of atomsNumber each seed,
+ * typeQuota adds the types below their quota, patches stay within the patch radius.
+ */
+public class ReseedStrategyTest extends TestCase {
+	private static final int PATCH_RADIUS = 3;
+
+	public void testReseedCount() throws Exception {
+		World world = new World();
+		world.setSpace(50, 2);
+		world.setAtomsNumber(999);
+		world.setReseedPct(7);
+		RecordingReseed strategy = new RecordingReseed();
+		world.setReseedStrategy(strategy);
+		File dir = Files.createTempDirectory("reseed").toFile();
+		world.setFileDir(dir.getPath());
+		world.setMaxFilesCnt(Integer.MAX_VALUE);
+		world.setMaxSeedCnt(4);
+		world.setSaveShotPeriod(1000);
+		world.setSaveSnapShotPeriod(1000);
+		world.setWorldAnaliticsPeriod(1000);
+		world.setChainAnaliticsPeriod(1000);
+		world.run();
+		dir.delete();
+		// the first seed places all atoms, each next one replaces 7% of 999
+		assertEquals(3, strategy.removed.size());
+		for(int i=0;i<strategy.removed.size();i++) {
+			assertEquals(69, strategy.removed.get(i).intValue());
+			assertEquals(69, strategy.added.get(i).intValue());
+		}
+		assertEquals(999, world.getState().getAtomCount());
+	}
+
+	public void testTypeQuota() {
+		World world = new World();
+		world.setSpace(50, 2);
+		world.setAtomsNumber(300);
+		int typeNumber = world.getAtomTypeNumber();
+		for(int i=0;i<300;i++) {
+			world.createRandomAtom(0);
+		}
+		Random rand = new Random(1);
+		TypeQuotaReseed strategy = new TypeQuotaReseed();
+		strategy.removeAtoms(world, 90, rand);
+		assertEquals(210, world.getState().getAtomTypeCount(0));
+		strategy.addAtoms(world, 90, rand);
+		// type 0 is above its quota, the others share the added atoms equally
+		WorldState state = world.getState();
+		assertEquals(210, state.getAtomTypeCount(0));
+		int min = Integer.MAX_VALUE, max = 0, sum = 0;
+		for(int type=1;type<typeNumber;type++) {
+			min = Math.min(min, state.getAtomTypeCount(type));
+			max = Math.max(max, state.getAtomTypeCount(type));
+			sum += state.getAtomTypeCount(type);
+		}
+		assertEquals(90, sum);
+		assertTrue(max - min <= 1);
+	}
+
+	public void testPatchesRemove() {
+		World world = new World();
+		world.setSpace(20, 2);
+		world.setAtomsNumber(400);
+		for(int i=0;i<400;i++) {
+			world.createRandomAtom();	// every cell is taken
+		}
+		Random rand = new Random(2);
+		for(int round=0;round<20;round++) {
+			List<Integer> before = atomCells(world);
+			new PatchReseed(PATCH_RADIUS).removeAtoms(world, 10, rand);
+			HashSet<Integer> after = new HashSet<Integer>(atomCells(world));
+			List<Integer> removed = new ArrayList<Integer>();
+			for(int cell : before) {
+				if(!after.contains(cell)) {
+					removed.add(cell);
+				}
+			}
+			assertEquals(10, removed.size());
+			assertWithinPatch(world.getLattice(), removed);
+			// fill the hole again
+			for(int i=0;i<10;i++) {
+				world.createRandomAtom();
+			}
+		}
+	}
+
+	public void testPatchesAdd() {
+		Random rand = new Random(3);
+		for(int round=0;round<20;round++) {
+			World world = new World();
+			world.setSpace(20, 2);
+			new PatchReseed(PATCH_RADIUS).addAtoms(world, 10, rand);
+			List<Integer> added = atomCells(world);
+			assertEquals(10, added.size());
+			assertWithinPatch(world.getLattice(), added);
+		}
+	}
+
+	/**
+	 * Fewer cells than the smallest patch clipped by the border, so they come from one patch:
+	 * some cell, the center, is within the radius from all of them
+	 */
+	private static void assertWithinPatch(Lattice lattice, List<Integer> cells) {
+		for(int center : cells) {
+			boolean all = true;
+			for(int cell : cells) {
+				all &= lattice.distance(center, cell) <= PATCH_RADIUS;
+			}
+			if(all) {
+				return;
+			}
+		}
+		fail("cells are not within one patch: "+cells);
+	}
+
+	private static List<Integer> atomCells(World world) {
+		List<Integer> cells = new ArrayList<Integer>();
+		for(int a=0;a<world.getState().getAtomCount();a++) {
+			cells.add(world.getState().getAtomCell(a));
+		}
+		return cells;
+	}
+
+	/**
+	 * Uniform reseed that records the numbers of atoms replaced
+	 */
+	private static class RecordingReseed extends UniformReseed {
+		private static final long serialVersionUID = 1L;
+		final List<Integer> removed = new ArrayList<Integer>();
+		final List<Integer> added = new ArrayList<Integer>();
+
+		@Override
+		public void removeAtoms(World world, int count, Random rand) {
+			removed.add(count);
+			super.removeAtoms(world, count, rand);
+		}
+
+		@Override
+		public void addAtoms(World world, int count, Random rand) {
+			added.add(count);
+			super.addAtoms(world, count, rand);
+		}
+	}
+}
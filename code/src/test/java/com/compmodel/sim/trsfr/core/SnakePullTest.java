@@ -0,0 +1,136 @@
+package com.compmodel.sim.trsfr.core;
+
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+/**
+ * Snake pull gives the same grid, with the same order of free cells, as moving the links one by one from the end,
+ * bonds of pulled links are not changed, long chains are pulled without recursion.
+ */
+public class SnakePullTest extends TestCase {
+	private static final int SIZE = 1000;
+	private static final int LONG_CHAIN = 100000;
+
+	public void testSameGridAsSequentialMoves() {
+		Fixture f = new Fixture(2);
+		int length = 500;
+		f.addLine(length, 10, 10);
+		for(int t=1;t<length;t++) {
+			f.state.setBondActionCnt(f.state.findBondSlot(t - 1, t), t);
+		}
+		CellIndex expected = f.grid.copy();
+		int[] oldCells = new int[length];
+		for(int t=0;t<length;t++) {
+			oldCells[t] = f.state.getTrsfCell(t);
+		}
+		int newCell = f.lattice.cell(10, 11);
+		assertEquals(length, f.pull.load(f.state, 0, newCell, 1));
+		assertEquals(length - 1, f.pull.getTail());
+		assertEquals(oldCells[length - 2], f.pull.getTailCell());
+		f.pull.commit(f.state, f.grid);
+		// previous pull: the end first, each link to the old cell of the previous one
+		expected.move(oldCells[0], newCell);
+		for(int t=1;t<length;t++) {
+			expected.move(oldCells[t], oldCells[t - 1]);
+		}
+		assertEquals(newCell, f.state.getTrsfCell(0));
+		for(int t=1;t<length;t++) {
+			assertEquals(oldCells[t - 1], f.state.getTrsfCell(t));
+			int slot = f.state.findBondSlot(t - 1, t);
+			assertEquals(t, f.state.getBondActionCnt(slot));
+			assertEquals(0, f.state.getBondCreatedSeedCnt(slot));
+		}
+		for(int cell=0;cell<f.lattice.getCellCount();cell++) {
+			assertEquals(expected.get(cell), f.grid.get(cell));
+		}
+		assertEquals(expected.getFreeCount(), f.grid.getFreeCount());
+		Random rand1 = new Random(1);
+		Random rand2 = new Random(1);
+		for(int i=0;i<1000;i++) {
+			assertEquals(expected.randomFree(rand1), f.grid.randomFree(rand2));
+		}
+	}
+
+	public void testStopsAtCloseLink() {
+		Fixture f = new Fixture(2);
+		f.addLine(10, 10, 10);
+		// with longer bonds the next link is still close to the moved end
+		assertEquals(1, f.pull.load(f.state, 0, f.lattice.cell(9, 10), 2));
+		assertEquals(0, f.pull.getTail());
+		assertEquals(f.lattice.cell(9, 10), f.pull.getTailCell());
+	}
+
+	public void testStopsAtBranch() {
+		Fixture f = new Fixture(3);
+		f.addLine(3, 10, 10);
+		int branch1 = f.addTransformer(12, 11);
+		int branch2 = f.addTransformer(13, 10);
+		f.state.addNeighbor(2, branch1, 0);
+		f.state.addNeighbor(2, branch2, 0);
+		assertEquals(3, f.pull.load(f.state, 0, f.lattice.cell(10, 11), 1));
+		assertEquals(2, f.pull.getTail());
+		assertEquals(f.lattice.cell(11, 10), f.pull.getTailCell());
+		f.pull.commit(f.state, f.grid);
+		assertEquals(f.lattice.cell(12, 11), f.state.getTrsfCell(branch1));
+		assertEquals(WorldState.NONE, f.grid.get(f.lattice.cell(12, 10)));
+		// branches are torn off by the world, not by the pull
+		assertTrue(f.state.hasNeighbor(2, branch1));
+		assertTrue(f.state.hasNeighbor(2, branch2));
+	}
+
+	public void testLongChain() {
+		Fixture f = new Fixture(2);
+		int row = 500;
+		for(int t=0;t<LONG_CHAIN;t++) {
+			// rows two cells apart, joined at alternate ends
+			int r = t / (row + 1);
+			int k = t % (row + 1);
+			boolean forward = r % 2 == 0;
+			if(k < row) {
+				f.addTransformer(forward ? 10 + k : 10 + row - 1 - k, 10 + 2 * r);
+			}else {
+				f.addTransformer(forward ? 10 + row - 1 : 10, 11 + 2 * r);
+			}
+			if(t > 0) {
+				f.state.addNeighbor(t - 1, t, 0);
+			}
+		}
+		assertEquals(LONG_CHAIN, f.pull.load(f.state, 0, f.lattice.cell(9, 10), 1));
+		f.pull.commit(f.state, f.grid);
+		for(int t=0;t<LONG_CHAIN;t++) {
+			assertEquals(t, f.grid.get(f.state.getTrsfCell(t)));
+		}
+	}
+
+	private static class Fixture {
+		final Lattice lattice = new Lattice(SIZE, 2);
+		final WorldState state;
+		final CellIndex grid = new CellGrid(lattice, 0);
+		final SnakePull pull = new SnakePull();
+
+		Fixture(int valence) {
+			state = new WorldState(lattice, valence, false);
+		}
+
+		/**
+		 * Chain of bonded transformers along x axis, the first one is the end
+		 */
+		void addLine(int length, int x0, int y) {
+			int first = state.getTrsfCount();
+			for(int i=0;i<length;i++) {
+				addTransformer(x0 + i, y);
+				if(i > 0) {
+					state.addNeighbor(first + i - 1, first + i, 0);
+				}
+			}
+		}
+
+		int addTransformer(int x, int y) {
+			int cell = lattice.cell(x, y);
+			int t = state.addTransformer(cell, AtomTypeEnum.values()[0], AtomTypeEnum.values()[0]);
+			grid.set(cell, t);
+			return t;
+		}
+	}
+}
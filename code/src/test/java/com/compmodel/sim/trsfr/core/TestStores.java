@@ -0,0 +1,63 @@
+package com.compmodel.sim.trsfr.core;
+
+import junit.framework.Assert;
+
+/**
+ * Stores of transformers and world fingerprints shared by the tests
+ */
+final class TestStores {
+
+	private TestStores() {
+	}
+
+	/**
+	 * Transformers at cells 0..trsfCount-1 of a 100x100 space, all transforming the first atom type into itself,
+	 * so an atom can be transformed again and again
+	 */
+	static WorldState buildStore(int trsfCount, int valence) {
+		WorldState state = new WorldState(new Lattice(100, 2), valence, false);
+		for(int t=0;t<trsfCount;t++) {
+			state.addTransformer(t, AtomTypeEnum.values()[0], AtomTypeEnum.values()[0]);
+		}
+		return state;
+	}
+
+	/**
+	 * @return cells, bonds, chain ids and atoms of the world, and the genealogy events
+	 */
+	static long[] fingerprint(WorldState state) {
+		int valence = state.getValence();
+		ChainGenealogy genealogy = state.getChainGenealogy();
+		long[] fingerprint = new long[state.getTrsfCount() * (2 + 3 * valence) + 2 * state.getAtomCount()
+				+ 3 * (int)genealogy.getEventCount()];
+		int i = 0;
+		for(int t=0;t<state.getTrsfCount();t++) {
+			fingerprint[i++] = state.getTrsfCell(t);
+			Assert.assertTrue(state.getChainUid(t) >= WorldState.NONE);	// no provisional ids left
+			fingerprint[i++] = state.getChainUid(t);
+			for(int k=0;k<valence;k++) {
+				if(k < state.getBondCnt(t)) {
+					int slot = state.getBondSlot(t, k);
+					fingerprint[i++] = state.getBondNeighbor(slot);
+					fingerprint[i++] = state.getBondActionCnt(slot);
+					fingerprint[i++] = state.getBondCreatedSeedCnt(slot);
+				}else {
+					fingerprint[i++] = WorldState.NONE;
+					i += 2;
+				}
+			}
+		}
+		for(int a=0;a<state.getAtomCount();a++) {
+			fingerprint[i++] = state.getAtomCell(a);
+			fingerprint[i++] = state.getAtom(a).getType().ordinal();
+		}
+		Assert.assertTrue(genealogy.getEventCount() <= ChainGenealogy.EVENT_LOG_SIZE);
+		for(long e=0;e<genealogy.getEventCount();e++) {
+			fingerprint[i++] = genealogy.getEventType(e) + 4 * genealogy.getEventSeed(e);
+			fingerprint[i++] = genealogy.getEventChain(e);
+			fingerprint[i++] = genealogy.getEventOther(e);
+		}
+		return fingerprint;
+	}
+}
+
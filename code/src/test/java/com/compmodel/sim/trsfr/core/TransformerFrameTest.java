@@ -0,0 +1,35 @@
+package com.compmodel.sim.trsfr.core;
+
+import java.awt.image.BufferedImage;
+
+import junit.framework.TestCase;
+
+/**
+ * Frames are captured and rendered in spaces of any dimension.
+ */
+public class TransformerFrameTest extends TestCase {
+
+	public void testLine() {
+		checkRender(new Lattice(50, 1));
+	}
+
+	public void testPlane() {
+		checkRender(new Lattice(50, 2));
+	}
+
+	public void testCube() {
+		checkRender(new Lattice(20, 3));
+	}
+
+	private static void checkRender(Lattice lattice) {
+		WorldState state = new WorldState(lattice, 2, false);
+		AtomTypeEnum type = AtomTypeEnum.values()[0];
+		for(int t=0;t<10;t++) {
+			state.addTransformer(lattice.getCellCount() - 1 - 3 * t, type, type);
+			state.addAtom(3 * t, type);
+		}
+		state.addNeighbor(0, 1, 0);
+		BufferedImage image = new TransformerFrame(state, "title", "frame", true).render();
+		assertTrue(image.getWidth() > 0);
+	}
+}
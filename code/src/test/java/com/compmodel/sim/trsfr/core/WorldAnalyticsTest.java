@@ -0,0 +1,54 @@
+package com.compmodel.sim.trsfr.core;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+/**
+ * World statistics of every analytics seed are available after the run,
+ * background analytics give the same statistics as inline ones.
+ */
+public class WorldAnalyticsTest extends TestCase {
+	private static final int SEEDS = 8;
+
+	public void testBackgroundSameAsInline() throws Exception {
+		List<String> inline = runWorld(true);
+		List<String> background = runWorld(false);
+		assertEquals(SEEDS, inline.size());
+		assertEquals(inline, background);
+	}
+
+	/**
+	 * @return world statistics after the run, one line per seed
+	 */
+	private static List<String> runWorld(boolean inlineAnalytics) throws Exception {
+		World world = new World();
+		world.setSpace(50, 2);
+		world.setTrsfrNumber(300);
+		world.setAtomsNumber(800);
+		world.setRunSeed(7);
+		world.setInlineAnalytics(inlineAnalytics);
+		File dir = Files.createTempDirectory("analytics").toFile();
+		world.setFileDir(dir.getPath());
+		world.setMaxFilesCnt(Integer.MAX_VALUE);
+		world.setMaxSeedCnt(SEEDS);
+		world.setSaveShotPeriod(1000);
+		world.setSaveSnapShotPeriod(1000);
+		world.setWorldAnaliticsPeriod(1);
+		world.setChainAnaliticsPeriod(2);	// both with and without chains extracted
+		world.seedTransformers();
+		world.run();
+		// file names are joined with a backslash, on other systems the files are next to the dir
+		for(File file : dir.getParentFile().listFiles((parent, name) -> name.startsWith(dir.getName()))) {
+			file.delete();
+		}
+		List<String> lines = new ArrayList<String>();
+		for(WorldStatsSummary stats : world.getWorldStats()) {
+			lines.add(stats.toCsv());
+		}
+		return lines;
+	}
+}